@@ -20,6 +20,9 @@ import java.util.*;
  * AssocDB provides MURSIW (multiple readers single writer) isolation model.
  * It means that only one transaction can update the database at each moment of time, but multiple transactions
  * can concurrently read it.
+ * Alternatively, updates can be performed by concurrent read-write transactions using optimistic concurrency control:
+ * such transactions are executed in parallel with each other and with read-only transactions and 
+ * conflicts between them are detected at commit time.
  */
 public class AssocDB 
 {
@@ -46,6 +49,23 @@ public class AssocDB
         return new ReadWriteTransaction(this);         
     }
 
+    /**
+     * Start concurrent read write transaction.
+     * Unlike transaction started by <code>startReadWriteTransaction</code>, concurrent transaction doesn't 
+     * block other transactions: it collects updates and applies them to the database only at commit time.
+     * So many concurrent transactions can update disjoint sets of items in parallel and read-only transactions 
+     * are not blocked while updates are prepared. 
+     * If some item updated by concurrent transaction was changed by another transaction committed after 
+     * start of this transaction, then <code>ConflictException</code> is thrown by commit.
+     * Concurrent transaction doesn't hold database lock while it is active: shared lock is set only during
+     * execution of its search methods and exclusive lock - during commit.
+     * @return transaction object
+     */ 
+    public ConcurrentReadWriteTransaction startConcurrentReadWriteTransaction()
+    {
+        return new ConcurrentReadWriteTransaction(this);         
+    }
+
     /**
      * Set threshold for embedded relations.
      * AssocDB supports small relations (tens of members) as well as very large relation (millions of members).
@@ -63,6 +83,20 @@ public class AssocDB
         return oldThreshold;
     }
 
+    /**
+     * Set limit for estimation of predicate selectivity.
+     * To choose order of evaluation of conjuncts of AND predicate, AssocDB estimates number of items selected by each conjunct
+     * by counting index entries. Counting stops after reaching this limit, so all conjuncts selecting more items 
+     * than this limit are considered as equally non-selective.
+     * @param newLimit new limit value
+     * @return old limit value 
+     */
+    public int setSelectivityEstimateLimit(int newLimit) { 
+        int oldLimit = selectivityEstimateLimit;
+        selectivityEstimateLimit = newLimit;
+        return oldLimit;
+    }
+
     /**
      * AssocDB constructor. You should open and close storage yourself. You are free to set some storage properties, 
      * storage listener and use some other storage administrative methods  like backup.
@@ -77,6 +111,7 @@ public class AssocDB
     {
         this.storage = storage;
         embeddedRelationThreshold = DEFAULT_EMBEDDED_RELATION_THRESHOLD;
+        selectivityEstimateLimit = DEFAULT_SELECTIVITY_ESTIMATE_LIMIT;
         language = DEFAULT_DOCUMENT_LANGUAGE;
         root = (Root)storage.getRoot();
         name2id = new HashMap<String,Integer>();
@@ -114,6 +149,71 @@ public class AssocDB
         root.unlock();
     }
 
+    void sharedLock() 
+    { 
+        root.sharedLock();
+    }
+
+    void exclusiveLock() 
+    { 
+        root.exclusiveLock();
+    }
+
+    synchronized boolean hasConcurrentTransactions() 
+    { 
+        return !activeTransactions.isEmpty();
+    }
+
+    synchronized long beginConcurrentTransaction() 
+    {
+        Integer n = activeTransactions.get(commitSeqNo);
+        activeTransactions.put(commitSeqNo, n == null ? 1 : n + 1);
+        return commitSeqNo;
+    }
+
+    synchronized void endConcurrentTransaction(long startSeqNo) 
+    {
+        int n = activeTransactions.get(startSeqNo);
+        if (n == 1) { 
+            activeTransactions.remove(startSeqNo);
+        } else { 
+            activeTransactions.put(startSeqNo, n - 1);
+        }
+        if (activeTransactions.isEmpty()) { 
+            modifiedItems.clear();
+        } else { 
+            // changes committed before start of the oldest active transaction can not cause conflicts any more
+            long oldest = activeTransactions.firstKey();
+            Iterator<Long> iterator = modifiedItems.values().iterator();
+            while (iterator.hasNext()) { 
+                if (iterator.next() <= oldest) { 
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    synchronized void markModified(Set<Integer> oids) 
+    { 
+        if (!activeTransactions.isEmpty()) { 
+            commitSeqNo += 1;
+            for (Integer oid : oids) { 
+                modifiedItems.put(oid, commitSeqNo);
+            }
+        }
+    }
+
+    synchronized int findConflict(Set<Integer> oids, long startSeqNo) 
+    {
+        for (Integer oid : oids) { 
+            Long seqNo = modifiedItems.get(oid);
+            if (seqNo != null && seqNo > startSeqNo) { 
+                return oid;
+            }
+        }
+        return 0;
+    }
+
     /**
      * Storage root class - used internally by AssocDB.
      * You can provide your own root class derived from Root by overriding AssocDB.createRoot method
@@ -132,7 +232,7 @@ public class AssocDB
             super(db.storage);
             this.db = db;
             attributes = db.storage.<Index<Item>>createIndex(String.class, true);
-            relations = db.storage.<Item>createIndex(Long.class, false);
+            relations = db.storage.<Item>createIndex(long.class, false);
             fullTextIndex = db.createFullTextIndex();
         }
     }
@@ -181,6 +281,11 @@ public class AssocDB
      */
     public static int DEFAULT_EMBEDDED_RELATION_THRESHOLD = 100;
 
+    /**
+     * Default limit for estimation of predicate selectivity
+     */
+    public static int DEFAULT_SELECTIVITY_ESTIMATE_LIMIT = 10000;
+
     /**
      * Default document's language (used for full text search)
      */
@@ -191,5 +296,10 @@ public class AssocDB
     protected Map<String,Integer> name2id;
     protected Map<Integer,String> id2name;
     protected int embeddedRelationThreshold;
+    protected int selectivityEstimateLimit;
     protected String language;
+
+    private long commitSeqNo;
+    private TreeMap<Long,Integer> activeTransactions = new TreeMap<Long,Integer>();
+    private HashMap<Integer,Long> modifiedItems = new HashMap<Integer,Long>();
 }
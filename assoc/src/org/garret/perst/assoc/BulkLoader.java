@@ -0,0 +1,309 @@
+package org.garret.perst.assoc;
+
+import org.garret.perst.*;
+import java.util.*;
+
+/**
+ * Loader of large number of items.
+ * Loader is created by <code>ReadWriteTransaction.createBulkLoader</code> method.
+ * Attributes of added items are stored in the items immediately, but insertion of attribute values in indices,
+ * maintenance of inverse links and full text indexing of items are deferred until loader is flushed.
+ * Flush sorts buffered index entries of each attribute by key and inserts them in this order,
+ * so that each index is updated sequentially, and then includes items in full text index in batch mode.
+ * Loader is automatically flushed when number of buffered entries reaches buffer size and when
+ * transaction is committed. Until loader is flushed, added items are not visible for search.
+ */
+public class BulkLoader
+{
+    /**
+     * Create new item with specified attributes.
+     * @param attributes name-value pairs. Value can be String, Number or Item or array of them
+     * (in the last case attribute is associated with all elements of array). Items can refer to items
+     * previously added by this loader.
+     * @return created item
+     */
+    public Item add(Pair[] attributes)
+    {
+        t.checkIfActive();
+        ArrayList<Field> strings = new ArrayList<Field>();
+        ArrayList<Field> numbers = new ArrayList<Field>();
+        ArrayList<Field> links = new ArrayList<Field>();
+        for (int i = 0; i < attributes.length; i++) { 
+            String name = attributes[i].name;
+            Object value = attributes[i].value;
+            if (value instanceof String) { 
+                strings.add(new Field(t.getIndex(name, String.class).getOid(), value));
+            } else if (value instanceof Number) { 
+                numbers.add(new Field(t.getIndex(name, double.class).getOid(), Double.valueOf(((Number)value).doubleValue())));
+            } else if (value instanceof Item) { 
+                t.checkIfNotInverseLink(name);
+                t.db.storage.makePersistent(value);
+                links.add(new Field(t.getIndex(name, Object.class).getOid(), value));
+            } else if (value instanceof String[]) { 
+                int id = t.getIndex(name, String.class).getOid();
+                for (String s : (String[])value) { 
+                    strings.add(new Field(id, s));
+                }
+            } else if (value instanceof double[]) { 
+                int id = t.getIndex(name, double.class).getOid();
+                for (double d : (double[])value) { 
+                    numbers.add(new Field(id, Double.valueOf(d)));
+                }
+            } else if (value instanceof Item[]) { 
+                t.checkIfNotInverseLink(name);
+                int id = t.getIndex(name, Object.class).getOid();
+                for (Item target : (Item[])value) { 
+                    t.db.storage.makePersistent(target);
+                    links.add(new Field(id, target));
+                }
+            } else { 
+                throw new IllegalArgumentException("Unsupported type of attribute " + name + ": " + value.getClass());
+            }
+        }
+        // stable sort preserves order of values with the same name
+        Collections.sort(strings);
+        Collections.sort(numbers);
+        Collections.sort(links);
+
+        Item item = t.createItem();
+        int nStrings = strings.size();
+        int nNumbers = numbers.size();
+        int nLinks = links.size();
+        boolean embedded = nLinks <= t.db.embeddedRelationThreshold;
+        int[] fieldIds = new int[nStrings + nNumbers + (embedded ? nLinks : 0)];
+        String[] stringFields = new String[nStrings];
+        double[] numericFields = new double[nNumbers];
+        int oid = t.db.storage.makePersistent(item);
+        for (int i = 0; i < nStrings; i++) { 
+            Field f = strings.get(i);
+            fieldIds[i] = f.id;
+            stringFields[i] = (String)f.value;
+            buffer(f.id, ((String)f.value).toLowerCase(), item);
+        }
+        for (int i = 0; i < nNumbers; i++) { 
+            Field f = numbers.get(i);
+            fieldIds[nStrings + i] = f.id;
+            numericFields[i] = ((Double)f.value).doubleValue();
+            buffer(f.id, f.value, item);
+        }
+        for (int i = 0; i < nLinks; i++) { 
+            Field f = links.get(i);
+            Item target = (Item)f.value;
+            if (embedded) { 
+                fieldIds[nStrings + nNumbers + i] = f.id;
+                item.relations.add(target);
+            } else { 
+                relations.add(new Entry(Long.valueOf(((long)oid << 32) | f.id), target));
+            }
+            buffer(f.id, target, item);
+            ArrayList<Field> inverse = inverseLinks.get(target);
+            if (inverse == null) { 
+                inverse = new ArrayList<Field>();
+                inverseLinks.put(target, inverse);
+            }
+            inverse.add(new Field(f.id, item));
+            nBufferedEntries += 1;
+        }
+        if (!embedded) { 
+            item.relations = null;
+        }
+        item.fieldIds = fieldIds;
+        item.stringFields = stringFields;
+        item.numericFields = numericFields;
+        t.modify(item);
+        if (nBufferedEntries >= bufferSize) { 
+            flush();
+        }
+        return item;
+    }
+
+    /**
+     * Include all string attributes of the item in full text index.
+     * Indexing is performed when loader is flushed.
+     * @param item item included in full text index
+     */
+    public void includeInFullTextIndex(Item item)
+    {
+        includeInFullTextIndex(item, null);
+    }
+
+    /**
+     * Include specified attributes of the item in full text index.
+     * Indexing is performed when loader is flushed.
+     * @param item item included in full text index
+     * @param attributeNames attributes to be included in full text index
+     */
+    public void includeInFullTextIndex(Item item, String[] attributeNames)
+    {
+        t.checkIfActive();
+        fullTextItems.add(new Entry(attributeNames, item));
+        nBufferedEntries += 1;
+        if (nBufferedEntries >= bufferSize) { 
+            flush();
+        }
+    }
+
+    /**
+     * Insert all buffered entries in indices, add inverse links to target items and
+     * include items in full text index.
+     */
+    @SuppressWarnings("unchecked")
+    public void flush()
+    {
+        t.checkIfActive();
+        for (Map.Entry<Item,ArrayList<Field>> e : inverseLinks.entrySet()) { 
+            addInverseLinks(e.getKey(), e.getValue());
+        }
+        inverseLinks.clear();
+
+        for (Map.Entry<Integer,ArrayList<Entry>> e : entries.entrySet()) { 
+            Index<Item> index = (Index<Item>)t.db.storage.getObjectByOID(e.getKey().intValue());
+            ArrayList<Entry> list = e.getValue();
+            Entry[] arr = list.toArray(new Entry[list.size()]);
+            Arrays.sort(arr);
+            for (int i = 0; i < arr.length; i++) { 
+                Object key = arr[i].key;
+                index.put((key instanceof String) ? new Key((String)key) 
+                          : (key instanceof Double) ? new Key(((Double)key).doubleValue()) : new Key((Item)key), arr[i].item);
+            }
+        }
+        entries.clear();
+
+        Entry[] arr = relations.toArray(new Entry[relations.size()]);
+        Arrays.sort(arr);
+        for (int i = 0; i < arr.length; i++) { 
+            t.db.root.relations.put(new Key(((Long)arr[i].key).longValue()), arr[i].item);
+        }
+        relations.clear();
+
+        if (fullTextItems.size() != 0) { 
+            t.db.root.fullTextIndex.setBufferSize(bufferSize);
+            for (Entry e : fullTextItems) { 
+                if (e.key == null) { 
+                    t.includeInFullTextIndex(e.item);
+                } else { 
+                    t.includeInFullTextIndex(e.item, (String[])e.key);
+                }
+            }
+            t.db.root.fullTextIndex.setBufferSize(0);
+            fullTextItems.clear();
+        }
+        nBufferedEntries = 0;
+    }
+
+    /**
+     * Add inverse links to the target item. Links are merged with existed relations of the item in one pass.
+     */
+    private void addInverseLinks(Item target, ArrayList<Field> links)
+    {
+        int n = links.size();
+        for (int i = 0; i < n; i++) { 
+            Field f = links.get(i);
+            String name = t.db.id2name.get(f.id);
+            Index<Item> index = t.getIndex("-" + name, Object.class);
+            buffer(index.getOid(), f.value, target);
+            f.id = index.getOid();
+        }
+        Collections.sort(links);
+        int nStrings = target.stringFields.length;
+        int nNumbers = target.numericFields.length;
+        if (target.relations != null && target.relations.size() + n > t.db.embeddedRelationThreshold) { 
+            int j = nStrings + nNumbers;
+            for (int i = 0, nRelations = target.relations.size(); i < nRelations; i++) { 
+                t.addRelation(target, target.fieldIds[i+j], target.relations.get(i));
+            }
+            target.fieldIds = Array.truncate(target.fieldIds, j);
+            target.relations = null;
+        }
+        if (target.relations != null) { 
+            int offs = nStrings + nNumbers;
+            int nRelations = target.relations.size();
+            int[] fieldIds = new int[offs + nRelations + n];
+            System.arraycopy(target.fieldIds, 0, fieldIds, 0, offs);
+            for (int i = 0, j = 0, k = offs; i < nRelations || j < n; k++) { 
+                if (j == n || (i < nRelations && target.fieldIds[offs + i] <= links.get(j).id)) { 
+                    fieldIds[k] = target.fieldIds[offs + i++];
+                } else { 
+                    Field f = links.get(j++);
+                    fieldIds[k] = f.id;
+                    target.relations.insert(k - offs, (Item)f.value);
+                }
+            }
+            target.fieldIds = fieldIds;
+        } else { 
+            long oid = target.getOid();
+            for (int i = 0; i < n; i++) { 
+                Field f = links.get(i);
+                relations.add(new Entry(Long.valueOf((oid << 32) | f.id), (Item)f.value));
+            }
+        }
+        t.modify(target);
+    }
+
+    private void buffer(int id, Object key, Item item)
+    {
+        Integer attr = Integer.valueOf(id);
+        ArrayList<Entry> list = entries.get(attr);
+        if (list == null) { 
+            list = new ArrayList<Entry>();
+            entries.put(attr, list);
+        }
+        list.add(new Entry(key, item));
+        nBufferedEntries += 1;
+    }
+
+    static class Field implements Comparable<Field>
+    {
+        int    id;
+        Object value;
+
+        Field(int id, Object value) {
+            this.id = id;
+            this.value = value;
+        }
+
+        public int compareTo(Field f) {
+            return id < f.id ? -1 : id == f.id ? 0 : 1;
+        }
+    }
+
+    static class Entry implements Comparable<Entry>
+    {
+        Object key;
+        Item   item;
+
+        Entry(Object key, Item item) {
+            this.key = key;
+            this.item = item;
+        }
+
+        @SuppressWarnings("unchecked") // keys of entries of the same index have the same type
+        public int compareTo(Entry e) {
+            if (key instanceof Item) { 
+                int oid1 = ((Item)key).getOid();
+                int oid2 = ((Item)e.key).getOid();
+                return oid1 < oid2 ? -1 : oid1 == oid2 ? 0 : 1;
+            }
+            return ((Comparable<Object>)key).compareTo(e.key);
+        }
+    }
+
+    /**
+     * Default maximal number of buffered entries
+     */
+    public static int DEFAULT_BUFFER_SIZE = 100000;
+
+    private ReadWriteTransaction t;
+    private int bufferSize;
+    private int nBufferedEntries;
+    private HashMap<Integer,ArrayList<Entry>> entries = new HashMap<Integer,ArrayList<Entry>>();
+    private HashMap<Item,ArrayList<Field>> inverseLinks = new HashMap<Item,ArrayList<Field>>();
+    private ArrayList<Entry> relations = new ArrayList<Entry>();
+    private ArrayList<Entry> fullTextItems = new ArrayList<Entry>();
+
+    BulkLoader(ReadWriteTransaction t, int bufferSize)
+    {
+        this.t = t;
+        this.bufferSize = bufferSize;
+    }
+}
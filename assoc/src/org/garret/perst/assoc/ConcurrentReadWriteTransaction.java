@@ -0,0 +1,484 @@
+package org.garret.perst.assoc;
+
+import org.garret.perst.*;
+import org.garret.perst.fulltext.*;
+import java.util.*;
+
+/**
+ * Concurrent read-write transaction.
+ * This transaction uses optimistic concurrency control: it doesn't block other transactions while it is active.
+ * Update methods do not change the database immediately: them are recorded and performed at commit time.
+ * Commit waits until completion of active read-only transactions, checks that items updated by this transaction
+ * were not changed by other transactions committed after start of this transaction, applies recorded updates
+ * and commits the storage. If conflict is detected, then transaction is rolled back and <code>ConflictException</code> is thrown,
+ * so application can restart the transaction.
+ *
+ * Concurrent transaction doesn't lock the database while it is active: search methods set shared lock only
+ * for the time of their execution and return materialized results. So commit of one concurrent transaction
+ * doesn't wait for completion of other concurrent transactions. But it means that attributes of items, accessed
+ * through methods of <code>Item</code> class, can be changed by commit of another transaction at the same moment.
+ * To read items consistently, enclose access to them in <code>beginRead()</code> and <code>endRead()</code>.
+ *
+ * As far as updates are deferred, search methods of this transaction do not see changes made by it and
+ * methods which return result of update (<code>linkAt</code>, <code>updateAt</code>, <code>unlink</code>,...)
+ * can not know it in advance: them always return <code>true</code> (or 1 for methods returning number of removed associations).
+ *
+ * Transaction should be explicitly started by correspondent method of AssocDB and then it has to be either committed,
+ * either aborted. In any case, it can not be used any more after commit or rollback - you should start another transaction.
+ */
+public class ConcurrentReadWriteTransaction extends ReadWriteTransaction
+{
+    public void link(final Item item, final String name, final String value)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.link(item, name, value);
+            }
+        });
+    }
+
+    public boolean linkAt(final Item item, final String name, final String value, final int position)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.linkAt(item, name, value, position);
+            }
+        });
+        return true;
+    }
+
+    public void link(final Item item, final String name, final double value)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.link(item, name, value);
+            }
+        });
+    }
+
+    public boolean linkAt(final Item item, final String name, final double value, final int position)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.linkAt(item, name, value, position);
+            }
+        });
+        return true;
+    }
+
+    public void link(final Item item, final String name, String[] values)
+    {
+        final String[] copy = values.clone();
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.link(item, name, copy);
+            }
+        });
+    }
+
+    public void link(final Item item, final String name, double[] values)
+    {
+        final double[] copy = values.clone();
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.link(item, name, copy);
+            }
+        });
+    }
+
+    public void link(final Item item, final String name, final Item target)
+    {
+        checkIfNotInverseLink(name);
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.link(item, name, target);
+            }
+        });
+    }
+
+    public boolean linkAt(final Item item, final String name, final Item target, final int position)
+    {
+        checkIfNotInverseLink(name);
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.linkAt(item, name, target, position);
+            }
+        });
+        return true;
+    }
+
+    public void link(final Item item, final String name, Item[] targets)
+    {
+        checkIfNotInverseLink(name);
+        final Item[] copy = targets.clone();
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.link(item, name, copy);
+            }
+        });
+    }
+
+    public void update(final Item item, final String name, final String value)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.update(item, name, value);
+            }
+        });
+    }
+
+    public boolean updateAt(final Item item, final String name, final String value, final int position)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.updateAt(item, name, value, position);
+            }
+        });
+        return true;
+    }
+
+    public void update(final Item item, final String name, final double value)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.update(item, name, value);
+            }
+        });
+    }
+
+    public boolean updateAt(final Item item, final String name, final double value, final int position)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.updateAt(item, name, value, position);
+            }
+        });
+        return true;
+    }
+
+    public boolean updateAt(final Item item, final String name, final Item target, final int position)
+    {
+        checkIfNotInverseLink(name);
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.updateAt(item, name, target, position);
+            }
+        });
+        return true;
+    }
+
+    public boolean unlink(final Item item, final String name, final String value)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.unlink(item, name, value);
+            }
+        });
+        return true;
+    }
+
+    public boolean unlink(final Item item, final String name, final double value)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.unlink(item, name, value);
+            }
+        });
+        return true;
+    }
+
+    public boolean unlink(final Item item, final String name, final Item target)
+    {
+        checkIfNotInverseLink(name);
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.unlink(item, name, target);
+            }
+        });
+        return true;
+    }
+
+    public int unlink(final Item item, final String name)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.unlink(item, name);
+            }
+        });
+        return 1;
+    }
+
+    public boolean unlinkAt(final Item item, final String name, final int position)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.unlinkAt(item, name, position);
+            }
+        });
+        return true;
+    }
+
+    public boolean rename(final String oldName, final String newName)
+    {
+        defer(null, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.rename(oldName, newName);
+            }
+        });
+        return true;
+    }
+
+    public IterableIterator<Item> find(Predicate predicate)
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            return new ArrayListIterator(super.find(predicate).toList());
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public Item[] find(Predicate predicate, OrderBy ... order) 
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            return super.find(predicate, order);
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public IterableIterator<Item> getOccurrences(String name, OrderBy.Order order)
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            IterableIterator<Item> iterator = super.getOccurrences(name, order);
+            return iterator != null ? new ArrayListIterator(iterator.toList()) : null;
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public FullTextSearchResult fullTextSearch(String query, int maxResults, int timeLimit)
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            return super.fullTextSearch(query, maxResults, timeLimit);
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public FullTextSearchResult fullTextSearchPrefix(String prefix, int maxResults, int timeLimit, boolean sort)
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            return super.fullTextSearchPrefix(prefix, maxResults, timeLimit, sort);
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public Iterator<FullTextIndex.Keyword> getFullTextSearchKeywords(String prefix)
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            ArrayList<FullTextIndex.Keyword> list = new ArrayList<FullTextIndex.Keyword>();
+            Iterator<FullTextIndex.Keyword> iterator = super.getFullTextSearchKeywords(prefix);
+            while (iterator.hasNext()) { 
+                list.add(iterator.next());
+            }
+            return list.iterator();
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public Set<String> getVerbs()
+    {    
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            return new HashSet<String>(super.getVerbs());
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    public Class<?> getAttributeType(String name)
+    {
+        checkIfActive();
+        db.sharedLock();
+        try { 
+            return super.getAttributeType(name);
+        } finally { 
+            db.unlock();
+        }
+    }
+
+    /**
+     * Lock the database for reading items returned by search methods of this transaction.
+     * Commits of other transactions are blocked until <code>endRead()</code> is invoked, so it should be
+     * called as soon as possible. Calls of this method can be nested. Locks which are not released 
+     * by <code>endRead()</code> are released by commit or rollback of the transaction.
+     */
+    public void beginRead()
+    {
+        checkIfActive();
+        db.sharedLock();
+        nReadLocks += 1;
+    }
+
+    /**
+     * Release lock set by <code>beginRead()</code>
+     */
+    public void endRead()
+    {
+        checkIfActive();
+        if (nReadLocks == 0) { 
+            throw new IllegalStateException("Database is not locked by beginRead");
+        }
+        nReadLocks -= 1;
+        db.unlock();
+    }
+
+    public BulkLoader createBulkLoader(int bufferSize)
+    {
+        throw new UnsupportedOperationException("Bulk loading is not supported by concurrent transactions");
+    }
+
+    public void remove(final Item item)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.remove(item);
+            }
+        });
+    }
+
+    public void includeInFullTextIndex(final Item item, String[] attributeNames, final String language)
+    {
+        final String[] copy = attributeNames == null ? null : attributeNames.clone();
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.includeInFullTextIndex(item, copy, language);
+            }
+        });
+    }
+
+    public void includeInFullTextIndex(final Item item, final String language)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.includeInFullTextIndex(item, language);
+            }
+        });
+    }
+
+    public void excludeFromFullTextIndex(final Item item)
+    {
+        defer(item, new Operation() {
+            void apply() {
+                ConcurrentReadWriteTransaction.super.excludeFromFullTextIndex(item);
+            }
+        });
+    }
+
+    /**
+     * Commit this transaction: check for conflicts with other transactions and apply all recorded updates.
+     * It is not possible to use this transaction object after it is committed
+     * @exception ConflictException if some of items updated by this transaction were changed by another transaction
+     * committed after start of this transaction. In this case all changes made by this transaction are discarded.
+     */
+    public void commit()
+    {
+        checkIfActive();
+        releaseReadLocks(); // shared lock can not be upgraded to exclusive one
+        db.exclusiveLock();
+        boolean applied = false;
+        try { 
+            int oid = db.findConflict(updatedItems, startSeqNo);
+            if (oid != 0) { 
+                throw new ConflictException(oid);
+            }
+            applied = true;
+            applying = true;
+            for (Operation op : operations) { 
+                op.apply();
+            }
+            db.storage.commit();
+            db.markModified(modifiedItems);
+        } catch (RuntimeException x) { 
+            if (applied) { 
+                db.storage.rollback();
+            }
+            throw x;
+        } finally { 
+            db.endConcurrentTransaction(startSeqNo);
+            db.unlock();
+            active = false;
+        }
+    }
+
+    /**
+     * Rollback this transaction: discard all recorded updates.
+     * It is not possible to use this transaction object after it is rollbacked
+     */
+    public void rollback()
+    {
+        checkIfActive();
+        releaseReadLocks();
+        db.endConcurrentTransaction(startSeqNo);
+        active = false;
+    }
+
+    private abstract class Operation
+    {
+        abstract void apply();
+    }
+
+    private void releaseReadLocks()
+    {
+        while (nReadLocks != 0) { 
+            nReadLocks -= 1;
+            db.unlock();
+        }
+    }
+
+    private void defer(Item item, Operation op)
+    {
+        checkIfActive();
+        if (applying) { // update method invoked by another update method during commit
+            op.apply();
+            return;
+        }
+        if (item != null) { 
+            int oid = item.getOid();
+            if (oid != 0) { 
+                updatedItems.add(Integer.valueOf(oid));
+            }
+        }
+        operations.add(op);
+    }
+
+    private ArrayList<Operation> operations;
+    private HashSet<Integer> updatedItems;
+    private long startSeqNo;
+    private boolean applying;
+    private int nReadLocks;
+
+    protected ConcurrentReadWriteTransaction(AssocDB db)
+    {
+        super(db);
+        startSeqNo = db.beginConcurrentTransaction();
+        operations = new ArrayList<Operation>();
+        updatedItems = new HashSet<Integer>();
+        modifiedItems = new HashSet<Integer>();
+    }
+}
@@ -0,0 +1,25 @@
+package org.garret.perst.assoc;
+
+/**
+ * Exception thrown by commit of concurrent read-write transaction when it detects that item updated by this transaction
+ * was changed by another transaction committed after start of this transaction.
+ * Transaction is rolled back and can be restarted.
+ */
+public class ConflictException extends RuntimeException 
+{
+    private static final long serialVersionUID = 1L;
+
+    int oid;
+
+    /**
+     * Get OID of conflicting item
+     */
+    public int getOid() { 
+        return oid;
+    }
+
+    ConflictException(int oid) { 
+        super("Item " + oid + " was modified by another transaction");
+        this.oid = oid;
+    }
+}
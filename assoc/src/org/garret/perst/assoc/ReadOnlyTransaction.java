@@ -252,46 +252,31 @@ public class ReadOnlyTransaction
                 break;
             case InArray:
             {
-                OidIterator dst = new OidIterator();
-                int oid;
+                CompressedBitmap<Item> dst = new CompressedBitmap<Item>(db.storage);
                 if (value instanceof String[]) { 
                     String[] arr = (String[])value;
                     for (int i = 0; i < arr.length; i++) { 
                         Key key = new Key(arr[i].toLowerCase());
-                        PersistentIterator src = (PersistentIterator)index.iterator(key, key, Index.ASCENT_ORDER);
-                        while ((oid = src.nextOid()) != 0) { 
-                            dst.add(oid);
-                        }
+                        addToBitmap(dst, index.iterator(key, key, Index.ASCENT_ORDER));
                     }
                 } else if (value instanceof double[]) { 
                     double[] arr = (double[])value;
                     for (int i = 0; i < arr.length; i++) { 
                         Key key = new Key(arr[i]);
-                        PersistentIterator src = (PersistentIterator)index.iterator(key, key, Index.ASCENT_ORDER);
-                        while ((oid = src.nextOid()) != 0) { 
-                            dst.add(oid);
-                        }
+                        addToBitmap(dst, index.iterator(key, key, Index.ASCENT_ORDER));
                     }
                 } else { 
                     Item[] arr = (Item[])value;
                     for (int i = 0; i < arr.length; i++) { 
                         Key key = new Key(arr[i]);
-                        PersistentIterator src = (PersistentIterator)index.iterator(key, key, Index.ASCENT_ORDER);
-                        while ((oid = src.nextOid()) != 0) { 
-                            dst.add(oid);
-                        }
+                        addToBitmap(dst, index.iterator(key, key, Index.ASCENT_ORDER));
                     }
                 }
-                dst.uniq();
-                return dst;
+                return dst.iterator();
             }
             }
-        } else if (predicate instanceof Predicate.And) { 
-            Predicate.And and = (Predicate.And)predicate;
-            return new JoinIterator(evaluate(and.left, true), evaluate(and.right, true));
-        } else if (predicate instanceof Predicate.Or) { 
-            Predicate.Or or = (Predicate.Or)predicate;
-            return new MergeIterator(evaluate(or.left, true), evaluate(or.right, true));
+        } else if (predicate instanceof Predicate.And || predicate instanceof Predicate.Or) { 
+            return evaluateBitmap(predicate).iterator();
         } else if (predicate instanceof Predicate.Between) { 
             Predicate.Between between = (Predicate.Between)predicate;
             Integer id = db.name2id.get(between.name);
@@ -310,91 +295,294 @@ public class ReadOnlyTransaction
                 return getEmptyResultSet();
             }
             Index<Item> index = (Index<Item>)db.storage.getObjectByOID(id.intValue());
-            OidIterator dst = new OidIterator();
+            CompressedBitmap<Item> dst = new CompressedBitmap<Item>(db.storage);
             for (Item item : evaluate(in.subquery, false)) {
                 Key key = new Key(item);
-                PersistentIterator src = (PersistentIterator)index.iterator(key, key, Index.ASCENT_ORDER);
-                int oid;
-                while ((oid = src.nextOid()) != 0) { 
-                    dst.add(oid);
-                }
+                addToBitmap(dst, index.iterator(key, key, Index.ASCENT_ORDER));
             }
-            dst.uniq();            
-            return dst;
+            return dst.iterator();
         } else { 
             return null;
         }
         return sortNeeded ? sortResult(iterator) : iterator;
     }
     
-    protected IterableIterator<Item> sortResult(IterableIterator<Item> iterable) 
-    { 
-        PersistentIterator src = (PersistentIterator)iterable;
-        OidIterator dst = new OidIterator();
-        int oid;
-        while ((oid = src.nextOid()) != 0) { 
-            dst.add(oid);
+    /**
+     * Evaluate predicate as compressed bitmap of OIDs of selected items.
+     * Conjunction and disjunction of predicates are evaluated as intersection and union of bitmaps of their operands.
+     * @param predicate query predicate
+     * @return transient bitmap with OIDs of selected items
+     */
+    protected CompressedBitmap<Item> evaluateBitmap(Predicate predicate) 
+    {
+        if (predicate instanceof Predicate.And) { 
+            return evaluateConjunction((Predicate.And)predicate);
+        } else if (predicate instanceof Predicate.Or) { 
+            Predicate.Or or = (Predicate.Or)predicate;
+            return evaluateBitmap(or.left).or(evaluateBitmap(or.right));
+        } 
+        IterableIterator<Item> iterator = evaluate(predicate, false);
+        if (iterator == null) { 
+            throw new IllegalArgumentException("Unsupported predicate " + predicate.getClass().getName());
         }
-        dst.sort();
-        return dst;
+        return new CompressedBitmap<Item>(db.storage, iterator);
     }
 
-    class OidIterator extends IterableIterator<Item> implements PersistentIterator
+    /**
+     * Evaluate conjunction of predicates.
+     * Conjuncts are ordered by estimated number of selected items, so the most selective one is evaluated first.
+     * Each of the remaining conjuncts is either evaluated using index and intersected with the current result,
+     * either (if current result is small comparing with estimated size of conjunct) checked for each 
+     * already selected item by loading the item and inspecting its attributes.
+     * @param and conjunction of predicates
+     * @return transient bitmap with OIDs of selected items
+     */
+    protected CompressedBitmap<Item> evaluateConjunction(Predicate.And and) 
     {
-        OidIterator() 
-        {
-            oids = new int[1024];
+        ArrayList<Predicate> conjuncts = new ArrayList<Predicate>();
+        flattenConjunction(and, conjuncts);
+        int n = conjuncts.size();
+        long[] estimates = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) { 
+            estimates[i] = estimate(conjuncts.get(i), db.selectivityEstimateLimit);
+            order[i] = i;
+        }
+        final long[] cost = estimates;
+        Arrays.sort(order, new Comparator<Integer>() { 
+            public int compare(Integer i1, Integer i2) { 
+                return cost[i1] < cost[i2] ? -1 : cost[i1] == cost[i2] ? 0 : 1;
+            }
+        });
+        CompressedBitmap<Item> result = evaluateBitmap(conjuncts.get(order[0]));
+        for (int i = 1; i < n && !result.isEmpty(); i++) { 
+            Predicate conjunct = conjuncts.get(order[i]);
+            if ((long)result.size()*PROBE_COST < estimates[order[i]] && isProbeable(conjunct)) { 
+                CompressedBitmap<Item> filtered = new CompressedBitmap<Item>(db.storage);
+                for (Item item : result) { 
+                    if (matches(item, conjunct)) { 
+                        filtered.add(item.getOid());
+                    }
+                }
+                result = filtered;
+            } else { 
+                result = result.and(evaluateBitmap(conjunct));
+            }
         }
+        return result;
+    }
 
-        final void add(int oid) 
-        { 
-            if (n == oids.length) { 
-                int[] newOids = new int[n*2];
-                System.arraycopy(oids, 0, newOids, 0, n);
-                oids = newOids;
-            }
-            oids[n++] = oid;
+    private static void flattenConjunction(Predicate predicate, ArrayList<Predicate> conjuncts) 
+    { 
+        if (predicate instanceof Predicate.And) { 
+            Predicate.And and = (Predicate.And)predicate;
+            flattenConjunction(and.left, conjuncts);
+            flattenConjunction(and.right, conjuncts);
+        } else { 
+            conjuncts.add(predicate);
         }
+    }
 
-        final void sort() 
-        { 
-            Arrays.sort(oids, 0, n);
+    /**
+     * Estimate number of items selected by predicate.
+     * Perst indexes do not maintain statistic about distribution of keys, so estimation is done by 
+     * counting index entries matching the predicate. Counting stops after reaching the limit.
+     * @param predicate query predicate
+     * @param limit maximal estimated number of items
+     * @return estimated number of selected items, not greater than <code>limit</code>
+     */
+    protected long estimate(Predicate predicate, long limit) 
+    {
+        if (predicate instanceof Predicate.And) { 
+            Predicate.And and = (Predicate.And)predicate;
+            return Math.min(estimate(and.left, limit), estimate(and.right, limit));
+        } else if (predicate instanceof Predicate.Or) { 
+            Predicate.Or or = (Predicate.Or)predicate;
+            return Math.min(estimate(or.left, limit) + estimate(or.right, limit), limit);
+        } else if (predicate instanceof Predicate.Compare || predicate instanceof Predicate.Between) { 
+            PersistentIterator iterator = (PersistentIterator)evaluate(predicate, false);
+            long n = 0;
+            while (n < limit && iterator.nextOid() != 0) { 
+                n += 1;
+            }
+            return n;
+        } 
+        // subqueries and full text search are considered to be non-selective
+        return limit;
+    }
+
+    private static boolean isProbeableValue(Object value) 
+    { 
+        return value instanceof String || value instanceof Number || value instanceof String[] || value instanceof double[];
+    }
+
+    /**
+     * Check if predicate can be evaluated for the item by inspecting its attributes.
+     * Predicates on relations, subqueries and full text search can be evaluated only using indices.
+     * @param predicate query predicate
+     * @return true if <code>matches</code> method can be used for this predicate
+     */
+    protected boolean isProbeable(Predicate predicate) 
+    {
+        if (predicate instanceof Predicate.And) { 
+            Predicate.And and = (Predicate.And)predicate;
+            return isProbeable(and.left) && isProbeable(and.right);
+        } else if (predicate instanceof Predicate.Or) { 
+            Predicate.Or or = (Predicate.Or)predicate;
+            return isProbeable(or.left) && isProbeable(or.right);
+        } else if (predicate instanceof Predicate.Compare) { 
+            return isProbeableValue(((Predicate.Compare)predicate).value);
+        } else if (predicate instanceof Predicate.Between) { 
+            Predicate.Between between = (Predicate.Between)predicate;
+            return isProbeableValue(between.from) && isProbeableValue(between.till);
         }
+        return false;
+    }
 
-        final void uniq() 
-        { 
-            if (n > 1) { 
-                sort();
-                int i = 0;
-                int[] buf = oids;
-                for (int j = 1, k = n; j < k; j++) { 
-                    if (buf[j] != buf[i]) { 
-                        buf[++i] = buf[j];
+    /**
+     * Check if item matches predicate by inspecting its attributes.
+     * Predicate should be probeable (see <code>isProbeable</code>). Predicate on attribute with multiple values
+     * is true if it is true for any of the values.
+     * @param item inspected item
+     * @param predicate query predicate
+     * @return true if item matches predicate
+     */
+    protected boolean matches(Item item, Predicate predicate) 
+    {
+        if (predicate instanceof Predicate.And) { 
+            Predicate.And and = (Predicate.And)predicate;
+            return matches(item, and.left) && matches(item, and.right);
+        } else if (predicate instanceof Predicate.Or) { 
+            Predicate.Or or = (Predicate.Or)predicate;
+            return matches(item, or.left) || matches(item, or.right);
+        } else if (predicate instanceof Predicate.Compare) { 
+            Predicate.Compare cmp = (Predicate.Compare)predicate;
+            Integer id = db.name2id.get(cmp.name);
+            if (id == null) { 
+                return false;
+            }
+            Object value = item.getAttribute(id.intValue());
+            if (value instanceof String[]) { 
+                for (String s : (String[])value) { 
+                    if (matches(s, cmp)) { 
+                        return true;
+                    }
+                }
+                return false;
+            } else if (value instanceof double[]) { 
+                for (double d : (double[])value) { 
+                    if (matches(Double.valueOf(d), cmp)) { 
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return matches(value, cmp);
+        } else if (predicate instanceof Predicate.Between) { 
+            Predicate.Between between = (Predicate.Between)predicate;
+            Integer id = db.name2id.get(between.name);
+            if (id == null) { 
+                return false;
+            }
+            Object value = item.getAttribute(id.intValue());
+            if (value instanceof String[]) { 
+                for (String s : (String[])value) { 
+                    if (matches(s, between)) { 
+                        return true;
+                    }
+                }
+                return false;
+            } else if (value instanceof double[]) { 
+                for (double d : (double[])value) { 
+                    if (matches(Double.valueOf(d), between)) { 
+                        return true;
                     }
                 }
-                n = i + 1;
+                return false;
             }
+            return matches(value, between);
         }
+        throw new IllegalArgumentException("Predicate " + predicate.getClass().getName() + " can not be checked for the item");
+    }
 
-        public int nextOid() { 
-            return i < n ? oids[i++] : 0;
+    private static int compareValues(Object value, Object operand) 
+    {
+        if (value instanceof String) { 
+            return ((String)value).toLowerCase().compareTo(((String)operand).toLowerCase());
+        } else { 
+            return Double.compare(((Number)value).doubleValue(), ((Number)operand).doubleValue());
         }
+    }
 
-        public boolean hasNext() { 
-            return i < n;
-        }
-        
-        public Item next() { 
-            if (i >= n) { 
-                throw new NoSuchElementException();
+    private static boolean isComparable(Object value, Object operand) 
+    { 
+        return (value instanceof String && operand instanceof String) || (value instanceof Number && operand instanceof Number);
+    }
+
+    private static boolean matches(Object value, Predicate.Between between) 
+    {
+        return isComparable(value, between.from) && isComparable(value, between.till)
+            && compareValues(value, between.from) >= 0 && compareValues(value, between.till) <= 0;
+    }
+
+    private static boolean matches(Object value, Predicate.Compare cmp) 
+    {
+        Object operand = cmp.value;
+        switch (cmp.oper) { 
+        case Equals:
+            return isComparable(value, operand) && compareValues(value, operand) == 0;
+        case LessThan:
+            return isComparable(value, operand) && compareValues(value, operand) < 0;
+        case LessOrEquals:
+            return isComparable(value, operand) && compareValues(value, operand) <= 0;
+        case GreaterThan:
+            return isComparable(value, operand) && compareValues(value, operand) > 0;
+        case GreaterOrEquals:
+            return isComparable(value, operand) && compareValues(value, operand) >= 0;
+        case StartsWith:
+            return value instanceof String && ((String)value).toLowerCase().startsWith(((String)operand).toLowerCase());
+        case IsPrefixOf:
+            return value instanceof String && ((String)operand).toLowerCase().startsWith(((String)value).toLowerCase());
+        case InArray:
+            if (operand instanceof String[]) { 
+                if (value instanceof String) { 
+                    for (String s : (String[])operand) { 
+                        if (s.equalsIgnoreCase((String)value)) { 
+                            return true;
+                        }
+                    }
+                }
+            } else if (value instanceof Number) { 
+                for (double d : (double[])operand) { 
+                    if (d == ((Number)value).doubleValue()) { 
+                        return true;
+                    }
+                }
             }
-            return (Item)db.storage.getObjectByOID(oids[i++]);
+            return false;
         }
+        return false;
+    }
+
+    /**
+     * Relative cost of loading item and checking predicate for it comparing with fetching index entry
+     */
+    protected static final int PROBE_COST = 8;
 
-        int[] oids;
-        int   i, n;
+    protected IterableIterator<Item> sortResult(IterableIterator<Item> iterable) 
+    { 
+        return new CompressedBitmap<Item>(db.storage, iterable).iterator();
     }
-    
+
+    private static void addToBitmap(CompressedBitmap<Item> dst, IterableIterator<Item> iterator) 
+    { 
+        PersistentIterator src = (PersistentIterator)iterator;
+        int oid;
+        while ((oid = src.nextOid()) != 0) { 
+            dst.add(oid);
+        }
+    }
+
     class ArrayListIterator extends IterableIterator<Item> implements PersistentIterator
     {
         ArrayListIterator(ArrayList<Item> list) { 
@@ -441,99 +629,6 @@ public class ReadOnlyTransaction
         int i;
     }
 
-    class JoinIterator extends IterableIterator<Item> implements PersistentIterator
-    {
-        JoinIterator(IterableIterator<Item> i1, IterableIterator<Item> i2) { 
-            this.i1 = (PersistentIterator)i1;
-            this.i2 = (PersistentIterator)i2;
-            oid = join();
-        }
-
-        private final int join() {
-            int oid1, oid2 = 0;
-            while ((oid1 = i1.nextOid()) != 0) { 
-                while (oid2 < oid1) { 
-                    if ((oid2 = i2.nextOid()) == 0) {
-                        return 0;
-                    }
-                }
-                if (oid2 == oid1) { 
-                    return oid1;
-                }
-            }
-            return 0;
-        }
-
-        public int nextOid() { 
-            int curr = oid;
-            if (curr != 0) { 
-                oid = join();
-            }
-            return curr;
-        }
-         
-        public boolean hasNext() { 
-            return oid != 0;
-        }
-         
-        public Item next() { 
-            if (oid == 0) { 
-                throw new NoSuchElementException();
-            }
-            Item item = (Item)db.storage.getObjectByOID(oid);
-            oid = join();
-            return item;
-        }
-
-        int oid;
-        PersistentIterator i1, i2;
-    }
-
-    class MergeIterator extends IterableIterator<Item> implements PersistentIterator
-    {
-        MergeIterator(IterableIterator<Item> left, IterableIterator<Item> right) { 
-            i1 = (PersistentIterator)left;
-            i2 = (PersistentIterator)right;
-            oid1 = i1.nextOid();
-            oid2 = i2.nextOid();
-        }
-
-        public int nextOid() { 
-            int oid = 0;
-            if (oid1 < oid2) { 
-                if (oid1 == 0) { 
-                    oid = oid2;
-                    oid2 = i2.nextOid();
-                } else { 
-                    oid = oid1;
-                    oid1 = i1.nextOid();
-                }
-            } else if (oid2 != 0) { 
-                oid = oid2;
-                oid2 = i2.nextOid();
-                if (oid1 == oid) { 
-                    oid1 = i1.nextOid();
-                }
-            }
-            return oid;
-        }
-         
-        public boolean hasNext() { 
-            return (oid1|oid2) != 0;
-        }
-         
-        public Item next() { 
-            int oid = nextOid();
-            if (oid == 0) { 
-                throw new NoSuchElementException();
-            }
-            return (Item)db.storage.getObjectByOID(oid);
-        }
-
-        int oid1, oid2;
-        PersistentIterator i1, i2;
-    }
-
     protected AssocDB db;
     protected boolean active;
 
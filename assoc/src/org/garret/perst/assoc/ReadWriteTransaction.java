@@ -9,7 +9,8 @@ import java.util.*;
  * Read-write transaction.
  * AssocDB provides MURSIW (multiple readers single writer) isolation model.
  * It means that only one transaction can update the database at each moment of time, but multiple transactions
- * can concurrently read it.
+ * can concurrently read it. If updates should be performed in parallel, use ConcurrentReadWriteTransaction
+ * started by AssocDB.startConcurrentReadWriteTransaction method.
  * 
  * All access to the database (read or write) should be performed within transaction body.
  * 
@@ -326,7 +327,7 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
             for (int i = 0; i < targets.length; i++) { 
                 addRelation(item, id, targets[i]);
             }
-            item.fieldNames = null;
+            touch(item);
         }
         for (int i = 0; i < targets.length; i++) { 
             addLink(targets[i], "-" + name, item);
@@ -822,7 +823,7 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
         } else { 
             if (db.root.relations.unlink(new Key(((long)item.getOid() << 32) | id), target)) { 
                 removeLink(item, target, id);                                
-                item.fieldNames = null; 
+                touch(item);
                 return true;
             }
         }
@@ -883,7 +884,7 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
             removeLink(item, target, id);                                
             nUnlinked += 1;
         }
-        item.fieldNames = null;                    
+        touch(item);
         return nUnlinked;
     }
                 
@@ -940,6 +941,35 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
         return db.createItem();
     }
 
+    /**
+     * Create loader for insertion of large number of items.
+     * Loader defers update of indices and full text indexing till flush, which is performed when
+     * buffer is full and at transaction commit.
+     * @return bulk loader with default buffer size
+     */
+    public BulkLoader createBulkLoader() 
+    { 
+        return createBulkLoader(BulkLoader.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Create loader for insertion of large number of items.
+     * Loader defers update of indices and full text indexing till flush, which is performed when
+     * buffer is full and at transaction commit.
+     * @param bufferSize maximal number of index entries buffered by the loader
+     * @return bulk loader
+     */
+    public BulkLoader createBulkLoader(int bufferSize) 
+    { 
+        checkIfActive();
+        BulkLoader loader = new BulkLoader(this, bufferSize);
+        if (loaders == null) { 
+            loaders = new ArrayList<BulkLoader>();
+        }
+        loaders.add(loader);
+        return loader;
+    }
+
     /**
      * Rename a verb. This methods allows to change attribute name in all items.
      * As far as object format in AssocDB is completely dynamic, database schema evaluation doesn't require
@@ -1010,6 +1040,7 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
                 iterator.remove();
             }
         }
+        touch(item);
         item.deallocate();
     }
 
@@ -1113,7 +1144,15 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
      */
     public void commit() 
     {        
+        if (loaders != null) { 
+            for (BulkLoader loader : loaders) { 
+                loader.flush();
+            }
+        }
         db.storage.commit(); 
+        if (modifiedItems != null) { 
+            db.markModified(modifiedItems);
+        }
         super.commit();
     }
 
@@ -1158,7 +1197,7 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
             int inverseId = db.name2id.get(name.startsWith("-") ? name.substring(1) : ("-" + name)).intValue();
             index = (Index<Item>)db.storage.getObjectByOID(inverseId);
             index.remove(new Key(source), target);
-            target.fieldNames = null;
+            touch(target);
             db.root.relations.remove(new Key(((long)target.getOid() << 32) | inverseId), source);
         }
     }
@@ -1202,7 +1241,7 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
             modify(item);
         } else { 
             addRelation(item, id, target);
-            item.fieldNames = null;
+            touch(item);
         }
     }
 
@@ -1234,13 +1273,35 @@ public class ReadWriteTransaction extends ReadOnlyTransaction
 
     final void modify(Item item) 
     { 
-        item.fieldNames = null;
+        touch(item);
         item.modify();
     }
 
+    final void touch(Item item) 
+    { 
+        item.fieldNames = null;
+        if (modifiedItems != null) { 
+            int oid = item.getOid();
+            if (oid != 0) { 
+                modifiedItems.add(Integer.valueOf(oid));
+            }
+        }
+    }
+
+
+    /**
+     * OIDs of items changed by this transaction: maintained only when there are active concurrent transactions
+     * which should detect conflicts with this transaction
+     */
+    protected HashSet<Integer> modifiedItems;
+
+    protected ArrayList<BulkLoader> loaders;
 
     protected ReadWriteTransaction(AssocDB db) 
     { 
         super(db);
+        if (db.hasConcurrentTransactions()) { 
+            modifiedItems = new HashSet<Integer>();
+        }
     }
 }
\ No newline at end of file
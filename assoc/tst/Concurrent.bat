@@ -0,0 +1 @@
+java -classpath ..\..\lib\perst.jar;..\..\lib\assocdb.jar;. Concurrent
\ No newline at end of file
@@ -0,0 +1,151 @@
+import java.util.*;
+import org.garret.perst.*;
+import org.garret.perst.assoc.*;
+
+public class Concurrent
+{
+    int nItems;
+    int nIterations;
+
+    static Predicate byId(int id)
+    {
+        return Predicate.compare("id", Predicate.Compare.Operation.Equals, id);
+    }
+
+    void populateDatabase()
+    {
+        ReadWriteTransaction t = db.startReadWriteTransaction();
+        for (int i = 0; i < nItems; i++) {
+            Item item = t.createItem();
+            t.link(item, "id", i);
+            t.link(item, "counter", 0);
+        }
+        t.commit();
+    }
+
+    void checkConflicts()
+    {
+        ConcurrentReadWriteTransaction t1 = db.startConcurrentReadWriteTransaction();
+        ConcurrentReadWriteTransaction t2 = db.startConcurrentReadWriteTransaction();
+        Item item = t1.find(byId(0)).first();
+        Assert.that(t2.find(byId(0)).first() == item);
+        t1.update(item, "counter", 1);
+        t2.update(item, "counter", 2);
+        t1.commit(); // doesn't wait for t2
+        try {
+            t2.commit();
+            Assert.failed("Conflict is not detected");
+        } catch (ConflictException x) {}
+
+        // transaction started after commit of t1 doesn't conflict with it
+        ConcurrentReadWriteTransaction t3 = db.startConcurrentReadWriteTransaction();
+        t3.beginRead();
+        Assert.that(item.getNumber("counter").intValue() == 1);
+        t3.endRead();
+        t3.update(item, "counter", 0);
+        t3.commit();
+
+        // conflict with exclusive read-write transaction
+        ConcurrentReadWriteTransaction t4 = db.startConcurrentReadWriteTransaction();
+        t4.update(item, "counter", 4);
+        ReadWriteTransaction t5 = db.startReadWriteTransaction();
+        t5.update(item, "counter", 5);
+        t5.commit();
+        try {
+            t4.commit();
+            Assert.failed("Conflict is not detected");
+        } catch (ConflictException x) {}
+
+        ReadOnlyTransaction t = db.startReadOnlyTransaction();
+        Assert.that(item.getNumber("counter").intValue() == 5);
+        t.commit();
+
+        t = db.startReadWriteTransaction();
+        ((ReadWriteTransaction)t).update(item, "counter", 0);
+        t.commit();
+        System.out.println("Conflicts are detected");
+    }
+
+    class Updater extends Thread
+    {
+        int id;
+        int nConflicts;
+
+        Updater(int id)
+        {
+            this.id = id;
+        }
+
+        public void run()
+        {
+            for (int i = 0; i < nIterations; i++) {
+                ConcurrentReadWriteTransaction t = db.startConcurrentReadWriteTransaction();
+                Item item = t.find(byId(id)).first();
+                t.beginRead();
+                int counter = item.getNumber("counter").intValue();
+                t.endRead();
+                t.update(item, "counter", counter + 1);
+                try {
+                    t.commit();
+                } catch (ConflictException x) {
+                    nConflicts += 1;
+                }
+            }
+        }
+    }
+
+    void updateInParallel(int nThreads) throws InterruptedException
+    {
+        // long living concurrent transaction should not block commits of other transactions
+        ConcurrentReadWriteTransaction idle = db.startConcurrentReadWriteTransaction();
+        Assert.that(idle.find(byId(0)).first() != null);
+
+        long start = System.currentTimeMillis();
+        Updater[] updaters = new Updater[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            updaters[i] = new Updater(i);
+            updaters[i].start();
+        }
+        for (int i = 0; i < nThreads; i++) {
+            updaters[i].join();
+            Assert.that(updaters[i].nConflicts == 0);
+        }
+        System.out.println("Elapsed time for " + nThreads*nIterations + " updates of disjoint items by " + nThreads + " threads: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        idle.rollback();
+
+        ReadOnlyTransaction t = db.startReadOnlyTransaction();
+        for (int i = 0; i < nThreads; i++) {
+            Item item = t.find(byId(i)).first();
+            Assert.that(item.getNumber("counter").intValue() == nIterations);
+        }
+        t.commit();
+    }
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        int nThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        Concurrent test = new Concurrent(nThreads*10, 1000);
+        test.populateDatabase();
+        test.checkConflicts();
+        test.updateInParallel(nThreads);
+        test.shutdown();
+    }
+
+    void shutdown()
+    {
+        storage.close();
+    }
+
+    Concurrent(int nItems, int nIterations)
+    {
+        this.nItems = nItems;
+        this.nIterations = nIterations;
+        storage = StorageFactory.getInstance().createStorage();
+        storage.open("concurrent.dbs");
+        db = new AssocDB(storage);
+    }
+
+    Storage storage;
+    AssocDB db;
+}
@@ -43,7 +43,28 @@ public class Library
         long start = System.currentTimeMillis();
         ReadWriteTransaction t = db.startReadWriteTransaction();
         
-        if (t.getVerbs().size() == 0) { 
+        if (t.getVerbs().size() == 0 && bulk) { 
+            int nBooks = nAuthors * nBooksPerAutor / nCoauthors;
+            BulkLoader loader = t.createBulkLoader();
+            Item[] author = new Item[nAuthors];
+            for (int i = 0; i < nAuthors; i++) { 
+                author[i] = loader.add(new Pair[]{new Pair("name", generateName(i))});
+                loader.includeInFullTextIndex(author[i]);
+            }
+            for (int i = 0, j = 0; i < nBooks; i++) { 
+                Item[] coauthors = new Item[nCoauthors];
+                for (int k = 0; k < nCoauthors; k++) { 
+                    coauthors[k] = author[j++ % nAuthors];
+                }
+                Item book = loader.add(new Pair[]{new Pair("title", generateTitle(i)),
+                                                  new Pair("ISBN", generateISBN(i)),
+                                                  new Pair("publish-date", (new Date()).getTime()),
+                                                  new Pair("author", coauthors)});
+                loader.includeInFullTextIndex(book, new String[]{"title", "ISBN"});
+            }
+            loader.flush();
+            System.out.println("Elapsed time for bulk loading database " + (System.currentTimeMillis() - start) + " millisconds");
+        } else if (t.getVerbs().size() == 0) { 
             int nBooks = nAuthors * nBooksPerAutor / nCoauthors;
             Item[] author = new Item[nAuthors];
             for (int i = 0; i < nAuthors; i++) { 
@@ -108,9 +129,10 @@ public class Library
         storage.close();
     }
 
-    Library(int authors)
+    Library(int authors, boolean bulk)
     {
         nAuthors = authors;
+        this.bulk = bulk;
         storage = StorageFactory.getInstance().createStorage();
         storage.open("library.dbs");
         db = new AssocDB(storage);
@@ -118,8 +140,16 @@ public class Library
      
     public static void main(String[] args) 
     {
-        int nAuthors = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
-        Library library = new Library(nAuthors);
+        int nAuthors = 10000;
+        boolean bulk = false;
+        for (int i = 0; i < args.length; i++) { 
+            if (args[i].equals("bulk")) { 
+                bulk = true;
+            } else { 
+                nAuthors = Integer.parseInt(args[i]);
+            }
+        }
+        Library library = new Library(nAuthors, bulk);
         library.populateDatabase();
         library.searchDatabase();
         library.shutdown();
@@ -127,4 +157,5 @@ public class Library
    
     AssocDB db;
     Storage storage;
+    boolean bulk;
 }
\ No newline at end of file
@@ -0,0 +1,208 @@
+import java.util.*;
+import org.garret.perst.*;
+import org.garret.perst.assoc.*;
+
+public class Planner
+{
+    int nItems;
+
+    static final int SELECTIVITY_ESTIMATE_LIMIT = 1000;
+
+    /**
+     * Transaction exposing query planner internals: it counts items checked by probing
+     * and evaluates conjunctions naively, intersecting bitmaps of all conjuncts in the order they are written
+     */
+    static class PlanChecker extends ReadOnlyTransaction
+    {
+        int nProbes;
+        Storage storage;
+
+        PlanChecker(AssocDB db, Storage storage)
+        {
+            super(db);
+            this.storage = storage;
+        }
+
+        CompressedBitmap<Item> planned(Predicate predicate)
+        {
+            return evaluateBitmap(predicate);
+        }
+
+        CompressedBitmap<Item> naive(Predicate predicate)
+        {
+            if (predicate instanceof Predicate.And) {
+                Predicate.And and = (Predicate.And)predicate;
+                return naive(and.left).and(naive(and.right));
+            } else if (predicate instanceof Predicate.Or) {
+                Predicate.Or or = (Predicate.Or)predicate;
+                return naive(or.left).or(naive(or.right));
+            }
+            return new CompressedBitmap<Item>(storage, evaluate(predicate, false));
+        }
+
+        long estimate(Predicate predicate)
+        {
+            return estimate(predicate, SELECTIVITY_ESTIMATE_LIMIT);
+        }
+
+        boolean probeable(Predicate predicate)
+        {
+            return isProbeable(predicate);
+        }
+
+        protected boolean matches(Item item, Predicate predicate)
+        {
+            nProbes += 1;
+            return super.matches(item, predicate);
+        }
+
+        boolean check(Item item, Predicate predicate)
+        {
+            return super.matches(item, predicate);
+        }
+    }
+
+    static Predicate eq(String name, Object value)
+    {
+        return Predicate.compare(name, Predicate.Compare.Operation.Equals, value);
+    }
+
+    static Predicate cmp(String name, Predicate.Compare.Operation oper, Object value)
+    {
+        return Predicate.compare(name, oper, value);
+    }
+
+    static Predicate and(Predicate... conjuncts)
+    {
+        Predicate result = conjuncts[0];
+        for (int i = 1; i < conjuncts.length; i++) {
+            result = Predicate.and(result, conjuncts[i]);
+        }
+        return result;
+    }
+
+    static String generateName(int x)
+    {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++) {
+            chars[i] = (char)(((x & 1) != 0 ? 'a' : 'A') + (x & 0xF));
+            x >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    void populateDatabase()
+    {
+        ReadWriteTransaction t = db.startReadWriteTransaction();
+        Item[] items = new Item[nItems];
+        for (int i = 0; i < nItems; i++) {
+            Item item = t.createItem();
+            t.link(item, "id", i);
+            t.link(item, "parity", i % 2);
+            t.link(item, "group", "Group" + (i % 10));
+            t.link(item, "name", generateName(i));
+            t.link(item, "tags", new String[]{"t" + (i % 3), "T" + (i % 7)});
+            t.link(item, "values", new double[]{i % 5, i % 11});
+            if (i >= 100) {
+                t.link(item, "parent", items[i / 100]);
+            }
+            items[i] = item;
+        }
+        t.commit();
+    }
+
+    void checkPlans()
+    {
+        ReadOnlyTransaction t = db.startReadOnlyTransaction();
+        PlanChecker checker = new PlanChecker(db, storage);
+        Item root = t.find(eq("id", 1)).first();
+        Predicate[] queries = new Predicate[] {
+            // selective conjunct first or last: unselective ones are probed
+            and(eq("id", 5), eq("parity", 1)),
+            and(eq("parity", 1), eq("group", "group5"), eq("id", 5)),
+            and(Predicate.between("id", 100, 120), eq("group", "GROUP3"), eq("tags", "t2")),
+            and(eq("parity", 0), cmp("name", Predicate.Compare.Operation.StartsWith, "c"), eq("values", 3)),
+            and(cmp("id", Predicate.Compare.Operation.InArray, new double[]{7, 70, 700, 7000}), cmp("parity", Predicate.Compare.Operation.GreaterThan, 0)),
+            and(cmp("id", Predicate.Compare.Operation.LessOrEquals, 30), Predicate.between("values", 4, 6), cmp("group", Predicate.Compare.Operation.InArray, new String[]{"group0", "Group4"})),
+            and(Predicate.or(cmp("id", Predicate.Compare.Operation.LessThan, 10), cmp("id", Predicate.Compare.Operation.GreaterOrEquals, nItems - 10)), eq("tags", "t3"), eq("parity", 1)),
+            // conjuncts which can be evaluated only using indices
+            and(eq("parent", root), cmp("id", Predicate.Compare.Operation.LessThan, 150), eq("parity", 0)),
+            and(Predicate.in("parent", eq("id", 2)), eq("group", "group4")),
+            // empty results
+            and(eq("id", 5), eq("parity", 0)),
+            and(eq("id", 5), eq("missing", 1), eq("parity", 1)),
+            // no selective conjuncts
+            and(eq("parity", 1), eq("tags", "t1"), cmp("values", Predicate.Compare.Operation.GreaterThan, 9))
+        };
+        int nProbedQueries = 0;
+        for (int i = 0; i < queries.length; i++) {
+            checker.nProbes = 0;
+            int[] planned = checker.planned(queries[i]).toOidArray();
+            if (checker.nProbes != 0) {
+                nProbedQueries += 1;
+            }
+            int[] naive = checker.naive(queries[i]).toOidArray();
+            Assert.that(Arrays.equals(planned, naive));
+            Assert.that(t.find(queries[i]).size() == naive.length);
+        }
+        Assert.that(nProbedQueries > 0);
+
+        // a conjunct evaluated only by probing should select the same items as its index
+        Predicate[] probes = new Predicate[] {
+            eq("parity", 1),
+            eq("group", "GROUP7"),
+            cmp("name", Predicate.Compare.Operation.StartsWith, "b"),
+            cmp("name", Predicate.Compare.Operation.IsPrefixOf, "cAbDxyz"),
+            eq("tags", "t2"),
+            eq("values", 10),
+            Predicate.between("values", 1.5, 3),
+            cmp("group", Predicate.Compare.Operation.InArray, new String[]{"group1", "GROUP2"}),
+            Predicate.or(eq("id", 3), cmp("id", Predicate.Compare.Operation.GreaterThan, nItems - 3))
+        };
+        for (int i = 0; i < probes.length; i++) {
+            Assert.that(checker.probeable(probes[i]));
+            CompressedBitmap<Item> probed = new CompressedBitmap<Item>(storage);
+            for (Item item : t.getOccurrences("id")) {
+                if (checker.check(item, probes[i])) {
+                    probed.add(item.getOid());
+                }
+            }
+            Assert.that(Arrays.equals(probed.toOidArray(), checker.naive(probes[i]).toOidArray()));
+        }
+        Assert.that(!checker.probeable(eq("parent", root)));
+        Assert.that(!checker.probeable(Predicate.in("parent", eq("id", 2))));
+
+        Assert.that(checker.estimate(eq("id", 5)) == 1);
+        Assert.that(checker.estimate(eq("parity", 1)) == SELECTIVITY_ESTIMATE_LIMIT);
+        Assert.that(checker.estimate(Predicate.in("parent", eq("id", 2))) == SELECTIVITY_ESTIMATE_LIMIT);
+        Assert.that(checker.estimate(and(eq("id", 5), eq("parity", 1))) == 1);
+        t.commit();
+        System.out.println("Planned and naive evaluation of " + queries.length + " queries produce the same results, "
+                           + nProbedQueries + " of them are evaluated using probing");
+    }
+
+    public static void main(String[] args)
+    {
+        Planner test = new Planner(args.length > 0 ? Integer.parseInt(args[0]) : 10000);
+        test.populateDatabase();
+        test.checkPlans();
+        test.shutdown();
+    }
+
+    void shutdown()
+    {
+        storage.close();
+    }
+
+    Planner(int nItems)
+    {
+        this.nItems = nItems;
+        storage = StorageFactory.getInstance().createStorage();
+        storage.open("planner.dbs");
+        db = new AssocDB(storage);
+        db.setSelectivityEstimateLimit(SELECTIVITY_ESTIMATE_LIMIT);
+    }
+
+    Storage storage;
+    AssocDB db;
+}
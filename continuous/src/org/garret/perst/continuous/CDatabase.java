@@ -5,9 +5,9 @@ import java.io.*;
 import org.garret.perst.*;
 import org.garret.perst.impl.ClassDescriptor;
 
-import org.apache.lucene.index.Term;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SerialMergeScheduler;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.DateTools;
@@ -84,14 +84,18 @@ public class CDatabase {
         }
         openFullTextIndex(root, fullTextIndexPath);
         storage.commit();
+        fullTextIndexer = new FullTextIndexer(this);
+        fullTextIndexer.start();
     }
 
     /**
      * Close the database. All uncommitted transaction will be aborted.
-     * Close full text index and storage. 
+     * Wait until all committed changes are applied to full text index, close full text index and storage. 
      */
     public void close() 
     { 
+        fullTextIndexer.shutdown();
+        fullTextIndexer = null;
         try { 
             if (indexWriter != null) { 
                 indexWriter.close();
@@ -156,6 +160,14 @@ public class CDatabase {
 
     /**
      * Commit transaction. 
+     * Conflict detection, assignment of versions, update of indices and commit of storage are performed 
+     * while holding exclusive database lock. If Lucene index is stored inside Perst storage, it is updated 
+     * by the same storage commit, so the data and the index are always consistent. If Lucene index is located in 
+     * file system directory, it is updated asynchronously by background thread after commit of transaction, 
+     * so writers are not blocked by Lucene document construction and index writer commits.
+     * Full text search methods wait until updates of all previously committed transactions are applied to full text index.
+     * In case of failure, updates of the last committed transactions may be missed in file system index: 
+     * in this case it can be reconstructed by restoreFullTextIndex method.
      * @exception ConflictExpetion is thrown if object modified by this transaction was also changed by some other 
      * previously committed transaction 
      * @exception NotUniqueException is thrown if indexable field with unique constraint of inserted or updated object 
@@ -175,6 +187,7 @@ public class CDatabase {
             ctx.endTransaction();
             return ctx.transId;
         }
+        ArrayList<FullTextIndexer.Task> fullTextUpdates = new ArrayList<FullTextIndexer.Task>();
         root.exclusiveLock();
         try { 
             Collection<CVersion> workSet = ctx.getWorkingCopies();
@@ -215,25 +228,35 @@ public class CDatabase {
                     CVersion old;
                     while ((old = vh.get(CVersion.FIRST_VERSION_ID)).transId < lastActiveTransId) {
                         desc.excludeFromIndices(old);
-                        excludeFromFullTextIndex(desc, old);
+                        if (desc.isFullTextSearchable()) { 
+                            fullTextUpdates.add(new FullTextIndexer.Exclude(old));
+                        }
                         vh.remove(CVersion.FIRST_VERSION_ID);
                         old.deallocate();
                     }
                 }
                 if ((flags & CVersion.DELETED) == 0) {
                     desc.includeInIndices(v); 
-                    includeInFullTextIndex(desc.buildDocument(v));
+                    if (desc.isFullTextSearchable()) { 
+                        // document refers to the version by OID, so it should be assigned before storage commit
+                        storage.makePersistent(v);
+                        fullTextUpdates.add(new FullTextIndexer.Include(desc, v));
+                    }
                 }
             }      
-            try {
-                if (indexWriter != null) { 
-                    indexWriter.close();
-                    indexWriter = null;
+            if (dir instanceof PerstDirectory && fullTextUpdates.size() != 0) { 
+                // Lucene index stored in Perst storage is updated synchronously:
+                // it is committed together with the data by the same storage commit
+                try { 
+                    applyFullTextUpdates(fullTextUpdates);
+                } catch (IOException x) { 
+                    throw new IOError(x);
                 }
-            } catch (IOException x) { 
-                throw new IOError(x);
+            } else { 
+                storage.commit();
+                // updates are enqueued under the lock to preserve order of transactions
+                fullTextIndexer.enqueue(fullTextUpdates);
             }
-            storage.commit();
             return transId;
         } finally { 
             root.unlock();         
@@ -641,6 +664,9 @@ public class CDatabase {
     public FullTextSearchResult[] fullTextSearch(String query, int limit, VersionSelector selector, VersionSortOrder order)
     {
         ArrayList<FullTextSearchResult> result = null;
+        // indexer can not be awaited while holding the lock, so transactions committed after sync
+        // may be not yet reflected in the index: FullTextSearchIterator skips documents of removed versions
+        fullTextIndexer.sync();
         root.sharedLock();
         try { 
             Hits hits;
@@ -693,56 +719,20 @@ public class CDatabase {
      * If the full text search index is located in file system directory it may be get out of sync with the Perst database or even be 
      * corrupted in case of failure. In this case index can be reconstructed using this method.
      */
-    public synchronized void restoreFullTextIndex()
+    public void restoreFullTextIndex()
     {
-        root.exclusiveLock();
-        try { 
-            try { 
-                if (indexWriter != null) { 
-                    indexWriter.close();
-                }
-                if (indexReader != null) { 
-                    indexReader.close();
-                    indexReader = null;
-                }
-                indexWriter = new IndexWriter(dir, analyzer, true);
-                for (TableDescriptor table : root.tables) {
-                    for (CVersionHistory<?> vh : table) {
-                        for (CVersion v : vh) { 
-                            if (!v.isDeletedVersion()) { 
-                                Document doc = table.buildDocument(v);
-                                if (doc != null) { 
-                                    indexWriter.addDocument(doc);
-                                }
-                            }
-                        }
-                    }
-                }                                       
-                indexWriter.optimize();
-            } catch (IOException x) {
-                throw new IOError(x);
-            }
-        } finally { 
-            root.unlock();
-        }
+        fullTextIndexer.enqueue(new FullTextIndexer.Restore());
+        fullTextIndexer.sync();
     }
 
     /**
      * Optimize full text index. This method can be periodically called by application (preferably in idle time)
      * to optimize full text search index
      */
-    public synchronized void optimizeFullTextIndex() 
+    public void optimizeFullTextIndex() 
     {
-        root.exclusiveLock();
-        try { 
-            try { 
-                getIndexWriter().optimize();
-            } catch (IOException x) {
-                throw new IOError(x);
-            }
-        } finally { 
-            root.unlock();
-        }
+        fullTextIndexer.enqueue(new FullTextIndexer.Optimize());
+        fullTextIndexer.sync();
     }
         
 
@@ -801,6 +791,7 @@ public class CDatabase {
      * Get collection all of field names 
      */
     public Collection<String> getAllFullTextSearchanbleFieldNames() throws Exception {
+       fullTextIndexer.sync();
        return getIndexReader().getFieldNames(IndexReader.FieldOption.INDEXED);
     }
 
@@ -843,33 +834,85 @@ public class CDatabase {
         dir.setLockFactory(NoLockFactory.getNoLockFactory());
         analyzer = new StandardAnalyzer();
         try { 
-            indexWriter = new IndexWriter(dir, analyzer, create);
+            indexWriter = openIndexWriter(create);
+            indexWriter.commit();
         } catch (IOException x) {
             throw new IOError(x);
         }
     }
 
-    void excludeFromFullTextIndex(TableDescriptor desc, CVersion v) 
+    IndexWriter openIndexWriter(boolean create) throws IOException
     {
-        if (desc.isFullTextSearchable()) { 
-            Term term = new Term("Oid", Integer.toString(v.getOid()));
-            try { 
-                getIndexReader().deleteDocuments(term);
-            } catch (IOException x) { 
-                throw new IOError(x);
-            }
+        IndexWriter writer = new IndexWriter(dir, analyzer, create);
+        if (dir instanceof PerstDirectory) { 
+            // all changes of Lucene index stored in Perst database should be completed before storage commit
+            writer.setMergeScheduler(new SerialMergeScheduler());
         }
+        return writer;
     }
-    
 
-    void includeInFullTextIndex(Document doc)
+    /**
+     * Apply batch of full text index updates. This method is invoked by FullTextIndexer thread 
+     * or, if Lucene index is stored inside Perst storage, by commitTransaction.
+     * In the last case exclusive lock is held until the changes of index are committed together with 
+     * changes of the data, so that no other transaction can commit partially updated index.
+     */
+    void applyFullTextUpdates(ArrayList<FullTextIndexer.Task> tasks) throws IOException
     {
-        if (doc != null) { 
+        boolean persistentIndex = dir instanceof PerstDirectory;
+        if (persistentIndex) { 
+            root.exclusiveLock();
+        }
+        try { 
+            for (FullTextIndexer.Task task : tasks) { 
+                task.apply(this);
+            }
+            indexWriter.commit();
+            root.exclusiveLock();
             try { 
-                getIndexWriter().addDocument(doc);
-            } catch (IOException x) {
-                throw new IOError(x);
+                // readers are used by search methods holding shared lock
+                if (indexReader != null) { 
+                    indexReader.close();
+                    indexReader = null;
+                }
+                if (persistentIndex) { 
+                    storage.commit();
+                }
+            } finally { 
+                root.unlock();
             }
+        } finally { 
+            if (persistentIndex) { 
+                root.unlock();
+            }
+        }
+    }
+
+    /**
+     * Reconstruct full text index from current state of the database.
+     * This method is invoked by FullTextIndexer thread.
+     */
+    void rebuildFullTextIndex() throws IOException
+    {
+        root.exclusiveLock();
+        try { 
+            indexWriter.close();
+            indexWriter = openIndexWriter(true);
+            for (TableDescriptor table : root.tables) {
+                for (CVersionHistory<?> vh : table) {
+                    for (CVersion v : vh) { 
+                        if (!v.isDeletedVersion()) { 
+                            Document doc = table.buildDocument(v);
+                            if (doc != null) { 
+                                indexWriter.addDocument(doc);
+                            }
+                        }
+                    }
+                }
+            }                                       
+            indexWriter.optimize();
+        } finally { 
+            root.unlock();
         }
     }
 
@@ -897,25 +940,9 @@ public class CDatabase {
         }
     }
            
-    synchronized IndexWriter getIndexWriter() throws IOException 
-    {
-        if (indexWriter == null) { 
-            if (indexReader != null) { 
-                indexReader.close();
-                indexReader = null;
-            }
-            indexWriter = new IndexWriter(dir, analyzer, false);
-        }
-        return indexWriter;
-    }
-
     synchronized IndexReader getIndexReader() throws IOException 
     {             
         if (indexReader == null) { 
-            if (indexWriter != null) { 
-                indexWriter.close();
-                indexWriter = null;
-            }
             indexReader = IndexReader.open(dir);
         }
         return indexReader;
@@ -927,6 +954,7 @@ public class CDatabase {
     RootObject root;
     HashMap<Class,TableDescriptor> typeMap;   
     IndexWriter indexWriter;
+    FullTextIndexer fullTextIndexer;
     IndexReader indexReader;
     StandardAnalyzer analyzer;
     Directory dir;
@@ -0,0 +1,207 @@
+package org.garret.perst.continuous;
+
+import java.util.*;
+import java.io.IOException;
+
+import org.apache.lucene.index.Term;
+import org.apache.lucene.document.Document;
+
+/**
+ * Background thread maintaining Lucene full text index located in file system directory.
+ * Commit of transaction doesn't update full text index itself: it just enqueues list of updates
+ * (documents to be added for new versions and documents to be deleted for removed versions) in the
+ * order of transaction commits. Indexer thread takes all enqueued updates at once, builds Lucene documents
+ * and applies them using the same index writer, so cost of opening and committing index writer is shared
+ * by all transactions committed since the previous batch.
+ */
+class FullTextIndexer extends Thread
+{
+    static abstract class Task
+    {
+        abstract void apply(CDatabase db) throws IOException;
+    }
+
+    static class Include extends Task
+    {
+        TableDescriptor desc;
+        CVersion v;
+        int oid;
+
+        void apply(CDatabase db) throws IOException {
+            // version can be removed from limited version history before indexer reaches it:
+            // in this case exclusion of the version is also enqueued and nothing has to be done.
+            // Deallocated version should not be accessed, so it is checked before building the document.
+            if (v.getOid() == oid) { 
+                Document doc = desc.buildDocument(v);
+                if (doc != null) { 
+                    // document is replaced rather than added, because it can be already included by reconstruction of the index
+                    db.indexWriter.updateDocument(new Term("Oid", Integer.toString(oid)), doc);
+                }
+            }
+        }
+
+        Include(TableDescriptor desc, CVersion v) { 
+            this.desc = desc;
+            this.v = v;
+            oid = v.getOid();
+        }
+    }
+
+    static class Exclude extends Task
+    {
+        Term term;
+
+        void apply(CDatabase db) throws IOException {
+            db.indexWriter.deleteDocuments(term);
+        }
+
+        Exclude(CVersion v) { 
+            term = new Term("Oid", Integer.toString(v.getOid()));
+        }
+    }
+
+    static class Optimize extends Task
+    {
+        void apply(CDatabase db) throws IOException {
+            db.indexWriter.optimize();
+        }
+    }
+
+    static class Restore extends Task
+    {
+        void apply(CDatabase db) throws IOException {
+            db.rebuildFullTextIndex();
+        }
+    }
+
+    /**
+     * Enqueue updates of committed transaction.
+     * This method should be invoked in the order of transaction commits.
+     */
+    synchronized void enqueue(ArrayList<Task> tasks)
+    {
+        if (tasks.size() != 0) { 
+            pending.addAll(tasks);
+            nEnqueued += tasks.size();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Enqueue single update
+     */
+    void enqueue(Task task)
+    {
+        ArrayList<Task> tasks = new ArrayList<Task>(1);
+        tasks.add(task);
+        enqueue(tasks);
+    }
+
+    /**
+     * Wait until all updates enqueued before invocation of this method are applied to the full text index.
+     * This method should not be called while holding database lock.
+     * If indexer failed to apply batch of updates, the error is reported to the first thread calling this method
+     * after the failure (it is not necessarily the thread which committed the failed updates). Documents of the failed batch
+     * are not lost: reconstruction of the whole index is enqueued after such batch.
+     * @exception IOError or other exception if indexer failed to apply some of updates
+     */
+    synchronized void sync()
+    {
+        long target = nEnqueued;
+        try { 
+            while (nApplied < target) { 
+                wait();
+            }
+        } catch (InterruptedException x) {}
+        RuntimeException x = error;
+        if (x != null) { 
+            error = null;
+            throw x;
+        }
+    }
+
+    /**
+     * Apply all pending updates and terminate indexer thread
+     */
+    void shutdown()
+    {
+        synchronized (this) { 
+            closed = true;
+            notifyAll();
+        }
+        try { 
+            join();
+        } catch (InterruptedException x) {}
+        RuntimeException x = error;
+        if (x != null) { 
+            error = null;
+            throw x;
+        }
+    }
+
+    public void run()
+    {
+        while (true) { 
+            ArrayList<Task> batch;
+            synchronized (this) { 
+                while (pending.size() == 0 && !closed) { 
+                    try { 
+                        wait();
+                    } catch (InterruptedException x) {}
+                }
+                if (pending.size() == 0) { 
+                    break;
+                }
+                batch = pending;
+                pending = new ArrayList<Task>();
+            }
+            RuntimeException failure = null;
+            try { 
+                db.applyFullTextUpdates(batch);
+            } catch (IOException x) { 
+                failure = new IOError(x);
+            } catch (RuntimeException x) { 
+                failure = x;
+            }
+            synchronized (this) { 
+                if (failure != null) { 
+                    if (error == null) { 
+                        error = failure;
+                    }
+                    if (!containsRestore(batch)) { 
+                        // some documents of the batch may be not applied: rebuild the index from the database
+                        pending.add(new Restore());
+                        nEnqueued += 1;
+                    }
+                }
+                nApplied += batch.size();
+                notifyAll();
+            }
+        }
+    }
+
+    private static boolean containsRestore(ArrayList<Task> batch)
+    {
+        for (Task task : batch) { 
+            if (task instanceof Restore) { 
+                return true;
+            }
+        }
+        return false;
+    }
+
+    FullTextIndexer(CDatabase db)
+    {
+        super("FullTextIndexer");
+        this.db = db;
+        setDaemon(true);
+        pending = new ArrayList<Task>();
+    }
+
+    private CDatabase db;
+    private ArrayList<Task> pending;
+    private long nEnqueued;
+    private long nApplied;
+    private boolean closed;
+    private RuntimeException error;
+}
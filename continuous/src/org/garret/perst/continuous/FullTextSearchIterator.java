@@ -29,7 +29,10 @@ class FullTextSearchIterator implements Iterator<FullTextSearchResult>
                     if (f == null) { 
                         continue;
                     }
-                    CVersion v = (CVersion)storage.getObjectByOID(Integer.parseInt(f.stringValue()));                
+                    CVersion v = getVersion(doc, Integer.parseInt(f.stringValue()));
+                    if (v == null) { 
+                        continue;
+                    }
                     switch (selector.kind) { 
                     case Current:
                         if (v.getVersionHistory().isCurrentForTransaction(v, transId)) { 
@@ -67,6 +70,30 @@ class FullTextSearchIterator implements Iterator<FullTextSearchResult>
         return current != null;
     }
 
+    /**
+     * Get version referenced by the document.
+     * Full text index is updated asynchronously, so document may refer to the version which is already
+     * removed from the database and its OID may be reused by another object: such documents are skipped.
+     */
+    private CVersion getVersion(Document doc, int oid) 
+    {
+        Object obj;
+        try { 
+            obj = storage.getObjectByOID(oid);
+        } catch (StorageError x) { // version was deallocated
+            return null;
+        }
+        if (!(obj instanceof CVersion) || !obj.getClass().getName().equals(doc.get("Class"))) { 
+            return null;
+        }
+        CVersion v = (CVersion)obj;
+        String transId = doc.get("TransId"); // not present in indices created by previous versions
+        if (transId != null && Long.parseLong(transId) != v.transId) { 
+            return null;
+        }
+        return v;
+    }
+
     public FullTextSearchResult next() 
     {
         if (!hasNext()) {
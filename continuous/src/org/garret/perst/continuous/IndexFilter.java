@@ -105,6 +105,16 @@ class IndexFilter<T> extends PersistentCollection<T> implements GenericIndex<T>
         }
     }
 
+    public IterableIterator<T> prefixIterator(String prefix, int order) 
+    {
+        resource.sharedLock();
+        try { 
+            return new IndexIterator<T>(index.prefixIterator(prefix, order), resource, selector);
+        } finally { 
+            resource.unlock();
+        }
+    }
+
     public int indexOf(Key key)
     {
         return index.indexOf(key);
@@ -462,6 +462,11 @@ class TableDescriptor extends Persistent implements Iterable<CVersionHistory>
                  DateTools.timeToString(System.currentTimeMillis(), DateTools.Resolution.MINUTE),
                  org.apache.lucene.document.Field.Store.YES, 
                  org.apache.lucene.document.Field.Index.UN_TOKENIZED));
+        doc.add(new org.apache.lucene.document.Field
+                ("TransId", 
+                 Long.toString(v.transId),
+                 org.apache.lucene.document.Field.Store.YES, 
+                 org.apache.lucene.document.Field.Index.NO));
         doc.add(new org.apache.lucene.document.Field
                 ("Any", any.toString(),
                  org.apache.lucene.document.Field.Store.YES, 
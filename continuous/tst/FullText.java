@@ -0,0 +1,189 @@
+import org.garret.perst.*;
+import org.garret.perst.continuous.*;
+
+import java.io.*;
+
+class Note extends CVersion
+{
+    @Indexable(unique=true)
+    int id;
+
+    @FullTextSearchable
+    String text;
+
+    Note(int id, String text)
+    {
+        this.id = id;
+        this.text = text;
+    }
+
+    private Note() {}
+}
+
+@NotVersioned
+class Counter extends CVersion
+{
+    @Indexable(unique=true)
+    int id;
+
+    @FullTextSearchable
+    String text;
+
+    Counter(int id, String text)
+    {
+        this.id = id;
+        this.text = text;
+    }
+
+    private Counter() {}
+}
+
+/**
+ * Check that committed changes are visible to full text search and that full text index stored
+ * in Perst storage is committed together with the data
+ */
+public class FullText implements Runnable
+{
+    static final int N_THREADS = 4;
+    static final int N_NOTES = 100;
+    static final int N_UPDATES = 200;
+
+    CDatabase db;
+    int threadId;
+
+    static String word(int id)
+    {
+        return "word" + id;
+    }
+
+    static int findNote(CDatabase db, String word)
+    {
+        FullTextSearchResult[] results = db.fullTextSearch(word, 10);
+        if (results.length == 0) {
+            return -1;
+        }
+        Assert.that(results.length == 1);
+        return ((Note)results[0].getVersion()).id;
+    }
+
+    public void run()
+    {
+        for (int i = 0; i < N_NOTES; i++) {
+            int id = threadId*N_NOTES + i;
+            db.beginTransaction();
+            db.insert(new Note(id, "note " + word(id)));
+            db.commitTransaction();
+            // changes of committed transaction should be visible to full text search
+            Assert.that(findNote(db, word(id)) == id);
+        }
+    }
+
+    FullText(CDatabase db, int threadId)
+    {
+        this.db = db;
+        this.threadId = threadId;
+    }
+
+    static void removeFiles(File file)
+    {
+        if (file.isDirectory()) {
+            for (File f : file.listFiles()) {
+                removeFiles(f);
+            }
+        }
+        file.delete();
+    }
+
+    static void copyFile(String src, String dst) throws IOException
+    {
+        InputStream in = new FileInputStream(src);
+        OutputStream out = new FileOutputStream(dst);
+        byte[] buf = new byte[64*1024];
+        int rc;
+        while ((rc = in.read(buf)) > 0) {
+            out.write(buf, 0, rc);
+        }
+        in.close();
+        out.close();
+    }
+
+    static void test(String indexPath) throws Exception
+    {
+        removeFiles(new File("fulltext.dbs"));
+        removeFiles(new File("fulltextcopy.dbs"));
+        removeFiles(new File("fulltext.idx"));
+        Storage storage = StorageFactory.getInstance().createStorage();
+        storage.open("fulltext.dbs");
+        CDatabase db = CDatabase.instance;
+        db.open(storage, indexPath);
+
+        long start = System.currentTimeMillis();
+        Thread[] threads = new Thread[N_THREADS];
+        for (int i = 0; i < N_THREADS; i++) {
+            threads[i] = new Thread(new FullText(db, i));
+            threads[i].start();
+        }
+        for (int i = 0; i < N_THREADS; i++) {
+            threads[i].join();
+        }
+        System.out.println("Elapsed time for " + N_THREADS*N_NOTES + " transactions and searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        // new version replaces the old one in search results
+        db.beginTransaction();
+        Note note = db.getSingleton(db.<Note>find(Note.class, "id", new Key(0)));
+        note = note.update();
+        note.text = "note changed";
+        db.commitTransaction();
+        Assert.that(findNote(db, word(0)) == -1);
+        Assert.that(findNote(db, "changed") == 0);
+
+        db.beginTransaction();
+        db.getSingleton(db.<Note>find(Note.class, "id", new Key(1))).delete();
+        db.commitTransaction();
+        Assert.that(findNote(db, word(1)) == -1);
+
+        // old versions of not versioned object are removed, but their documents can be still in the queue of indexer
+        db.beginTransaction();
+        db.insert(new Counter(0, "counter value0"));
+        db.commitTransaction();
+        for (int i = 1; i <= N_UPDATES; i++) {
+            db.beginTransaction();
+            Counter counter = db.getSingleton(db.<Counter>find(Counter.class, "id", new Key(0)));
+            counter = counter.update();
+            counter.text = "counter value" + i;
+            db.commitTransaction();
+        }
+        FullTextSearchResult[] results = db.fullTextSearch("counter", 10);
+        Assert.that(results.length == 1 && ((Counter)results[0].getVersion()).text.equals("counter value" + N_UPDATES));
+
+        if (indexPath == null) {
+            // emulate crash right after commit: copy of the database should contain index of all committed data
+            db.beginTransaction();
+            db.insert(new Note(N_THREADS*N_NOTES, "note last"));
+            db.commitTransaction();
+            copyFile("fulltext.dbs", "fulltextcopy.dbs");
+            Storage copyStorage = StorageFactory.getInstance().createStorage();
+            copyStorage.open("fulltextcopy.dbs");
+            // transactions are bound to CDatabase.instance, but search doesn't need them
+            CDatabase copy = new CDatabase();
+            copy.open(copyStorage, null);
+            Assert.that(findNote(copy, "last") == N_THREADS*N_NOTES);
+            for (int i = 2; i < N_THREADS*N_NOTES; i++) {
+                Assert.that(findNote(copy, word(i)) == i);
+            }
+            copy.close();
+        }
+        db.close();
+        System.out.println("Full text index " + (indexPath == null ? "in Perst storage" : "in directory " + indexPath) + " is consistent with the data");
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        test(null);
+        test("fulltext.idx");
+        removeFiles(new File("fulltext.dbs"));
+        removeFiles(new File("fulltextcopy.dbs"));
+        removeFiles(new File("fulltext.idx"));
+    }
+}
@@ -1,6 +1,7 @@
 package org.garret.perst;
 
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 
 /**
  * Class used to perform aggregation.
@@ -20,6 +21,11 @@ import java.util.*;
  * aggregation. Aggregator can use ordered or unordered map (TreeMap or HashMap). Ordered map returns results in ascending 
  * order of group-by values.
  * <p>
+ * Aggregation can be performed by several threads: each thread aggregates its partition of input in its own map
+ * and then partial results are combined using <code>Aggregate.merge</code> method. To avoid boxing of aggregated values
+ * <code>LongGroupBy</code> and <code>DoubleGroupBy</code> can be used with aggregates implementing 
+ * <code>LongAggregate</code> and <code>DoubleAggregate</code> interfaces.
+ * <p>
  * Example:
  * <pre>
  *     class Quote implements TimeSeries.Tick { 
@@ -100,6 +106,82 @@ public class Aggregator
         Object getValue(T obj);
     }
 
+    /**
+     * Aggregate of long values. Values are passed to the aggregate without boxing.
+     */
+    public interface LongAggregate extends Aggregate<Number>
+    {
+        /**
+         * Initialize aggregate state 
+         * @param val first aggregated value for this group
+         */
+        void initialize(long val);
+        /**
+         * Accumulate aggregate state 
+         * @param val subsequent aggregated value for this group
+         */
+        void accumulate(long val);
+    }
+
+    /**
+     * Aggregate of double values. Values are passed to the aggregate without boxing.
+     */
+    public interface DoubleAggregate extends Aggregate<Number>
+    {
+        /**
+         * Initialize aggregate state 
+         * @param val first aggregated value for this group
+         */
+        void initialize(double val);
+        /**
+         * Accumulate aggregate state 
+         * @param val subsequent aggregated value for this group
+         */
+        void accumulate(double val);
+    }
+
+    /**
+     * Aggregation operation for long field: aggregated value is returned without boxing
+     */
+    public interface LongGroupBy<T> 
+    {
+        /**
+         * Used aggregate 
+         */
+        LongAggregate getAggregate();
+
+        /**
+         * Group-by field(s). 
+         */
+        Object getKey(T obj);
+
+        /** 
+         * Aggregated field. 
+         */
+        long getValue(T obj);
+    }
+
+    /**
+     * Aggregation operation for double field: aggregated value is returned without boxing
+     */
+    public interface DoubleGroupBy<T> 
+    {
+        /**
+         * Used aggregate 
+         */
+        DoubleAggregate getAggregate();
+
+        /**
+         * Group-by field(s). 
+         */
+        Object getKey(T obj);
+
+        /** 
+         * Aggregated field. 
+         */
+        double getValue(T obj);
+    }
+
     /**
      * Perform aggregation
      * @param iterable collection of aggregated objects
@@ -157,6 +239,281 @@ public class Aggregator
         }
     }
                             
+    /**
+     * Perform aggregation of long values without boxing
+     * @param iterable collection of aggregated objects
+     * @param groupBy aggregation operation
+     * @param orderByKey specify whether ordered map (TreeMap) should be used for grouping
+     * @return map with results of aggregation: &lt;group-by,aggregate-value&gt; pairs
+     */
+    @SuppressWarnings("rawtypes") // result type is the same as of other aggregate methods
+    public static <T> Map<Object,Aggregate> aggregate(Iterable<T> iterable, LongGroupBy<T> groupBy, boolean orderByKey) 
+    {
+        return aggregate(iterable, new LongPartition<T>(groupBy), orderByKey, 1);
+    }
+
+    /**
+     * Perform aggregation of double values without boxing
+     * @param iterable collection of aggregated objects
+     * @param groupBy aggregation operation
+     * @param orderByKey specify whether ordered map (TreeMap) should be used for grouping
+     * @return map with results of aggregation: &lt;group-by,aggregate-value&gt; pairs
+     */
+    @SuppressWarnings("rawtypes") // result type is the same as of other aggregate methods
+    public static <T> Map<Object,Aggregate> aggregate(Iterable<T> iterable, DoubleGroupBy<T> groupBy, boolean orderByKey) 
+    {
+        return aggregate(iterable, new DoublePartition<T>(groupBy), orderByKey, 1);
+    }
+
+    /**
+     * Perform aggregation in parallel. Input is split into partitions, each partition is aggregated by 
+     * separate thread in its own map and then partial results are combined using <code>Aggregate.merge</code> method.
+     * If collection is random access list, then it is split into <code>nThreads</code> contiguous ranges and
+     * results are merged in the order of ranges. Otherwise collection is traversed by the calling thread 
+     * (so iterators of persistent collections are accessed by one thread) and chunks of objects are distributed 
+     * between threads: in this case order in which objects are passed to the aggregates is not preserved and
+     * results of order dependent aggregates (like <code>FirstAggregate</code> and <code>LastAggregate</code>) are not defined.
+     * Methods of <code>GroupBy</code> are invoked concurrently by several threads.
+     * @param iterable collection of aggregated objects
+     * @param groupBy aggregation operation
+     * @param orderByKey specify whether ordered map (TreeMap) should be used for grouping
+     * @param nThreads number of aggregation threads
+     * @return map with results of aggregation: &lt;group-by,aggregate-value&gt; pairs
+     */
+    @SuppressWarnings("rawtypes") // result type is the same as of other aggregate methods
+    public static <T> Map<Object,Aggregate> aggregate(Iterable<T> iterable, GroupBy<T> groupBy, boolean orderByKey, int nThreads) 
+    {
+        return aggregate(iterable, new ObjectPartition<T>(groupBy), orderByKey, nThreads);
+    }
+
+    /**
+     * Perform aggregation of long values in parallel without boxing
+     * @see #aggregate(Iterable, GroupBy, boolean, int)
+     */
+    @SuppressWarnings("rawtypes") // result type is the same as of other aggregate methods
+    public static <T> Map<Object,Aggregate> aggregate(Iterable<T> iterable, LongGroupBy<T> groupBy, boolean orderByKey, int nThreads) 
+    {
+        return aggregate(iterable, new LongPartition<T>(groupBy), orderByKey, nThreads);
+    }
+
+    /**
+     * Perform aggregation of double values in parallel without boxing
+     * @see #aggregate(Iterable, GroupBy, boolean, int)
+     */
+    @SuppressWarnings("rawtypes") // result type is the same as of other aggregate methods
+    public static <T> Map<Object,Aggregate> aggregate(Iterable<T> iterable, DoubleGroupBy<T> groupBy, boolean orderByKey, int nThreads) 
+    {
+        return aggregate(iterable, new DoublePartition<T>(groupBy), orderByKey, nThreads);
+    }
+
+    /**
+     * Number of objects in chunk passed to aggregation thread
+     */
+    static final int CHUNK_SIZE = 4096;
+
+    /**
+     * State of aggregation of one partition of input
+     */
+    static abstract class Partition<T>
+    {
+        @SuppressWarnings("rawtypes")
+        HashMap<Object,Aggregate> map = new HashMap<Object,Aggregate>();
+
+        abstract void add(T obj);
+
+        abstract Partition<T> create();
+    }
+
+    static class ObjectPartition<T> extends Partition<T>
+    {
+        GroupBy<T> groupBy;
+
+        ObjectPartition(GroupBy<T> groupBy) { 
+            this.groupBy = groupBy;
+        }
+
+        Partition<T> create() { 
+            return new ObjectPartition<T>(groupBy);
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"}) // GroupBy creates aggregates of unspecified value type
+        void add(T obj) { 
+            Object key = groupBy.getKey(obj);
+            Object value = groupBy.getValue(obj);
+            Aggregate agg = map.get(key);
+            if (agg == null) { 
+                agg = groupBy.getAggregate();
+                map.put(key, agg);
+                agg.initialize(value);
+            } else { 
+                agg.accumulate(value);
+            }
+        }
+    }
+
+    static class LongPartition<T> extends Partition<T>
+    {
+        LongGroupBy<T> groupBy;
+
+        LongPartition(LongGroupBy<T> groupBy) { 
+            this.groupBy = groupBy;
+        }
+
+        Partition<T> create() { 
+            return new LongPartition<T>(groupBy);
+        }
+
+        void add(T obj) { 
+            Object key = groupBy.getKey(obj);
+            long value = groupBy.getValue(obj);
+            LongAggregate agg = (LongAggregate)map.get(key);
+            if (agg == null) { 
+                agg = groupBy.getAggregate();
+                map.put(key, agg);
+                agg.initialize(value);
+            } else { 
+                agg.accumulate(value);
+            }
+        }
+    }
+
+    static class DoublePartition<T> extends Partition<T>
+    {
+        DoubleGroupBy<T> groupBy;
+
+        DoublePartition(DoubleGroupBy<T> groupBy) { 
+            this.groupBy = groupBy;
+        }
+
+        Partition<T> create() { 
+            return new DoublePartition<T>(groupBy);
+        }
+
+        void add(T obj) { 
+            Object key = groupBy.getKey(obj);
+            double value = groupBy.getValue(obj);
+            DoubleAggregate agg = (DoubleAggregate)map.get(key);
+            if (agg == null) { 
+                agg = groupBy.getAggregate();
+                map.put(key, agg);
+                agg.initialize(value);
+            } else { 
+                agg.accumulate(value);
+            }
+        }
+    }
+
+    @SuppressWarnings("rawtypes")
+    static <T> Map<Object,Aggregate> aggregate(Iterable<T> iterable, Partition<T> partition, boolean orderByKey, int nThreads) 
+    {
+        final ArrayList<Partition<T>> partitions = new ArrayList<Partition<T>>(Math.max(nThreads, 1));
+        partitions.add(partition);
+        if (nThreads <= 1) { 
+            for (T obj : iterable) { 
+                partition.add(obj);
+            }
+        } else { 
+            for (int i = 1; i < nThreads; i++) { 
+                partitions.add(partition.create());
+            }
+            final Throwable[] error = new Throwable[1];
+            Thread[] threads = new Thread[nThreads];
+            if (iterable instanceof List && iterable instanceof RandomAccess) { 
+                final List<T> list = (List<T>)iterable;
+                int size = list.size();
+                for (int i = 0; i < nThreads; i++) { 
+                    final Partition<T> p = partitions.get(i);
+                    final int from = (int)((long)size*i/nThreads);
+                    final int till = (int)((long)size*(i+1)/nThreads);
+                    threads[i] = new Thread() { 
+                        public void run() { 
+                            try { 
+                                for (int j = from; j < till; j++) { 
+                                    p.add(list.get(j));
+                                }
+                            } catch (Throwable x) { 
+                                error[0] = x;
+                            }
+                        }
+                    };
+                    threads[i].start();
+                }
+            } else { 
+                final ArrayBlockingQueue<ArrayList<T>> queue = new ArrayBlockingQueue<ArrayList<T>>(nThreads*2);
+                for (int i = 0; i < nThreads; i++) { 
+                    final Partition<T> p = partitions.get(i);
+                    threads[i] = new Thread() { 
+                        public void run() { 
+                            try { 
+                                ArrayList<T> chunk;
+                                while ((chunk = queue.take()).size() != 0) { 
+                                    if (error[0] == null) { 
+                                        try { 
+                                            for (int j = 0, n = chunk.size(); j < n; j++) { 
+                                                p.add(chunk.get(j));
+                                            }
+                                        } catch (Throwable x) { 
+                                            // continue to take chunks to let feeding thread proceed
+                                            error[0] = x;
+                                        }
+                                    }
+                                }
+                            } catch (InterruptedException x) { 
+                                error[0] = x;
+                            }
+                        }
+                    };
+                    threads[i].start();
+                }
+                try { 
+                    try { 
+                        ArrayList<T> chunk = new ArrayList<T>(CHUNK_SIZE);
+                        for (T obj : iterable) { 
+                            chunk.add(obj);
+                            if (chunk.size() == CHUNK_SIZE) { 
+                                queue.put(chunk);
+                                chunk = new ArrayList<T>(CHUNK_SIZE);
+                            }
+                        }
+                        if (chunk.size() != 0) { 
+                            queue.put(chunk);
+                        }
+                    } finally { 
+                        for (int i = 0; i < nThreads; i++) { 
+                            queue.put(new ArrayList<T>(0));
+                        }
+                    }
+                } catch (InterruptedException x) { 
+                    throw new StorageError(StorageError.INVALID_OPERATION, x);
+                }
+            }
+            for (int i = 0; i < nThreads; i++) { 
+                try { 
+                    threads[i].join();
+                } catch (InterruptedException x) {}
+            }
+            if (error[0] != null) { 
+                if (error[0] instanceof RuntimeException) { 
+                    throw (RuntimeException)error[0];
+                } else if (error[0] instanceof Error) { 
+                    throw (Error)error[0];
+                }
+                throw new StorageError(StorageError.INVALID_OPERATION, error[0]);
+            }
+        }
+        Map<Object,Aggregate> result;
+        int i = 0;
+        if (orderByKey) { 
+            result = new TreeMap<Object,Aggregate>();
+        } else { 
+            result = partitions.get(i++).map;
+        }
+        while (i < partitions.size()) { 
+            merge(result, partitions.get(i++).map);
+        }
+        return result;
+    }
+                            
     /**
      * Aggregate returning top N values 
      */
@@ -648,6 +1005,294 @@ public class Aggregator
         Object last;
     }
 
+    /**
+     * Sum aggregate for long values
+     */
+    public static class LongSumAggregate implements LongAggregate
+    {
+        public void initialize(long val) {
+            sum = val;
+        }
+    
+        public void accumulate(long val) { 
+            sum += val;
+        }
+
+        public void initialize(Number val) {
+            sum = val.longValue();
+        }
+    
+        public void accumulate(Number val) { 
+            sum += val.longValue();
+        }
+
+        public Object result() { 
+            return Long.valueOf(sum);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            sum += ((LongSumAggregate)other).sum;
+        }
+
+        long sum;
+    }
+
+    /**
+     * Minimum aggregate for long values
+     */
+    public static class LongMinAggregate implements LongAggregate
+    {
+        public void initialize(long val) {
+            min = val;
+        }
+    
+        public void accumulate(long val) { 
+            if (val < min) { 
+                min = val;
+            }
+        }
+
+        public void initialize(Number val) {
+            initialize(val.longValue());
+        }
+    
+        public void accumulate(Number val) { 
+            accumulate(val.longValue());
+        }
+
+        public Object result() { 
+            return Long.valueOf(min);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            accumulate(((LongMinAggregate)other).min);
+        }
+
+        long min;
+    }
+
+    /**
+     * Maximum aggregate for long values
+     */
+    public static class LongMaxAggregate implements LongAggregate
+    {
+        public void initialize(long val) {
+            max = val;
+        }
+    
+        public void accumulate(long val) { 
+            if (val > max) { 
+                max = val;
+            }
+        }
+
+        public void initialize(Number val) {
+            initialize(val.longValue());
+        }
+    
+        public void accumulate(Number val) { 
+            accumulate(val.longValue());
+        }
+
+        public Object result() { 
+            return Long.valueOf(max);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            accumulate(((LongMaxAggregate)other).max);
+        }
+
+        long max;
+    }
+
+    /**
+     * Sum aggregate for double values
+     */
+    public static class DoubleSumAggregate implements DoubleAggregate
+    {
+        public void initialize(double val) {
+            sum = val;
+        }
+    
+        public void accumulate(double val) { 
+            sum += val;
+        }
+
+        public void initialize(Number val) {
+            sum = val.doubleValue();
+        }
+    
+        public void accumulate(Number val) { 
+            sum += val.doubleValue();
+        }
+
+        public Object result() { 
+            return Double.valueOf(sum);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            sum += ((DoubleSumAggregate)other).sum;
+        }
+
+        double sum;
+    }
+
+    /**
+     * Minimum aggregate for double values
+     */
+    public static class DoubleMinAggregate implements DoubleAggregate
+    {
+        public void initialize(double val) {
+            min = val;
+        }
+    
+        public void accumulate(double val) { 
+            if (val < min) { 
+                min = val;
+            }
+        }
+
+        public void initialize(Number val) {
+            initialize(val.doubleValue());
+        }
+    
+        public void accumulate(Number val) { 
+            accumulate(val.doubleValue());
+        }
+
+        public Object result() { 
+            return Double.valueOf(min);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            accumulate(((DoubleMinAggregate)other).min);
+        }
+
+        double min;
+    }
+
+    /**
+     * Maximum aggregate for double values
+     */
+    public static class DoubleMaxAggregate implements DoubleAggregate
+    {
+        public void initialize(double val) {
+            max = val;
+        }
+    
+        public void accumulate(double val) { 
+            if (val > max) { 
+                max = val;
+            }
+        }
+
+        public void initialize(Number val) {
+            initialize(val.doubleValue());
+        }
+    
+        public void accumulate(Number val) { 
+            accumulate(val.doubleValue());
+        }
+
+        public Object result() { 
+            return Double.valueOf(max);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            accumulate(((DoubleMaxAggregate)other).max);
+        }
+
+        double max;
+    }
+
+    /**
+     * Average aggregate for double values
+     */
+    public static class DoubleAvgAggregate implements DoubleAggregate
+    {
+        public void initialize(double val) {
+            sum = val;
+            count = 1;
+        }
+    
+        public void accumulate(double val) { 
+            sum += val;
+            count += 1;
+        }
+
+        public void initialize(Number val) {
+            initialize(val.doubleValue());
+        }
+    
+        public void accumulate(Number val) { 
+            accumulate(val.doubleValue());
+        }
+
+        public Object result() { 
+            return Double.valueOf(sum/count);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            DoubleAvgAggregate otherAvg = (DoubleAvgAggregate)other;
+            sum += otherAvg.sum;
+            count += otherAvg.count;
+        }
+
+        double sum;
+        long count;
+    }
+
+    /**
+     * Variance aggregate for double values
+     */
+    public static class DoubleVarAggregate implements DoubleAggregate
+    {
+        public void initialize(double val) {
+            sum = val;
+            sum2 = val*val;
+            count = 1;
+        }
+    
+        public void accumulate(double val) { 
+            sum += val;
+            sum2 += val*val;
+            count += 1;
+        }
+
+        public void initialize(Number val) {
+            initialize(val.doubleValue());
+        }
+    
+        public void accumulate(Number val) { 
+            accumulate(val.doubleValue());
+        }
+
+        public Object result() { 
+            return Double.valueOf((sum2 - sum*sum/count)/count);
+        }
+
+        public void merge(Aggregate<Number> other) { 
+            DoubleVarAggregate otherVar = (DoubleVarAggregate)other;
+            sum += otherVar.sum;
+            sum2 += otherVar.sum2;
+            count += otherVar.count;
+        }
+
+        double sum;
+        double sum2;
+        long count;
+    }
+
+    /**
+     * Standard deviation aggregate for double values
+     */
+    public static class DoubleDevAggregate extends DoubleVarAggregate
+    {
+        public Object result() { 
+            return Double.valueOf(Math.sqrt((sum2 - sum*sum/count)/count));
+        }
+    }
+
     /**
      * Compound aggregate: combination of several aggregates allowsing to caclulate more than one aggregate at one traversal
      */
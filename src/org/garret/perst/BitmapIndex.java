@@ -0,0 +1,35 @@
+package org.garret.perst;
+
+/**
+ * Interface of bitmap index: field index for fields with small number of distinct values (status, type, region,...).
+ * Index keeps compressed bitmap of OIDs of objects for each distinct value of the field, so objects
+ * matching conjunction or disjunction of conditions on several such fields can be found by intersection and union
+ * of bitmaps without loading objects.
+ */
+public interface BitmapIndex<T> extends FieldIndex<T>
+{
+    /**
+     * Get bitmap of objects with specified value of the key.
+     * Returned bitmap belongs to the index and should not be modified: use <code>and</code>, <code>or</code>
+     * and <code>andNot</code> methods of bitmap which create new bitmaps.
+     * @param key value of the key
+     * @return bitmap of objects with specified key (empty bitmap if there are no such objects)
+     */
+    public CompressedBitmap<T> getBitmap(Key key);
+
+    /**
+     * Get bitmap of objects with specified value of the key.
+     * Returned bitmap belongs to the index and should not be modified: use <code>and</code>, <code>or</code>
+     * and <code>andNot</code> methods of bitmap which create new bitmaps.
+     * @param key value of the key: wrapper of primitive type, string, enum or persistent object
+     * @return bitmap of objects with specified key (empty bitmap if there are no such objects)
+     */
+    public CompressedBitmap<T> getBitmap(Object key);
+
+    /**
+     * Get bitmap of objects which key is equal to one of specified values (IN predicate)
+     * @param keys values of the key
+     * @return new bitmap containing union of bitmaps of specified keys
+     */
+    public CompressedBitmap<T> getBitmap(Object[] keys);
+}
@@ -0,0 +1,744 @@
+package org.garret.perst;
+
+import java.util.*;
+
+/**
+ * Compressed bitmap of object identifiers (Roaring bitmap).
+ * Space of OIDs is split into chunks of 65536 OIDs identified by the high 16 bits of OID.
+ * Each non-empty chunk is represented by container: sorted array of the low 16 bits of OIDs
+ * if chunk contains no more than 4096 OIDs, or plain bitmap otherwise. So sparse sets take 2 bytes
+ * per OID and dense sets - 1 bit per OID. Intersection, union and difference of bitmaps are performed
+ * container by container using merge of arrays or bitwise operations with words of bitmaps,
+ * without loading the objects.<p>
+ * Unlike <code>Bitmap</code>, this bitmap is persistent object: it can be stored as value in index
+ * or referenced from other persistent objects. Bitmaps produced by <code>and</code>, <code>or</code>
+ * and <code>andNot</code> methods are transient and can be made persistent in the same way as other objects.
+ * Bitmap contains OIDs, not references, so it doesn't prevent garbage collector from deallocation
+ * of its members: objects should be also referenced in some other way (for example by index).
+ * The only exception are bitmaps of <code>BitmapIndex</code>: their members are marked by garbage collector.
+ */
+public class CompressedBitmap<T> extends Persistent implements SelfSerializable, Iterable<T>
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Maximal number of OIDs in array container
+     */
+    static final int MAX_ARRAY_SIZE = 4096;
+
+    /**
+     * Number of 64-bit words in bitmap container
+     */
+    static final int BITMAP_WORDS = 1 << 10;
+
+    /**
+     * Constructor of empty bitmap
+     * @param storage storage of objects included in bitmap
+     */
+    public CompressedBitmap(Storage storage)
+    {
+        super(storage);
+        clear();
+    }
+
+    /**
+     * Constructor of bitmap
+     * @param storage storage of objects included in bitmap
+     * @param iterator iterator through persistent objects which is used to initialize bitmap.
+     * It should implement <code>PersistentIterator</code> interface.
+     */
+    public CompressedBitmap(Storage storage, Iterator<T> iterator)
+    {
+        this(storage);
+        PersistentIterator pi = (PersistentIterator)iterator;
+        int oid;
+        while ((oid = pi.nextOid()) != 0) {
+            add(oid);
+        }
+    }
+
+    CompressedBitmap() {}
+
+    /**
+     * Check if object with this OID is present in bitmap
+     * @param oid object identifier
+     * @return true if object is present in bitmap, false otherwise
+     */
+    public boolean contains(int oid)
+    {
+        int i = findContainer((char)(oid >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Object container = containers[i];
+        if (container instanceof char[]) {
+            return binarySearch((char[])container, cardinalities[i], (char)oid) >= 0;
+        } else {
+            return (((long[])container)[(oid & 0xFFFF) >>> 6] & (1L << oid)) != 0;
+        }
+    }
+
+    /**
+     * Check if object is present in bitmap
+     * @param obj persistent object
+     * @return true if object is present in bitmap, false otherwise
+     */
+    public boolean containsObject(T obj)
+    {
+        int oid = getStorage().getOid(obj);
+        return oid != 0 && contains(oid);
+    }
+
+    /**
+     * Add object identifier to the bitmap
+     * @param oid object identifier
+     * @return true if OID was added, false if it is already present in bitmap
+     */
+    public boolean add(int oid)
+    {
+        char key = (char)(oid >>> 16);
+        char low = (char)oid;
+        int i = findContainer(key);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, key, new char[4], 0);
+        }
+        Object container = containers[i];
+        int card = cardinalities[i];
+        if (container instanceof char[]) {
+            char[] arr = (char[])container;
+            int pos = binarySearch(arr, card, low);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+            if (card == MAX_ARRAY_SIZE) {
+                long[] words = toBitmap(arr, card);
+                words[low >>> 6] |= 1L << low;
+                containers[i] = words;
+            } else {
+                if (card == arr.length) {
+                    char[] newArr = new char[Math.min(card*2, MAX_ARRAY_SIZE)];
+                    System.arraycopy(arr, 0, newArr, 0, pos);
+                    System.arraycopy(arr, pos, newArr, pos+1, card-pos);
+                    containers[i] = arr = newArr;
+                } else {
+                    System.arraycopy(arr, pos, arr, pos+1, card-pos);
+                }
+                arr[pos] = low;
+            }
+        } else {
+            long[] words = (long[])container;
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) != 0) {
+                return false;
+            }
+            words[low >>> 6] |= mask;
+        }
+        cardinalities[i] = card + 1;
+        modify();
+        return true;
+    }
+
+    /**
+     * Add object to the bitmap. Object is made persistent if it is not yet persistent.
+     * @param obj persistent object
+     * @return true if object was added, false if it is already present in bitmap
+     */
+    public boolean addObject(T obj)
+    {
+        return add(getStorage().makePersistent(obj));
+    }
+
+    /**
+     * Remove object identifier from the bitmap
+     * @param oid object identifier
+     * @return true if OID was removed, false if it is not present in bitmap
+     */
+    public boolean remove(int oid)
+    {
+        char low = (char)oid;
+        int i = findContainer((char)(oid >>> 16));
+        if (i < 0) {
+            return false;
+        }
+        Object container = containers[i];
+        int card = cardinalities[i];
+        if (container instanceof char[]) {
+            char[] arr = (char[])container;
+            int pos = binarySearch(arr, card, low);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(arr, pos+1, arr, pos, card-pos-1);
+        } else {
+            long[] words = (long[])container;
+            long mask = 1L << low;
+            if ((words[low >>> 6] & mask) == 0) {
+                return false;
+            }
+            words[low >>> 6] &= ~mask;
+            if (card - 1 == MAX_ARRAY_SIZE) {
+                containers[i] = toArray(words, card - 1);
+            }
+        }
+        if (--card == 0) {
+            removeContainer(i);
+        } else {
+            cardinalities[i] = card;
+        }
+        modify();
+        return true;
+    }
+
+    /**
+     * Remove object from the bitmap
+     * @param obj persistent object
+     * @return true if object was removed, false if it is not present in bitmap
+     */
+    public boolean removeObject(T obj)
+    {
+        int oid = getStorage().getOid(obj);
+        return oid != 0 && remove(oid);
+    }
+
+    /**
+     * Get number of objects in the bitmap
+     * @return number of OIDs present in bitmap
+     */
+    public int size()
+    {
+        int size = 0;
+        for (int i = 0; i < nContainers; i++) {
+            size += cardinalities[i];
+        }
+        return size;
+    }
+
+    /**
+     * Check if bitmap is empty
+     * @return true if there are no OIDs in the bitmap
+     */
+    public boolean isEmpty()
+    {
+        return nContainers == 0;
+    }
+
+    /**
+     * Remove all OIDs from the bitmap
+     */
+    public void clear()
+    {
+        nContainers = 0;
+        keys = new char[4];
+        cardinalities = new int[4];
+        containers = new Object[4];
+        modify();
+    }
+
+    /**
+     * Intersect this bitmap with other bitmap
+     * @param other bitmap to be intersected with this one
+     * @return new transient bitmap containing OIDs present in both bitmaps
+     */
+    public CompressedBitmap<T> and(CompressedBitmap<T> other)
+    {
+        CompressedBitmap<T> result = new CompressedBitmap<T>(getStorage());
+        int i = 0, j = 0;
+        while (i < nContainers && j < other.nContainers) {
+            char k1 = keys[i], k2 = other.keys[j];
+            if (k1 < k2) {
+                i += 1;
+            } else if (k1 > k2) {
+                j += 1;
+            } else {
+                result.appendAnd(k1, containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]);
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Union of this bitmap with other bitmap
+     * @param other bitmap to be combined with this one
+     * @return new transient bitmap containing OIDs present in any of the bitmaps
+     */
+    public CompressedBitmap<T> or(CompressedBitmap<T> other)
+    {
+        CompressedBitmap<T> result = new CompressedBitmap<T>(getStorage());
+        int i = 0, j = 0;
+        while (i < nContainers || j < other.nContainers) {
+            if (j == other.nContainers || (i < nContainers && keys[i] < other.keys[j])) {
+                result.append(keys[i], copy(containers[i], cardinalities[i]), cardinalities[i]);
+                i += 1;
+            } else if (i == nContainers || keys[i] > other.keys[j]) {
+                result.append(other.keys[j], copy(other.containers[j], other.cardinalities[j]), other.cardinalities[j]);
+                j += 1;
+            } else {
+                result.appendOr(keys[i], containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]);
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Difference of this bitmap and other bitmap
+     * @param other bitmap which OIDs are excluded
+     * @return new transient bitmap containing OIDs present in this bitmap but not in the other bitmap
+     */
+    public CompressedBitmap<T> andNot(CompressedBitmap<T> other)
+    {
+        CompressedBitmap<T> result = new CompressedBitmap<T>(getStorage());
+        int i = 0, j = 0;
+        while (i < nContainers) {
+            if (j == other.nContainers || keys[i] < other.keys[j]) {
+                result.append(keys[i], copy(containers[i], cardinalities[i]), cardinalities[i]);
+                i += 1;
+            } else if (keys[i] > other.keys[j]) {
+                j += 1;
+            } else {
+                result.appendAndNot(keys[i], containers[i], cardinalities[i], other.containers[j], other.cardinalities[j]);
+                i += 1;
+                j += 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Intersect several bitmaps. Bitmaps are intersected in the order of increasing size,
+     * so the size of intermediate results is minimal.
+     * @param bitmaps bitmaps to be intersected
+     * @return new transient bitmap containing OIDs present in all bitmaps
+     */
+    @SuppressWarnings("unchecked") // elements of the array are only read
+    public static <T> CompressedBitmap<T> intersect(CompressedBitmap<T>... bitmaps)
+    {
+        CompressedBitmap<T>[] sorted = bitmaps.clone();
+        Arrays.sort(sorted, new Comparator<CompressedBitmap<T>>() {
+            public int compare(CompressedBitmap<T> b1, CompressedBitmap<T> b2) {
+                int s1 = b1.size(), s2 = b2.size();
+                return s1 < s2 ? -1 : s1 == s2 ? 0 : 1;
+            }
+        });
+        CompressedBitmap<T> result = sorted.length == 1
+            ? sorted[0].or(new CompressedBitmap<T>(sorted[0].getStorage()))
+            : sorted[0].and(sorted[1]);
+        for (int i = 2; i < sorted.length && !result.isEmpty(); i++) {
+            result = result.and(sorted[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Get iterator through objects selected in bitmap in the order of increasing OIDs.
+     * Iterator implements <code>PersistentIterator</code> interface, so OIDs can be traversed without loading objects.
+     * @return selected object iterator
+     */
+    public IterableIterator<T> iterator()
+    {
+        return new BitmapIterator();
+    }
+
+    /**
+     * Get array of OIDs present in the bitmap
+     * @return OIDs in increasing order
+     */
+    public int[] toOidArray()
+    {
+        int[] oids = new int[size()];
+        int n = 0;
+        PersistentIterator iterator = (PersistentIterator)iterator();
+        int oid;
+        while ((oid = iterator.nextOid()) != 0) {
+            oids[n++] = oid;
+        }
+        return oids;
+    }
+
+    public void pack(PerstOutputStream out) throws java.io.IOException
+    {
+        out.writeInt(nContainers);
+        for (int i = 0; i < nContainers; i++) {
+            int card = cardinalities[i];
+            out.writeChar(keys[i]);
+            out.writeInt(card);
+            if (containers[i] instanceof char[]) {
+                char[] arr = (char[])containers[i];
+                for (int j = 0; j < card; j++) {
+                    out.writeChar(arr[j]);
+                }
+            } else {
+                long[] words = (long[])containers[i];
+                for (int j = 0; j < BITMAP_WORDS; j++) {
+                    out.writeLong(words[j]);
+                }
+            }
+        }
+    }
+
+    public void unpack(PerstInputStream in) throws java.io.IOException
+    {
+        nContainers = in.readInt();
+        int capacity = Math.max(nContainers, 4);
+        keys = new char[capacity];
+        cardinalities = new int[capacity];
+        containers = new Object[capacity];
+        for (int i = 0; i < nContainers; i++) {
+            int card;
+            keys[i] = in.readChar();
+            cardinalities[i] = card = in.readInt();
+            if (card <= MAX_ARRAY_SIZE) {
+                char[] arr = new char[card];
+                for (int j = 0; j < card; j++) {
+                    arr[j] = in.readChar();
+                }
+                containers[i] = arr;
+            } else {
+                long[] words = new long[BITMAP_WORDS];
+                for (int j = 0; j < BITMAP_WORDS; j++) {
+                    words[j] = in.readLong();
+                }
+                containers[i] = words;
+            }
+        }
+    }
+
+    class BitmapIterator extends IterableIterator<T> implements PersistentIterator
+    {
+        public boolean hasNext()
+        {
+            if (next == 0) {
+                next = advance();
+            }
+            return next != 0;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next()
+        {
+            int oid = nextOid();
+            if (oid == 0) {
+                throw new NoSuchElementException();
+            }
+            return (T)getStorage().getObjectByOID(oid);
+        }
+
+        public int nextOid()
+        {
+            int oid = next != 0 ? next : advance();
+            next = 0;
+            return oid;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        private int advance()
+        {
+            while (i < nContainers) {
+                int base = keys[i] << 16;
+                Object container = containers[i];
+                if (container instanceof char[]) {
+                    if (j < cardinalities[i]) {
+                        int oid = base | ((char[])container)[j++];
+                        if (oid != 0) {
+                            return oid;
+                        }
+                        continue;
+                    }
+                } else {
+                    long[] words = (long[])container;
+                    while (word == 0 && j < BITMAP_WORDS) {
+                        word = words[j++];
+                    }
+                    if (word != 0) {
+                        int oid = base | ((j - 1) << 6) | Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                        if (oid != 0) {
+                            return oid;
+                        }
+                        continue;
+                    }
+                }
+                i += 1;
+                j = 0;
+                word = 0;
+            }
+            return 0;
+        }
+
+        int  i;
+        int  j;
+        long word;
+        int  next;
+    }
+
+    final int findContainer(char key)
+    {
+        int l = 0, r = nContainers;
+        while (l < r) {
+            int m = (l + r) >>> 1;
+            if (keys[m] < key) {
+                l = m + 1;
+            } else {
+                r = m;
+            }
+        }
+        return r < nContainers && keys[r] == key ? r : -r - 1;
+    }
+
+    final void insertContainer(int i, char key, Object container, int card)
+    {
+        if (nContainers == keys.length) {
+            int n = nContainers*2;
+            char[] newKeys = new char[n];
+            int[] newCardinalities = new int[n];
+            Object[] newContainers = new Object[n];
+            System.arraycopy(keys, 0, newKeys, 0, nContainers);
+            System.arraycopy(cardinalities, 0, newCardinalities, 0, nContainers);
+            System.arraycopy(containers, 0, newContainers, 0, nContainers);
+            keys = newKeys;
+            cardinalities = newCardinalities;
+            containers = newContainers;
+        }
+        System.arraycopy(keys, i, keys, i+1, nContainers-i);
+        System.arraycopy(cardinalities, i, cardinalities, i+1, nContainers-i);
+        System.arraycopy(containers, i, containers, i+1, nContainers-i);
+        keys[i] = key;
+        cardinalities[i] = card;
+        containers[i] = container;
+        nContainers += 1;
+    }
+
+    final void removeContainer(int i)
+    {
+        nContainers -= 1;
+        System.arraycopy(keys, i+1, keys, i, nContainers-i);
+        System.arraycopy(cardinalities, i+1, cardinalities, i, nContainers-i);
+        System.arraycopy(containers, i+1, containers, i, nContainers-i);
+        containers[nContainers] = null;
+    }
+
+    final void append(char key, Object container, int card)
+    {
+        if (card != 0) {
+            insertContainer(nContainers, key, container, card);
+        }
+    }
+
+    final void appendAnd(char key, Object c1, int card1, Object c2, int card2)
+    {
+        if (c1 instanceof char[]) {
+            if (c2 instanceof char[]) {
+                char[] a1 = (char[])c1, a2 = (char[])c2;
+                char[] res = new char[Math.min(card1, card2)];
+                int i = 0, j = 0, n = 0;
+                while (i < card1 && j < card2) {
+                    if (a1[i] < a2[j]) {
+                        i += 1;
+                    } else if (a1[i] > a2[j]) {
+                        j += 1;
+                    } else {
+                        res[n++] = a1[i];
+                        i += 1;
+                        j += 1;
+                    }
+                }
+                append(key, res, n);
+            } else {
+                append(key, filter((char[])c1, card1, (long[])c2, true), filtered);
+            }
+        } else if (c2 instanceof char[]) {
+            append(key, filter((char[])c2, card2, (long[])c1, true), filtered);
+        } else {
+            long[] w1 = (long[])c1, w2 = (long[])c2;
+            long[] res = new long[BITMAP_WORDS];
+            int card = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                card += Long.bitCount(res[i] = w1[i] & w2[i]);
+            }
+            append(key, card <= MAX_ARRAY_SIZE ? toArray(res, card) : res, card);
+        }
+    }
+
+    final void appendOr(char key, Object c1, int card1, Object c2, int card2)
+    {
+        if (c1 instanceof char[] && c2 instanceof char[]) {
+            char[] a1 = (char[])c1, a2 = (char[])c2;
+            if (card1 + card2 <= MAX_ARRAY_SIZE) {
+                char[] res = new char[card1 + card2];
+                int i = 0, j = 0, n = 0;
+                while (i < card1 || j < card2) {
+                    if (j == card2 || (i < card1 && a1[i] < a2[j])) {
+                        res[n++] = a1[i++];
+                    } else if (i == card1 || a1[i] > a2[j]) {
+                        res[n++] = a2[j++];
+                    } else {
+                        res[n++] = a1[i++];
+                        j += 1;
+                    }
+                }
+                append(key, res, n);
+                return;
+            }
+            long[] res = toBitmap(a1, card1);
+            int card = card1;
+            for (int j = 0; j < card2; j++) {
+                char low = a2[j];
+                long mask = 1L << low;
+                if ((res[low >>> 6] & mask) == 0) {
+                    res[low >>> 6] |= mask;
+                    card += 1;
+                }
+            }
+            append(key, card <= MAX_ARRAY_SIZE ? toArray(res, card) : res, card);
+        } else if (c1 instanceof char[] || c2 instanceof char[]) {
+            char[] arr = (char[])(c1 instanceof char[] ? c1 : c2);
+            int n = c1 instanceof char[] ? card1 : card2;
+            long[] res = ((long[])(c1 instanceof char[] ? c2 : c1)).clone();
+            int card = c1 instanceof char[] ? card2 : card1;
+            for (int j = 0; j < n; j++) {
+                char low = arr[j];
+                long mask = 1L << low;
+                if ((res[low >>> 6] & mask) == 0) {
+                    res[low >>> 6] |= mask;
+                    card += 1;
+                }
+            }
+            append(key, res, card);
+        } else {
+            long[] w1 = (long[])c1, w2 = (long[])c2;
+            long[] res = new long[BITMAP_WORDS];
+            int card = 0;
+            for (int i = 0; i < BITMAP_WORDS; i++) {
+                card += Long.bitCount(res[i] = w1[i] | w2[i]);
+            }
+            append(key, res, card);
+        }
+    }
+
+    final void appendAndNot(char key, Object c1, int card1, Object c2, int card2)
+    {
+        if (c1 instanceof char[]) {
+            char[] a1 = (char[])c1;
+            if (c2 instanceof char[]) {
+                char[] a2 = (char[])c2;
+                char[] res = new char[card1];
+                int i = 0, j = 0, n = 0;
+                while (i < card1) {
+                    if (j == card2 || a1[i] < a2[j]) {
+                        res[n++] = a1[i++];
+                    } else if (a1[i] > a2[j]) {
+                        j += 1;
+                    } else {
+                        i += 1;
+                        j += 1;
+                    }
+                }
+                append(key, res, n);
+            } else {
+                append(key, filter(a1, card1, (long[])c2, false), filtered);
+            }
+        } else {
+            long[] res = ((long[])c1).clone();
+            int card = card1;
+            if (c2 instanceof char[]) {
+                char[] a2 = (char[])c2;
+                for (int j = 0; j < card2; j++) {
+                    char low = a2[j];
+                    long mask = 1L << low;
+                    if ((res[low >>> 6] & mask) != 0) {
+                        res[low >>> 6] &= ~mask;
+                        card -= 1;
+                    }
+                }
+            } else {
+                long[] w2 = (long[])c2;
+                card = 0;
+                for (int i = 0; i < BITMAP_WORDS; i++) {
+                    card += Long.bitCount(res[i] &= ~w2[i]);
+                }
+            }
+            append(key, card <= MAX_ARRAY_SIZE ? toArray(res, card) : res, card);
+        }
+    }
+
+    /**
+     * Select elements of array which bits are set (or not set) in bitmap. Number of selected elements is stored in <code>filtered</code>.
+     */
+    private char[] filter(char[] arr, int card, long[] words, boolean present)
+    {
+        char[] res = new char[card];
+        int n = 0;
+        for (int i = 0; i < card; i++) {
+            char low = arr[i];
+            if (((words[low >>> 6] & (1L << low)) != 0) == present) {
+                res[n++] = low;
+            }
+        }
+        filtered = n;
+        return res;
+    }
+
+    static Object copy(Object container, int card)
+    {
+        if (container instanceof char[]) {
+            char[] arr = new char[card];
+            System.arraycopy((char[])container, 0, arr, 0, card);
+            return arr;
+        }
+        return ((long[])container).clone();
+    }
+
+    static long[] toBitmap(char[] arr, int card)
+    {
+        long[] words = new long[BITMAP_WORDS];
+        for (int i = 0; i < card; i++) {
+            char low = arr[i];
+            words[low >>> 6] |= 1L << low;
+        }
+        return words;
+    }
+
+    static char[] toArray(long[] words, int card)
+    {
+        char[] arr = new char[card];
+        int n = 0;
+        for (int i = 0; i < BITMAP_WORDS; i++) {
+            long word = words[i];
+            while (word != 0) {
+                arr[n++] = (char)((i << 6) | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return arr;
+    }
+
+    static int binarySearch(char[] arr, int n, char key)
+    {
+        int l = 0, r = n;
+        while (l < r) {
+            int m = (l + r) >>> 1;
+            if (arr[m] < key) {
+                l = m + 1;
+            } else {
+                r = m;
+            }
+        }
+        return r < n && arr[r] == key ? r : -r - 1;
+    }
+
+    // Bitmap is serialized by pack/unpack methods
+    transient int      nContainers;
+    transient char[]   keys;
+    transient int[]    cardinalities;
+    transient Object[] containers;
+    transient int      filtered;
+}
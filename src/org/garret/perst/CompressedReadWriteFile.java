@@ -5,9 +5,12 @@ import java.nio.*;
 import java.nio.channels.*;
 import java.util.*;
 import java.util.zip.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.garret.perst.impl.Bytes;
 import org.garret.perst.impl.Page;
 import org.garret.perst.impl.BitmapAllocator;
+import org.garret.perst.impl.WorkerThreadPool;
 
 /**
  * Compressed read-write database file. 
@@ -15,13 +18,104 @@ import org.garret.perst.impl.BitmapAllocator;
  */
 public class CompressedReadWriteFile implements IFile 
 { 
-    public void write(long pageAddr, byte[] buf) {
+    public synchronized void write(long pageAddr, byte[] buf) {
+        if (pageAddr != 0) { 
+            Assert.that(buf.length == Page.pageSize);
+            Assert.that((pageAddr & (Page.pageSize-1)) == 0);
+            int size = compress(buf, compressionBuf);
+            writePage(pageAddr, compressionBuf, size);
+        } else { 
+            writePage(0, buf, buf.length);
+        }
+    }
+
+    /**
+     * Write set of pages. Pages are compressed in parallel by the current thread and threads of 
+     * shared worker pool and then sequentially written to the file.
+     * If the current thread is interrupted, it compresses all remaining pages itself.
+     * @param pageAddrs addresses of the pages 
+     * @param pages content of the pages
+     * @param nPages number of pages
+     */
+    public void write(long[] pageAddrs, final byte[][] pages, final int nPages) {
+        final byte[][] compressed = new byte[nPages][];
+        final int[] sizes = new int[nPages];
+        final AtomicInteger nextPage = new AtomicInteger();
+        int nThreads = nPages >= PARALLEL_COMPRESSION_THRESHOLD ? compressionThreads : 1;
+        if (nThreads > 1) { 
+            Runnable task = new Runnable() { 
+                public void run() { 
+                    compressPages(pages, compressed, sizes, nextPage, nPages);
+                }
+            };
+            ExecutorService executor = WorkerThreadPool.getExecutor();
+            Future<?>[] futures = new Future<?>[nThreads-1];
+            for (int i = 0; i < futures.length; i++) { 
+                futures[i] = executor.submit(task);
+            }
+            Throwable error = null;
+            try { 
+                task.run();
+            } catch (Throwable x) { 
+                error = x;
+            }
+            // all pages are already taken, so wait only for compression of pages processed by workers
+            for (int i = 0; i < futures.length; i++) { 
+                Throwable x = WorkerThreadPool.waitUninterruptibly(futures[i]);
+                if (error == null) { 
+                    error = x;
+                }
+            }
+            if (error != null) { 
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, error);
+            }
+        } else { 
+            compressPages(pages, compressed, sizes, nextPage, nPages);
+        }
+        synchronized (this) { 
+            for (int i = 0; i < nPages; i++) { 
+                if (pageAddrs[i] == 0) { 
+                    writePage(0, pages[i], pages[i].length);
+                } else { 
+                    writePage(pageAddrs[i], compressed[i], sizes[i]);
+                }
+            }
+        }
+    }
+
+    private void compressPages(byte[][] pages, byte[][] compressed, int[] sizes, AtomicInteger nextPage, int nPages) { 
+        int i;
+        while ((i = nextPage.getAndIncrement()) < nPages) { 
+            compressed[i] = new byte[Page.pageSize];
+            sizes[i] = compress(pages[i], compressed[i]);
+        }
+    }
+
+    /**
+     * Compress page using current codec. If page can not be compressed, then it is copied as is.
+     * @return size of compressed page or Page.pageSize if page is not compressed
+     */
+    private int compress(byte[] page, byte[] dst) { 
+        PageCodec codec = this.codec;
+        int tag = codec.getTag();
+        int size;
+        if (tag == 0) { 
+            size = codec.compress(page, dst, 0);
+        } else { 
+            dst[0] = (byte)tag;
+            size = codec.compress(page, dst, 1);
+        }
+        if (size < 0 || size >= Page.pageSize) { 
+            System.arraycopy(page, 0, dst, 0, Page.pageSize);
+            size = Page.pageSize;
+        }
+        return size;
+    }
+
+    private void writePage(long pageAddr, byte[] buf, int pageSize) {
         try {
             long pageOffs = 0;
-            int pageSize = buf.length;
             if (pageAddr != 0) { 
-                Assert.that(pageSize == Page.pageSize);
-                Assert.that((pageAddr & (Page.pageSize-1)) == 0);
                 long pagePos = pageMap.get(pageAddr);
                 boolean firstUpdate = false;
                 if (pagePos == 0) { 
@@ -34,17 +128,9 @@ public class CompressedReadWriteFile implements IFile
                     }
                     firstUpdate = true;
                 }
-                pageSize = ((int)pagePos & (Page.pageSize-1)) + 1;
-                deflater.reset();
-                deflater.setInput(buf, 0, buf.length);
-                deflater.finish();
-                int newPageSize = deflater.deflate(compressionBuf);
-                if (newPageSize == Page.pageSize) { 
-                    System.arraycopy(buf, 0, compressionBuf, 0, newPageSize);
-                }
-                buf = compressionBuf;
-                int newPageBitSize = (newPageSize + ALLOCATION_QUANTUM - 1) >>> ALLOCATION_QUANTUM_LOG;
-                int oldPageBitSize = (pageSize + ALLOCATION_QUANTUM - 1) >>> ALLOCATION_QUANTUM_LOG;
+                int oldPageSize = ((int)pagePos & (Page.pageSize-1)) + 1;
+                int newPageBitSize = (pageSize + ALLOCATION_QUANTUM - 1) >>> ALLOCATION_QUANTUM_LOG;
+                int oldPageBitSize = (oldPageSize + ALLOCATION_QUANTUM - 1) >>> ALLOCATION_QUANTUM_LOG;
                 if (firstUpdate || newPageBitSize != oldPageBitSize) { 
                     if (!firstUpdate) { 
                         BitmapAllocator.free(bitmap, pagePos >>> (Page.pageSizeLog + ALLOCATION_QUANTUM_LOG), 
@@ -54,7 +140,6 @@ public class CompressedReadWriteFile implements IFile
                 } else {
                     pageOffs = pagePos >>> Page.pageSizeLog;
                 }
-                pageSize = newPageSize;
                 pageMap.put(pageAddr, (pageOffs << Page.pageSizeLog) | (pageSize-1), pagePos);
                 crypt(buf, pageSize);
             }
@@ -65,7 +150,7 @@ public class CompressedReadWriteFile implements IFile
         }
     }
 
-    public int read(long pageAddr, byte[] buf) {
+    public synchronized int read(long pageAddr, byte[] buf) {
         try {
             if (pageAddr != 0) {
                 Assert.that((pageAddr & (Page.pageSize-1)) == 0);
@@ -95,10 +180,21 @@ public class CompressedReadWriteFile implements IFile
                 }
                 crypt(compressionBuf, size);
                 if (size < Page.pageSize) { 
-                    inflater.reset();
-                    inflater.setInput(compressionBuf, 0, size);
-                    rc = inflater.inflate(buf);
-                    Assert.that(rc == Page.pageSize);
+                    int tag = compressionBuf[0] & 0xFF;
+                    if ((tag & 0x0F) == ZLIB_METHOD) { 
+                        // page compressed by deflater without tag 
+                        inflater.reset();
+                        inflater.setInput(compressionBuf, 0, size);
+                        rc = inflater.inflate(buf);
+                        Assert.that(rc == Page.pageSize);
+                    } else { 
+                        PageCodec codec = codecs[tag];
+                        if (codec == null) { 
+                            throw new StorageError(StorageError.FILE_ACCESS_ERROR, "Unknown page codec " + tag);
+                        }
+                        codec.decompress(compressionBuf, 1, size - 1, buf);
+                        rc = Page.pageSize;
+                    }
                 } else { 
                     System.arraycopy(compressionBuf, 0, buf, 0, rc);
                 }
@@ -107,11 +203,212 @@ public class CompressedReadWriteFile implements IFile
                 dataFile.seek(0);
                 return dataFile.read(buf, 0, buf.length);
             }
+        } catch (StorageError x) { 
+            throw x;
         } catch (Exception x) { 
             throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
         }
     }
 
+    /**
+     * Set codec used to compress pages. Pages compressed by other codecs remain readable 
+     * if these codecs are also registered using this method (built-in codecs are always registered).
+     * By default {@link DeflateCodec} is used, which produces files readable by previous versions of Perst.
+     * @param codec page codec
+     */
+    public synchronized void setCodec(PageCodec codec) 
+    { 
+        int tag = codec.getTag();
+        if (tag != 0) { 
+            if (tag < 0 || tag > 255 || (tag & 0x0F) == ZLIB_METHOD) { 
+                throw new IllegalArgumentException("Invalid codec tag " + tag);
+            }
+            codecs[tag] = codec;
+        }
+        this.codec = codec;
+    }
+
+    /**
+     * Get codec used to compress pages
+     * @return current page codec
+     */
+    public PageCodec getCodec() 
+    { 
+        return codec;
+    }
+
+    /**
+     * Set number of threads used to compress pages when large number of pages is written at commit.
+     * By default it is equal to the number of available processors.
+     * @param nThreads number of compression threads, 1 means that pages are compressed sequentially
+     */
+    public void setCompressionThreads(int nThreads) 
+    { 
+        compressionThreads = nThreads < 1 ? 1 : nThreads;
+    }
+
+    /**
+     * Codec compressing pages using <code>java.util.zip.Deflater</code>. 
+     * Produced zlib streams are stored without tag: it is format used by previous versions of Perst.
+     */
+    public static class DeflateCodec implements PageCodec 
+    { 
+        private ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() { 
+            protected Deflater initialValue() { 
+                return new Deflater();
+            }
+        };
+        private ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() { 
+            protected Inflater initialValue() { 
+                return new Inflater();
+            }
+        };
+
+        public int getTag() { 
+            return 0;
+        }
+
+        public int compress(byte[] src, byte[] dst, int dstOffs) { 
+            Deflater deflater = deflaters.get();
+            deflater.reset();
+            deflater.setInput(src, 0, src.length);
+            deflater.finish();
+            int size = deflater.deflate(dst, dstOffs, dst.length - dstOffs);
+            return deflater.finished() ? dstOffs + size : -1;
+        }
+
+        public void decompress(byte[] src, int srcOffs, int srcSize, byte[] dst) { 
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(src, srcOffs, srcSize);
+            try { 
+                inflater.inflate(dst);
+            } catch (DataFormatException x) { 
+                throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+            }
+        }
+    }
+        
+    /**
+     * Fast LZ77 codec implemented in pure Java. It provides worse compression ratio than deflate,
+     * but is several times faster. Compressed data is sequence of tokens: 
+     * each token contains length of literals and length of match, followed by literals and 2-byte offset of match.
+     */
+    public static class LZCodec implements PageCodec 
+    { 
+        public static final int TAG = 1;
+
+        static final int MIN_MATCH = 4;
+        static final int HASH_BITS = 12;
+        static final int MAX_OFFSET = 0xFFFF;
+
+        public int getTag() { 
+            return TAG;
+        }
+
+        private static int getInt(byte[] buf, int offs) { 
+            return (buf[offs] & 0xFF) | ((buf[offs+1] & 0xFF) << 8) | ((buf[offs+2] & 0xFF) << 16) | (buf[offs+3] << 24);
+        }
+
+        private static int putLength(byte[] dst, int offs, int len) { 
+            while (len >= 255) { 
+                dst[offs++] = (byte)255;
+                len -= 255;
+            }
+            dst[offs++] = (byte)len;
+            return offs;
+        }
+
+        public int compress(byte[] src, byte[] dst, int dstOffs) { 
+            int[] hashTable = new int[1 << HASH_BITS];
+            int n = src.length;
+            int anchor = 0;
+            int ip = 0;
+            int op = dstOffs;
+            while (ip + MIN_MATCH <= n) { 
+                int seq = getInt(src, ip);
+                int h = (seq * 0x9E3779B1) >>> (32 - HASH_BITS);
+                int ref = hashTable[h] - 1;
+                hashTable[h] = ip + 1;
+                if (ref >= 0 && ip - ref <= MAX_OFFSET && getInt(src, ref) == seq) { 
+                    int len = MIN_MATCH;
+                    while (ip + len < n && src[ref + len] == src[ip + len]) { 
+                        len += 1;
+                    }
+                    op = putSequence(src, anchor, ip - anchor, ip - ref, len, dst, op);
+                    if (op < 0) { 
+                        return -1;
+                    }
+                    ip += len;
+                    anchor = ip;
+                } else { 
+                    ip += 1;
+                }
+            }
+            return putSequence(src, anchor, n - anchor, 0, 0, dst, op);
+        }
+
+        private static int putSequence(byte[] src, int litOffs, int litLen, int offset, int matchLen, byte[] dst, int op) { 
+            if (op + 1 + litLen + litLen/255 + 1 + 2 + matchLen/255 + 1 > dst.length) { 
+                return -1;
+            }
+            int matchCode = matchLen == 0 ? 0 : matchLen - MIN_MATCH;
+            dst[op++] = (byte)(((litLen < 15 ? litLen : 15) << 4) | (matchCode < 15 ? matchCode : 15));
+            if (litLen >= 15) { 
+                op = putLength(dst, op, litLen - 15);
+            }
+            System.arraycopy(src, litOffs, dst, op, litLen);
+            op += litLen;
+            if (matchLen != 0) { 
+                dst[op++] = (byte)offset;
+                dst[op++] = (byte)(offset >>> 8);
+                if (matchCode >= 15) { 
+                    op = putLength(dst, op, matchCode - 15);
+                }
+            }
+            return op;
+        }
+
+        public void decompress(byte[] src, int srcOffs, int srcSize, byte[] dst) { 
+            int ip = srcOffs;
+            int end = srcOffs + srcSize;
+            int op = 0;
+            while (true) { 
+                int token = src[ip++] & 0xFF;
+                int litLen = token >>> 4;
+                if (litLen == 15) { 
+                    int b;
+                    do { 
+                        b = src[ip++] & 0xFF;
+                        litLen += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, dst, op, litLen);
+                ip += litLen;
+                op += litLen;
+                if (ip >= end) { 
+                    break;
+                }
+                int offset = (src[ip] & 0xFF) | ((src[ip+1] & 0xFF) << 8);
+                ip += 2;
+                int matchLen = token & 15;
+                if (matchLen == 15) { 
+                    int b;
+                    do { 
+                        b = src[ip++] & 0xFF;
+                        matchLen += b;
+                    } while (b == 255);
+                }
+                matchLen += MIN_MATCH;
+                // source and destination can overlap, so copy byte by byte
+                for (int ref = op - offset; --matchLen >= 0; ) { 
+                    dst[op++] = dst[ref++];
+                }
+            }
+            Assert.that(op == dst.length);
+        }
+    }
+
     public void sync() 
     {
         try {   
@@ -276,9 +573,12 @@ public class CompressedReadWriteFile implements IFile
             pageIndexBuffer = pageIndexChan.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
                                                 0, // position
                                                 pageIndexSize);
-            deflater = new Deflater();
             inflater = new Inflater();
             compressionBuf = new byte[Page.pageSize];
+            codecs = new PageCodec[256];
+            codecs[LZCodec.TAG] = new LZCodec();
+            codec = new DeflateCodec();
+            compressionThreads = Runtime.getRuntime().availableProcessors();
                 
             if (!readOnly) {
                 long pageMapSize = pageIndexInitSize / 8;
@@ -577,6 +877,8 @@ public class CompressedReadWriteFile implements IFile
     static final int ALLOCATION_QUANTUM_LOG = 9;
     static final int ALLOCATION_QUANTUM = 1 << ALLOCATION_QUANTUM_LOG;
     static final long MAX_PAGE_MAP_SIZE = 1000000;
+    static final int PARALLEL_COMPRESSION_THRESHOLD = 16;
+    static final int ZLIB_METHOD = 8; // lowest 4 bits of first byte of zlib stream
     
 
     byte[]           bitmap;
@@ -586,9 +888,11 @@ public class CompressedReadWriteFile implements IFile
     long             pageIndexSize;
     long             pageIndexCheckpointThreshold;
 
-    Deflater         deflater;
     Inflater         inflater;
     byte[]           compressionBuf;
+    PageCodec        codec;
+    PageCodec[]      codecs;
+    int              compressionThreads;
 
     RandomAccessFile dataFile;
     RandomAccessFile pageIndexFile;
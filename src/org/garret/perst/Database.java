@@ -199,6 +199,7 @@ public class Database implements IndexProvider {
                 if (idx.thick()) kind |= INDEX_KIND_THICK;
                 if (idx.randomAccess()) kind |= INDEX_KIND_RANDOM_ACCESS;
                 if (idx.regex()) kind |= INDEX_KIND_REGEX; 
+                if (idx.bitmap()) kind |= INDEX_KIND_BITMAP;
                 schemaUpdated |= createIndex(table, cls, f.getName(), kind);
                 if (idx.autoincrement()) { 
                     if (table.autoincrementIndex != null) { 
@@ -507,6 +508,7 @@ public class Database implements IndexProvider {
     public static final int INDEX_KIND_THICK = 4;
     public static final int INDEX_KIND_RANDOM_ACCESS = 8;
     public static final int INDEX_KIND_CASE_INSENSITIVE = 16;
+    public static final int INDEX_KIND_BITMAP = 32;
         
     /**
      * Add new index to the table. If such index already exists this method does nothing.
@@ -597,9 +599,11 @@ public class Database implements IndexProvider {
             boolean caseInsensitive = (kind & INDEX_KIND_CASE_INSENSITIVE) != 0;
             FieldIndex index = (kind & INDEX_KIND_REGEX) != 0
                 ? storage.createRegexIndex(c, key, caseInsensitive, 3)
-                : (kind & INDEX_KIND_RANDOM_ACCESS) != 0
-                    ? storage.createRandomAccessFieldIndex(c, key, unique, caseInsensitive)
-                    : storage.createFieldIndex(c, key, unique, caseInsensitive, (kind & INDEX_KIND_THICK) != 0);
+                : (kind & INDEX_KIND_BITMAP) != 0
+                    ? storage.createBitmapIndex(c, key)
+                    : (kind & INDEX_KIND_RANDOM_ACCESS) != 0
+                        ? storage.createRandomAccessFieldIndex(c, key, unique, caseInsensitive)
+                        : storage.createFieldIndex(c, key, unique, caseInsensitive, (kind & INDEX_KIND_THICK) != 0);
             t.indicesMap.put(key, index);
             t.indices.add(index);
             for (Object obj : t.extent) { 
@@ -9,7 +9,7 @@ import java.lang.annotation.*;
   * with this key, NotUniqueException will be thrown
   * Case insensitive attribute is meaningful only for string keys and if set cause ignoring case
   * of key values.
-  * Thick index should be used for keys with small set of unique values.
+  * Thick or bitmap index should be used for keys with small set of unique values.
   */
 @Target(ElementType.FIELD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -39,6 +39,12 @@ public @interface Indexable {
      */
     boolean regex() default false;
 
+    /**
+     * Bitmap index for fields with small number of distinct values: equality and IN conditions on such fields
+     * are evaluated using compressed bitmaps
+     */
+    boolean bitmap() default false;
+
     /**
      * Index on autoincremented key field
      */
@@ -41,6 +41,19 @@ public abstract class MultidimensionalComparator<T> extends Persistent
      */
     public abstract T cloneField(T obj, int i);
 
+    /**
+     * Get distance between i-th components of two objects. This method is used by nearest neighbor search
+     * and should be redefined by comparators which components are numeric.
+     * @param m1 first object
+     * @param m2 second object
+     * @param i component index
+     * @return absolute value of difference of i-th components or <code>Double.NaN</code> if value of i-th
+     * component of any object is undefined
+     */
+    public double getDistance(T m1, T m2, int i) {
+        throw new UnsupportedOperationException();
+    }
+
     protected MultidimensionalComparator(Storage storage) {
         super(storage);
     }
@@ -88,4 +88,33 @@ public interface MultidimensionalIndex<T> extends IPersistent, IResource, ITable
      * @return height of the tree
      */
     public int  getHeight();
+
+    /**
+     * Get iterator through all objects in the index in the order of increasing Euclidean distance from the
+     * specified pattern object. Distance is calculated using <code>MultidimensionalComparator.getDistance</code>
+     * method, so comparator should support it. Undefined components of the pattern are ignored, objects
+     * with undefined value of some component used in the search are considered to be infinitely distant.
+     * Best-first traversal of the tree is used: subtrees are visited in the order of distance from the pattern
+     * to the region of the subtree.
+     * @param center pattern object
+     * @return iterator through objects in the order of increasing distance from the pattern
+     */
+    public IterableIterator<T> neighborIterator(T center);
+
+    /**
+     * Get iterator through objects located within the specified distance from the pattern object,
+     * in the order of increasing distance. Subtrees which regions are more distant are not visited.
+     * @param center pattern object
+     * @param maxDistance maximal distance from the pattern
+     * @return iterator through objects within the specified distance in the order of increasing distance
+     */
+    public IterableIterator<T> neighborIterator(T center, double maxDistance);
+
+    /**
+     * Get k nearest neighbors of the pattern object
+     * @param center pattern object
+     * @param k number of neighbors
+     * @return list of no more than <code>k</code> objects closest to the pattern, in the order of increasing distance
+     */
+    public ArrayList<T> getNeighbors(T center, int k);
 }
@@ -0,0 +1,37 @@
+package org.garret.perst;
+
+/**
+ * Codec used by {@link CompressedReadWriteFile} to compress database pages.
+ * Tag of the codec is stored together with each compressed page, so pages compressed by different
+ * codecs can be present in the same file. Implementation of the codec should be thread safe,
+ * because pages can be compressed in parallel by several threads.
+ */
+public interface PageCodec
+{
+    /**
+     * Get tag identifying this codec. Tag is stored in first byte of compressed page.
+     * Tag should be in [1,255] range and its lowest 4 bits should not be equal to 8:
+     * such values are reserved for zlib streams produced by {@link CompressedReadWriteFile.DeflateCodec},
+     * which are stored without tag for compatibility with files created by previous versions.
+     * @return codec tag
+     */
+    int getTag();
+
+    /**
+     * Compress page
+     * @param src page content
+     * @param dst destination buffer
+     * @param dstOffs offset in destination buffer
+     * @return offset in destination buffer after the end of compressed data or -1 if compressed data doesn't fit in the buffer
+     */
+    int compress(byte[] src, byte[] dst, int dstOffs);
+
+    /**
+     * Decompress page
+     * @param src buffer with compressed data
+     * @param srcOffs offset of compressed data in the buffer
+     * @param srcSize size of compressed data
+     * @param dst buffer receiving page content
+     */
+    void decompress(byte[] src, int srcOffs, int srcSize, byte[] dst);
+}
@@ -97,6 +97,11 @@ public class RectangleRn implements IValue, Cloneable
         System.arraycopy(coords, 0,  this.coords, 0, coords.length);
     }
 
+    /**
+     * Default constructor for PERST
+     */
+    public RectangleRn() {}
+
     /**
      * Construct n-dimensional rectangle using coordinates of two vertexes
      * @param min rectangle vertex with minimal coordinates
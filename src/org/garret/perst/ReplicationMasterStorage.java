@@ -9,5 +9,18 @@ public interface ReplicationMasterStorage extends Storage {
      * @return number of online replication slaves
      */
     public int getNumberOfAvailableHosts();
+
+    /**
+     * Get status of slave nodes: connection state and replication lag
+     * @return array with status of each slave node
+     */
+    public ReplicationSlaveStatus[] getSlaveStatus();
+
+    /**
+     * Get identifier of the last committed transaction. Identifiers of transactions are incremented by each commit
+     * and replicated to slave nodes together with database header.
+     * @return identifier of the last committed transaction
+     */
+    public long getTransactionId();
 }   
     
\ No newline at end of file
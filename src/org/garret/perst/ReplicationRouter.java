@@ -0,0 +1,172 @@
+package org.garret.perst;
+
+/**
+ * Client side router of transactions between replication master and slave nodes.
+ * Read-write transactions are executed at master, read-only transactions are dispatched to slaves,
+ * so read throughput grows with number of replicas. Slave is chosen either by load (number of active
+ * read-only transactions) or by lag (identifier of the last received master transaction).
+ * Router provides read-your-writes consistency: after a thread commits read-write transaction,
+ * its read-only transactions are dispatched only to slaves which have already received this transaction.
+ * If there are no such slaves, transaction is executed at master.
+ * Master should be opened in multithreaded mode, because transactions are started by
+ * <code>beginThreadTransaction</code> method.
+ */
+public class ReplicationRouter
+{
+    /**
+     * Dispatch read-only transaction to the slave with minimal number of active transactions
+     */
+    public static final int ROUTE_BY_LOAD = 0;
+
+    /**
+     * Dispatch read-only transaction to the slave with the most recent state,
+     * slaves with the same state are chosen by load
+     */
+    public static final int ROUTE_BY_LAG  = 1;
+
+    /**
+     * Constructor of the router
+     * @param master opened replication master storage
+     * @param slaves opened replication slave storages
+     * @param policy ROUTE_BY_LOAD or ROUTE_BY_LAG
+     */
+    public ReplicationRouter(ReplicationMasterStorage master, ReplicationSlaveStorage[] slaves, int policy) {
+        if (policy != ROUTE_BY_LOAD && policy != ROUTE_BY_LAG) {
+            throw new IllegalArgumentException("Invalid routing policy");
+        }
+        this.master = master;
+        this.slaves = slaves;
+        this.policy = policy;
+        nActive = new int[slaves.length + 1];
+        nTransactions = new long[slaves.length + 1];
+        lastWrite = new ThreadLocal<long[]>() {
+            protected long[] initialValue() {
+                return new long[1];
+            }
+        };
+    }
+
+    /**
+     * Set maximal time read-only transaction can wait until one of slaves receives last transaction 
+     * committed by the current thread. If no slave receives it during this time, read-only transaction
+     * is executed at master. By default transaction doesn't wait.
+     * @param maxWaitTime wait time in milliseconds
+     */
+    public void setMaxWaitTime(int maxWaitTime) {
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    private synchronized int selectNode(long minTransactionId) {
+        int node = -1;
+        long maxTransactionId = minTransactionId - 1;
+        // start from different slaves to distribute transactions between slaves with the same load
+        rotor = rotor + 1 < slaves.length ? rotor + 1 : 0;
+        for (int j = 0; j < slaves.length; j++) {
+            int i = (rotor + j) % slaves.length;
+            if (slaves[i].isConnected()) {
+                long transactionId = slaves[i].getTransactionId();
+                if (transactionId >= minTransactionId) {
+                    if (policy == ROUTE_BY_LAG && transactionId != maxTransactionId) {
+                        if (transactionId > maxTransactionId) {
+                            maxTransactionId = transactionId;
+                            node = i;
+                        }
+                    } else if (node < 0 || nActive[i] < nActive[node]) {
+                        node = i;
+                    }
+                }
+            }
+        }
+        if (node >= 0) {
+            nActive[node] += 1;
+            nTransactions[node] += 1;
+        }
+        return node;
+    }
+
+    /**
+     * Begin read-only transaction.
+     * @return storage in which transaction is started: either one of slaves, either master if no slave can be used.
+     * This storage should be passed to <code>endRead</code> method
+     */
+    public Storage beginRead() {
+        long minTransactionId = lastWrite.get()[0];
+        int node = selectNode(minTransactionId);
+        if (node < 0 && maxWaitTime > 0) {
+            long deadline = System.currentTimeMillis() + maxWaitTime;
+            try {
+                do {
+                    Thread.sleep(1);
+                } while ((node = selectNode(minTransactionId)) < 0 && System.currentTimeMillis() < deadline);
+            } catch (InterruptedException x) {}
+        }
+        if (node < 0) {
+            synchronized (this) {
+                node = slaves.length;
+                nActive[node] += 1;
+                nTransactions[node] += 1;
+            }
+            master.beginThreadTransaction(Storage.READ_ONLY_TRANSACTION);
+            return master;
+        }
+        slaves[node].beginThreadTransaction(Storage.REPLICATION_SLAVE_TRANSACTION);
+        return slaves[node];
+    }
+
+    /**
+     * End read-only transaction
+     * @param storage storage returned by <code>beginRead</code>
+     */
+    public void endRead(Storage storage) {
+        storage.endThreadTransaction();
+        int node = slaves.length;
+        for (int i = 0; i < slaves.length; i++) {
+            if (slaves[i] == storage) {
+                node = i;
+                break;
+            }
+        }
+        synchronized (this) {
+            nActive[node] -= 1;
+        }
+    }
+
+    /**
+     * Begin read-write transaction at master
+     * @return master storage
+     */
+    public ReplicationMasterStorage beginWrite() {
+        master.beginThreadTransaction(Storage.READ_WRITE_TRANSACTION);
+        return master;
+    }
+
+    /**
+     * Commit read-write transaction started by <code>beginWrite</code>.
+     * Subsequent read-only transactions of the current thread will see results of this transaction.
+     */
+    public void endWrite() {
+        // endThreadTransaction doesn't commit transaction while other threads are waiting for the lock,
+        // so commit it explicitly to get its identifier
+        master.commit();
+        lastWrite.get()[0] = master.getTransactionId();
+        master.endThreadTransaction();
+    }
+
+    /**
+     * Get number of read-only transactions dispatched to each node
+     * @return array with number of transactions executed by each slave, the last element is number of
+     * read-only transactions executed by master
+     */
+    public synchronized long[] getNumberOfTransactions() {
+        return nTransactions.clone();
+    }
+
+    ReplicationMasterStorage  master;
+    ReplicationSlaveStorage[] slaves;
+    int                       policy;
+    int[]                     nActive;
+    long[]                    nTransactions;
+    ThreadLocal<long[]>       lastWrite;
+    int                       maxWaitTime;
+    int                       rotor;
+}
@@ -0,0 +1,67 @@
+package org.garret.perst;
+
+/**
+ * Status of replication slave node as seen by replication master.
+ * Instances of this class are created by ReplicationMasterStorage.getSlaveStatus method.
+ * Lag of the slave is measured by amount of data which is queued by master but not yet sent to the slave
+ * and by age of the oldest queued data. Queues are maintained only by non-blocking sender
+ * (<code>perst.replication.nio</code> property), for other replication modes these fields are always zero.
+ */
+public class ReplicationSlaveStatus {
+    /**
+     * Address of the slave node
+     */
+    public String host;
+
+    /**
+     * Whether connection with the slave is established
+     */
+    public boolean connected;
+
+    /**
+     * Whether slave is synchronizing its content with master
+     */
+    public boolean synchronizing;
+
+    /**
+     * Position in the database file reached by synchronization of the slave
+     */
+    public long syncPosition;
+
+    /**
+     * Size of the database file which is synchronized with the slave
+     */
+    public long syncSize;
+
+    /**
+     * Total number of bytes queued for the slave and not yet sent, including bytes spilled to disk
+     */
+    public long queuedBytes;
+
+    /**
+     * Number of queued bytes spilled to disk
+     */
+    public long spilledBytes;
+
+    /**
+     * Time in milliseconds since the oldest queued data was enqueued
+     */
+    public long lagTime;
+
+    /**
+     * Total number of bytes sent to the slave
+     */
+    public long sentBytes;
+
+    /**
+     * Number of times when slave was disconnected because its queue was overflowed
+     */
+    public int nDrops;
+
+    /**
+     * ReplicationSlaveStatus constructor
+     */
+    public ReplicationSlaveStatus(String host) {
+        this.host = host;
+    }
+}
@@ -17,4 +17,12 @@ public interface ReplicationSlaveStorage extends Storage {
      * this transanction is completely delivered to this slave node
      */
     public void waitForModification();
+
+    /**
+     * Get identifier of the last transaction committed by master and received by this slave.
+     * Comparing it with {@link ReplicationMasterStorage#getTransactionId} allows to estimate lag of the slave
+     * and to check if results of particular master transaction are already visible at this slave.
+     * @return identifier of the last received transaction
+     */
+    public long getTransactionId();
 }
@@ -5,7 +5,8 @@ import java.util.*;
 /**
  * Interface of object spatial index.
  * Spatial index is used to allow fast selection of spatial objects belonging to the specified rectangle.
- * Spatial index is implemented using Guttman R-Tree with quadratic split algorithm.
+ * Spatial index is implemented using Guttman R-Tree with quadratic split algorithm
+ * or R*-tree insertion algorithm if "perst.rstar.tree" property is set.
  */
 public interface SpatialIndex<T> extends IPersistent, IResource, ITable<T> { 
     /**
@@ -86,5 +87,15 @@ public interface SpatialIndex<T> extends IPersistent, IResource, ITable<T> {
      * @return iterator through all objects in the index in the order of increasing distance from the specified point
      */
     public IterableIterator<T> neighborIterator(int x, int y);
+
+    /**
+     * Build index using Sort-Tile-Recursive bulk loading algorithm. Objects are sorted by centers of their 
+     * enveloping rectangles and packed into pages tile by tile, so that pages have minimal overlap and
+     * are almost full. It is much faster than inserting objects one by one and produces more efficient index.
+     * If index is not empty, objects are just inserted in it using <code>put</code> method.
+     * @param rects enveloping rectangles of the objects
+     * @param objs objects associated with the rectangles (i-th object corresponds to i-th rectangle)
+     */
+    public void bulkLoad(Rectangle[] rects, T[] objs);
 }
 
@@ -5,7 +5,8 @@ import java.util.*;
 /**
  * Interface of object spatial index.
  * Spatial index is used to allow fast selection of spatial objects belonging to the specified rectangle.
- * Spatial index is implemented using Guttman R-Tree with quadratic split algorithm.
+ * Spatial index is implemented using Guttman R-Tree with quadratic split algorithm
+ * or R*-tree insertion algorithm if "perst.rstar.tree" property is set.
  */
 public interface SpatialIndexRn<T> extends IPersistent, IResource, ITable<T> { 
     /**
@@ -85,4 +86,33 @@ public interface SpatialIndexRn<T> extends IPersistent, IResource, ITable<T> {
      * @return iterator through all objects in the index in the order of increasing distance from the specified point
      */
     public IterableIterator<T> neighborIterator(PointRn center);
+
+    /**
+     * Get iterator through neighbors of the specified point located within the specified distance from it,
+     * in the order of increasing distance from the point to the wrapper rectangle of the object.
+     * Pages which wrapping rectangles are more distant from the point are not visited.
+     * @param center coordinate of center point
+     * @param maxDistance maximal distance from the point to the wrapper rectangle of the object
+     * @return iterator through objects within the specified distance in the order of increasing distance
+     */
+    public IterableIterator<T> neighborIterator(PointRn center, double maxDistance);
+
+    /**
+     * Get k nearest neighbors of the specified point
+     * @param center coordinate of center point
+     * @param k number of neighbors
+     * @return list of no more than <code>k</code> objects which wrapper rectangles are the closest
+     * to the specified point, in the order of increasing distance
+     */
+    public ArrayList<T> getNeighbors(PointRn center, int k);
+
+    /**
+     * Build index using Sort-Tile-Recursive bulk loading algorithm. Objects are sorted by centers of their 
+     * enveloping rectangles and packed into pages tile by tile, so that pages have minimal overlap and
+     * are almost full. It is much faster than inserting objects one by one and produces more efficient index.
+     * If index is not empty, objects are just inserted in it using <code>put</code> method.
+     * @param rects enveloping rectangles of the objects
+     * @param objs objects associated with the rectangles (i-th object corresponds to i-th rectangle)
+     */
+    public void bulkLoad(RectangleRn[] rects, T[] objs);
 }
@@ -309,6 +309,39 @@ public interface Storage {
      */
     public <K,V> IPersistentHash<K,V> createHash(int pageSize, int loadFactor);
 
+    /**
+     * Create hierarhical hash table with Bloom filter. Bloom filter allows to detect most of the keys 
+     * which are not present in the hash table without traversal of hash pages and collision chains.
+     * @param pageSize number of items in hash page
+     * @param loadFactor maximal length of collision chain
+     * @param falsePositiveRate desired probability of false positive answer of the filter (for example 0.01)
+     * @return persistent hash table
+     */
+    public <K,V> IPersistentHash<K,V> createHash(int pageSize, int loadFactor, double falsePositiveRate);
+
+    /**
+     * Create hash table based on linear hashing. Keys and references to values are stored inside bucket pages,
+     * so lookup of the key in most cases requires access to the single page and doesn't load any objects 
+     * except the value itself. Buckets are split one by one as table grows, so there is no need to rehash 
+     * the whole table.
+     * @param keyType type of the key: scalar type, String, java.util.Date, byte[] or persistent object.
+     * Keys are compared by value (persistent objects - by OID), not using equals() method
+     * @return persistent hash table
+     */
+    public <K,V> IPersistentHash<K,V> createLinearHash(Class<?> keyType);
+
+    /**
+     * Create hash table based on linear hashing. Keys and references to values are stored inside bucket pages,
+     * so lookup of the key in most cases requires access to the single page and doesn't load any objects 
+     * except the value itself. Buckets are split one by one as table grows, so there is no need to rehash 
+     * the whole table.
+     * @param keyType type of the key: scalar type, String, java.util.Date, byte[] or persistent object.
+     * Keys are compared by value (persistent objects - by OID), not using equals() method
+     * @param loadFactor maximal fill factor of bucket pages in percents, when it is exceeded next bucket is split
+     * @return persistent hash table
+     */
+    public <K,V> IPersistentHash<K,V> createLinearHash(Class<?> keyType, int loadFactor);
+
     /**
      * Create object bitmap (each bit corresponds to OID). This bitmap can be used to merge results of multiples searches.
      * @param iterator persistent objects iterator which is used to construct bitmap
@@ -433,6 +466,20 @@ public interface Storage {
      */
     public <T> BitIndex<T> createBitIndex();
 
+    /**
+     * Create new bitmap index. Bitmap index keeps compressed bitmap of objects for each distinct value of the field,
+     * so it is efficient for fields with small number of distinct values. Conditions on several such fields
+     * are evaluated by intersection and union of bitmaps before loading objects.
+     * Bitmap contains OIDs, not references, so objects included in the index should be also referenced in
+     * some other way, otherwise they can be deallocated by garbage collector.
+     * @param type objects of which type (or derived from which type) will be included in the index
+     * @param fieldName name of the index field. Field with such name should be present in specified class <code>type</code>
+     * @return persistent object implementing bitmap index
+     * @exception StorageError (StorageError.INDEXED_FIELD_NOT_FOUND) if there is no such field in specified class,<BR> 
+     * StorageError(StorageError.UNSUPPORTED_INDEX_TYPE) exception if type of specified field is not supported by implementation
+     */
+    public <T> BitmapIndex<T> createBitmapIndex(Class<?> type, String fieldName);
+
     /**
      * Create new field index
      * @param type objects of which type (or derived from which type) will be included in the index
@@ -468,6 +515,25 @@ public interface Storage {
      */
     public <T> FieldIndex<T> createFieldIndex(Class type, String fieldName, boolean unique, boolean caseInsensitive, boolean thick);
 
+    /**
+     * Create new field index with Bloom filter. 
+     * Bloom filter is consulted before search of the key in the B-Tree, so lookup of the key which is not present 
+     * in the index in most cases requires access to just one page of the filter instead of traversal of the tree.
+     * Filter is resized when number of keys in the index exceeds its capacity.
+     * Removed keys are not excluded from the filter, so frequent removal of keys increases false positive rate 
+     * until the filter is resized. This index is always implemented using B-Tree, 
+     * <code>perst.alternative.btree</code> property is ignored.
+     * @param type objects of which type (or derived from which type) will be included in the index
+     * @param fieldName name of the index field. Field with such name should be present in specified class <code>type</code>
+     * @param unique whether index is unique (duplicate value of keys are not allowed)
+     * @param caseInsensitive if string index is case insensitive
+     * @param falsePositiveRate desired probability of false positive answer of the filter (for example 0.01)
+     * @return persistent object implementing field index
+     * @exception StorageError (StorageError.INDEXED_FIELD_NOT_FOUND) if there is no such field in specified class,<BR> 
+     * StorageError(StorageError.UNSUPPORTED_INDEX_TYPE) exception if type of specified field is not supported by implementation
+     */
+    public <T> FieldIndex<T> createFieldIndex(Class<?> type, String fieldName, boolean unique, boolean caseInsensitive, double falsePositiveRate);
+
     /**
      * Create new mutlifield index
      * @param type objects of which type (or derived from which type) will be included in the index
@@ -491,6 +557,19 @@ public interface Storage {
      */
     public <T> FieldIndex<T> createFieldIndex(Class type, String[] fieldNames, boolean unique, boolean caseInsensitive);
 
+    /**
+     * Create new mutlifield index with Bloom filter (see {@link #createFieldIndex(Class,String,boolean,boolean,double)}) 
+     * @param type objects of which type (or derived from which type) will be included in the index
+     * @param fieldNames names of the index fields. Fields with such name should be present in specified class <code>type</code>
+     * @param unique whether index is unique (duplicate value of keys are not allowed)
+     * @param caseInsensitive whether index is case insensitive (ignored for non-string keys)
+     * @param falsePositiveRate desired probability of false positive answer of the filter (for example 0.01)
+     * @return persistent object implementing field index
+     * @exception StorageError (StorageError.INDEXED_FIELD_NOT_FOUND) if there is no such field in specified class,<BR> 
+     * StorageError(StorageError.UNSUPPORTED_INDEX_TYPE) exception if type of specified field is not supported by implementation
+     */
+    public <T> FieldIndex<T> createFieldIndex(Class<?> type, String[] fieldNames, boolean unique, boolean caseInsensitive, double falsePositiveRate);
+
     /**
      * Create new n-gram string field index for regular expression search
      * @param type objects of which type (or derived from which type) will be included in the index
@@ -642,6 +721,15 @@ public interface Storage {
      */
     public Blob createRandomAccessBlob();
 
+    /**
+     * Create new contiguous BLOB. Data of such BLOB is stored in large contiguous extents which 
+     * are read directly from the database file, bypassing object cache. Such BLOB can be efficiently 
+     * streamed to the channel using {@link TransferableBlob#transferTo(java.nio.channels.WritableByteChannel)}.
+     * @param extentSize size of BLOB extent in bytes (for example 1Mb)
+     * @return empty BLOB
+     */
+    public TransferableBlob createContiguousBlob(int extentSize);
+
     /**
      * Create new time series object. 
      * @param blockClass class derived from TimeSeries.Block
@@ -661,6 +749,21 @@ public interface Storage {
      * @return new empty time series
      */
     public <T extends TimeSeries.Tick> TimeSeries<T> createTimeSeries(Class blockClass, long maxBlockTimeInterval);
+
+    /**
+     * Create new time series object storing ticks in compressed columnar format. 
+     * No block class is needed: block stores timestamps using delta-of-delta encoding, values of integer fields 
+     * of ticks - using delta encoding and values of floating point fields - using XOR encoding.
+     * Tick class should have public or non-public default constructor and only fields of primitive types.
+     * Columns of such time series can be efficiently retrieved using {@link TimeSeries#columnIterator} method
+     * without creation of tick objects.
+     * @param tickClass class of time series elements
+     * @param blockSize maximal number of elements in block
+     * @param maxBlockTimeInterval maximal difference in milliseconds between timestamps 
+     * of the first and the last elements in a block. 
+     * @return new empty time series
+     */
+    public <T extends TimeSeries.Tick> TimeSeries<T> createTimeSeries(Class<?> tickClass, int blockSize, long maxBlockTimeInterval);
    
     /**
      * Create PATRICIA trie (Practical Algorithm To Retrieve Information Coded In Alphanumeric)
@@ -722,6 +825,24 @@ public interface Storage {
      */
     public void importXML(java.io.Reader reader) throws XMLImportException;
 
+    /**
+     * Export database in compact binary format. 
+     * Dump contains descriptors of classes, bodies of objects and entries of indices, it is split in blocks 
+     * protected by checksums and can be optionally compressed. As far as B-Tree indices are rebuilt during import,
+     * dump can be used to migrate database to the storage with different page size. 
+     * Objects of changed classes are converted in the same way as when database is opened with new version of classes.
+     * @param out output stream for the dump
+     * @param compress whether blocks of the dump should be compressed
+     */
+    public void exportBinary(java.io.OutputStream out, boolean compress) throws java.io.IOException;
+
+    /**
+     * Import data from the dump created by <code>exportBinary</code> method.
+     * Objects preserve their OIDs, so data can be imported only in empty storage.
+     * @param in input stream of the dump
+     */
+    public void importBinary(java.io.InputStream in) throws java.io.IOException;
+
     /**
      * Retrieve object by OID. This method should be used with care because
      * if object is deallocated, its OID can be reused. In this case
@@ -852,6 +973,39 @@ public interface Storage {
      * for acknowledgment, while in the asynchronous mode special replication thread will be blocked
      * allowing thread performing commit to proceed.
      * </TD></TR>
+     * <TR><TD><code>perst.replication.batch</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Replication master collects all pages written during transaction commit in one frame and
+     * sends it to slave nodes at once instead of sending each page separately.
+     * Slave nodes recognize frames automatically, so this option needs to be set only at master node.
+     * </TD></TR>
+     * <TR><TD><code>perst.replication.compression</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Compress frames sent by replication master to slave nodes. This option implies 
+     * <code>perst.replication.batch</code>.
+     * </TD></TR>
+     * <TR><TD><code>perst.replication.delta</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Replication master sends XOR of new and previous image of the page instead of page content, 
+     * so unchanged parts of the page are compressed to almost nothing. This option implies 
+     * <code>perst.replication.batch</code> and is efficient only together with <code>perst.replication.compression</code>.
+     * Delta encoding requires slave to contain the same data as master, so it is ignored when replication 
+     * master accepts dynamically attached slaves or maintains page timestamps and is switched off 
+     * after reconnection to the slave.
+     * </TD></TR>
+     * <TR><TD><code>perst.replication.nio</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Replication master sends data to slaves using non-blocking sockets: data for each slave is placed 
+     * in its own queue and transmitted by selector thread, so slow slave doesn't delay transaction commit
+     * and other slaves. Size of slave queues and replication lag can be inspected using
+     * <code>ReplicationMasterStorage.getSlaveStatus</code> method.
+     * </TD></TR>
+     * <TR><TD><code>perst.replication.queue.size</code></TD><TD>Long</TD><TD>16Mb</TD>
+     * <TD>Maximal size of data queued for one slave by non-blocking replication master.
+     * </TD></TR>
+     * <TR><TD><code>perst.replication.overflow</code></TD><TD>String</TD><TD>block</TD>
+     * <TD>Policy applied by non-blocking replication master when slave queue size exceeds the limit:
+     * <code>block</code> - transaction commit is blocked until the queue is drained,
+     * <code>drop</code> - connection with the slave is dropped, the slave is resynchronized when connection is reestablished
+     * (by <code>StorageListener.replicationError</code> request or by reconnect of dynamically attached slave), 
+     * <code>spill</code> - queued data is spilled to temporary file.
+     * </TD></TR>
      * <TR><TD><code>perst.concurrent.iterator</code></TD><TD>Boolean</TD><TD>false</TD>
      * <TD>By default iterator will throw ConcurrentModificationException if iterated collection
      * was changed outside iterator, when the value of this property is true then iterator will 
@@ -948,6 +1102,26 @@ public interface Storage {
      * <TR><TD><code>perst.xml.reuse.oid</code></TD><TD>bool</TD><TD>false</TD>
      * <TD>Reuse OID of objects during XML import
      * </TD></TR>     
+     * <TR><TD><code>perst.xml.export.threads</code></TD><TD>int</TD><TD>1</TD>
+     * <TD>Number of threads used to encode objects during XML export. Objects are encoded by batches
+     * in parallel and written in the same order as by single thread.
+     * </TD></TR>     
+     * <TR><TD><code>perst.xml.import.pipeline</code></TD><TD>bool</TD><TD>false</TD>
+     * <TD>Parse XML file in separate thread during XML import, so that parsing is overlapped with
+     * packing and storing of imported objects
+     * </TD></TR>     
+     * <TR><TD><code>perst.xml.import.commit.batch</code></TD><TD>long</TD><TD>0</TD>
+     * <TD>Commit transaction after importing specified number of objects and index entries,
+     * limiting number of dirty pages during import of large databases. 0 means that
+     * imported data is not committed by XML importer. Root object of the imported database
+     * is set only after all objects are imported, so it is saved by commit performed after <code>importXML</code>.
+     * </TD></TR>     
+     * <TR><TD><code>perst.rstar.tree</code></TD><TD>Boolean</TD><TD>false</TD>
+     * <TD>Use R*-tree insertion algorithm in spatial indices: choice of subtree minimizing overlap,
+     * forced reinsert and split minimizing overlap of pages. It increases cost of insertion but
+     * reduces overlap of pages and so number of pages accessed by search. Indices constructed
+     * with and without this property are compatible.
+     * </TD></TR>     
      * </TABLE>
      * @param name name of the property
      * @param value value of the property (for boolean properties pass <code>java.lang.Boolean.TRUE</code>
@@ -53,6 +53,63 @@ public interface TimeSeries<T extends TimeSeries.Tick> extends IPersistent, IRes
         public abstract Tick[] getTicks();
     }
 
+    /**
+     * Time series elements decoded in columnar form: timestamps and values of the requested fields
+     * are stored in primitive arrays. Only first <code>size</code> elements of the arrays are used.
+     */
+    public static class Columns { 
+        /**
+         * Number of time series elements
+         */
+        public int        size;
+        /**
+         * Timestamps of time series elements
+         */
+        public long[]     times;
+        /**
+         * Values of requested fields: <code>values[i][j]</code> is value of i-th requested field
+         * of j-th element. Integer fields are converted to double.
+         */
+        public double[][] values;
+    }
+
+    /**
+     * Aggregated values of time series elements belonging to some time interval
+     */
+    public static class Summary { 
+        /**
+         * Number of time series elements
+         */
+        public long     count;
+        /**
+         * Minimal values of summary fields
+         */
+        public double[] min;
+        /**
+         * Maximal values of summary fields
+         */
+        public double[] max;
+        /**
+         * Sum of values of summary fields
+         */
+        public double[] sum;
+
+        /**
+         * Get average value of summary field
+         * @param i index of the field in the list passed to {@link TimeSeries#setSummaryFields}
+         * @return average value of the field or NaN if there are no elements in the interval
+         */
+        public double getAverage(int i) { 
+            return sum[i] / count;
+        }
+
+        public Summary(int nFields) { 
+            min = new double[nFields];
+            max = new double[nFields];
+            sum = new double[nFields];
+        }
+    }
+
     /**
      * Add new tick to time series
      * @param tick new time series element
@@ -114,6 +171,63 @@ public interface TimeSeries<T extends TimeSeries.Tick> extends IPersistent, IRes
      */
     IterableIterator<T> iterator(Date from, Date till, boolean ascent);
 
+    /**
+     * Get iterator through time series elements belonging to the specified range in columnar form. 
+     * Each call of <code>next()</code> returns elements of one time series block.
+     * If time series was created using {@link Storage#createTimeSeries(Class,int,long)}, 
+     * then columns are decoded directly from compressed block without creation of tick objects.
+     * This iterator doesn't support remove() method. It is not possible to modify
+     * time series during iteration.
+     * @param from inclusive time of the begging of interval, 
+     * if null then take all elements from the beginning of time series
+     * @param till inclusive time of the ending of interval, 
+     * if null then take all elements till the end of time series
+     * @param fields names of tick class fields which values should be retrieved (fields should have numeric type)
+     * @return forward iterator within specified range.
+     */
+    IterableIterator<Columns> columnIterator(Date from, Date till, String... fields);
+
+    /**
+     * Maintain pre-aggregated summaries (count, min, max, sum) of the specified fields.
+     * Summaries are stored for hierarchy of time intervals: smallest interval is equal to maximal block time interval,
+     * each next level interval is 16 times larger. Summaries are updated when elements are added or removed,
+     * so aggregate over large time range is calculated without loading most of time series blocks.
+     * Summaries for elements already present in time series are calculated by this method.
+     * @param fields names of tick class fields which should be aggregated (fields should have numeric type), 
+     * if null or empty then maintenance of summaries is stopped and existed summaries are removed
+     */
+    void setSummaryFields(String... fields);
+
+    /**
+     * Get names of fields for which summaries are maintained
+     * @return names of summary fields or null if summaries are not maintained
+     */
+    String[] getSummaryFields();
+
+    /**
+     * Get aggregated values of elements belonging to the specified range. 
+     * Only elements at the edges of the range are loaded, the rest is taken from pre-aggregated summaries.
+     * @param from inclusive time of the begging of interval, 
+     * if null then take all elements from the beginning of time series
+     * @param till inclusive time of the ending of interval, 
+     * if null then take all elements till the end of time series
+     * @return summary of values of fields specified in {@link #setSummaryFields}
+     * @exception StorageError(StorageError.INVALID_OPERATION) if summaries are not maintained
+     */
+    Summary getSummary(Date from, Date till);
+
+    /**
+     * Downsample time series: get summaries for consecutive intervals of the specified length
+     * @param from inclusive time of the begging of interval
+     * @param till inclusive time of the ending of interval
+     * @param interval length of each interval in milliseconds
+     * @return array of summaries, i-th element is summary for [from+i*interval, from+(i+1)*interval) interval 
+     * @exception StorageError(StorageError.INVALID_OPERATION) if summaries are not maintained
+     * @exception IllegalArgumentException if interval is not positive, <code>till</code> precedes <code>from</code>
+     * or number of intervals doesn't fit in array
+     */
+    Summary[] getSummaries(Date from, Date till, long interval);
+
     /**
      * Get timestamp of first time series element
      * @return time of time series start
@@ -0,0 +1,30 @@
+package org.garret.perst;
+
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * BLOB which content can be sent to the channel without copying it through the input stream by the application.
+ * All BLOBs created by {@link Storage} implement this interface. 
+ * For BLOBs created by {@link Storage#createContiguousBlob(int)} data is transfered directly from the database file
+ * (using <code>FileChannel.transferTo</code> when possible) without loading BLOB segments in memory.
+ * For other BLOBs data is copied through input stream.
+ */
+public interface TransferableBlob extends Blob { 
+    /**
+     * Write content of the BLOB to the channel.
+     * BLOB should not be modified while its content is transfered.
+     * @param channel destination channel
+     * @return number of transfered bytes
+     */
+    long transferTo(WritableByteChannel channel);
+
+    /**
+     * Write part of the BLOB to the channel.
+     * BLOB should not be modified while its content is transfered.
+     * @param position offset in the BLOB of first transfered byte
+     * @param length maximal number of transfered bytes
+     * @param channel destination channel
+     * @return number of transfered bytes
+     */
+    long transferTo(long position, long length, WritableByteChannel channel);
+}
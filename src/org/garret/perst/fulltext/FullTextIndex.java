@@ -39,6 +39,27 @@ public interface FullTextIndex extends IPersistent, IResource
      */
     void clear();
 
+    /**
+     * Enable or disable batch indexing mode.
+     * In this mode postings (pairs of document and keyword) of added documents are accumulated in memory buffer.
+     * When buffer is full, postings are sorted by keyword and document and merged into the inverse lists, 
+     * so that each inverse list is updated once per buffer, not once per document.
+     * Buffer is also flushed by <code>flush</code> method, when batch mode is disabled and before delete operation.
+     * Search methods do not modify the index, so them do not see documents which postings are still in the buffer:
+     * <code>flush</code> should be explicitly called (by the thread holding exclusive lock) before search.
+     * Buffer is flushed when the index is stored by commit of the transaction, so documents added in batch mode
+     * are committed together with their postings.
+     * @param bufferSize maximal number of postings kept in memory, 0 disables batch indexing mode
+     */
+    void setBufferSize(int bufferSize);
+
+    /**
+     * Merge postings accumulated in memory buffer in batch indexing mode into the index.
+     * This method does nothing if batch indexing mode is not enabled.
+     * It updates the index and so should not be called concurrently with search.
+     */
+    void flush();
+
     /**
      * Description of full text index keyword
      */
@@ -75,7 +96,7 @@ public interface FullTextIndex extends IPersistent, IResource
      * Parse and execute full text search query
      * @param query text of the query
      * @param language language if the query
-     * @param maxResults maximal amount of selected documents
+     * @param maxResults maximal amount of selected documents: documents with the highest rank are returned
      * @param timeLimit limit for query execution time
      * @return result of query execution ordered by rank or null in case of empty or incorrect query
      */
@@ -84,12 +105,21 @@ public interface FullTextIndex extends IPersistent, IResource
     /**
      * Execute full text search query
      * @param query prepared query
-     * @param maxResults maximal amount of selected documents
+     * @param maxResults maximal amount of selected documents: documents with the highest rank are returned
      * @param timeLimit limit for query execution time
      * @return result of query execution ordered by rank or null in case of empty or incorrect query
      */    
     FullTextSearchResult search(FullTextQuery query, int maxResults, int timeLimit);
 
+    /**
+     * Set number of threads used to execute search queries.
+     * Range of OIDs of documents containing query keywords is split into partitions which are searched concurrently,
+     * then top results of partitions are merged. Time limit of the query is applied to all partitions.
+     * Queries over indices created by previous versions are always executed sequentially.
+     * @param nThreads number of threads, 1 means that query is executed sequentially
+     */
+    void setSearchThreads(int nThreads);
+
     /**
      * Get total number of different words in all documents
      */
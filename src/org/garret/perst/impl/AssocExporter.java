@@ -0,0 +1,17 @@
+package org.garret.perst.impl;
+
+/**
+ * Receiver of B-Tree entries enumerated by <code>Btree.export</code>
+ */
+interface AssocExporter { 
+    /**
+     * Export index entry
+     * @param oid OID of the object associated with the key
+     * @param body body of B-Tree page
+     * @param offs offset of the key in the page
+     * @param size size of the key: number of characters for string keys, 
+     * number of bytes for byte array keys or size of scalar type
+     * @param type type of the key
+     */
+    void exportAssoc(int oid, byte[] body, int offs, int size, int type) throws java.io.IOException;
+}
@@ -64,50 +64,24 @@ public class AsyncReplicationMasterFile extends ReplicationMasterFile {
     }
                 
     static class Parcel {
-        byte[] data;
-        long   pos;
-        int    host;
-        Parcel next;
+        byte[]  data;
+        boolean commit;
+        int     host;
+        Parcel  next;
     }
     
-    public void write(long pos, byte[] buf) {
-        file.write(pos, buf);
-        synchronized (mutex) { 
-            if (pageTimestamps != null) { 
-                int pageNo = (int)(pos >> Page.pageSizeLog);
-                if (pageNo >= pageTimestamps.length) { 
-                    int newLength = pageNo >= pageTimestamps.length*2 ? pageNo+1 : pageTimestamps.length*2;
-
-                    int[] newPageTimestamps = new int[newLength];
-                    System.arraycopy(pageTimestamps, 0, newPageTimestamps, 0, pageTimestamps.length);
-                    pageTimestamps = newPageTimestamps;
-
-                    int[] newDirtyPageTimestampMap = new int[(((newLength*4 + Page.pageSize - 1) >> Page.pageSizeLog) + 31) >> 5];
-                    System.arraycopy(dirtyPageTimestampMap, 0, newDirtyPageTimestampMap, 0, dirtyPageTimestampMap.length);
-                    dirtyPageTimestampMap = newDirtyPageTimestampMap;                    
-                }
-                pageTimestamps[pageNo] = ++timestamp;
-                dirtyPageTimestampMap[pageNo >> (Page.pageSizeLog - 2 + 5)] |= 1 << ((pageNo >> (Page.pageSizeLog - 2)) & 31);
-            }
-        }
+    protected void send(byte[] data, int size, boolean commit) { 
         for (int i = 0; i < out.length; i++) { 
             if (out[i] != null) {                
-                byte[] data = new byte[8 + buf.length];
-                Bytes.pack8(data, 0, pos);
-                System.arraycopy(buf, 0, data, 8, buf.length);
+                byte[] parcel = new byte[size];
+                System.arraycopy(data, 0, parcel, 0, size);
                 Parcel p = new Parcel();
-                p.data = data;
-                p.pos = pos;
+                p.data = parcel;
+                p.commit = commit;
                 p.host = i;
-                try { 
-                    synchronized(async) { 
-                        buffered += data.length;
-                        while (buffered > asyncBufSize && buffered != data.length) { 
-                            async.wait();
-                        }
-                    }
-                } catch (InterruptedException x) {}
-                    
+                synchronized(async) { 
+                    buffered += size;
+                }
                 synchronized(go) { 
                     if (head == null) { 
                         head = tail = p;
@@ -120,6 +94,18 @@ public class AsyncReplicationMasterFile extends ReplicationMasterFile {
         }
     }
 
+    public void write(long pos, byte[] buf) {
+        super.write(pos, buf);
+        // wait for free space in asynchronous buffer without holding mutex
+        try { 
+            synchronized(async) { 
+                while (buffered > asyncBufSize) { 
+                    async.wait();
+                }
+            }
+        } catch (InterruptedException x) {}
+    }
+
     public void asyncWrite() { 
         try { 
             while (true) { 
@@ -145,9 +131,11 @@ public class AsyncReplicationMasterFile extends ReplicationMasterFile {
                 int i = p.host;
                 while (out[i] != null) { 
                     try { 
-                        out[i].write(p.data);
-                        if (!ack || p.pos != 0 || in[i].read(rcBuf) == 1) {
-                            break;
+                        synchronized (sockets[i]) { 
+                            out[i].write(p.data);
+                            if (!ack || !p.commit || in[i].read(rcBuf) == 1) {
+                                break;
+                            }
                         }
                     } catch (IOException x) {}
                     
@@ -155,6 +143,7 @@ public class AsyncReplicationMasterFile extends ReplicationMasterFile {
                     sockets[i] = null;
                     nHosts -= 1;
                     if (handleError(hosts[i])) { 
+                        delta = false; // reconnected slave may miss some pages
                         connect(i);
                     } else { 
                         break;
@@ -165,6 +154,7 @@ public class AsyncReplicationMasterFile extends ReplicationMasterFile {
     }
 
     public void close() {
+        flushFrame();
         try { 
             synchronized (go) {
                 closed = true;
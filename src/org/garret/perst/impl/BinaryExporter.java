@@ -0,0 +1,271 @@
+package org.garret.perst.impl;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import org.garret.perst.*;
+
+/**
+ * Exporter of database in compact binary format.
+ * Dump starts with magic, format version and flags, followed by sequence of blocks.
+ * Each block has header containing block flags, size of raw data, size of stored data and CRC32 checksum of raw data.
+ * Block with zero raw size terminates the dump. Blocks contain length-prefixed records:
+ * database record, class descriptors, bodies of objects and entries of B-Tree indices.
+ * Objects are dumped in the storage format and keep their OIDs, B-Trees are dumped as list of entries
+ * and rebuilt by importer, so dump doesn't depend on page size. The same is done for linear hash tables.
+ * Class descriptors are dumped with their OIDs and field lists, so that importer can convert objects
+ * to the new class format in the same way as it is done for changed classes when database is opened.
+ */
+public class BinaryExporter implements AssocExporter {
+    static final byte[] DUMP_MAGIC = { 'P', 'E', 'R', 'S', 'T', 'D', 'M', 'P' };
+    static final int    DUMP_VERSION = 1;
+    static final int    DUMP_COMPRESSED = 1;
+
+    static final int    BLOCK_COMPRESSED = 1;
+    static final int    BLOCK_HEADER_SIZE = 16;
+    static final int    BLOCK_SIZE = 1024*1024;
+
+    static final int    REC_DATABASE = 1;
+    static final int    REC_CLASS = 2;
+    static final int    REC_OBJECT = 3;
+    static final int    REC_KEYS = 4;
+    static final int    REC_END = 5;
+
+    static final int    MAX_KEYS_PER_RECORD = 1024;
+
+    // fields referencing pages of index or describing their content
+    static final String[] BTREE_PAGE_FIELDS = { "height", "nElems", "root" };
+    static final String[] HASH_PAGE_FIELDS = { "dirHeight", "dirRoot", "nBuckets", "nElems", "usedSize" };
+
+    public BinaryExporter(StorageImpl storage, OutputStream out, boolean compress) {
+        this.storage = storage;
+        this.out = out;
+        this.compress = compress;
+        block = new ByteArrayOutputStream(BLOCK_SIZE);
+        record = new ByteArrayOutputStream();
+        rec = new DataOutputStream(record);
+        if (compress) {
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+    }
+
+    public void exportDatabase(int rootOid) throws IOException
+    {
+        DataOutputStream hdr = new DataOutputStream(out);
+        hdr.write(DUMP_MAGIC);
+        hdr.writeInt(DUMP_VERSION);
+        hdr.writeInt(compress ? DUMP_COMPRESSED : 0);
+
+        int maxOid = storage.currIndexSize;
+        rec.writeInt(rootOid);
+        rec.writeInt(maxOid);
+        rec.writeUTF(storage.encoding != null ? storage.encoding : "");
+        writeRecord(REC_DATABASE);
+
+        // descriptors are written in order of their creation, so that descriptors of value types precede their users
+        ArrayList<ClassDescriptor> descList = new ArrayList<ClassDescriptor>();
+        for (ClassDescriptor desc = storage.descList; desc != null; desc = desc.next) {
+            descList.add(desc);
+        }
+        for (int i = descList.size(); --i >= 0;) {
+            ClassDescriptor desc = descList.get(i);
+            rec.writeInt(desc.getOid());
+            rec.writeUTF(desc.name);
+            rec.writeBoolean(desc.hasReferences);
+            rec.writeInt(desc.allFields.length);
+            for (int j = 0; j < desc.allFields.length; j++) {
+                ClassDescriptor.FieldDescriptor fd = desc.allFields[j];
+                rec.writeUTF(fd.fieldName);
+                rec.writeUTF(fd.className);
+                rec.writeInt(fd.type);
+                rec.writeInt(fd.valueDesc != null ? fd.valueDesc.getOid() : 0);
+            }
+            writeRecord(REC_CLASS);
+        }
+
+        int[] indices = new int[16];
+        int nIndices = 0;
+        for (int oid = StorageImpl.dbFirstUserId; oid < maxOid; oid++) {
+            long pos = storage.getPos(oid);
+            if (pos == 0 || (pos & (StorageImpl.dbFreeHandleFlag|StorageImpl.dbPageObjectFlag)) != 0) {
+                continue;
+            }
+            try {
+                byte[] obj = storage.pool.get(pos & ~StorageImpl.dbFlagsMask);
+                int typeOid = ObjectHeader.getType(obj, 0);
+                if (typeOid == 0) { // class and field descriptors
+                    continue;
+                }
+                ClassDescriptor desc = storage.findClassDescriptor(typeOid);
+                boolean isBtree = Btree.class.isAssignableFrom(desc.cls);
+                if (isBtree || LinearHashImpl.class.isAssignableFrom(desc.cls)) {
+                    // B-Tree and bucket pages are not exported: index will be rebuilt from its entries
+                    obj = obj.clone();
+                    String[] fields = isBtree ? BTREE_PAGE_FIELDS : HASH_PAGE_FIELDS;
+                    for (int i = 0; i < fields.length; i++) {
+                        clearField(obj, desc, fields[i]);
+                    }
+                    if (nIndices == indices.length) {
+                        int[] newIndices = new int[nIndices*2];
+                        System.arraycopy(indices, 0, newIndices, 0, nIndices);
+                        indices = newIndices;
+                    }
+                    indices[nIndices++] = oid;
+                }
+                rec.writeInt(oid);
+                rec.write(obj, 0, ObjectHeader.getSize(obj, 0));
+                writeRecord(REC_OBJECT);
+            } catch (StorageError x) {
+                record.reset();
+                if (storage.listener != null) {
+                    if (!storage.listener.objectNotExported(oid, x)) {
+                        throw x;
+                    }
+                } else {
+                    System.err.println("Binary export failed for object " + oid + ": " + x);
+                }
+            }
+        }
+        for (int i = 0; i < nIndices; i++) {
+            int oid = indices[i];
+            Object index = storage.lookupObject(oid, null);
+            indexOid = oid;
+            nKeys = 0;
+            if (index instanceof Btree) {
+                ((Btree<?>)index).export(this);
+            } else {
+                ((LinearHashImpl<?,?>)index).export(this);
+            }
+            if (nKeys != 0) {
+                flushKeys();
+            }
+        }
+        writeRecord(REC_END);
+        flushBlock();
+        hdr.writeInt(0);
+        hdr.writeInt(0);
+        hdr.writeInt(0);
+        hdr.writeInt(0);
+        hdr.flush(); // stream should be closed by calling code
+    }
+
+    /**
+     * Clear field of packed object. Offset of the field is calculated using class descriptor,
+     * so it doesn't depend on order of fields in the storage format.
+     * @param obj packed object
+     * @param desc class descriptor of the object
+     * @param name name of the field, it should be preceded only by fixed size fields
+     */
+    static void clearField(byte[] obj, ClassDescriptor desc, String name)
+    {
+        int offs = ObjectHeader.sizeof;
+        for (int i = 0; i < desc.allFields.length; i++) {
+            ClassDescriptor.FieldDescriptor fd = desc.allFields[i];
+            int size = fd.type < ClassDescriptor.sizeof.length ? ClassDescriptor.sizeof[fd.type] : 0;
+            if (size == 0) {
+                break;
+            }
+            if (fd.fieldName.equals(name)) {
+                while (--size >= 0) {
+                    obj[offs + size] = 0;
+                }
+                return;
+            }
+            offs += size;
+        }
+        throw new StorageError(StorageError.DESCRIPTOR_FAILURE, desc.name + "." + name);
+    }
+
+    public void exportAssoc(int oid, byte[] body, int offs, int size, int type) throws IOException
+    {
+        if (nKeys == 0) {
+            keys.reset();
+        }
+        if (type == ClassDescriptor.tpString) {
+            size *= 2;
+        }
+        keysOut.writeInt(oid);
+        keysOut.writeInt(size);
+        keysOut.write(body, offs, size);
+        keyType = type;
+        if (++nKeys == MAX_KEYS_PER_RECORD) {
+            flushKeys();
+        }
+    }
+
+    final void flushKeys() throws IOException
+    {
+        rec.writeInt(indexOid);
+        rec.writeInt(keyType);
+        rec.writeInt(nKeys);
+        keys.writeTo(rec);
+        writeRecord(REC_KEYS);
+        nKeys = 0;
+    }
+
+    final void writeRecord(int kind) throws IOException
+    {
+        int size = record.size();
+        if (block.size() != 0 && block.size() + size + 5 > BLOCK_SIZE) {
+            flushBlock();
+        }
+        block.write(kind);
+        block.write(size >>> 24);
+        block.write(size >>> 16);
+        block.write(size >>> 8);
+        block.write(size);
+        record.writeTo(block);
+        record.reset();
+    }
+
+    final void flushBlock() throws IOException
+    {
+        byte[] raw = block.toByteArray();
+        int rawSize = raw.length;
+        if (rawSize == 0) {
+            return;
+        }
+        crc.reset();
+        crc.update(raw, 0, rawSize);
+        int flags = 0;
+        byte[] data = raw;
+        int dataSize = rawSize;
+        if (compress) {
+            if (buf == null || buf.length < rawSize) {
+                buf = new byte[rawSize];
+            }
+            deflater.reset();
+            deflater.setInput(raw, 0, rawSize);
+            deflater.finish();
+            int compressedSize = deflater.deflate(buf, 0, rawSize);
+            if (deflater.finished() && compressedSize < rawSize) {
+                flags = BLOCK_COMPRESSED;
+                data = buf;
+                dataSize = compressedSize;
+            }
+        }
+        byte[] hdr = new byte[BLOCK_HEADER_SIZE];
+        Bytes.pack4(hdr, 0, flags);
+        Bytes.pack4(hdr, 4, rawSize);
+        Bytes.pack4(hdr, 8, dataSize);
+        Bytes.pack4(hdr, 12, (int)crc.getValue());
+        out.write(hdr, 0, BLOCK_HEADER_SIZE);
+        out.write(data, 0, dataSize);
+        block.reset();
+    }
+
+    private StorageImpl           storage;
+    private OutputStream          out;
+    private boolean               compress;
+    private Deflater              deflater;
+    private CRC32                 crc = new CRC32();
+    private byte[]                buf;
+    private ByteArrayOutputStream block;
+    private ByteArrayOutputStream record;
+    private DataOutputStream      rec;
+    private ByteArrayOutputStream keys = new ByteArrayOutputStream();
+    private DataOutputStream      keysOut = new DataOutputStream(keys);
+    private int                   indexOid;
+    private int                   keyType;
+    private int                   nKeys;
+}
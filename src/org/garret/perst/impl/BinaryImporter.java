@@ -0,0 +1,309 @@
+package org.garret.perst.impl;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+import org.garret.perst.*;
+
+/**
+ * Importer of database dump created by BinaryExporter.
+ * Objects are imported with the same OIDs, so storage should be empty.
+ * Class descriptors are created with OIDs of the exported descriptors and resolved in the same way as
+ * descriptors loaded from the database: if class was changed, new descriptor is created and objects are
+ * converted to the new format when loaded.
+ */
+public class BinaryImporter {
+    public BinaryImporter(StorageImpl storage, InputStream in) {
+        this.storage = storage;
+        this.in = new DataInputStream(in);
+    }
+
+    public void importDatabase() throws IOException
+    {
+        byte[] magic = new byte[BinaryExporter.DUMP_MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryExporter.DUMP_MAGIC)) {
+            throw new StorageError(StorageError.DATABASE_CORRUPTED, "not a database dump");
+        }
+        int version = in.readInt();
+        if (version > BinaryExporter.DUMP_VERSION) {
+            throw new StorageError(StorageError.DATABASE_CORRUPTED, "unsupported dump version " + version);
+        }
+        in.readInt(); // dump flags: each block has its own flags
+        DataInputStream rec;
+        while ((rec = nextRecord()) != null) {
+            switch (kind) {
+                case BinaryExporter.REC_DATABASE:
+                {
+                    int rootOid = rec.readInt();
+                    int maxOid = rec.readInt();
+                    String encoding = rec.readUTF();
+                    if (!encoding.equals(storage.encoding != null ? storage.encoding : "")) {
+                        throw new StorageError(StorageError.UNSUPPORTED_ENCODING, encoding);
+                    }
+                    if (storage.header.root[1-storage.currIndex].rootObject != 0 || storage.descList != null) {
+                        throw new StorageError(StorageError.INVALID_OPERATION, "database dump can be imported only in empty storage");
+                    }
+                    storage.reserveIds(maxOid);
+                    storage.header.root[1-storage.currIndex].rootObject = rootOid;
+                    usedOids = new int[maxOid];
+                    usedOids[rootOid] = rootOid;
+                    break;
+                }
+                case BinaryExporter.REC_CLASS:
+                    readClassDescriptor(rec);
+                    break;
+                case BinaryExporter.REC_OBJECT:
+                {
+                    if (classes != null) {
+                        installClassDescriptors();
+                    }
+                    int oid = rec.readInt();
+                    int size = recordSize - 4;
+                    long pos = storage.allocate(size, 0);
+                    storage.setPos(oid, pos | StorageImpl.dbModifiedFlag);
+                    storage.pool.put(pos, recordBody, recordOffs + 4, size);
+                    usedOids[oid] = oid;
+                    break;
+                }
+                case BinaryExporter.REC_KEYS:
+                    if (classes != null) {
+                        installClassDescriptors();
+                    }
+                    readKeys(rec);
+                    break;
+                case BinaryExporter.REC_END:
+                    if (classes != null) {
+                        installClassDescriptors();
+                    }
+                    storage.collectFreeIds(usedOids, usedOids.length);
+                    return;
+                default:
+                    throw new StorageError(StorageError.DATABASE_CORRUPTED, "unknown dump record " + kind);
+            }
+        }
+        throw new StorageError(StorageError.DATABASE_CORRUPTED, "dump is truncated");
+    }
+
+    final void readClassDescriptor(DataInputStream rec) throws IOException
+    {
+        ClassDescriptor desc = new ClassDescriptor();
+        int oid = rec.readInt();
+        desc.name = rec.readUTF();
+        desc.hasReferences = rec.readBoolean();
+        int nFields = rec.readInt();
+        desc.allFields = new ClassDescriptor.FieldDescriptor[nFields];
+        for (int i = 0; i < nFields; i++) {
+            ClassDescriptor.FieldDescriptor fd = new ClassDescriptor.FieldDescriptor();
+            fd.fieldName = rec.readUTF();
+            fd.className = rec.readUTF();
+            fd.type = rec.readInt();
+            int valueDescOid = rec.readInt();
+            if (valueDescOid != 0) {
+                fd.valueDesc = classMap.get(Integer.valueOf(valueDescOid));
+                if (fd.valueDesc == null) {
+                    throw new StorageError(StorageError.DATABASE_CORRUPTED, "unknown value type " + valueDescOid);
+                }
+            }
+            desc.allFields[i] = fd;
+        }
+        if (classes == null) {
+            classes = new ArrayList<ClassDescriptor>();
+        }
+        classes.add(desc);
+        classMap.put(Integer.valueOf(oid), desc);
+        usedOids[oid] = oid;
+        storage.assignOid(desc, oid, false);
+    }
+
+    /**
+     * Register imported class descriptors in the same way as descriptors loaded by StorageImpl.reloadScheme
+     */
+    final void installClassDescriptors()
+    {
+        for (ClassDescriptor desc : classes) {
+            storage.objectCache.put(desc.getOid(), desc);
+            desc.onLoad();
+            desc.next = storage.descList;
+            storage.descList = desc;
+        }
+        for (ClassDescriptor desc : classes) {
+            storage.storeObject(desc);
+        }
+        storage.header.root[1-storage.currIndex].classDescList = storage.descList.getOid();
+        for (ClassDescriptor desc : classes) {
+            if (storage.findClassDescriptor(desc.cls) == desc) {
+                desc.resolve();
+            }
+            StorageImpl.checkIfFinal(desc);
+        }
+        classes = null;
+    }
+
+    final void readKeys(DataInputStream rec) throws IOException
+    {
+        int oid = rec.readInt();
+        int type = rec.readInt();
+        int nKeys = rec.readInt();
+        if (oid != indexOid) {
+            Object obj = storage.lookupObject(oid, null);
+            index = null;
+            bitIndex = null;
+            hash = null;
+            if (obj instanceof LinearHashImpl) {
+                hash = (LinearHashImpl<?,?>)obj;
+            } else if (obj instanceof BitIndexImpl) {
+                // bit index pages contain pairs of object and mask: mask is exported as integer key
+                bitIndex = (BitIndexImpl<?>)obj;
+            } else {
+                index = (Btree<?>)obj;
+            }
+            indexOid = oid;
+        }
+        int offs = recordOffs + 12;
+        byte[] body = recordBody;
+        for (int i = 0; i < nKeys; i++) {
+            int objOid = Bytes.unpack4(body, offs);
+            int size = Bytes.unpack4(body, offs + 4);
+            offs += 8;
+            if (hash != null) {
+                byte[] key = new byte[size];
+                System.arraycopy(body, offs, key, 0, size);
+                hash.insert(key, objOid);
+            } else if (bitIndex != null) {
+                bitIndex.insert(objOid, Bytes.unpack4(body, offs));
+            } else {
+                index.insert(createKey(type, body, offs, size), objOid, false);
+            }
+            offs += size;
+        }
+    }
+
+    final Key createKey(int type, byte[] body, int offs, int size)
+    {
+        switch (type) {
+            case ClassDescriptor.tpBoolean:
+                return new Key(body[offs] != 0);
+            case ClassDescriptor.tpByte:
+                return new Key(body[offs]);
+            case ClassDescriptor.tpChar:
+                return new Key((char)Bytes.unpack2(body, offs));
+            case ClassDescriptor.tpShort:
+                return new Key(Bytes.unpack2(body, offs));
+            case ClassDescriptor.tpInt:
+            case ClassDescriptor.tpEnum:
+                return new Key(Bytes.unpack4(body, offs));
+            case ClassDescriptor.tpObject:
+                return new Key(new PersistentStub(storage, Bytes.unpack4(body, offs)));
+            case ClassDescriptor.tpLong:
+                return new Key(Bytes.unpack8(body, offs));
+            case ClassDescriptor.tpFloat:
+                return new Key(Float.intBitsToFloat(Bytes.unpack4(body, offs)));
+            case ClassDescriptor.tpDouble:
+                return new Key(Double.longBitsToDouble(Bytes.unpack8(body, offs)));
+            case ClassDescriptor.tpDate:
+            {
+                long msec = Bytes.unpack8(body, offs);
+                return new Key(msec != Storage.INVALID_DATE ? new Date(msec) : null);
+            }
+            case ClassDescriptor.tpString:
+            {
+                char[] chars = new char[size >> 1];
+                for (int i = 0; i < chars.length; i++) {
+                    chars[i] = (char)Bytes.unpack2(body, offs + i*2);
+                }
+                return new Key(chars);
+            }
+            case ClassDescriptor.tpArrayOfByte:
+            {
+                byte[] bytes = new byte[size];
+                System.arraycopy(body, offs, bytes, 0, size);
+                return new Key(bytes);
+            }
+            default:
+                throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE, ClassDescriptor.signature[type]);
+        }
+    }
+
+    /**
+     * Locate next record, reading next block if current block is exhausted.
+     * Sets <code>kind</code>, <code>recordBody</code>, <code>recordOffs</code> and <code>recordSize</code>.
+     * @return stream for reading record fields or null if end of dump is reached
+     */
+    final DataInputStream nextRecord() throws IOException
+    {
+        if (blockPos == blockSize) {
+            byte[] hdr = new byte[BinaryExporter.BLOCK_HEADER_SIZE];
+            in.readFully(hdr);
+            int flags = Bytes.unpack4(hdr, 0);
+            int rawSize = Bytes.unpack4(hdr, 4);
+            int dataSize = Bytes.unpack4(hdr, 8);
+            int checksum = Bytes.unpack4(hdr, 12);
+            if (rawSize == 0) {
+                return null;
+            }
+            if (rawSize < 0 || dataSize < 0) {
+                throw new StorageError(StorageError.DATABASE_CORRUPTED, "bad dump block header");
+            }
+            if (block == null || block.length < rawSize) {
+                block = new byte[rawSize];
+            }
+            if ((flags & BinaryExporter.BLOCK_COMPRESSED) != 0) {
+                if (buf == null || buf.length < dataSize) {
+                    buf = new byte[dataSize];
+                }
+                in.readFully(buf, 0, dataSize);
+                if (inflater == null) {
+                    inflater = new Inflater();
+                }
+                inflater.reset();
+                inflater.setInput(buf, 0, dataSize);
+                try {
+                    if (inflater.inflate(block, 0, rawSize) != rawSize) {
+                        throw new StorageError(StorageError.DATABASE_CORRUPTED, "bad compressed dump block");
+                    }
+                } catch (DataFormatException x) {
+                    throw new StorageError(StorageError.DATABASE_CORRUPTED, x);
+                }
+            } else {
+                in.readFully(block, 0, rawSize);
+            }
+            crc.reset();
+            crc.update(block, 0, rawSize);
+            if ((int)crc.getValue() != checksum) {
+                throw new StorageError(StorageError.DATABASE_CORRUPTED, "dump block checksum mismatch");
+            }
+            blockPos = 0;
+            blockSize = rawSize;
+        }
+        kind = block[blockPos];
+        recordSize = Bytes.unpack4(block, blockPos + 1);
+        recordOffs = blockPos + 5;
+        recordBody = block;
+        blockPos = recordOffs + recordSize;
+        if (recordSize < 0 || blockPos > blockSize) {
+            throw new StorageError(StorageError.DATABASE_CORRUPTED, "bad dump record");
+        }
+        return new DataInputStream(new ByteArrayInputStream(block, recordOffs, recordSize));
+    }
+
+    private StorageImpl     storage;
+    private DataInputStream in;
+    private Inflater        inflater;
+    private CRC32           crc = new CRC32();
+    private byte[]          buf;
+    private byte[]          block;
+    private int             blockPos;
+    private int             blockSize;
+    private int             kind;
+    private byte[]          recordBody;
+    private int             recordOffs;
+    private int             recordSize;
+    private int[]           usedOids;
+    private ArrayList<ClassDescriptor> classes;
+    private HashMap<Integer,ClassDescriptor> classMap = new HashMap<Integer,ClassDescriptor>();
+    private Btree<?>            index;
+    private BitIndexImpl<?>     bitIndex;
+    private LinearHashImpl<?,?> hash;
+    private int                 indexOid;
+}
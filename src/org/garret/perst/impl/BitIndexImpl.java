@@ -33,7 +33,13 @@ class BitIndexImpl<T> extends Btree<T> implements BitIndex<T>
         if (db == null) {             
             throw new StorageError(StorageError.DELETED_OBJECT);
         }
-        Key ins = new Key(mask, db.makePersistent(obj));
+        insert(db.makePersistent(obj), mask);
+    }
+
+    final void insert(int oid, int mask) 
+    {
+        StorageImpl db = (StorageImpl)getStorage();
+        Key ins = new Key(mask, oid);
         if (root == 0) { 
             root = BitIndexPage.allocate(db, 0, ins);
             height = 1;
@@ -0,0 +1,129 @@
+package org.garret.perst.impl;
+import  org.garret.perst.*;
+
+import java.util.*;
+
+/**
+ * Bitmap index: thick field index which keeps compressed bitmap of OIDs for each distinct value of the key
+ */
+class BitmapIndexImpl<T> extends ThickFieldIndex<T> implements BitmapIndex<T>
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Bitmap of objects with the same value of the key.
+     * Unlike other compressed bitmaps, members of this bitmap are marked by garbage collector,
+     * because index may be the only place where objects are referenced.
+     */
+    static class MemberBitmap<T> extends CompressedBitmap<T>
+    {
+        private static final long serialVersionUID = 1L;
+
+        MemberBitmap(Storage storage) {
+            super(storage);
+        }
+
+        MemberBitmap() {
+            super(null);
+        }
+    }
+
+    BitmapIndexImpl() {}
+
+    BitmapIndexImpl(StorageImpl db, Class<?> cls, String fieldName) {
+        super(db, cls, fieldName);
+    }
+
+    public CompressedBitmap<T> getBitmap(Key key) {
+        CompressedBitmap<T> bitmap = toBitmap(index.get(key));
+        return bitmap != null ? bitmap : new CompressedBitmap<T>(getStorage());
+    }
+
+    public CompressedBitmap<T> getBitmap(Object key) {
+        return getBitmap(Btree.getKeyFromObject(key));
+    }
+
+    public CompressedBitmap<T> getBitmap(Object[] keys) {
+        CompressedBitmap<T> result = new CompressedBitmap<T>(getStorage());
+        for (int i = 0; i < keys.length; i++) {
+            CompressedBitmap<T> bitmap = toBitmap(index.get(Btree.getKeyFromObject(keys[i])));
+            if (bitmap != null) {
+                result = result.or(bitmap);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked") // values of the index are bitmaps of its members
+    private static <T> CompressedBitmap<T> toBitmap(Object obj) {
+        return (CompressedBitmap<T>)obj;
+    }
+
+    private final T getSingle(Object s) {
+        if (s == null) {
+            return null;
+        }
+        CompressedBitmap<T> bitmap = toBitmap(s);
+        if (bitmap.size() != 1) {
+            throw new StorageError(StorageError.KEY_NOT_UNIQUE);
+        }
+        return bitmap.iterator().next();
+    }
+
+    public T get(Key key) {
+        return getSingle(index.get(key));
+    }
+
+    public T get(Object key) {
+        return getSingle(index.get(key));
+    }
+
+    public boolean put(Key key, T obj) {
+        Storage storage = getStorage();
+        int oid = storage.makePersistent(obj);
+        CompressedBitmap<T> bitmap = toBitmap(index.get(key));
+        if (bitmap == null) {
+            bitmap = new MemberBitmap<T>(storage);
+            index.put(key, bitmap);
+        }
+        if (!bitmap.add(oid)) {
+            return false;
+        }
+        nElems += 1;
+        modify();
+        return true;
+    }
+
+    public T set(Key key, T obj) {
+        CompressedBitmap<T> bitmap = toBitmap(index.get(key));
+        if (bitmap == null) {
+            put(key, obj);
+            return null;
+        }
+        T prev = getSingle(bitmap);
+        bitmap.removeObject(prev);
+        bitmap.add(getStorage().makePersistent(obj));
+        return prev;
+    }
+
+    boolean removeIfExists(Key key, T obj) {
+        CompressedBitmap<T> bitmap = toBitmap(index.get(key));
+        int oid = getStorage().getOid(obj);
+        if (bitmap != null && oid != 0 && bitmap.remove(oid)) {
+            if (bitmap.isEmpty()) {
+                index.remove(key, bitmap);
+                bitmap.deallocate();
+            }
+            nElems -= 1;
+            modify();
+            return true;
+        }
+        return false;
+    }
+
+    public boolean containsObject(T obj) {
+        Key key = extractKey(obj);
+        int oid = getStorage().getOid(obj);
+        return key != null && oid != 0 && getBitmap(key).contains(oid);
+    }
+}
@@ -1,7 +1,10 @@
 package org.garret.perst.impl;
 import  org.garret.perst.*;
+import  java.io.IOException;
+import  java.nio.ByteBuffer;
+import  java.nio.channels.WritableByteChannel;
 
-public class BlobImpl extends PersistentResource implements Blob { 
+public class BlobImpl extends PersistentResource implements TransferableBlob { 
     int           size;
     BlobImpl      next;
     byte[]        body;
@@ -299,6 +302,42 @@ public class BlobImpl extends PersistentResource implements Blob {
         return new BlobOutputStream(this, flags);
     }
 
+    public long transferTo(WritableByteChannel channel) { 
+        return transferTo(0, Long.MAX_VALUE, channel);
+    }
+
+    public long transferTo(long position, long length, WritableByteChannel channel) { 
+        return transfer(getInputStream(), position, length, channel);
+    }
+
+    static final int TRANSFER_BUFFER_SIZE = 64*1024;
+
+    /**
+     * Copy data from BLOB input stream to the channel
+     */
+    static long transfer(RandomAccessInputStream in, long position, long length, WritableByteChannel channel) { 
+        byte[] buf = new byte[TRANSFER_BUFFER_SIZE];
+        long total = 0;
+        try { 
+            in.setPosition(position);
+            while (total < length) { 
+                int n = in.read(buf, 0, length - total < buf.length ? (int)(length - total) : buf.length);
+                if (n <= 0) { 
+                    break;
+                }
+                ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+                while (bb.hasRemaining()) { 
+                    channel.write(bb);
+                }
+                total += n;
+            }
+            in.close();
+        } catch (IOException x) { 
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+        return total;
+    }
+
     public void deallocate() { 
         load();
         if (size > 0) {
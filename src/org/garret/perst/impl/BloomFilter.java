@@ -0,0 +1,194 @@
+package org.garret.perst.impl;
+import  org.garret.perst.*;
+
+/**
+ * Blocked Bloom filter used by indices to skip lookup of keys which are not present in the index.
+ * Bits are split into blocks of page size: all bits of one key are set in the same block,
+ * so checking the key requires access to just one block object.
+ * Bloom filter doesn't support removal of keys: removed keys are still reported as possibly present
+ * until the filter is rebuilt (it happens when number of keys exceeds filter capacity).
+ */
+class BloomFilter extends Persistent {
+    private static final long serialVersionUID = 1L;
+
+    Block[] blocks;
+    int     nHashes;
+    int     capacity;
+    double  falsePositiveRate;
+
+    static class Block extends Persistent {
+        private static final long serialVersionUID = 1L;
+
+        long[] bits;
+
+        Block(int nWords) {
+            bits = new long[nWords];
+        }
+
+        Block() {}
+    }
+
+    static final int INITIAL_CAPACITY = 1024;
+    static final int MAX_HASHES = 16;
+    // block is stored as object with header and array length, it should fit in one page
+    static final int BLOCK_WORDS = (Page.pageSize - ObjectHeader.sizeof - 64) / 8;
+    static final int BLOCK_BITS = BLOCK_WORDS*64;
+
+    BloomFilter(Storage storage, double falsePositiveRate) {
+        super(storage);
+        if (falsePositiveRate <= 0.0 || falsePositiveRate >= 1.0) {
+            throw new IllegalArgumentException("False positive rate should be in (0,1) interval");
+        }
+        this.falsePositiveRate = falsePositiveRate;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    BloomFilter() {}
+
+    public boolean recursiveLoading() {
+        return false;
+    }
+
+    final int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Drop all keys and resize filter to be able to hold specified number of keys
+     * without exceeding false positive rate
+     */
+    void reset(int capacity) {
+        deallocateBlocks();
+        allocate(capacity);
+        modify();
+    }
+
+    void clear() {
+        reset(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        Storage storage = getStorage();
+        double ln2 = Math.log(2.0);
+        long nBits = (long)Math.ceil(-(double)capacity*Math.log(falsePositiveRate)/(ln2*ln2));
+        int nBlocks = (int)((nBits + BLOCK_BITS - 1) / BLOCK_BITS);
+        int nWords = nBlocks == 1 ? (int)((nBits + 63) >>> 6) : BLOCK_WORDS;
+        int k = (int)Math.round((double)nBits/capacity*ln2);
+        nHashes = k < 1 ? 1 : k > MAX_HASHES ? MAX_HASHES : k;
+        blocks = new Block[nBlocks];
+        for (int i = 0; i < nBlocks; i++) {
+            Block blk = new Block(nWords);
+            storage.makePersistent(blk);
+            blocks[i] = blk;
+        }
+        this.capacity = capacity;
+    }
+
+    private void deallocateBlocks() {
+        if (blocks != null) {
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i].deallocate();
+            }
+            blocks = null;
+        }
+    }
+
+    public void deallocate() {
+        deallocateBlocks();
+        super.deallocate();
+    }
+
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    static long hash(Key key) {
+        Object v = key.oval;
+        long h;
+        if (v instanceof char[]) {
+            char[] chars = (char[])v;
+            h = chars.length;
+            for (int i = 0; i < chars.length; i++) {
+                h = h*31 + chars[i];
+            }
+        } else if (v instanceof String) {
+            String s = (String)v;
+            h = s.length();
+            for (int i = 0, n = s.length(); i < n; i++) {
+                h = h*31 + s.charAt(i);
+            }
+        } else if (v instanceof byte[]) {
+            byte[] bytes = (byte[])v;
+            h = bytes.length;
+            for (int i = 0; i < bytes.length; i++) {
+                h = h*31 + bytes[i];
+            }
+        } else if (key.type == ClassDescriptor.tpFloat || key.type == ClassDescriptor.tpDouble) {
+            // +0.0 and -0.0 are equal keys
+            h = key.dval == 0.0 ? 0 : Double.doubleToLongBits(key.dval);
+        } else {
+            h = key.lval;
+        }
+        return mix(h);
+    }
+
+    final void add(Key key) {
+        addHash(hash(key));
+    }
+
+    final void add(int hashCode) {
+        addHash(mix(hashCode));
+    }
+
+    final boolean mightContain(Key key) {
+        return containsHash(hash(key));
+    }
+
+    final boolean mightContain(int hashCode) {
+        return containsHash(mix(hashCode));
+    }
+
+    private void addHash(long h) {
+        Block blk = blocks[(int)((h >>> 1) % blocks.length)];
+        blk.load();
+        long[] bits = blk.bits;
+        int nBits = bits.length*64;
+        long g = mix(h + 0x9e3779b97f4a7c15L);
+        int h1 = (int)g;
+        int h2 = (int)(g >>> 32) | 1;
+        boolean modified = false;
+        for (int i = 0; i < nHashes; i++) {
+            int bit = ((h1 + i*h2) & 0x7FFFFFFF) % nBits;
+            long mask = 1L << (bit & 63);
+            if ((bits[bit >>> 6] & mask) == 0) {
+                bits[bit >>> 6] |= mask;
+                modified = true;
+            }
+        }
+        if (modified) {
+            blk.modify();
+        }
+    }
+
+    private boolean containsHash(long h) {
+        Block blk = blocks[(int)((h >>> 1) % blocks.length)];
+        blk.load();
+        long[] bits = blk.bits;
+        int nBits = bits.length*64;
+        long g = mix(h + 0x9e3779b97f4a7c15L);
+        int h1 = (int)g;
+        int h2 = (int)(g >>> 32) | 1;
+        for (int i = 0; i < nHashes; i++) {
+            int bit = ((h1 + i*h2) & 0x7FFFFFFF) % nBits;
+            if ((bits[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
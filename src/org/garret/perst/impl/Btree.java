@@ -124,8 +124,27 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         return key;
     }            
 
+    /**
+     * Bloom filter used to skip search of keys which are not present in the index.
+     * Base B-Tree doesn't maintain filter, it is stored by derived index classes.
+     */
+    BloomFilter getKeyFilter() { 
+        return null;
+    }
+
+    void rebuildKeyFilter(BloomFilter filter) { 
+        filter.reset(nElems*2);
+        if (root != 0) { 
+            BtreePage.addToFilter((StorageImpl)getStorage(), root, type, height, filter);
+        }
+    }
+
     public T get(Key key) { 
         key = checkKey(key);
+        BloomFilter filter = getKeyFilter();
+        if (filter != null && key != null && !filter.mightContain(key)) { 
+            return null;
+        }
         if (root != 0) { 
             ArrayList list = new ArrayList();
             BtreePage.find((StorageImpl)getStorage(), root, key, key, this, height, list);
@@ -159,7 +178,15 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
     public ArrayList<T> getList(Key from, Key till) {
         ArrayList<T> list = new ArrayList<T>();
         if (root != 0) { 
-            BtreePage.find((StorageImpl)getStorage(), root, checkKey(from), checkKey(till), this, height, list);
+            Key low = checkKey(from);
+            Key high = (till == from) ? low : checkKey(till);
+            if (low == high && low != null && low.inclusion != 0) { 
+                BloomFilter filter = getKeyFilter();
+                if (filter != null && !filter.mightContain(low)) { 
+                    return list;
+                }
+            }
+            BtreePage.find((StorageImpl)getStorage(), root, low, high, this, height, list);
         }
         return list;
     }
@@ -195,8 +222,13 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         if (db == null) {             
             throw new StorageError(StorageError.DELETED_OBJECT);
         }
+        return insert(key, db.makePersistent(obj), overwrite);
+    }
+
+    final int insert(Key key, int oid, boolean overwrite) {
+        StorageImpl db = (StorageImpl)getStorage();
         key = checkKey(key);
-        BtreeKey ins = new BtreeKey(key, db.makePersistent(obj));
+        BtreeKey ins = new BtreeKey(key, oid);
         if (root == 0) { 
             root = BtreePage.allocate(db, 0, type, ins);
             height = 1;
@@ -213,6 +245,14 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         }
         updateCounter += 1;
         nElems += 1;
+        BloomFilter filter = getKeyFilter();
+        if (filter != null) { 
+            if (nElems > filter.getCapacity()) { 
+                rebuildKeyFilter(filter);
+            } else { 
+                filter.add(key);
+            }
+        }
         modify();
         return 0;
     }
@@ -399,6 +439,10 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
             nElems = 0;
             height = 0;
             updateCounter += 1;
+            BloomFilter filter = getKeyFilter();
+            if (filter != null) { 
+                filter.clear();
+            }
             modify();
         }
     }
@@ -428,6 +472,10 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         if (root != 0) { 
             BtreePage.purge((StorageImpl)getStorage(), root, type, height);
         }
+        BloomFilter filter = getKeyFilter();
+        if (filter != null) { 
+            filter.deallocate();
+        }
         super.deallocate();
     }
 
@@ -446,7 +494,7 @@ class Btree<T> extends PersistentCollection<T> implements Index<T> {
         return (Object)val;
     }
 
-    public void export(XMLExporter exporter) throws java.io.IOException 
+    public void export(AssocExporter exporter) throws java.io.IOException 
     { 
         if (root != 0) { 
             BtreePage.exportPage((StorageImpl)getStorage(), exporter, root, type, height);
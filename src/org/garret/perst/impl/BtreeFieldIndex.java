@@ -22,10 +22,16 @@ class BtreeFieldIndex<T> extends Btree<T> implements FieldIndex<T> {
     String className;
     String fieldName;
     long   autoincCount;
+    // XMLExporter accesses fields of this class by offset, so this field should be the last one in alphabetical order
+    BloomFilter unmatchedKeyFilter;
     transient Class cls;
     transient Field fld;
 
     BtreeFieldIndex() {}
+
+    BloomFilter getKeyFilter() { 
+        return unmatchedKeyFilter;
+    }
     
     private final void locateField() 
     {
@@ -29,11 +29,17 @@ class BtreeMultiFieldIndex<T> extends Btree<T> implements FieldIndex<T> {
     String   className;
     String[] fieldName;
     int[]    types;
+    // XMLExporter accesses fields of this class by offset, so this field should be the last one in alphabetical order
+    BloomFilter unmatchedKeyFilter;
 
     transient Class   cls;
     transient Field[] fld;
 
     BtreeMultiFieldIndex() {}
+
+    BloomFilter getKeyFilter() { 
+        return unmatchedKeyFilter;
+    }
     
     BtreeMultiFieldIndex(Class cls, String[] fieldName, boolean unique) {
         this.cls = cls;
@@ -1662,6 +1662,39 @@ class BtreePage {
         }
     }
 
+    static void addToFilter(StorageImpl db, int pageId, int type, int height, BloomFilter filter)
+    {
+        Page pg = db.getPage(pageId);
+        try { 
+            int i, n = getnItems(pg);
+            if (--height != 0) {
+                if (type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte) { // page of strings
+                    for (i = 0; i <= n; i++) { 
+                        addToFilter(db, getKeyStrOid(pg, i), type, height, filter);
+                    }
+                } else { 
+                    for (i = 0; i <= n; i++) { 
+                        addToFilter(db, getReference(pg, maxItems-i-1), type, height, filter);
+                    }
+                }
+            } else { 
+                BtreeKey key = new BtreeKey(null, 0);
+                for (i = 0; i < n; i++) {
+                    if (type == ClassDescriptor.tpString) { 
+                        key.getStr(pg, i);
+                    } else if (type == ClassDescriptor.tpArrayOfByte) { 
+                        key.getByteArray(pg, i);
+                    } else { 
+                        key.extract(pg, firstKeyOffs + i*ClassDescriptor.sizeof[type], type);
+                    }
+                    filter.add(key.key);
+                }
+            }
+        } finally { 
+            db.pool.unfix(pg);
+        }
+    }
+
     static int markPage(StorageImpl db, int pageId, int type, int height)
     {
         int nPages = 1;
@@ -1695,7 +1728,7 @@ class BtreePage {
         return nPages;
     }
 
-    static void exportPage(StorageImpl db, XMLExporter exporter, int pageId, int type, int height)
+    static void exportPage(StorageImpl db, AssocExporter exporter, int pageId, int type, int height)
       throws java.io.IOException
     {
         Page pg = db.getPage(pageId);
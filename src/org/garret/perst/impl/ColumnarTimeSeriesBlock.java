@@ -0,0 +1,506 @@
+package org.garret.perst.impl;
+import  org.garret.perst.*;
+import  java.lang.reflect.*;
+import  java.util.*;
+
+/**
+ * Time series block storing ticks in compressed columnar format.
+ * Timestamps are stored using delta-of-delta encoding, integer fields - using delta or
+ * delta-of-delta encoding (whichever is shorter for the particular block),
+ * floating point fields - using XOR encoding of subsequent values (as in Facebook Gorilla).
+ * Ticks are unpacked in objects only when block is accessed using <code>getTicks()</code> method,
+ * columns can be decoded directly in primitive arrays.
+ */
+class ColumnarTimeSeriesBlock extends TimeSeries.Block implements IStoreable {
+    private static final long serialVersionUID = 1L;
+
+    TimeSeriesImpl<?> series;
+    byte[]            data;
+
+    transient TimeSeries.Tick[] ticks;
+
+    /**
+     * Description of tick class fields which are stored in block columns
+     */
+    static class Layout {
+        Class<?>       tickClass;
+        Field[]        fields;
+        int[]          types;
+        Constructor<?> constructor;
+
+        Layout(Class<?> tickClass) {
+            this(tickClass, true);
+        }
+
+        /**
+         * @param columnar if true, then all fields of tick class are stored in columns and so should have primitive type,
+         * otherwise only fields accessed by <code>getColumn</code> are required to be primitive
+         */
+        Layout(Class<?> tickClass, boolean columnar) {
+            this.tickClass = tickClass;
+            ArrayList<Field> list = new ArrayList<Field>();
+            buildFieldList(tickClass, list);
+            fields = list.toArray(new Field[list.size()]);
+            types = new int[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                types[i] = ClassDescriptor.getTypeCode(fields[i].getType());
+                if (columnar && types[i] > ClassDescriptor.tpDouble) {
+                    throw new StorageError(StorageError.UNSUPPORTED_TYPE, tickClass.getName() + "." + fields[i].getName());
+                }
+            }
+            try {
+                constructor = tickClass.getDeclaredConstructor(new Class<?>[0]);
+                constructor.setAccessible(true);
+            } catch (Exception x) {
+                throw new StorageError(StorageError.DESCRIPTOR_FAILURE, tickClass, x);
+            }
+        }
+
+        private static void buildFieldList(Class<?> cls, ArrayList<Field> list) {
+            Class<?> superclass = cls.getSuperclass();
+            if (superclass != null) {
+                buildFieldList(superclass, list);
+            }
+            Field[] flds = cls.getDeclaredFields();
+            Arrays.sort(flds, new Comparator<Field>() { public int compare(Field f1, Field f2) { return f1.getName().compareTo(f2.getName()); } });
+            for (int i = 0; i < flds.length; i++) {
+                Field f = flds[i];
+                if ((f.getModifiers() & (Modifier.TRANSIENT|Modifier.STATIC)) == 0) {
+                    try {
+                        f.setAccessible(true);
+                    } catch (Exception x) {}
+                    list.add(f);
+                }
+            }
+        }
+
+        int getColumn(String name) {
+            for (int i = 0; i < fields.length; i++) {
+                if (fields[i].getName().equals(name)) {
+                    if (types[i] > ClassDescriptor.tpDouble) {
+                        throw new StorageError(StorageError.UNSUPPORTED_TYPE, tickClass.getName() + "." + name);
+                    }
+                    return i;
+                }
+            }
+            throw new StorageError(StorageError.INDEXED_FIELD_NOT_FOUND, tickClass.getName() + "." + name);
+        }
+
+        TimeSeries.Tick newTick() {
+            try {
+                return (TimeSeries.Tick)constructor.newInstance(new Object[0]);
+            } catch (Exception x) {
+                throw new StorageError(StorageError.CONSTRUCTOR_FAILURE, tickClass, x);
+            }
+        }
+
+        long getLong(Object tick, int i) throws IllegalAccessException {
+            Field f = fields[i];
+            switch (types[i]) {
+              case ClassDescriptor.tpBoolean:
+                return f.getBoolean(tick) ? 1 : 0;
+              case ClassDescriptor.tpChar:
+                return f.getChar(tick);
+              case ClassDescriptor.tpFloat:
+                return Float.floatToIntBits(f.getFloat(tick)) & 0xFFFFFFFFL;
+              case ClassDescriptor.tpDouble:
+                return Double.doubleToLongBits(f.getDouble(tick));
+              default:
+                return f.getLong(tick);
+            }
+        }
+
+        void setLong(Object tick, int i, long val) throws IllegalAccessException {
+            Field f = fields[i];
+            switch (types[i]) {
+              case ClassDescriptor.tpBoolean:
+                f.setBoolean(tick, val != 0);
+                break;
+              case ClassDescriptor.tpByte:
+                f.setByte(tick, (byte)val);
+                break;
+              case ClassDescriptor.tpChar:
+                f.setChar(tick, (char)val);
+                break;
+              case ClassDescriptor.tpShort:
+                f.setShort(tick, (short)val);
+                break;
+              case ClassDescriptor.tpInt:
+                f.setInt(tick, (int)val);
+                break;
+              case ClassDescriptor.tpLong:
+                f.setLong(tick, val);
+                break;
+              case ClassDescriptor.tpFloat:
+                f.setFloat(tick, Float.intBitsToFloat((int)val));
+                break;
+              case ClassDescriptor.tpDouble:
+                f.setDouble(tick, Double.longBitsToDouble(val));
+                break;
+            }
+        }
+
+        static double toDouble(int type, long val) {
+            switch (type) {
+              case ClassDescriptor.tpFloat:
+                return Float.intBitsToFloat((int)val);
+              case ClassDescriptor.tpDouble:
+                return Double.longBitsToDouble(val);
+              default:
+                return (double)val;
+            }
+        }
+    }
+
+    static class BitOutput {
+        byte[] buf = new byte[256];
+        int    pos; // position in bits
+
+        void write(long val, int nBits) {
+            while (nBits > 0) {
+                int byteOffs = pos >>> 3;
+                if (byteOffs >= buf.length) {
+                    byte[] newBuf = new byte[buf.length*2];
+                    System.arraycopy(buf, 0, newBuf, 0, buf.length);
+                    buf = newBuf;
+                }
+                int free = 8 - (pos & 7);
+                int n = nBits < free ? nBits : free;
+                int bits = (int)(val >>> (nBits - n)) & ((1 << n) - 1);
+                buf[byteOffs] |= (byte)(bits << (free - n));
+                pos += n;
+                nBits -= n;
+            }
+        }
+
+        int size() {
+            return (pos + 7) >>> 3;
+        }
+    }
+
+    static class BitInput {
+        byte[] buf;
+        int    pos; // position in bits
+
+        BitInput(byte[] buf, int offs) {
+            this.buf = buf;
+            this.pos = offs << 3;
+        }
+
+        long read(int nBits) {
+            long val = 0;
+            while (nBits > 0) {
+                int avail = 8 - (pos & 7);
+                int n = nBits < avail ? nBits : avail;
+                int bits = ((buf[pos >>> 3] & 0xFF) >>> (avail - n)) & ((1 << n) - 1);
+                val = (val << n) | bits;
+                pos += n;
+                nBits -= n;
+            }
+            return val;
+        }
+    }
+
+    static final int ENCODE_DELTA = 0;
+    static final int ENCODE_DELTA_OF_DELTA = 1;
+
+    /**
+     * Write zigzag encoded value using variable number of bits:
+     * 0 - zero value, 10 - 7 bits, 110 - 12 bits, 1110 - 20 bits, 1111 - 64 bits
+     */
+    static void writeVarBits(BitOutput out, long v) {
+        long z = (v << 1) ^ (v >> 63);
+        if (z == 0) {
+            out.write(0, 1);
+        } else if ((z >>> 7) == 0) {
+            out.write(2, 2);
+            out.write(z, 7);
+        } else if ((z >>> 12) == 0) {
+            out.write(6, 3);
+            out.write(z, 12);
+        } else if ((z >>> 20) == 0) {
+            out.write(14, 4);
+            out.write(z, 20);
+        } else {
+            out.write(15, 4);
+            out.write(z, 64);
+        }
+    }
+
+    static long readVarBits(BitInput in) {
+        long z;
+        if (in.read(1) == 0) {
+            return 0;
+        } else if (in.read(1) == 0) {
+            z = in.read(7);
+        } else if (in.read(1) == 0) {
+            z = in.read(12);
+        } else if (in.read(1) == 0) {
+            z = in.read(20);
+        } else {
+            z = in.read(64);
+        }
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    static int varBitsLength(long v) {
+        long z = (v << 1) ^ (v >> 63);
+        return z == 0 ? 1 : (z >>> 7) == 0 ? 9 : (z >>> 12) == 0 ? 15 : (z >>> 20) == 0 ? 24 : 68;
+    }
+
+    static void encodeIntegers(BitOutput out, long[] values, int n) {
+        int deltaLength = 0, dodLength = 0;
+        long prevDelta = 0;
+        for (int i = 1; i < n; i++) {
+            long delta = values[i] - values[i-1];
+            deltaLength += varBitsLength(delta);
+            dodLength += varBitsLength(delta - prevDelta);
+            prevDelta = delta;
+        }
+        int mode = dodLength < deltaLength ? ENCODE_DELTA_OF_DELTA : ENCODE_DELTA;
+        out.write(mode, 1);
+        if (n > 0) {
+            out.write(values[0], 64);
+        }
+        prevDelta = 0;
+        for (int i = 1; i < n; i++) {
+            long delta = values[i] - values[i-1];
+            writeVarBits(out, mode == ENCODE_DELTA ? delta : delta - prevDelta);
+            prevDelta = delta;
+        }
+    }
+
+    static void decodeIntegers(BitInput in, long[] values, int n) {
+        int mode = (int)in.read(1);
+        if (n > 0) {
+            values[0] = in.read(64);
+        }
+        long delta = 0;
+        for (int i = 1; i < n; i++) {
+            long v = readVarBits(in);
+            delta = mode == ENCODE_DELTA ? v : delta + v;
+            values[i] = values[i-1] + delta;
+        }
+    }
+
+    /**
+     * XOR encoding of floating point values:
+     * 0 - same value as previous, 10 - meaningful bits fit in the previous window,
+     * 11 - number of leading zeros and length of meaningful bits followed by meaningful bits
+     */
+    static void encodeFloats(BitOutput out, long[] values, int n, int width) {
+        if (n == 0) {
+            return;
+        }
+        int lenBits = width == 64 ? 6 : 5;
+        out.write(values[0], width);
+        int prevLeading = -1, prevTrailing = 0;
+        for (int i = 1; i < n; i++) {
+            long xor = values[i] ^ values[i-1];
+            if (xor == 0) {
+                out.write(0, 1);
+            } else {
+                int leading = Long.numberOfLeadingZeros(xor) - (64 - width);
+                int trailing = Long.numberOfTrailingZeros(xor);
+                if (leading >= (1 << lenBits)) {
+                    leading = (1 << lenBits) - 1;
+                }
+                if (prevLeading >= 0 && leading >= prevLeading && trailing >= prevTrailing) {
+                    out.write(2, 2);
+                    out.write(xor >>> prevTrailing, width - prevLeading - prevTrailing);
+                } else {
+                    int meaningful = width - leading - trailing;
+                    out.write(3, 2);
+                    out.write(leading, lenBits);
+                    out.write(meaningful - 1, lenBits);
+                    out.write(xor >>> trailing, meaningful);
+                    prevLeading = leading;
+                    prevTrailing = trailing;
+                }
+            }
+        }
+    }
+
+    static void decodeFloats(BitInput in, long[] values, int n, int width) {
+        if (n == 0) {
+            return;
+        }
+        int lenBits = width == 64 ? 6 : 5;
+        values[0] = in.read(width);
+        int leading = 0, trailing = 0;
+        for (int i = 1; i < n; i++) {
+            if (in.read(1) == 0) {
+                values[i] = values[i-1];
+            } else {
+                if (in.read(1) != 0) {
+                    leading = (int)in.read(lenBits);
+                    int meaningful = (int)in.read(lenBits) + 1;
+                    trailing = width - leading - meaningful;
+                }
+                values[i] = values[i-1] ^ (in.read(width - leading - trailing) << trailing);
+            }
+        }
+    }
+
+    static void encodeColumn(BitOutput out, int type, long[] values, int n) {
+        if (type == ClassDescriptor.tpFloat) {
+            encodeFloats(out, values, n, 32);
+        } else if (type == ClassDescriptor.tpDouble) {
+            encodeFloats(out, values, n, 64);
+        } else {
+            encodeIntegers(out, values, n);
+        }
+    }
+
+    static void decodeColumn(BitInput in, int type, long[] values, int n) {
+        if (type == ClassDescriptor.tpFloat) {
+            decodeFloats(in, values, n, 32);
+        } else if (type == ClassDescriptor.tpDouble) {
+            decodeFloats(in, values, n, 64);
+        } else {
+            decodeIntegers(in, values, n);
+        }
+    }
+
+    ColumnarTimeSeriesBlock(TimeSeriesImpl<?> series) {
+        this.series = series;
+    }
+
+    ColumnarTimeSeriesBlock() {}
+
+    public TimeSeries.Tick[] getTicks() {
+        if (ticks == null) {
+            ticks = new TimeSeries.Tick[series.blockSize];
+            if (data != null) {
+                unpack(ticks);
+            }
+        }
+        return ticks;
+    }
+
+    /**
+     * Pack ticks in columns before block is stored
+     */
+    public void onStore() {
+        if (ticks != null) {
+            data = pack(ticks, used);
+        }
+    }
+
+    final boolean isUnpacked() {
+        return ticks != null;
+    }
+
+    /**
+     * Data is stored as sequence of columns prefixed by number of columns.
+     * Column 0 contains timestamps, column i+1 - values of i-th field of the tick class.
+     * Each column is prefixed by its size in bytes, so each column can be decoded independently.
+     */
+    private byte[] pack(TimeSeries.Tick[] ticks, int n) {
+        Layout layout = series.getLayout();
+        int nColumns = layout.fields.length + 1;
+        byte[][] columns = new byte[nColumns][];
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = ticks[i].getTime();
+        }
+        columns[0] = packColumn(ClassDescriptor.tpLong, values, n);
+        int size = 4 + nColumns*4 + columns[0].length;
+        try {
+            for (int j = 1; j < nColumns; j++) {
+                int type = layout.types[j-1];
+                for (int i = 0; i < n; i++) {
+                    values[i] = layout.getLong(ticks[i], j-1);
+                }
+                columns[j] = packColumn(type, values, n);
+                size += columns[j].length;
+            }
+        } catch (IllegalAccessException x) {
+            throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+        }
+        byte[] result = new byte[size];
+        Bytes.pack4(result, 0, nColumns);
+        int offs = 4;
+        for (int j = 0; j < nColumns; j++) {
+            Bytes.pack4(result, offs, columns[j].length);
+            System.arraycopy(columns[j], 0, result, offs + 4, columns[j].length);
+            offs += 4 + columns[j].length;
+        }
+        return result;
+    }
+
+    private static byte[] packColumn(int type, long[] values, int n) {
+        BitOutput out = new BitOutput();
+        encodeColumn(out, type, values, n);
+        byte[] column = new byte[out.size()];
+        System.arraycopy(out.buf, 0, column, 0, column.length);
+        return column;
+    }
+
+    private int locateColumn(int column) {
+        if (Bytes.unpack4(data, 0) != series.getLayout().fields.length + 1) {
+            throw new StorageError(StorageError.SCHEMA_CHANGED, series.getLayout().tickClass);
+        }
+        int offs = 4;
+        while (--column >= 0) {
+            offs += 4 + Bytes.unpack4(data, offs);
+        }
+        return offs + 4;
+    }
+
+    private void unpack(TimeSeries.Tick[] ticks) {
+        Layout layout = series.getLayout();
+        int n = used;
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            ticks[i] = layout.newTick();
+        }
+        try {
+            for (int j = 0; j < layout.fields.length; j++) {
+                decodeColumn(new BitInput(data, locateColumn(j+1)), layout.types[j], values, n);
+                for (int i = 0; i < n; i++) {
+                    layout.setLong(ticks[i], j, values[i]);
+                }
+            }
+        } catch (IllegalAccessException x) {
+            throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+        }
+    }
+
+    /**
+     * Decode timestamps of block ticks without unpacking tick objects
+     */
+    void getTimes(long[] times) {
+        if (ticks != null) {
+            for (int i = 0; i < used; i++) {
+                times[i] = ticks[i].getTime();
+            }
+        } else {
+            decodeColumn(new BitInput(data, locateColumn(0)), ClassDescriptor.tpLong, times, used);
+        }
+    }
+
+    /**
+     * Decode values of tick field without unpacking tick objects
+     */
+    void getValues(int field, double[] values) {
+        Layout layout = series.getLayout();
+        int n = used;
+        int type = layout.types[field];
+        long[] bits = new long[n];
+        if (ticks != null) {
+            try {
+                for (int i = 0; i < n; i++) {
+                    bits[i] = layout.getLong(ticks[i], field);
+                }
+            } catch (IllegalAccessException x) {
+                throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+            }
+        } else {
+            decodeColumn(new BitInput(data, locateColumn(field+1)), type, bits, n);
+        }
+        for (int i = 0; i < n; i++) {
+            values[i] = Layout.toDouble(type, bits[i]);
+        }
+    }
+}
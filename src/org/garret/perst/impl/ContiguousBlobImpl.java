@@ -0,0 +1,277 @@
+package org.garret.perst.impl;
+import  org.garret.perst.*;
+import  java.io.IOException;
+import  java.nio.channels.WritableByteChannel;
+
+/**
+ * BLOB which data is stored in large contiguous extents. Each extent is persistent object with single
+ * byte array field, so its content is located in the database file at known offset from the object position.
+ * Input stream and transferTo read extents directly from page pool or database file
+ * and never load extent objects in object cache.
+ */
+public class ContiguousBlobImpl extends PersistentResource implements TransferableBlob {
+    private static final long serialVersionUID = 1L;
+
+    long     size;
+    int      extentSize;
+    Extent[] extents;
+
+    static class Extent extends Persistent {
+        private static final long serialVersionUID = 1L;
+
+        byte[] body;
+
+        Extent(Storage storage, byte[] body) {
+            super(storage);
+            this.body = body;
+        }
+
+        Extent() {}
+    }
+
+    /**
+     * Store extent and throw away its content, so that extent body is not kept in memory
+     */
+    static void unload(Extent extent) {
+        extent.store();
+        extent.body = null;
+        extent.invalidate();
+    }
+
+    class BlobInputStream extends RandomAccessInputStream {
+        protected long pos;
+        protected int  currExtent = -1;
+        protected long currExtentPos;
+
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        public int read(byte b[], int off, int len) {
+            if (pos >= size) {
+                return -1;
+            }
+            if (len > size - pos) {
+                len = (int)(size - pos);
+            }
+            StorageImpl db = (StorageImpl)getStorage();
+            int rc = len;
+            while (len > 0) {
+                int i = (int)(pos / extentSize);
+                int offs = (int)(pos % extentSize);
+                int n = len < extentSize - offs ? len : extentSize - offs;
+                if (i != currExtent) {
+                    currExtentPos = db.getByteArrayPosition(extents[i].getOid());
+                    currExtent = i;
+                }
+                db.readRaw(currExtentPos + offs, b, off, n);
+                pos += n;
+                off += n;
+                len -= n;
+            }
+            return rc;
+        }
+
+        public long setPosition(long newPos) {
+            return pos = newPos < size ? newPos : size;
+        }
+
+        public long getPosition() {
+            return pos;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long skip(long offs) {
+            long oldPos = pos;
+            return setPosition(pos + offs) - oldPos;
+        }
+
+        public int available() {
+            return (int)(size - pos);
+        }
+    }
+
+    class BlobOutputStream extends RandomAccessOutputStream {
+        protected long   pos;
+        protected Extent curr;
+        protected int    currExtent = -1;
+        protected boolean modified;
+
+        public void write(int b) {
+            byte[] buf = new byte[1];
+            buf[0] = (byte)b;
+            write(buf, 0, 1);
+        }
+
+        public void write(byte b[], int off, int len) {
+            while (len > 0) {
+                int i = (int)(pos / extentSize);
+                int offs = (int)(pos % extentSize);
+                int n = len < extentSize - offs ? len : extentSize - offs;
+                if (i != currExtent) {
+                    flushExtent();
+                    if (i == extents.length) {
+                        Extent[] newExtents = new Extent[i+1];
+                        System.arraycopy(extents, 0, newExtents, 0, i);
+                        newExtents[i] = curr = new Extent(getStorage(), new byte[extentSize]);
+                        extents = newExtents;
+                    } else {
+                        curr = extents[i];
+                        curr.load();
+                        if (curr.body.length < extentSize) {
+                            // last extent is truncated
+                            byte[] body = new byte[extentSize];
+                            System.arraycopy(curr.body, 0, body, 0, curr.body.length);
+                            curr.body = body;
+                        }
+                    }
+                    currExtent = i;
+                }
+                System.arraycopy(b, off, curr.body, offs, n);
+                modified = true;
+                pos += n;
+                off += n;
+                len -= n;
+            }
+            if (pos > size) {
+                size = pos;
+            }
+        }
+
+        private void flushExtent() {
+            if (curr != null) {
+                if (currExtent == extents.length-1) {
+                    // truncate last extent
+                    int used = (int)(size - (long)currExtent*extentSize);
+                    if (used < curr.body.length) {
+                        byte[] body = new byte[used];
+                        System.arraycopy(curr.body, 0, body, 0, used);
+                        curr.body = body;
+                        modified = true;
+                    }
+                }
+                if (modified) {
+                    unload(curr);
+                } else {
+                    curr.body = null;
+                    curr.invalidate();
+                }
+                curr = null;
+                currExtent = -1;
+                modified = false;
+            }
+        }
+
+        public void close() {
+            flushExtent();
+            store();
+        }
+
+        public long setPosition(long newPos) {
+            return pos = newPos < size ? newPos : size;
+        }
+
+        public long getPosition() {
+            return pos;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long skip(long offs) {
+            long oldPos = pos;
+            return setPosition(pos + offs) - oldPos;
+        }
+
+        BlobOutputStream(int flags) {
+            load();
+            if ((flags & APPEND) != 0) {
+                pos = size;
+            }
+        }
+    }
+
+    public boolean recursiveLoading() {
+        return false;
+    }
+
+    public RandomAccessInputStream getInputStream() {
+        return getInputStream(0);
+    }
+
+    public RandomAccessInputStream getInputStream(int flags) {
+        load();
+        return new BlobInputStream();
+    }
+
+    public RandomAccessOutputStream getOutputStream() {
+        return getOutputStream(APPEND);
+    }
+
+    public RandomAccessOutputStream getOutputStream(boolean multisession) {
+        return getOutputStream(APPEND);
+    }
+
+    public RandomAccessOutputStream getOutputStream(long position, boolean multisession) {
+        RandomAccessOutputStream stream = getOutputStream(multisession);
+        stream.setPosition(position);
+        return stream;
+    }
+
+    public RandomAccessOutputStream getOutputStream(int flags) {
+        return new BlobOutputStream(flags);
+    }
+
+    public long transferTo(WritableByteChannel channel) {
+        return transferTo(0, Long.MAX_VALUE, channel);
+    }
+
+    public long transferTo(long position, long length, WritableByteChannel channel) {
+        StorageImpl db = (StorageImpl)getStorage();
+        load();
+        if (length > size - position) {
+            length = size - position;
+        }
+        long total = 0;
+        try {
+            while (total < length) {
+                int i = (int)(position / extentSize);
+                int offs = (int)(position % extentSize);
+                long n = length - total < extentSize - offs ? length - total : extentSize - offs;
+                long transfered = db.transferRaw(extents[i].getOid(), offs, n, channel);
+                total += transfered;
+                position += transfered;
+                if (transfered < n) {
+                    break;
+                }
+            }
+        } catch (IOException x) {
+            throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
+        }
+        return total;
+    }
+
+    public void deallocate() {
+        load();
+        for (int i = 0; i < extents.length; i++) {
+            extents[i].deallocate();
+        }
+        super.deallocate();
+    }
+
+    ContiguousBlobImpl(Storage storage, int extentSize) {
+        super(storage);
+        if (extentSize <= 0) {
+            throw new IllegalArgumentException("Extent size should be positive");
+        }
+        this.extentSize = extentSize;
+        extents = new Extent[0];
+    }
+
+    ContiguousBlobImpl() {}
+}
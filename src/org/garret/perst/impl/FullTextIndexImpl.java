@@ -2,14 +2,21 @@ package org.garret.perst.impl;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.garret.perst.*;
 import org.garret.perst.fulltext.*;
 
-public class FullTextIndexImpl extends PersistentResource implements FullTextIndex
+public class FullTextIndexImpl extends PersistentResource implements FullTextIndex, IStoreable
 {
     protected Index inverseIndex;
     protected Index documents;
     protected FullTextSearchHelper helper;
+    protected boolean compressedPostings;
+    protected transient HashMap<String,PostingList.Batch> buffer;
+    protected transient int bufferSize;
+    protected transient int nBufferedPostings;
+    protected transient int searchThreads;
 
     static final int OCC_KIND_OFFSET = 24;
     static final int OCC_POSITION_MASK = (1 << OCC_KIND_OFFSET) - 1;
@@ -24,7 +31,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
         }
 
         public long getNumberOfOccurrences() { 
-            return ((InverseList)entry.getValue()).size();
+            return ((PostingSource)entry.getValue()).size();
         }
 
         KeywordImpl(Map.Entry entry) { 
@@ -60,6 +67,55 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                                                               Index.ASCENT_ORDER));
     }
     
+    /**
+     * Inverse list of keyword: InverseList of documents occurrences objects 
+     * (used by indices created by previous versions) or compressed PostingList 
+     */
+    interface PostingSource 
+    {
+        int size();
+
+        int first();
+
+        int last();
+
+        /**
+         * Upper bound of freq*freq*log(1 + densityFactor/nWords) for all documents in the list,
+         * where freq is number of occurrences of keyword in the document and nWords - number of words in the document
+         * @return upper bound or Double.POSITIVE_INFINITY if it is unknown
+         */
+        double getWeightBound(double densityFactor);
+
+        PostingCursor cursor();
+    }
+
+    /**
+     * Forward cursor through documents of inverse list
+     */
+    interface PostingCursor 
+    {
+        /**
+         * Move cursor to first document which OID is greater or equal than specified
+         * @return OID of the current document or Integer.MAX_VALUE if there are no more documents
+         */
+        int skipTo(int doc);
+
+        int[] getOccurrences();
+
+        int getNumberOfWords();
+
+        /**
+         * Upper bound of freq*freq*log(1 + densityFactor/nWords) for documents of the current block
+         * @return upper bound or Double.POSITIVE_INFINITY if it is unknown
+         */
+        double getWeightBound(double densityFactor);
+
+        /**
+         * OID of the last document of the current block
+         */
+        int getBlockEnd();
+    }
+
     static class DocumentOccurrences extends Persistent {
         InverseList list;
         int nWordsInDocument;
@@ -119,7 +175,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
         }        
     }
 
-    static class InverseList extends Btree
+    static class InverseList extends Btree implements PostingSource
     { 
         int[] oids;
         Link  docs;
@@ -141,7 +197,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             return oids != null ? oids.length : super.size();
         }
 
-        int first() { 
+        public int first() { 
             if (oids != null) { 
                 return oids[0];
             }
@@ -149,7 +205,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             return ((Integer)entry.getKey()).intValue();
         }
 
-        int last() { 
+        public int last() { 
             if (oids != null) { 
                 return oids[oids.length-1];
             }
@@ -182,6 +238,59 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             public void remove() {}
         }
 
+        public double getWeightBound(double densityFactor) { 
+            return Double.POSITIVE_INFINITY;
+        }
+
+        public PostingCursor cursor() { 
+            return new InverseListCursor();
+        }
+
+        class InverseListCursor implements PostingCursor 
+        {
+            Iterator<?>     iterator;
+            Map.Entry<?,?> curr;
+
+            public int skipTo(int doc) { 
+                if (iterator != null) { 
+                    if (iterator.hasNext()) { 
+                        Map.Entry<?,?> entry = (Map.Entry<?,?>)iterator.next();
+                        int nextDoc = ((Integer)entry.getKey()).intValue();
+                        if (nextDoc >= doc) { 
+                            curr = entry;
+                            return nextDoc;
+                        } 
+                    } else { 
+                        curr = null;
+                        return Integer.MAX_VALUE;
+                    }
+                } 
+                iterator = iterator(doc);
+                if (iterator.hasNext()) { 
+                    curr = (Map.Entry<?,?>)iterator.next();
+                    return ((Integer)curr.getKey()).intValue();
+                }
+                curr = null;
+                return Integer.MAX_VALUE;
+            }
+
+            public int[] getOccurrences() { 
+                return ((DocumentOccurrences)curr.getValue()).getOccurrences();
+            }
+
+            public int getNumberOfWords() { 
+                return ((DocumentOccurrences)curr.getValue()).nWordsInDocument;
+            }
+
+            public double getWeightBound(double densityFactor) { 
+                return Double.POSITIVE_INFINITY;
+            }
+
+            public int getBlockEnd() { 
+                return ((Integer)curr.getKey()).intValue();
+            }
+        }
+
         Iterator iterator(int oid) { 
             int[] os = oids;
             if (os != null) { 
@@ -282,19 +391,100 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                 }
             }
             addReference(doc, word, occurrences, i, occurrences.length, language);
+            if (buffer != null) { 
+                if (nBufferedPostings >= bufferSize) { 
+                    flush();
+                } else { 
+                    // index will be stored by commit, which flushes the buffer
+                    modify();
+                }
+            }
+        }
+    }
+
+    public void setBufferSize(int bufferSize) { 
+        if (bufferSize > 0 && compressedPostings) { 
+            if (buffer == null) { 
+                buffer = new HashMap<String,PostingList.Batch>();
+            }
+            this.bufferSize = bufferSize;
+            if (nBufferedPostings >= bufferSize) { 
+                flush();
+            }
+        } else { 
+            flush();
+            buffer = null;
+            this.bufferSize = 0;
+        }
+    }
+
+    /**
+     * Buffered postings are merged into the inverse lists when the index is stored,
+     * so that commit never saves documents without their postings
+     */
+    public void onStore() { 
+        flush();
+    }
+
+    @SuppressWarnings("unchecked") // inverse index and links to occurrences are declared using raw types
+    public void flush() { 
+        if (nBufferedPostings != 0) { 
+            // merge postings in the order of keywords to access inverse index sequentially
+            String[] words = buffer.keySet().toArray(new String[buffer.size()]);
+            Arrays.sort(words);
+            for (int i = 0; i < words.length; i++) { 
+                PostingList.Batch batch = buffer.get(words[i]);
+                PostingList postings = (PostingList)inverseIndex.get(words[i]);
+                if (postings == null) { 
+                    postings = new PostingList(getStorage());
+                    inverseIndex.put(words[i], postings);
+                }
+                batch.sort();
+                postings.merge(batch);
+                for (int j = 0; j < batch.size; j++) { 
+                    if (batch.docs[j] != 0) { 
+                        ((Document)batch.owners[j]).occurrences.add(postings);
+                    }
+                }
+            }
+            buffer.clear();
+            nBufferedPostings = 0;
         }
     }
      
+    @SuppressWarnings("unchecked")
     private final void addReference(Document doc, String word, Occurrence[] occurrences, int from, int till)
     {
-        DocumentOccurrences d = new DocumentOccurrences();
         int[] occ = new int[till - from];
-        d.nWordsInDocument = occurrences.length;
         for (int i = from; i < till; i++) { 
             occ[i - from] = occurrences[i].position | (occurrences[i].kind << OCC_KIND_OFFSET);
         }
-        d.setOccurrences(occ);
         int oid = getStorage().getOid(doc.obj);
+        if (buffer != null) { 
+            PostingList.Batch batch = buffer.get(word);
+            if (batch == null) { 
+                batch = new PostingList.Batch();
+                buffer.put(word, batch);
+            }
+            if (batch.add(doc, oid, occurrences.length, occ)) { 
+                nBufferedPostings += 1;
+            }
+            return;
+        }
+        if (compressedPostings) { 
+            PostingList postings = (PostingList)inverseIndex.get(word);
+            if (postings == null) { 
+                postings = new PostingList(getStorage());
+                inverseIndex.put(word, postings);
+            }
+            if (postings.add(oid, occurrences.length, occ)) { 
+                doc.occurrences.add(postings);
+            }
+            return;
+        }
+        DocumentOccurrences d = new DocumentOccurrences();
+        d.nWordsInDocument = occurrences.length;
+        d.setOccurrences(occ);
         InverseList list = (InverseList)inverseIndex.get(word);
         if (list == null) { 
             list = new InverseList(getStorage(), oid, d);
@@ -326,10 +516,17 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
         Key key = new Key(obj);
         Document doc = (Document)documents.get(key);
         if (doc != null) { 
+            flush();
+            int oid = getStorage().getOid(obj);
             for (int i = 0, n = doc.occurrences.size(); i < n; i++) { 
-                DocumentOccurrences d = (DocumentOccurrences)doc.occurrences.get(i);
-                d.list.remove(getStorage().getOid(obj));
-                d.deallocate();
+                Object occ = doc.occurrences.get(i);
+                if (occ instanceof PostingList) { 
+                    ((PostingList)occ).remove(oid);
+                } else { 
+                    DocumentOccurrences d = (DocumentOccurrences)occ;
+                    d.list.remove(oid);
+                    d.deallocate();
+                }
             }
             documents.remove(key);
             doc.deallocate();
@@ -342,7 +539,19 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
     }
 
     public void clear() { 
-        inverseIndex.deallocateMembers();
+        if (buffer != null) { 
+            buffer.clear();
+            nBufferedPostings = 0;
+        }
+        if (compressedPostings) { 
+            Iterator<?> iterator = inverseIndex.iterator();
+            while (iterator.hasNext()) { 
+                ((PostingList)iterator.next()).deallocate();
+            }
+            inverseIndex.clear();
+        } else { 
+            inverseIndex.deallocateMembers();
+        }
         documents.deallocateMembers();
     }
 
@@ -359,22 +568,31 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
     }
 
     protected static class KeywordList {
-        InverseList list;
-        int[]       occ;
-        String      word;
-        int         sameAs;
-        int         kwdLen;
-        int         kwdOffset;
-        int         occPos;
-        int         currDoc;
-        Map.Entry   currEntry;
-        Iterator    iterator;
+        PostingSource list;
+        PostingCursor cursor;
+        int[]         occ;
+        String        word;
+        int           sameAs;
+        int           kwdLen;
+        int           kwdOffset;
+        int           occPos;
+        int           currDoc;
+        double        rankBound;
 
         KeywordList(String word) {
             this.word = word;
             kwdLen = word.length();
             sameAs = -1;
         }
+
+        KeywordList(KeywordList kwd) {
+            word = kwd.word;
+            list = kwd.list;
+            kwdLen = kwd.kwdLen;
+            kwdOffset = kwd.kwdOffset;
+            sameAs = kwd.sameAs;
+            rankBound = kwd.rankBound;
+        }
     }
 
     static class ExpressionWeight implements Comparable {
@@ -393,11 +611,27 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
         int[]         occurrences;
         int           nOccurrences;
         float[]       occurrenceKindWeight;
+        float         maxOccurrenceKindWeight;
+        double        densityFactor;
+        float         nearnessWeight;
+        double        nearnessBound;
+        boolean       pruning;
+        boolean       bounded;
+
+        int           fromDoc = 1;
+        int           tillDoc = Integer.MAX_VALUE;
+        float[]       sharedMinRank;
+        AtomicBoolean cancelled;
+        PriorityQueue<FullTextSearchHit> topHits;
+        int           nResults;
+        int           nCandidates;
+        boolean       noMoreMatches;
+        boolean       pruned;
 
         public void visit(FullTextQueryMatchOp q) { 
             q.wno = kwdList.size(); 
             KeywordList kwd = new KeywordList(q.word);
-            kwd.list = (InverseList)inverseIndex.get(q.word);
+            kwd.list = (PostingSource)inverseIndex.get(q.word);
             kwdList.add(kwd);
         }
         
@@ -427,7 +661,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             case FullTextQuery.MATCH:
             case FullTextQuery.STRICT_MATCH:
                 {
-                    InverseList list = kwds[((FullTextQueryMatchOp)query).wno].list;
+                    PostingSource list = kwds[((FullTextQueryMatchOp)query).wno].list;
                     return list == null ? 0 : list.size();
                 }
             default:
@@ -462,7 +696,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                     Arrays.sort(conjuncts);
                     if (op == FullTextQuery.AND) { // eliminate duplicates
                         int n = 0, j = -1;
-                        InverseList list = null;
+                        PostingSource list = null;
                         for (int i = 0; i <= nConjuncts; i++) {
                             q = conjuncts[i].expr;
                             if (q instanceof FullTextQueryMatchOp) {
@@ -551,33 +785,16 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                     if (kwd.currDoc >= doc) { 
                         return kwd.currDoc;
                     }
-                    Iterator iterator = kwd.iterator;                    
-                    if (iterator != null) { 
-                        if (iterator.hasNext()) { 
-                            Map.Entry entry = (Map.Entry)iterator.next();
-                            int nextDoc = ((Integer)entry.getKey()).intValue();
-                            if (nextDoc >= doc) { 
-                                kwd.currEntry = entry;
-                                kwd.currDoc = nextDoc;
-                                return nextDoc;
-                            } 
-                        } else { 
-                            kwd.currEntry = null;
-                            kwd.currDoc = 0;
-                            return Integer.MAX_VALUE;
-                        }
-                    } 
                     if (kwd.list != null) { 
-                        kwd.iterator = iterator = kwd.list.iterator(doc);
-                        if (iterator.hasNext()) { 
-                            Map.Entry entry = (Map.Entry)iterator.next();
-                            doc = ((Integer)entry.getKey()).intValue();
-                            kwd.currEntry = entry;
-                            kwd.currDoc = doc;
-                            return doc;
+                        if (kwd.cursor == null) { 
+                            kwd.cursor = kwd.list.cursor();
+                        }
+                        int nextDoc = kwd.cursor.skipTo(doc);
+                        if (nextDoc != Integer.MAX_VALUE) { 
+                            kwd.currDoc = nextDoc;
+                            return nextDoc;
                         }
                     }
-                    kwd.currEntry = null;
                     kwd.currDoc = 0;
                     return Integer.MAX_VALUE;
                 }
@@ -656,8 +873,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                     if (kwd.currDoc != doc) {
                         return -1;
                     }                    
-                    DocumentOccurrences d = (DocumentOccurrences)kwd.currEntry.getValue();
-                    int[] occ = d.getOccurrences();
+                    int[] occ = kwd.cursor.getOccurrences();
                     kwd.occ = occ;
                     int frequency = occ.length;
                     if (query.op == FullTextQuery.STRICT_MATCH) { 
@@ -698,7 +914,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                             }
                         }
                     }
-                    return calculateKwdRank(kwd.list, d, occ);                    
+                    return calculateKwdRank(kwd.list, kwd.cursor.getNumberOfWords(), occ);                    
                 }
             case FullTextQuery.NOT:
                 {
@@ -710,7 +926,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             }
         }
             
-        final double calculateKwdRank(InverseList list, DocumentOccurrences d, int[] occ)
+        final double calculateKwdRank(PostingSource list, int nWordsInDocument, int[] occ)
         {
             int frequency = occ.length;
             int totalNumberOfDocuments = documents.size();
@@ -718,7 +934,7 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             int totalNumberOfWords = inverseIndex.size();
             double idf = Math.log((double)totalNumberOfDocuments / nRelevantDocuments);
             double averageWords = (double)totalNumberOfWords / totalNumberOfDocuments;
-            double density = frequency * Math.log(1 + (DENSITY_MAGIC*averageWords / d.nWordsInDocument)); 
+            double density = frequency * Math.log(1 + (DENSITY_MAGIC*averageWords / nWordsInDocument)); 
             double wordWeight = (density * idf);
             double wordScore = 1;
             for (int i = 0; i < frequency; i++) { 
@@ -727,6 +943,140 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             return Math.log(wordScore);
         }
 
+        /**
+         * Upper bound of rank calculated by calculateKwdRank for documents of the inverse list
+         * @param list inverse list of keyword
+         * @param weightBound upper bound of freq*freq*log(1 + DENSITY_MAGIC*averageWords/nWords) returned by getWeightBound
+         */
+        final double calculateKwdRankBound(PostingSource list, double weightBound)
+        {
+            int totalNumberOfDocuments = documents.size();
+            double idf = Math.log((double)totalNumberOfDocuments / list.size());
+            return Math.log(1 + weightBound * Math.abs(idf) * maxOccurrenceKindWeight);
+        }
+
+        final double getDensityFactor() 
+        {
+            return DENSITY_MAGIC * inverseIndex.size() / documents.size();
+        }
+
+        /**
+         * Upper bound of rank of the document calculated using statistic of the current blocks of inverse lists
+         * @return upper bound of rank or -1 if document doesn't match query
+         */
+        double calculateRankBound(int doc, FullTextQuery query) 
+        {
+            double left, right;
+            switch (query.op) { 
+            case FullTextQuery.NEAR:
+            case FullTextQuery.AND:
+                left = calculateRankBound(doc, ((FullTextQueryBinaryOp)query).left);
+                right = calculateRankBound(doc, ((FullTextQueryBinaryOp)query).right);
+                return left < 0 || right < 0 ? -1 : left + right;
+            case FullTextQuery.OR:
+                left = calculateRankBound(doc, ((FullTextQueryBinaryOp)query).left);
+                right = calculateRankBound(doc, ((FullTextQueryBinaryOp)query).right);
+                return left > right ? left : right;
+            case FullTextQuery.MATCH:
+            case FullTextQuery.STRICT_MATCH:
+                {
+                    KeywordList kwd = kwds[((FullTextQueryMatchOp)query).wno]; 
+                    if (kwd.currDoc != doc) {
+                        return -1;
+                    }                    
+                    return calculateBlockRankBound(kwd);
+                }
+            case FullTextQuery.NOT:
+                return 0;
+            default:
+                return -1;
+            }
+        }
+
+        final double calculateBlockRankBound(KeywordList kwd) 
+        {
+            return calculateKwdRankBound(kwd.list, kwd.cursor.getWeightBound(densityFactor));
+        }
+
+        /**
+         * Find last document till which rank bound calculated for the specified document remains not greater than threshold.
+         * Keywords positioned at this document contribute the bound of their current block, so it is valid
+         * till the end of the block. Keywords positioned after the document do not contribute anything till their current document.
+         * In disjunction keywords which bound of the whole list or of the current block is not greater
+         * than threshold can not lift rank of the document above threshold and are ignored.
+         * @param doc document which rank bound is not greater than threshold
+         * @param query query expression
+         * @param threshold threshold for rank bound
+         * @param disjunction whether query is part of top level disjunction
+         * @return OID of the last document which can be skipped
+         */
+        int calculateSkipLimit(int doc, FullTextQuery query, double threshold, boolean disjunction) 
+        {
+            int left, right;
+            switch (query.op) { 
+            case FullTextQuery.NEAR:
+            case FullTextQuery.AND:
+                left = calculateSkipLimit(doc, ((FullTextQueryBinaryOp)query).left, threshold, false);
+                right = calculateSkipLimit(doc, ((FullTextQueryBinaryOp)query).right, threshold, false);
+                return left < right ? left : right;
+            case FullTextQuery.OR:
+                left = calculateSkipLimit(doc, ((FullTextQueryBinaryOp)query).left, threshold, disjunction);
+                right = calculateSkipLimit(doc, ((FullTextQueryBinaryOp)query).right, threshold, disjunction);
+                return left < right ? left : right;
+            case FullTextQuery.MATCH:
+            case FullTextQuery.STRICT_MATCH:
+                {
+                    KeywordList kwd = kwds[((FullTextQueryMatchOp)query).wno]; 
+                    if (kwd.currDoc == 0) { // no more documents
+                        return Integer.MAX_VALUE;
+                    }
+                    if (kwd.currDoc < doc) { 
+                        return doc;
+                    }
+                    if (disjunction && kwd.rankBound <= threshold) { 
+                        return Integer.MAX_VALUE;
+                    }
+                    if (kwd.currDoc == doc || (disjunction && calculateBlockRankBound(kwd) <= threshold)) { 
+                        int blockEnd = kwd.cursor.getBlockEnd();
+                        return blockEnd > doc ? blockEnd : doc;
+                    }
+                    return kwd.currDoc - 1;
+                }
+            case FullTextQuery.NOT:
+                return threshold >= 0 ? Integer.MAX_VALUE : doc;
+            default:
+                return doc;
+            }
+        }
+
+        int calculateSizeEstimation(FullTextQuery query)
+        {
+            switch (query.op) { 
+            case FullTextQuery.AND:
+            case FullTextQuery.NEAR:
+                { 
+                    int left = calculateSizeEstimation(((FullTextQueryBinaryOp)query).left);
+                    int right = calculateSizeEstimation(((FullTextQueryBinaryOp)query).right);
+                    return left < right ? left : right;
+                }
+            case FullTextQuery.OR:
+                { 
+                    int left = calculateSizeEstimation(((FullTextQueryBinaryOp)query).left);
+                    int right = calculateSizeEstimation(((FullTextQueryBinaryOp)query).right);
+                    return left > right ? left : right;
+                }
+            case FullTextQuery.MATCH:
+            case FullTextQuery.STRICT_MATCH:
+                {
+                    KeywordList kwd = kwds[((FullTextQueryMatchOp)query).wno];
+                    return kwd.list == null ? 0 : kwd.list.size();
+                }
+            case FullTextQuery.NOT:
+                return documents.size();
+            }
+            return 0;
+        }
+
         void buildOccurrenceKindWeightTable() 
         {
             occurrenceKindWeight = new float[256];
@@ -741,6 +1091,13 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
                     occurrenceKindWeight[i] = weight;
                 }
             }
+            maxOccurrenceKindWeight = 0;
+            for (int i = 0; i < 256; i++) { 
+                float weight = Math.abs(occurrenceKindWeight[i]);
+                if (weight > maxOccurrenceKindWeight) { 
+                    maxOccurrenceKindWeight = weight;
+                }
+            }
         }
                
         double calculateNearness() {
@@ -801,6 +1158,18 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             return maxNearness;
         }
          
+        /**
+         * Check if all keywords are present in the document: otherwise nearness is zero
+         */
+        boolean containsAllKeywords(int doc) {
+            for (int i = 0; i < kwds.length; i++) {                 
+                if (kwds[i].currDoc != doc && (kwds[i].sameAs < 0 || kwds[kwds[i].sameAs].currDoc != doc)) { 
+                    return false;
+                }
+            }
+            return true;
+        }
+
         void reset() {
             nOccurrences = 0;
             for (int i = 0; i < kwds.length; i++) {                 
@@ -815,19 +1184,19 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             int nResults = 0;
             int estimation = 0;
             long start = System.currentTimeMillis();
+            if (sort) { 
+                buildOccurrenceKindWeightTable();
+            }
 
           JoinLists:
             while (lists.hasNext()) { 
-                InverseList list = (InverseList)lists.next();
-                Iterator occurrences = list.iterator(0);
+                PostingSource list = (PostingSource)lists.next();
+                PostingCursor occurrences = list.cursor();
                 estimation += list.size();
-                while (occurrences.hasNext()) { 
-                    Map.Entry entry = (Map.Entry)occurrences.next();
-                    int doc = ((Integer)entry.getKey()).intValue();
+                for (int doc = occurrences.skipTo(0); doc != Integer.MAX_VALUE; doc = occurrences.skipTo(doc + 1)) { 
                     float rank = 1.0f;
                     if (sort) { 
-                        DocumentOccurrences d = (DocumentOccurrences)entry.getValue();
-                        rank = (float)calculateKwdRank(list, d,  d.getOccurrences());
+                        rank = (float)calculateKwdRank(list, occurrences.getNumberOfWords(), occurrences.getOccurrences());
                     }
                     hits[nResults] = new FullTextSearchHit(getStorage(), doc, rank);
                     if (++nResults >= maxResults || System.currentTimeMillis() >= start + timeLimit) { 
@@ -846,59 +1215,307 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
             return new FullTextSearchResult(hits, estimation);
         }
 
-        FullTextSearchResult search(FullTextQuery query, int maxResults, int timeLimit) { 
-            if (query == null || !query.isConstrained()) {
-                return null;
-            }
-            long start = System.currentTimeMillis();
+        /**
+         * Relative error of rank bound, compensating rounding of rank to float
+         */
+        static final double RANK_BOUND_EPSILON = 1e-6;
+
+        /**
+         * Minimal total size of inverse lists of query keywords for which query is executed in parallel
+         */
+        static final int PARALLEL_SEARCH_THRESHOLD = 10000;
+
+        /**
+         * Prepare query for execution: locate inverse lists of keywords, optimize query and calculate rank bounds
+         */
+        FullTextQuery prepare(FullTextQuery query) {
             buildOccurrenceKindWeightTable();
             kwdList = new ArrayList();
             query.visit(this);
             kwds = (KeywordList[])kwdList.toArray(new KeywordList[kwdList.size()]);
             query = optimize(query);
             //System.out.println(query.toString());
-            FullTextSearchHit[] hits = new FullTextSearchHit[maxResults];
-            int currDoc = 1;
-            int nResults = 0;            
-            float nearnessWeight = helper.getNearnessWeight();
-            boolean noMoreMatches = false;
-            while (nResults < maxResults && System.currentTimeMillis() < start + timeLimit) { 
+            nearnessWeight = helper.getNearnessWeight();
+            nearnessBound = 1 + (kwds.length - 1)*nearnessWeight*(1 + RANK_BOUND_EPSILON) + RANK_BOUND_EPSILON;
+            pruning = nearnessWeight >= 0;
+            bounded = pruning;
+            if (pruning) {
+                densityFactor = getDensityFactor();
+                for (int i = 0; i < kwds.length; i++) { 
+                    PostingSource list = kwds[i].list;
+                    double weightBound = list == null ? 0 : list.getWeightBound(densityFactor);
+                    if (weightBound == Double.POSITIVE_INFINITY) { 
+                        // inverse list created by previous versions
+                        bounded = false;
+                    }
+                    kwds[i].rankBound = list == null ? 0 : calculateKwdRankBound(list, weightBound);
+                }
+            }
+            return query;
+        }
+
+        /**
+         * Minimal rank of the document in top list
+         * @return rank of the worst document in the top list or Float.NEGATIVE_INFINITY if top list is not filled yet
+         */
+        float getMinRank(int maxResults) { 
+            float minRank = topHits.size() == maxResults ? topHits.peek().rank : Float.NEGATIVE_INFINITY;
+            if (sharedMinRank != null) { 
+                synchronized (sharedMinRank) { 
+                    if (minRank > sharedMinRank[0]) { 
+                        sharedMinRank[0] = minRank;
+                    } else { 
+                        minRank = sharedMinRank[0];
+                    }
+                }
+            }
+            return minRank;
+        }
+
+        /**
+         * Find maxResults documents with the highest rank among documents with OID in [fromDoc, tillDoc) range.
+         * Documents are enumerated in OID order, but rank is calculated only for documents which can enter top list:
+         * once maxResults documents are found, upper bound of rank of the candidate document is calculated using maximal
+         * frequency and minimal document length of the blocks of inverse lists. If it is not greater than rank of the
+         * worst document in the top list, then all documents till the end of the blocks are skipped.
+         * If rank of documents is not bounded (inverse lists created by previous versions or negative nearness weight),
+         * then search is stopped when maxResults documents are found, as it was done by previous versions.
+         */
+        void searchRange(FullTextQuery query, int maxResults, long deadline) { 
+            topHits = new PriorityQueue<FullTextSearchHit>(maxResults + 1, Collections.<FullTextSearchHit>reverseOrder());
+            int currDoc = fromDoc;
+            while (maxResults > 0 && (bounded || nResults < maxResults) 
+                   && System.currentTimeMillis() < deadline && (cancelled == null || !cancelled.get())) 
+            { 
                 currDoc = intersect(currDoc, query);
-                if (currDoc == Integer.MAX_VALUE) { 
+                if (currDoc >= tillDoc) { 
                     noMoreMatches = true;
                     break;
                 }
+                float minRank;
+                if (pruning && (minRank = getMinRank(maxResults)) != Float.NEGATIVE_INFINITY) { 
+                    double threshold = minRank / nearnessBound;
+                    double rankBound = calculateRankBound(currDoc, query);
+                    if (rankBound <= threshold) { 
+                        // documents can not enter top list till the end of current blocks
+                        pruned = true;
+                        int skipTill = calculateSkipLimit(currDoc, query, threshold, true);
+                        if (skipTill >= tillDoc - 1) { 
+                            noMoreMatches = true;
+                            break;
+                        }
+                        currDoc = skipTill + 1;
+                        continue;
+                    }
+                    if (!containsAllKeywords(currDoc) && rankBound <= minRank / (1 + RANK_BOUND_EPSILON)) { 
+                        // nearness is zero, so rank is not greater than keyword rank 
+                        pruned = true;
+                        currDoc += 1;
+                        continue;
+                    }
+                }
                 reset();
+                nCandidates += 1;
                 double kwdRank = evaluate(currDoc, query);
                 if (kwdRank >= 0) { 
                     double nearness = calculateNearness();
-                    float rank = (float)(kwdRank*(1 + calculateNearness()*nearnessWeight));
+                    float rank = (float)(kwdRank*(1 + nearness*nearnessWeight));
                     //System.out.println("kwdRank=" + kwdRank + ", nearness=" + nearness + ", total rank=" + rank);
-                    hits[nResults++] = new FullTextSearchHit(getStorage(), currDoc, rank);
+                    nResults += 1;
+                    if (topHits.size() < maxResults) { 
+                        topHits.add(new FullTextSearchHit(getStorage(), currDoc, rank));
+                    } else if (rank > topHits.peek().rank) { 
+                        topHits.poll();
+                        topHits.add(new FullTextSearchHit(getStorage(), currDoc, rank));
+                    }
                 }
                 currDoc += 1;
             }
-            int estimation;
-            if (nResults < maxResults) { 
-                FullTextSearchHit[] realHits = new FullTextSearchHit[nResults];
-                System.arraycopy(hits, 0, realHits, 0, nResults);
-                hits = realHits;
+        }
+
+        FullTextSearchResult search(FullTextQuery query, int maxResults, int timeLimit, int nThreads) { 
+            if (query == null || !query.isConstrained()) {
+                return null;
+            }
+            long deadline = System.currentTimeMillis() + timeLimit;
+            query = prepare(query);
+            if (nThreads > 1 && bounded) { 
+                long nPostings = 0;
+                for (int i = 0; i < kwds.length; i++) { 
+                    if (kwds[i].list != null) { 
+                        nPostings += kwds[i].list.size();
+                    }
+                }
+                if (nPostings >= PARALLEL_SEARCH_THRESHOLD) { 
+                    return searchPartitions(query, maxResults, deadline, nThreads);
+                }
             }
-            if (noMoreMatches) {
+            searchRange(query, maxResults, deadline);
+            FullTextSearchHit[] hits = topHits.toArray(new FullTextSearchHit[topHits.size()]);
+            int estimation;
+            if (noMoreMatches && !pruned) {
                 estimation = nResults;
             } else if (query instanceof FullTextQueryMatchOp) { 
-                estimation = kwds[0].list.size();
+                estimation = kwds[0].list == null ? 0 : kwds[0].list.size();
+            } else if (pruned) { 
+                estimation = calculateEstimation(calculateSizeEstimation(query), nResults, nCandidates);
             } else { 
                 estimation = calculateEstimation(query, nResults);
             }
+            return new FullTextSearchResult(sortHits(hits, maxResults), estimation);
+        }
+
+        /**
+         * Apply ratio of matched documents among inspected candidates to estimated number of candidates 
+         */
+        int calculateEstimation(int nCandidatesEstimation, int nResults, int nCandidates) {
+            int estimation = nCandidates == 0 ? 0 : (int)((long)nCandidatesEstimation * nResults / nCandidates);
+            return estimation < nResults ? nResults : estimation;
+        }
+
+        /**
+         * Sort hits by rank (documents with the same rank are ordered by OID) and leave first maxResults of them
+         */
+        FullTextSearchHit[] sortHits(FullTextSearchHit[] hits, int maxResults) {
+            Arrays.sort(hits, new Comparator<FullTextSearchHit>() { 
+                public int compare(FullTextSearchHit h1, FullTextSearchHit h2) {
+                    return h1.oid - h2.oid;
+                }
+            });
             Arrays.sort(hits);
-            return new FullTextSearchResult(hits, estimation);
+            if (hits.length > maxResults) { 
+                FullTextSearchHit[] topHits = new FullTextSearchHit[maxResults];
+                System.arraycopy(hits, 0, topHits, 0, maxResults);
+                hits = topHits;
+            }
+            return hits;
         }
+
+        /**
+         * Split range of OIDs of documents containing query keywords into partitions and search them in parallel. 
+         * First partition is searched by the current thread, other - by threads of shared worker pool.
+         * Each partition is searched by separate engine with its own cursors, partitions share rank 
+         * of the worst document in their top lists, which is used to prune documents in all partitions.
+         * If the current thread is interrupted, search in all partitions is cancelled and StorageError is thrown.
+         */
+        FullTextSearchResult searchPartitions(final FullTextQuery query, final int maxResults, final long deadline, int nThreads) { 
+            long minDoc = Integer.MAX_VALUE, maxDoc = 0;
+            for (int i = 0; i < kwds.length; i++) { 
+                PostingSource list = kwds[i].list;
+                if (list != null && list.size() != 0) { 
+                    minDoc = Math.min(minDoc, list.first());
+                    maxDoc = Math.max(maxDoc, list.last());
+                }
+            }
+            final FullTextSearchEngine[] engines = new FullTextSearchEngine[nThreads];
+            float[] minRank = new float[]{Float.NEGATIVE_INFINITY};
+            AtomicBoolean cancelled = new AtomicBoolean();
+            for (int i = 0; i < nThreads; i++) { 
+                FullTextSearchEngine engine = engines[i] = new FullTextSearchEngine(this);
+                engine.fromDoc = (int)(minDoc + (maxDoc - minDoc + 1)*i/nThreads);
+                engine.tillDoc = i + 1 == nThreads ? Integer.MAX_VALUE : (int)(minDoc + (maxDoc - minDoc + 1)*(i + 1)/nThreads);
+                engine.sharedMinRank = minRank;
+                engine.cancelled = cancelled;
+            }
+            ExecutorService executor = WorkerThreadPool.getExecutor();
+            Future<?>[] futures = new Future<?>[nThreads-1];
+            for (int i = 1; i < nThreads; i++) { 
+                final FullTextSearchEngine engine = engines[i];
+                futures[i-1] = executor.submit(new Runnable() { 
+                    public void run() { 
+                        engine.searchRange(query, maxResults, deadline);
+                    }
+                });
+            }
+            Throwable error = null;
+            try { 
+                engines[0].searchRange(query, maxResults, deadline);
+            } catch (Throwable x) { 
+                error = x;
+                cancelled.set(true);
+            }
+            boolean interrupted = Thread.interrupted();
+            if (interrupted) { 
+                cancelled.set(true);
+            }
+            for (int i = 0; i < futures.length; i++) { 
+                // engines can not be left running because their results are merged below
+                while (true) { 
+                    try { 
+                        futures[i].get();
+                        break;
+                    } catch (InterruptedException x) { 
+                        interrupted = true;
+                        cancelled.set(true);
+                    } catch (ExecutionException x) { 
+                        if (error == null) { 
+                            error = x.getCause();
+                        }
+                        cancelled.set(true);
+                        break;
+                    }
+                }
+            }
+            if (interrupted) { 
+                Thread.currentThread().interrupt();
+                throw new StorageError(StorageError.FULL_TEXT_INDEX_ERROR, new InterruptedException());
+            }
+            if (error != null) { 
+                if (error instanceof StorageError) { 
+                    throw (StorageError)error;
+                }
+                throw new StorageError(StorageError.FULL_TEXT_INDEX_ERROR, error);
+            }
+            ArrayList<FullTextSearchHit> hits = new ArrayList<FullTextSearchHit>();
+            boolean noMoreMatches = true;
+            boolean pruned = false;
+            int nResults = 0;
+            int nCandidates = 0;
+            for (int i = 0; i < nThreads; i++) { 
+                hits.addAll(engines[i].topHits);
+                noMoreMatches &= engines[i].noMoreMatches;
+                pruned |= engines[i].pruned;
+                nResults += engines[i].nResults;
+                nCandidates += engines[i].nCandidates;
+            }
+            int estimation;
+            if (noMoreMatches && !pruned) {
+                estimation = nResults;
+            } else if (query instanceof FullTextQueryMatchOp) { 
+                estimation = kwds[0].list == null ? 0 : kwds[0].list.size();
+            } else { 
+                estimation = calculateEstimation(calculateSizeEstimation(query), nResults, nCandidates);
+            }
+            return new FullTextSearchResult(sortHits(hits.toArray(new FullTextSearchHit[hits.size()]), maxResults), estimation);
+        }
+
+        /**
+         * Create engine for searching partition of documents using prepared query of the specified engine
+         */
+        FullTextSearchEngine(FullTextSearchEngine engine) { 
+            kwds = new KeywordList[engine.kwds.length];
+            for (int i = 0; i < kwds.length; i++) { 
+                kwds[i] = new KeywordList(engine.kwds[i]);
+            }
+            occurrenceKindWeight = engine.occurrenceKindWeight;
+            maxOccurrenceKindWeight = engine.maxOccurrenceKindWeight;
+            densityFactor = engine.densityFactor;
+            nearnessWeight = engine.nearnessWeight;
+            nearnessBound = engine.nearnessBound;
+            pruning = engine.pruning;
+            bounded = engine.bounded;
+        }
+
+        FullTextSearchEngine() {}
     }
 
     public FullTextSearchResult search(FullTextQuery query, int maxResults, int timeLimit) { 
         FullTextSearchEngine engine = new FullTextSearchEngine();
-        return engine.search(query, maxResults, timeLimit);
+        return engine.search(query, maxResults, timeLimit, searchThreads);
+    }
+
+    public void setSearchThreads(int nThreads) { 
+        searchThreads = nThreads < 1 ? 1 : nThreads;
     }
 
     public FullTextSearchResult searchPrefix(String prefix, int maxResults, int timeLimit, boolean sort) { 
@@ -915,7 +1532,8 @@ public class FullTextIndexImpl extends PersistentResource implements FullTextInd
         this.helper = helper;
         inverseIndex = storage.createIndex(String.class, true);
         documents = storage.createIndex(Object.class, true);
+        compressedPostings = true;
     }
     
-    private  FullTextIndexImpl() {}
+    protected FullTextIndexImpl() {}
 }
\ No newline at end of file
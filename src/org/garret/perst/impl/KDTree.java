@@ -256,6 +256,23 @@ public class KDTree<T> extends PersistentCollection<T> implements Multidimension
         super.deallocate();
     }
 
+    public IterableIterator<T> neighborIterator(T center) { 
+        return new NeighborIterator(center, Double.POSITIVE_INFINITY);
+    }
+
+    public IterableIterator<T> neighborIterator(T center, double maxDistance) { 
+        return new NeighborIterator(center, maxDistance);
+    }
+
+    public ArrayList<T> getNeighbors(T center, int k) { 
+        ArrayList<T> list = new ArrayList<T>(k);
+        Iterator<T> i = neighborIterator(center);
+        while (list.size() < k && i.hasNext()) { 
+            list.add(i.next());
+        }
+        return list;
+    }
+
     int compareAllComponents(T pattern, T obj) 
     { 
         int n = comparator.getNumberOfDimensions();
@@ -387,5 +404,140 @@ public class KDTree<T> extends PersistentCollection<T> implements Multidimension
             curr = null;
         }
     }
-}
 
+    static class Neighbor<T> implements Comparable<Neighbor<T>> { 
+        KDTreeNode<T> node;
+        T             obj;
+        int           level;
+        double        distance;
+        double[]      offsets;
+
+        Neighbor(KDTreeNode<T> node, int level, double distance, double[] offsets) { 
+            this.node = node;
+            this.level = level;
+            this.distance = distance;
+            this.offsets = offsets;
+        }
+
+        Neighbor(T obj, double distance) { 
+            this.obj = obj;
+            this.distance = distance;
+        }
+
+        public int compareTo(Neighbor<T> n) { 
+            return distance < n.distance ? -1 : distance == n.distance ? 0 : 1;
+        }
+    }
+
+    /**
+     * Best-first search of nearest neighbors. Each subtree of KD-tree corresponds to the region bounded 
+     * by values of split components of its ancestors, so lower bound of distance from the center to 
+     * the objects of the subtree is known. Subtrees and objects are kept in priority queue ordered
+     * by (squared) distance, so subtrees which are more distant than the returned object are not visited.
+     * Lower bounds are maintained incrementally: offsets of the region from the center are kept for 
+     * each dimension.
+     */
+    class NeighborIterator extends IterableIterator<T> implements PersistentIterator
+    {
+        PriorityQueue<Neighbor<T>> queue;
+        T                          center;
+        boolean[]                  defined;
+        int                        nDims;
+        double                     maxDistance;
+
+        NeighborIterator(T center, double maxDistance) { 
+            this.center = center;
+            this.maxDistance = maxDistance*maxDistance;
+            nDims = comparator.getNumberOfDimensions();
+            defined = new boolean[nDims];
+            for (int i = 0; i < nDims; i++) { 
+                defined[i] = !Double.isNaN(comparator.getDistance(center, center, i));
+            }
+            queue = new PriorityQueue<Neighbor<T>>();
+            add(root, 0, 0.0, new double[nDims]);
+        }
+
+        private double distance(T obj) { 
+            double dist = 0.0;
+            for (int i = 0; i < nDims; i++) { 
+                if (defined[i]) { 
+                    double d = comparator.getDistance(center, obj, i);
+                    if (Double.isNaN(d)) { 
+                        return Double.POSITIVE_INFINITY;
+                    }
+                    dist += d*d;
+                }
+            }
+            return dist;
+        }
+
+        @SuppressWarnings({"rawtypes", "unchecked"}) // references to tree nodes are declared using raw type
+        private void add(KDTreeNode node, int level, double distance, double[] offsets) { 
+            if (node != null && distance <= maxDistance) { 
+                queue.add(new Neighbor<T>(node, level, distance, offsets));
+            }
+        }
+            
+        public boolean hasNext() {
+            while (true) { 
+                Neighbor<T> neighbor = queue.peek();
+                if (neighbor == null) { 
+                    return false;
+                }
+                if (neighbor.node == null) { 
+                    return true;
+                }
+                queue.poll();
+                KDTreeNode<T> node = neighbor.node;
+                node.load();
+                if (!node.deleted) { 
+                    double distance = distance(node.obj);
+                    if (distance <= maxDistance) { 
+                        queue.add(new Neighbor<T>(node.obj, distance));
+                    }
+                }
+                int dim = neighbor.level % nDims;
+                double offset = defined[dim] ? comparator.getDistance(center, node.obj, dim) : Double.NaN;
+                if (Double.isNaN(offset)) { 
+                    add(node.left, neighbor.level+1, neighbor.distance, neighbor.offsets);
+                    add(node.right, neighbor.level+1, neighbor.distance, neighbor.offsets);
+                } else { 
+                    // left subtree contains objects with smaller or equal (or undefined) value of the component,
+                    // right subtree - with larger value
+                    double[] offsets = neighbor.offsets;
+                    double farDistance = neighbor.distance;
+                    if (offset > offsets[dim]) { 
+                        farDistance += offset*offset - offsets[dim]*offsets[dim];
+                        offsets = offsets.clone();
+                        offsets[dim] = offset;
+                    }
+                    if (comparator.compare(center, node.obj, dim) == MultidimensionalComparator.GT) { 
+                        add(node.left, neighbor.level+1, farDistance, offsets);
+                        add(node.right, neighbor.level+1, neighbor.distance, neighbor.offsets);
+                    } else { 
+                        add(node.left, neighbor.level+1, neighbor.distance, neighbor.offsets);
+                        add(node.right, neighbor.level+1, farDistance, offsets);
+                    }
+                }
+            }
+        }
+
+        public T next() { 
+            if (!hasNext()) { 
+                throw new NoSuchElementException();
+            }
+            return queue.poll().obj;
+        }
+        
+        public int nextOid() { 
+            if (!hasNext()) { 
+                return 0;
+            }
+            return getStorage().getOid(queue.poll().obj);
+        }
+        
+        public void remove() { 
+            throw new UnsupportedOperationException();
+        }
+    }
+}
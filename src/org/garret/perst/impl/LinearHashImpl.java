@@ -0,0 +1,1066 @@
+package org.garret.perst.impl;
+import  org.garret.perst.*;
+import  java.util.*;
+
+/**
+ * Persistent hash table based on linear hashing.
+ * Buckets are page objects (like pages of B-Tree) containing hash codes, keys and OIDs of values,
+ * so lookup of the key requires access to the single bucket page (plus directory pages which are
+ * usually present in page pool) and no object loading except the value itself.
+ * Keys of scalar types are stored inside items, keys of string and byte array types are stored
+ * at the end of the page. If bucket is full, overflow page is appended to the bucket chain.
+ * Buckets are split one by one when fill factor of bucket pages exceeds the specified load factor.
+ * Directory of buckets is the tree of page objects containing OIDs of bucket pages.
+ */
+class LinearHashImpl<K, V> extends PersistentResource implements IPersistentHash<K, V>
+{
+    // fields are declared in the order of their layout in the stored object (sorted by name)
+    int  dirHeight;
+    int  dirRoot;
+    int  loadFactor;
+    int  nBuckets;
+    int  nElems;
+    int  type;
+    long usedSize;
+
+    transient volatile Set<Entry<K,V>> entrySet;
+    transient volatile Set<K>          keySet;
+    transient volatile Collection<V>   valuesCol;
+
+    private static final long serialVersionUID = 1L;
+
+    static final int nItemsOffs = 0;
+    static final int nextOffs = 4;
+    static final int heapOffs = 8;
+    static final int firstItemOffs = 12;
+    static final int itemSize = 16; // hash code, OID of value and either key, either offset and size of key
+    static final int pageSpace = Page.pageSize - firstItemOffs;
+
+    static final int dirBits = Page.pageSizeLog - 2;
+    static final int dirMask = (1 << dirBits) - 1;
+
+    LinearHashImpl(Storage storage, Class<?> keyType, int loadFactor) {
+        super(storage);
+        type = checkType(keyType);
+        this.loadFactor = loadFactor;
+    }
+
+    LinearHashImpl(byte[] obj, int offs) {
+        dirHeight = Bytes.unpack4(obj, offs);
+        offs += 4;
+        dirRoot = Bytes.unpack4(obj, offs);
+        offs += 4;
+        loadFactor = Bytes.unpack4(obj, offs);
+        offs += 4;
+        nBuckets = Bytes.unpack4(obj, offs);
+        offs += 4;
+        nElems = Bytes.unpack4(obj, offs);
+        offs += 4;
+        type = Bytes.unpack4(obj, offs);
+        offs += 4;
+        usedSize = Bytes.unpack8(obj, offs);
+    }
+
+    LinearHashImpl() {}
+
+    static int checkType(Class<?> c) {
+        int elemType = ClassDescriptor.getTypeCode(c);
+        if (elemType > ClassDescriptor.tpObject && elemType != ClassDescriptor.tpArrayOfByte) {
+            throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE, c);
+        }
+        return elemType;
+    }
+
+    final boolean isVarKey() {
+        return type == ClassDescriptor.tpString || type == ClassDescriptor.tpArrayOfByte;
+    }
+
+    /**
+     * Pack key into byte array
+     * @param key key value
+     * @param insert whether key is inserted: in this case persistent key object is made persistent
+     * @return packed key or null if key can not be present in the hash table
+     */
+    final byte[] packKey(Object key, boolean insert) {
+        if (key == null) {
+            throw new StorageError(StorageError.KEY_IS_NULL);
+        }
+        byte[] buf;
+        try {
+            switch (type) {
+              case ClassDescriptor.tpBoolean:
+                return new byte[] { (byte)(((Boolean)key).booleanValue() ? 1 : 0) };
+              case ClassDescriptor.tpByte:
+                return new byte[] { ((Byte)key).byteValue() };
+              case ClassDescriptor.tpChar:
+                buf = new byte[2];
+                Bytes.pack2(buf, 0, (short)((Character)key).charValue());
+                return buf;
+              case ClassDescriptor.tpShort:
+                buf = new byte[2];
+                Bytes.pack2(buf, 0, ((Short)key).shortValue());
+                return buf;
+              case ClassDescriptor.tpInt:
+                buf = new byte[4];
+                Bytes.pack4(buf, 0, ((Integer)key).intValue());
+                return buf;
+              case ClassDescriptor.tpLong:
+                buf = new byte[8];
+                Bytes.pack8(buf, 0, ((Long)key).longValue());
+                return buf;
+              case ClassDescriptor.tpFloat:
+                buf = new byte[4];
+                Bytes.pack4(buf, 0, Float.floatToIntBits(((Float)key).floatValue()));
+                return buf;
+              case ClassDescriptor.tpDouble:
+                buf = new byte[8];
+                Bytes.pack8(buf, 0, Double.doubleToLongBits(((Double)key).doubleValue()));
+                return buf;
+              case ClassDescriptor.tpDate:
+                buf = new byte[8];
+                Bytes.pack8(buf, 0, ((Date)key).getTime());
+                return buf;
+              case ClassDescriptor.tpObject:
+              {
+                Storage db = getStorage();
+                int oid = db.getOid(key);
+                if (oid == 0) {
+                    if (!insert) {
+                        return null;
+                    }
+                    oid = db.makePersistent(key);
+                }
+                buf = new byte[4];
+                Bytes.pack4(buf, 0, oid);
+                return buf;
+              }
+              case ClassDescriptor.tpString:
+              {
+                String str = (String)key;
+                int len = str.length();
+                buf = new byte[len*2];
+                for (int i = 0; i < len; i++) {
+                    Bytes.pack2(buf, i*2, (short)str.charAt(i));
+                }
+                return buf;
+              }
+              case ClassDescriptor.tpArrayOfByte:
+                return (byte[])key;
+              default:
+                throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE, ClassDescriptor.signature[type]);
+            }
+        } catch (ClassCastException x) {
+            throw new StorageError(StorageError.INCOMPATIBLE_KEY_TYPE);
+        }
+    }
+
+    /**
+     * Pack key constructed by XML importer: scalar values are taken from the fields of the key
+     */
+    final byte[] packKey(Key key) {
+        byte[] buf;
+        switch (type) {
+          case ClassDescriptor.tpBoolean:
+          case ClassDescriptor.tpByte:
+            return new byte[] { (byte)key.ival };
+          case ClassDescriptor.tpChar:
+          case ClassDescriptor.tpShort:
+            buf = new byte[2];
+            Bytes.pack2(buf, 0, (short)key.ival);
+            return buf;
+          case ClassDescriptor.tpInt:
+          case ClassDescriptor.tpObject:
+            buf = new byte[4];
+            Bytes.pack4(buf, 0, key.ival);
+            return buf;
+          case ClassDescriptor.tpLong:
+          case ClassDescriptor.tpDate:
+            buf = new byte[8];
+            Bytes.pack8(buf, 0, key.lval);
+            return buf;
+          case ClassDescriptor.tpFloat:
+            buf = new byte[4];
+            Bytes.pack4(buf, 0, Float.floatToIntBits((float)key.dval));
+            return buf;
+          case ClassDescriptor.tpDouble:
+            buf = new byte[8];
+            Bytes.pack8(buf, 0, Double.doubleToLongBits(key.dval));
+            return buf;
+          default:
+            return packKey(key.oval, false);
+        }
+    }
+
+    final Object unpackKey(byte[] data, int offs, int size) {
+        switch (type) {
+          case ClassDescriptor.tpBoolean:
+            return Boolean.valueOf(data[offs] != 0);
+          case ClassDescriptor.tpByte:
+            return Byte.valueOf(data[offs]);
+          case ClassDescriptor.tpChar:
+            return Character.valueOf((char)Bytes.unpack2(data, offs));
+          case ClassDescriptor.tpShort:
+            return Short.valueOf(Bytes.unpack2(data, offs));
+          case ClassDescriptor.tpInt:
+            return Integer.valueOf(Bytes.unpack4(data, offs));
+          case ClassDescriptor.tpLong:
+            return Long.valueOf(Bytes.unpack8(data, offs));
+          case ClassDescriptor.tpFloat:
+            return Float.valueOf(Float.intBitsToFloat(Bytes.unpack4(data, offs)));
+          case ClassDescriptor.tpDouble:
+            return Double.valueOf(Double.longBitsToDouble(Bytes.unpack8(data, offs)));
+          case ClassDescriptor.tpDate:
+            return new Date(Bytes.unpack8(data, offs));
+          case ClassDescriptor.tpObject:
+            return ((StorageImpl)getStorage()).lookupObject(Bytes.unpack4(data, offs), null);
+          case ClassDescriptor.tpString:
+          {
+            char[] chars = new char[size >> 1];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char)Bytes.unpack2(data, offs + i*2);
+            }
+            return new String(chars);
+          }
+          default:
+          {
+            byte[] bytes = new byte[size];
+            System.arraycopy(data, offs, bytes, 0, size);
+            return bytes;
+          }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    final V lookupValue(StorageImpl db, int oid) {
+        return oid != 0 ? (V)db.lookupObject(oid, null) : null;
+    }
+
+    static int hashKey(byte[] key) {
+        int h = 0x811C9DC5;
+        for (int i = 0; i < key.length; i++) {
+            h = (h ^ (key[i] & 0xFF)) * 0x01000193;
+        }
+        // mix bits, because bucket is selected by the lowest bits of hash code
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    final int getBucket(int hashCode) {
+        int mask = (Integer.highestOneBit(nBuckets) << 1) - 1;
+        int bucket = hashCode & mask;
+        if (bucket >= nBuckets) { // bucket is not split yet
+            bucket &= mask >>> 1;
+        }
+        return bucket;
+    }
+
+    static int getnItems(Page pg) {
+        return Bytes.unpack4(pg.data, nItemsOffs);
+    }
+
+    static void setnItems(Page pg, int nItems) {
+        Bytes.pack4(pg.data, nItemsOffs, nItems);
+    }
+
+    static int getNext(Page pg) {
+        return Bytes.unpack4(pg.data, nextOffs);
+    }
+
+    static void setNext(Page pg, int next) {
+        Bytes.pack4(pg.data, nextOffs, next);
+    }
+
+    static int getHeap(Page pg) {
+        return Bytes.unpack4(pg.data, heapOffs);
+    }
+
+    static void setHeap(Page pg, int heap) {
+        Bytes.pack4(pg.data, heapOffs, heap);
+    }
+
+    static int getHashCode(Page pg, int i) {
+        return Bytes.unpack4(pg.data, firstItemOffs + i*itemSize);
+    }
+
+    static int getOid(Page pg, int i) {
+        return Bytes.unpack4(pg.data, firstItemOffs + i*itemSize + 4);
+    }
+
+    static void setOid(Page pg, int i, int oid) {
+        Bytes.pack4(pg.data, firstItemOffs + i*itemSize + 4, oid);
+    }
+
+    final int getKeyOffs(Page pg, int i) {
+        int offs = firstItemOffs + i*itemSize + 8;
+        return isVarKey() ? Bytes.unpack4(pg.data, offs) : offs;
+    }
+
+    final int getKeySize(Page pg, int i) {
+        return isVarKey() ? Bytes.unpack4(pg.data, firstItemOffs + i*itemSize + 12) : ClassDescriptor.sizeof[type];
+    }
+
+    static int getFreeSpace(Page pg) {
+        return getHeap(pg) - firstItemOffs - getnItems(pg)*itemSize;
+    }
+
+    final int getItemSize(byte[] key) {
+        return isVarKey() ? itemSize + key.length : itemSize;
+    }
+
+    final boolean equalKeys(Page pg, int i, byte[] key) {
+        if (getKeySize(pg, i) != key.length) {
+            return false;
+        }
+        byte[] data = pg.data;
+        int offs = getKeyOffs(pg, i);
+        for (int j = 0; j < key.length; j++) {
+            if (data[offs + j] != key[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    final void addItem(Page pg, int hashCode, int oid, byte[] key) {
+        int n = getnItems(pg);
+        int offs = firstItemOffs + n*itemSize;
+        Bytes.pack4(pg.data, offs, hashCode);
+        Bytes.pack4(pg.data, offs + 4, oid);
+        if (isVarKey()) {
+            int heap = getHeap(pg) - key.length;
+            System.arraycopy(key, 0, pg.data, heap, key.length);
+            Bytes.pack4(pg.data, offs + 8, heap);
+            Bytes.pack4(pg.data, offs + 12, key.length);
+            setHeap(pg, heap);
+        } else {
+            Bytes.pack8(pg.data, offs + 8, 0);
+            System.arraycopy(key, 0, pg.data, offs + 8, key.length);
+        }
+        setnItems(pg, n + 1);
+    }
+
+    final void removeItem(Page pg, int i) {
+        int n = getnItems(pg);
+        byte[] data = pg.data;
+        if (isVarKey()) {
+            int keyOffs = getKeyOffs(pg, i);
+            int keySize = getKeySize(pg, i);
+            int heap = getHeap(pg);
+            System.arraycopy(data, heap, data, heap + keySize, keyOffs - heap);
+            for (int j = 0; j < n; j++) {
+                int offs = firstItemOffs + j*itemSize + 8;
+                int ko = Bytes.unpack4(data, offs);
+                if (ko < keyOffs) {
+                    Bytes.pack4(data, offs, ko + keySize);
+                }
+            }
+            setHeap(pg, heap + keySize);
+        }
+        System.arraycopy(data, firstItemOffs + (n-1)*itemSize, data, firstItemOffs + i*itemSize, itemSize);
+        setnItems(pg, n - 1);
+    }
+
+    final int allocateBucketPage(StorageImpl db) {
+        int pageId = db.allocatePage();
+        Page pg = db.putPage(pageId);
+        setnItems(pg, 0);
+        setNext(pg, 0);
+        setHeap(pg, Page.pageSize);
+        db.pool.unfix(pg);
+        return pageId;
+    }
+
+    static int allocateDirPage(StorageImpl db) {
+        int pageId = db.allocatePage();
+        Page pg = db.putPage(pageId);
+        Arrays.fill(pg.data, 0, Page.pageSize, (byte)0);
+        db.pool.unfix(pg);
+        return pageId;
+    }
+
+    final int getBucketPage(StorageImpl db, int bucket) {
+        int pageId = dirRoot;
+        for (int h = dirHeight; --h >= 0;) {
+            Page pg = db.getPage(pageId);
+            pageId = Bytes.unpack4(pg.data, ((bucket >>> (h*dirBits)) & dirMask)*4);
+            db.pool.unfix(pg);
+        }
+        return pageId;
+    }
+
+    final void setBucketPage(StorageImpl db, int bucket, int bucketPageId) {
+        if (dirHeight == 0 || (dirHeight*dirBits < 32 && (bucket >>> (dirHeight*dirBits)) != 0)) {
+            // add new level to the directory tree
+            int pageId = allocateDirPage(db);
+            if (dirRoot != 0) {
+                Page pg = db.putPage(pageId);
+                Bytes.pack4(pg.data, 0, dirRoot);
+                db.pool.unfix(pg);
+            }
+            dirRoot = pageId;
+            dirHeight += 1;
+        }
+        int pageId = dirRoot;
+        for (int h = dirHeight; --h > 0;) {
+            int offs = ((bucket >>> (h*dirBits)) & dirMask)*4;
+            Page pg = db.getPage(pageId);
+            int childId = Bytes.unpack4(pg.data, offs);
+            db.pool.unfix(pg);
+            if (childId == 0) {
+                childId = allocateDirPage(db);
+                pg = db.putPage(pageId);
+                Bytes.pack4(pg.data, offs, childId);
+                db.pool.unfix(pg);
+            }
+            pageId = childId;
+        }
+        Page pg = db.putPage(pageId);
+        Bytes.pack4(pg.data, (bucket & dirMask)*4, bucketPageId);
+        db.pool.unfix(pg);
+    }
+
+    public int size() {
+        return nElems;
+    }
+
+    public boolean isEmpty() {
+        return nElems == 0;
+    }
+
+    public boolean containsValue(Object value) {
+        Iterator<Entry<K,V>> i = entryIterator();
+        while (i.hasNext()) {
+            Entry<K,V> e = i.next();
+            if (value == null ? e.getValue() == null : value.equals(e.getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean containsKey(Object key) {
+        return getEntry(key) != null;
+    }
+
+    public V get(Object key) {
+        Entry<K,V> entry = getEntry(key);
+        return entry != null ? entry.getValue() : null;
+    }
+
+    @SuppressWarnings("unchecked") // key is found in the hash table, so it has key type
+    public Entry<K,V> getEntry(Object key) {
+        if (nBuckets == 0) {
+            return null;
+        }
+        byte[] packedKey = packKey(key, false);
+        if (packedKey == null) {
+            return null;
+        }
+        StorageImpl db = (StorageImpl)getStorage();
+        int hashCode = hashKey(packedKey);
+        int pageId = getBucketPage(db, getBucket(hashCode));
+        while (pageId != 0) {
+            Page pg = db.getPage(pageId);
+            try {
+                for (int i = 0, n = getnItems(pg); i < n; i++) {
+                    if (getHashCode(pg, i) == hashCode && equalKeys(pg, i, packedKey)) {
+                        return new HashEntry((K)key, getOid(pg, i));
+                    }
+                }
+                pageId = getNext(pg);
+            } finally {
+                db.pool.unfix(pg);
+            }
+        }
+        return null;
+    }
+
+    public V put(K key, V value) {
+        byte[] packedKey = packKey(key, true);
+        StorageImpl db = (StorageImpl)getStorage();
+        int valueOid = value != null ? db.makePersistent(value) : 0;
+        int size = getItemSize(packedKey);
+        if (size > pageSpace) {
+            throw new StorageError(StorageError.UNSUPPORTED_INDEX_TYPE, "key is too long");
+        }
+        if (nBuckets == 0) {
+            setBucketPage(db, 0, allocateBucketPage(db));
+            nBuckets = 1;
+        }
+        int hashCode = hashKey(packedKey);
+        int pageId = getBucketPage(db, getBucket(hashCode));
+        int freePageId = 0, lastPageId = 0;
+        while (pageId != 0) {
+            Page pg = db.getPage(pageId);
+            try {
+                for (int i = 0, n = getnItems(pg); i < n; i++) {
+                    if (getHashCode(pg, i) == hashCode && equalKeys(pg, i, packedKey)) {
+                        int oldOid = getOid(pg, i);
+                        if (oldOid != valueOid) {
+                            db.pool.unfix(pg);
+                            pg = db.putPage(pageId);
+                            setOid(pg, i, valueOid);
+                        }
+                        return lookupValue(db, oldOid);
+                    }
+                }
+                if (freePageId == 0 && getFreeSpace(pg) >= size) {
+                    freePageId = pageId;
+                }
+                lastPageId = pageId;
+                pageId = getNext(pg);
+            } finally {
+                db.pool.unfix(pg);
+            }
+        }
+        if (freePageId == 0) {
+            freePageId = allocateBucketPage(db);
+            Page pg = db.putPage(lastPageId);
+            setNext(pg, freePageId);
+            db.pool.unfix(pg);
+        }
+        Page pg = db.putPage(freePageId);
+        addItem(pg, hashCode, valueOid, packedKey);
+        db.pool.unfix(pg);
+        nElems += 1;
+        usedSize += size;
+        while (usedSize > (long)nBuckets*pageSpace*loadFactor/100) {
+            split(db);
+        }
+        modify();
+        return null;
+    }
+
+    static class Item {
+        int    hashCode;
+        int    oid;
+        byte[] key;
+    }
+
+    /**
+     * Split next bucket: items of the bucket are redistributed between this bucket and the new bucket
+     * using one more bit of hash code
+     */
+    final void split(StorageImpl db) {
+        int half = Integer.highestOneBit(nBuckets);
+        int bucket = nBuckets - half;
+        int headId = getBucketPage(db, bucket);
+        ArrayList<Item> stay = new ArrayList<Item>();
+        ArrayList<Item> move = new ArrayList<Item>();
+        int pageId = headId;
+        while (pageId != 0) {
+            Page pg = db.getPage(pageId);
+            for (int i = 0, n = getnItems(pg); i < n; i++) {
+                Item item = new Item();
+                item.hashCode = getHashCode(pg, i);
+                item.oid = getOid(pg, i);
+                item.key = new byte[getKeySize(pg, i)];
+                System.arraycopy(pg.data, getKeyOffs(pg, i), item.key, 0, item.key.length);
+                ((item.hashCode & half) != 0 ? move : stay).add(item);
+            }
+            int nextId = getNext(pg);
+            db.pool.unfix(pg);
+            if (pageId != headId) {
+                db.freePage(pageId);
+            }
+            pageId = nextId;
+        }
+        Page pg = db.putPage(headId);
+        setnItems(pg, 0);
+        setNext(pg, 0);
+        setHeap(pg, Page.pageSize);
+        db.pool.unfix(pg);
+        fillBucket(db, headId, stay);
+        int newHeadId = allocateBucketPage(db);
+        fillBucket(db, newHeadId, move);
+        setBucketPage(db, nBuckets, newHeadId);
+        nBuckets += 1;
+    }
+
+    final void fillBucket(StorageImpl db, int pageId, ArrayList<Item> items) {
+        Page pg = db.putPage(pageId);
+        for (Item item : items) {
+            if (getFreeSpace(pg) < getItemSize(item.key)) {
+                int nextId = allocateBucketPage(db);
+                setNext(pg, nextId);
+                db.pool.unfix(pg);
+                pg = db.putPage(nextId);
+            }
+            addItem(pg, item.hashCode, item.oid, item.key);
+        }
+        db.pool.unfix(pg);
+    }
+
+    public V remove(Object key) {
+        if (nBuckets == 0) {
+            return null;
+        }
+        byte[] packedKey = packKey(key, false);
+        if (packedKey == null) {
+            return null;
+        }
+        StorageImpl db = (StorageImpl)getStorage();
+        int hashCode = hashKey(packedKey);
+        int pageId = getBucketPage(db, getBucket(hashCode));
+        int prevPageId = 0;
+        while (pageId != 0) {
+            Page pg = db.getPage(pageId);
+            int n = getnItems(pg);
+            for (int i = 0; i < n; i++) {
+                if (getHashCode(pg, i) == hashCode && equalKeys(pg, i, packedKey)) {
+                    int oid = getOid(pg, i);
+                    int nextId = getNext(pg);
+                    db.pool.unfix(pg);
+                    if (n == 1 && prevPageId != 0) {
+                        // remove empty overflow page from the chain
+                        pg = db.putPage(prevPageId);
+                        setNext(pg, nextId);
+                        db.pool.unfix(pg);
+                        db.freePage(pageId);
+                    } else {
+                        pg = db.putPage(pageId);
+                        removeItem(pg, i);
+                        db.pool.unfix(pg);
+                    }
+                    nElems -= 1;
+                    usedSize -= getItemSize(packedKey);
+                    modify();
+                    return lookupValue(db, oid);
+                }
+            }
+            prevPageId = pageId;
+            pageId = getNext(pg);
+            db.pool.unfix(pg);
+        }
+        return null;
+    }
+
+    public void putAll(Map<? extends K, ? extends V> t) {
+        for (Entry<? extends K, ? extends V> e : t.entrySet()) {
+            put(e.getKey(), e.getValue());
+        }
+    }
+
+    final void purge(StorageImpl db) {
+        if (dirRoot != 0) {
+            purgeDirPage(db, dirRoot, dirHeight);
+        }
+    }
+
+    static void purgeDirPage(StorageImpl db, int pageId, int height) {
+        Page pg = db.getPage(pageId);
+        int[] children = new int[dirMask + 1];
+        for (int i = 0; i <= dirMask; i++) {
+            children[i] = Bytes.unpack4(pg.data, i*4);
+        }
+        db.pool.unfix(pg);
+        for (int i = 0; i <= dirMask; i++) {
+            if (children[i] != 0) {
+                if (height > 1) {
+                    purgeDirPage(db, children[i], height - 1);
+                } else {
+                    int bucketPageId = children[i];
+                    while (bucketPageId != 0) {
+                        pg = db.getPage(bucketPageId);
+                        int nextId = getNext(pg);
+                        db.pool.unfix(pg);
+                        db.freePage(bucketPageId);
+                        bucketPageId = nextId;
+                    }
+                }
+            }
+        }
+        db.freePage(pageId);
+    }
+
+    public void clear() {
+        if (dirRoot != 0) {
+            purge((StorageImpl)getStorage());
+            dirRoot = 0;
+            dirHeight = 0;
+            nBuckets = 0;
+            nElems = 0;
+            usedSize = 0;
+            modify();
+        }
+    }
+
+    public void deallocate() {
+        purge((StorageImpl)getStorage());
+        super.deallocate();
+    }
+
+    /**
+     * Mark objects referenced from the hash table by garbage collector
+     * @return number of pages used by hash table
+     */
+    final int markHash() {
+        return dirRoot != 0 ? markDirPage((StorageImpl)getStorage(), dirRoot, dirHeight) : 0;
+    }
+
+    final int markDirPage(StorageImpl db, int pageId, int height) {
+        int nPages = 1;
+        Page pg = db.getGCPage(pageId);
+        int[] children = new int[dirMask + 1];
+        for (int i = 0; i <= dirMask; i++) {
+            children[i] = Bytes.unpack4(pg.data, i*4);
+        }
+        db.pool.unfix(pg);
+        for (int i = 0; i <= dirMask; i++) {
+            if (children[i] != 0) {
+                if (height > 1) {
+                    nPages += markDirPage(db, children[i], height - 1);
+                } else {
+                    for (int bucketPageId = children[i]; bucketPageId != 0; nPages += 1) {
+                        pg = db.getGCPage(bucketPageId);
+                        try {
+                            for (int j = 0, n = getnItems(pg); j < n; j++) {
+                                db.markOid(getOid(pg, j));
+                                if (type == ClassDescriptor.tpObject) {
+                                    db.markOid(Bytes.unpack4(pg.data, getKeyOffs(pg, j)));
+                                }
+                            }
+                            bucketPageId = getNext(pg);
+                        } finally {
+                            db.pool.unfix(pg);
+                        }
+                    }
+                }
+            }
+        }
+        return nPages;
+    }
+
+    /**
+     * Export all entries of the hash table
+     */
+    public void export(AssocExporter exporter) throws java.io.IOException {
+        StorageImpl db = (StorageImpl)getStorage();
+        for (int bucket = 0; bucket < nBuckets; bucket++) {
+            for (int pageId = getBucketPage(db, bucket); pageId != 0;) {
+                Page pg = db.getPage(pageId);
+                try {
+                    for (int i = 0, n = getnItems(pg); i < n; i++) {
+                        exporter.exportAssoc(getOid(pg, i), pg.data, getKeyOffs(pg, i),
+                                             getKeySize(pg, i), ClassDescriptor.tpArrayOfByte);
+                    }
+                    pageId = getNext(pg);
+                } finally {
+                    db.pool.unfix(pg);
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert packed key without search for duplicates (used by import)
+     */
+    final void insert(byte[] packedKey, int oid) {
+        StorageImpl db = (StorageImpl)getStorage();
+        int size = getItemSize(packedKey);
+        if (nBuckets == 0) {
+            setBucketPage(db, 0, allocateBucketPage(db));
+            nBuckets = 1;
+        }
+        int hashCode = hashKey(packedKey);
+        int pageId = getBucketPage(db, getBucket(hashCode));
+        while (true) {
+            Page pg = db.getPage(pageId);
+            int nextId = getNext(pg);
+            boolean fit = getFreeSpace(pg) >= size;
+            db.pool.unfix(pg);
+            if (fit || nextId == 0) {
+                if (!fit) {
+                    nextId = allocateBucketPage(db);
+                    pg = db.putPage(pageId);
+                    setNext(pg, nextId);
+                    db.pool.unfix(pg);
+                    pageId = nextId;
+                }
+                pg = db.putPage(pageId);
+                addItem(pg, hashCode, oid, packedKey);
+                db.pool.unfix(pg);
+                break;
+            }
+            pageId = nextId;
+        }
+        nElems += 1;
+        usedSize += size;
+        while (usedSize > (long)nBuckets*pageSpace*loadFactor/100) {
+            split(db);
+        }
+        modify();
+    }
+
+    class HashEntry implements Entry<K,V> {
+        K   key;
+        int oid;
+
+        HashEntry(K key, int oid) {
+            this.key = key;
+            this.oid = oid;
+        }
+
+        public K getKey() {
+            return key;
+        }
+
+        public V getValue() {
+            return lookupValue((StorageImpl)getStorage(), oid);
+        }
+
+        public V setValue(V value) {
+            V prevValue = put(key, value);
+            oid = value != null ? getStorage().getOid(value) : 0;
+            return prevValue;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+            Object v = getValue();
+            return key.equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            Object v = getValue();
+            return key.hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+
+    class EntryIterator implements Iterator<Entry<K,V>> {
+        int bucket;
+        int pos;
+        ArrayList<HashEntry> entries = new ArrayList<HashEntry>();
+        HashEntry curr;
+
+        EntryIterator() {
+            loadBucket();
+        }
+
+        /**
+         * Load entries of the next non-empty bucket. Entries of the whole bucket are loaded at once,
+         * so removing of the current entry doesn't affect iteration.
+         */
+        @SuppressWarnings("unchecked")
+        void loadBucket() {
+            StorageImpl db = (StorageImpl)getStorage();
+            entries.clear();
+            pos = 0;
+            while (entries.size() == 0 && bucket < nBuckets) {
+                for (int pageId = getBucketPage(db, bucket++); pageId != 0;) {
+                    Page pg = db.getPage(pageId);
+                    try {
+                        for (int i = 0, n = getnItems(pg); i < n; i++) {
+                            K key = (K)unpackKey(pg.data, getKeyOffs(pg, i), getKeySize(pg, i));
+                            entries.add(new HashEntry(key, getOid(pg, i)));
+                        }
+                        pageId = getNext(pg);
+                    } finally {
+                        db.pool.unfix(pg);
+                    }
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            return pos < entries.size();
+        }
+
+        public Entry<K,V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            curr = entries.get(pos++);
+            if (pos == entries.size()) {
+                loadBucket();
+            }
+            return curr;
+        }
+
+        public void remove() {
+            if (curr == null) {
+                throw new IllegalStateException();
+            }
+            LinearHashImpl.this.remove(curr.key);
+            curr = null;
+        }
+    }
+
+    protected Iterator<Entry<K,V>> entryIterator() {
+        return new EntryIterator();
+    }
+
+    public Set<Entry<K,V>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<K,V>>() {
+                public Iterator<Entry<K,V>> iterator() {
+                    return entryIterator();
+                }
+
+                public int size() {
+                    return nElems;
+                }
+
+                public boolean contains(Object o) {
+                    if (!(o instanceof Map.Entry)) {
+                        return false;
+                    }
+                    Map.Entry<?,?> e = (Map.Entry<?,?>)o;
+                    Entry<K,V> entry = getEntry(e.getKey());
+                    return entry != null && entry.equals(e);
+                }
+
+                public boolean remove(Object o) {
+                    if (!contains(o)) {
+                        return false;
+                    }
+                    LinearHashImpl.this.remove(((Map.Entry<?,?>)o).getKey());
+                    return true;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    public Set<K> keySet() {
+        if (keySet == null) {
+            keySet = new AbstractSet<K>() {
+                public Iterator<K> iterator() {
+                    return new Iterator<K>() {
+                        private Iterator<Entry<K,V>> i = entryIterator();
+
+                        public boolean hasNext() {
+                            return i.hasNext();
+                        }
+
+                        public K next() {
+                            return i.next().getKey();
+                        }
+
+                        public void remove() {
+                            i.remove();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return nElems;
+                }
+
+                public boolean contains(Object k) {
+                    return containsKey(k);
+                }
+            };
+        }
+        return keySet;
+    }
+
+    public Collection<V> values() {
+        if (valuesCol == null) {
+            valuesCol = new AbstractCollection<V>() {
+                public Iterator<V> iterator() {
+                    return new Iterator<V>() {
+                        private Iterator<Entry<K,V>> i = entryIterator();
+
+                        public boolean hasNext() {
+                            return i.hasNext();
+                        }
+
+                        public V next() {
+                            return i.next().getValue();
+                        }
+
+                        public void remove() {
+                            i.remove();
+                        }
+                    };
+                }
+
+                public int size() {
+                    return nElems;
+                }
+
+                public boolean contains(Object v) {
+                    return containsValue(v);
+                }
+            };
+        }
+        return valuesCol;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof Map)) {
+            return false;
+        }
+        Map<?,?> t = (Map<?,?>)o;
+        if (t.size() != size()) {
+            return false;
+        }
+        try {
+            Iterator<Entry<K,V>> i = entryIterator();
+            while (i.hasNext()) {
+                Entry<K,V> e = i.next();
+                K key = e.getKey();
+                V value = e.getValue();
+                if (value == null) {
+                    if (!(t.get(key) == null && t.containsKey(key))) {
+                        return false;
+                    }
+                } else if (!value.equals(t.get(key))) {
+                    return false;
+                }
+            }
+        } catch (ClassCastException unused) {
+            return false;
+        } catch (NullPointerException unused) {
+            return false;
+        }
+        return true;
+    }
+
+    public int hashCode() {
+        int h = 0;
+        Iterator<Entry<K,V>> i = entryIterator();
+        while (i.hasNext()) {
+            h += i.next().hashCode();
+        }
+        return h;
+    }
+
+    public String toString() {
+        StringBuffer buf = new StringBuffer();
+        buf.append("{");
+        Iterator<Entry<K,V>> i = entryIterator();
+        while (i.hasNext()) {
+            Entry<K,V> e = i.next();
+            buf.append(e.getKey());
+            buf.append("=");
+            buf.append(e.getValue());
+            if (i.hasNext()) {
+                buf.append(", ");
+            }
+        }
+        buf.append("}");
+        return buf.toString();
+    }
+
+    @SuppressWarnings("rawtypes") // signature of IPersistentHash method
+    public Iterator<V> select(Class cls, String predicate) {
+        Query<V> query = new QueryImpl<V>(getStorage());
+        return query.select(cls, values().iterator(), predicate);
+    }
+}
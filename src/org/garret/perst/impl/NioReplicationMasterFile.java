@@ -0,0 +1,499 @@
+package org.garret.perst.impl;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import org.garret.perst.*;
+
+/**
+ * File performing replication of changed pages to slave nodes using non-blocking sockets.
+ * Data sent to each slave is placed in its own queue and transmitted by single selector thread,
+ * so slow slave doesn't delay transaction commit and delivery of data to other slaves.
+ * When size of the slave queue exceeds the limit, overflow policy is applied: writer is blocked until
+ * the queue is drained, connection with the slave is dropped (slave is resynchronized when connection is reestablished)
+ * or queued data is spilled to disk. Slave which is synchronizing its content with master is never dropped
+ * and its data is never spilled: synchronization is just suspended until the queue is drained.
+ * If acknowledgment mode is set, master still waits for acknowledgment from all slaves during transaction commit.
+ */
+public class NioReplicationMasterFile extends ReplicationMasterFile {
+    /**
+     * Block writer until slave queue is drained
+     */
+    public static final int OVERFLOW_BLOCK = 0;
+
+    /**
+     * Drop connection with the slave, it will be resynchronized when connection is reestablished
+     */
+    public static final int OVERFLOW_DROP  = 1;
+
+    /**
+     * Spill queued data to disk
+     */
+    public static final int OVERFLOW_SPILL = 2;
+
+    public static long DEFAULT_QUEUE_LIMIT = 16*1024*1024; // limit for slave queue size used if it is not specified
+    public static int  SPILL_CHUNK_SIZE = 64*1024; // size of data loaded at once from spill file
+    public static int  CLOSE_TIMEOUT = 10000; // time (milliseconds) given to slave to receive queued data when master is closed
+
+    /**
+     * Constructor of replication master file
+     * @param storage replication storage
+     * @param file local file used to store data locally
+     * @param pageTimestampFile path to the file with pages timestamps. This file is used for synchronizing
+     * with master content of newly attached node
+     */
+    public NioReplicationMasterFile(ReplicationMasterStorageImpl storage, IFile file, String pageTimestampFile) {
+        super(storage, file, pageTimestampFile);
+        setOverflowPolicy(storage.replicationQueueSize, storage.replicationOverflowPolicy);
+    }
+
+    /**
+     * Constructor of replication master file
+     * @param file local file used to store data locally
+     * @param hosts slave node hosts to which replicastion will be performed
+     * @param ack whether master should wait acknowledgment from slave node during trasanction commit
+     * @param pageTimestampFile path to the file with pages timestamps. This file is used for synchronizing
+     * with master content of newly attached node
+     * @param queueLimit maximal size of data queued for one slave
+     * @param overflowPolicy policy applied when queue size exceeds the limit: OVERFLOW_BLOCK, OVERFLOW_DROP or OVERFLOW_SPILL
+     */
+    public NioReplicationMasterFile(IFile file, String[] hosts, boolean ack, String pageTimestampFile, long queueLimit, int overflowPolicy) {
+        super(file, hosts, ack, pageTimestampFile);
+        setOverflowPolicy(queueLimit, overflowPolicy);
+    }
+
+    /**
+     * Set limit for size of slave queue and policy applied when this limit is exceeded
+     * @param queueLimit maximal size of data queued for one slave
+     * @param overflowPolicy OVERFLOW_BLOCK, OVERFLOW_DROP or OVERFLOW_SPILL
+     */
+    public void setOverflowPolicy(long queueLimit, int overflowPolicy) {
+        if (overflowPolicy < OVERFLOW_BLOCK || overflowPolicy > OVERFLOW_SPILL) {
+            throw new IllegalArgumentException("Invalid overflow policy");
+        }
+        this.queueLimit = queueLimit;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Get overflow policy by its name
+     * @param name "block", "drop" or "spill"
+     * @return overflow policy code
+     */
+    public static int getOverflowPolicy(String name) {
+        if ("block".equalsIgnoreCase(name)) {
+            return OVERFLOW_BLOCK;
+        } else if ("drop".equalsIgnoreCase(name)) {
+            return OVERFLOW_DROP;
+        } else if ("spill".equalsIgnoreCase(name)) {
+            return OVERFLOW_SPILL;
+        }
+        throw new StorageError(StorageError.BAD_PROPERTY_VALUE);
+    }
+
+    static class Chunk {
+        java.nio.ByteBuffer buf;
+        long                time;
+
+        Chunk(byte[] data, int size, long time) {
+            buf = java.nio.ByteBuffer.wrap(data, 0, size);
+            this.time = time;
+        }
+    }
+
+    class Slave {
+        int               host;
+        SocketChannel     channel;
+        SelectionKey      key;
+        LinkedList<Chunk> queue;
+        long              queued;  // number of bytes in queue and spill file
+        long              spilled; // number of bytes in spill file
+        long              spillTime;
+        long              spillReadPos;
+        long              spillWritePos;
+        RandomAccessFile  spillFile;
+        File              spillPath;
+        byte[]            inBuf;
+        int               inUsed;
+        long              sent;
+        int               nDrops;
+        boolean           synchronizing;
+        boolean           closed;
+
+        Slave(int host, SocketChannel channel) {
+            this.host = host;
+            this.channel = channel;
+            queue = new LinkedList<Chunk>();
+            inBuf = new byte[256];
+        }
+    }
+
+    class SlaveOutputStream extends OutputStream {
+        Slave slave;
+
+        SlaveOutputStream(Slave slave) {
+            this.slave = slave;
+        }
+
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte)b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            enqueue(slave, b, off, len);
+        }
+
+        public void close() throws IOException {
+            Slave s = slave;
+            long deadline = System.currentTimeMillis() + CLOSE_TIMEOUT;
+            try {
+                synchronized (s) {
+                    long now;
+                    while (!s.closed && s.queued != 0 && (now = System.currentTimeMillis()) < deadline) {
+                        s.wait(deadline - now);
+                    }
+                }
+            } catch (InterruptedException x) {}
+            disconnect(s);
+        }
+    }
+
+    class SlaveInputStream extends InputStream {
+        Slave slave;
+
+        SlaveInputStream(Slave slave) {
+            this.slave = slave;
+        }
+
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xFF : -1;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            Slave s = slave;
+            synchronized (s) {
+                try {
+                    while (s.inUsed == 0) {
+                        if (s.closed) {
+                            return -1;
+                        }
+                        s.wait();
+                    }
+                } catch (InterruptedException x) {
+                    throw new InterruptedIOException();
+                }
+                int n = len < s.inUsed ? len : s.inUsed;
+                System.arraycopy(s.inBuf, 0, b, off, n);
+                System.arraycopy(s.inBuf, n, s.inBuf, 0, s.inUsed - n);
+                s.inUsed -= n;
+                return n;
+            }
+        }
+    }
+
+    class SenderThread extends Thread {
+        public void run() {
+            transmitLoop();
+        }
+    }
+
+    private void start() throws IOException {
+        selector = Selector.open();
+        slaves = new ArrayList<Slave>();
+        rxBuf = java.nio.ByteBuffer.allocate(4096);
+        sender = new SenderThread();
+        sender.start();
+    }
+
+    protected Socket openSocket(String host, int port) throws IOException {
+        return SocketChannel.open(new InetSocketAddress(host, port)).socket();
+    }
+
+    protected void attach(int i, Socket socket, boolean synchronize) throws IOException {
+        SocketChannel channel = socket.getChannel();
+        if (channel == null) {
+            super.attach(i, socket, synchronize);
+            return;
+        }
+        if (selector == null) {
+            start();
+        }
+        channel.configureBlocking(false);
+        Slave s = new Slave(i, channel);
+        s.synchronizing = synchronize;
+        out[i] = new SlaveOutputStream(s);
+        if (ack || pageTimestamps != null) {
+            in[i] = new SlaveInputStream(s);
+        }
+        synchronized (slaves) {
+            for (int j = 0; j < slaves.size(); j++) {
+                Slave old = slaves.get(j);
+                if (old.host == i) {
+                    // connection with this slave is reestablished
+                    disconnect(old);
+                    s.sent = old.sent;
+                    s.nDrops = old.nDrops;
+                    slaves.remove(j);
+                    break;
+                }
+            }
+            slaves.add(s);
+        }
+        selector.wakeup();
+    }
+
+    protected void synchronizationCompleted(int i) {
+        Slave s = findSlave(i);
+        if (s != null) {
+            synchronized (s) {
+                s.synchronizing = false;
+            }
+        }
+    }
+
+    private Slave findSlave(int i) {
+        if (slaves != null) {
+            synchronized (slaves) {
+                for (Slave s : slaves) {
+                    if (s.host == i) {
+                        return s;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private void enqueue(Slave s, byte[] b, int off, int len) throws IOException {
+        long limit = queueLimit != 0 ? queueLimit : DEFAULT_QUEUE_LIMIT;
+        synchronized (s) {
+            try {
+                while (!s.closed && s.queued != 0 && s.queued + len > limit) {
+                    if (!s.synchronizing && overflowPolicy == OVERFLOW_SPILL) {
+                        break;
+                    }
+                    if (!s.synchronizing && overflowPolicy == OVERFLOW_DROP) {
+                        s.nDrops += 1;
+                        disconnect(s);
+                        throw new IOException("Queue of slave " + hosts[s.host] + " is overflowed");
+                    }
+                    s.wait();
+                }
+            } catch (InterruptedException x) {
+                throw new InterruptedIOException();
+            }
+            if (s.closed) {
+                throw new IOException("Connection with slave " + hosts[s.host] + " is closed");
+            }
+            boolean wasEmpty = s.queued == 0;
+            long now = System.currentTimeMillis();
+            if (s.spilled != 0 || (s.queued != 0 && s.queued + len > limit)) {
+                if (s.spillFile == null) {
+                    s.spillPath = File.createTempFile("perst", ".spill");
+                    s.spillPath.deleteOnExit();
+                    s.spillFile = new RandomAccessFile(s.spillPath, "rw");
+                }
+                if (s.spilled == 0) {
+                    s.spillTime = now;
+                }
+                s.spillFile.seek(s.spillWritePos);
+                s.spillFile.write(b, off, len);
+                s.spillWritePos += len;
+                s.spilled += len;
+            } else {
+                byte[] data = new byte[len];
+                System.arraycopy(b, off, data, 0, len);
+                s.queue.add(new Chunk(data, len, now));
+            }
+            s.queued += len;
+            if (!wasEmpty) {
+                return;
+            }
+        }
+        selector.wakeup();
+    }
+
+    private Chunk unspill(Slave s) throws IOException {
+        int size = s.spilled < SPILL_CHUNK_SIZE ? (int)s.spilled : SPILL_CHUNK_SIZE;
+        byte[] data = new byte[size];
+        s.spillFile.seek(s.spillReadPos);
+        s.spillFile.readFully(data);
+        s.spillReadPos += size;
+        s.spilled -= size;
+        Chunk chunk = new Chunk(data, size, s.spillTime);
+        if (s.spilled == 0) {
+            s.spillReadPos = s.spillWritePos = 0;
+            s.spillFile.setLength(0);
+        }
+        s.queue.add(chunk);
+        return chunk;
+    }
+
+    private void disconnect(Slave s) {
+        synchronized (s) {
+            if (s.closed) {
+                return;
+            }
+            s.closed = true;
+            s.queue.clear();
+            s.queued = s.spilled = 0;
+            if (s.spillFile != null) {
+                try {
+                    s.spillFile.close();
+                } catch (IOException x) {}
+                s.spillPath.delete();
+                s.spillFile = null;
+            }
+            s.notifyAll();
+        }
+        try {
+            s.channel.close();
+        } catch (IOException x) {}
+    }
+
+    private void transmit(Slave s) throws IOException {
+        while (true) {
+            Chunk chunk;
+            synchronized (s) {
+                if (s.closed) {
+                    return;
+                }
+                chunk = s.queue.isEmpty()
+                    ? (s.spilled != 0 ? unspill(s) : null)
+                    : s.queue.getFirst();
+            }
+            if (chunk == null) {
+                return;
+            }
+            int n = s.channel.write(chunk.buf);
+            synchronized (s) {
+                if (s.closed) {
+                    return;
+                }
+                s.queued -= n;
+                s.sent += n;
+                s.notifyAll();
+                if (chunk.buf.hasRemaining()) {
+                    return;
+                }
+                s.queue.removeFirst();
+            }
+        }
+    }
+
+    private void receive(Slave s) throws IOException {
+        rxBuf.clear();
+        int n = s.channel.read(rxBuf);
+        if (n < 0) {
+            disconnect(s);
+            return;
+        }
+        synchronized (s) {
+            if (s.inUsed + n > s.inBuf.length) {
+                byte[] newBuf = new byte[Math.max(s.inBuf.length*2, s.inUsed + n)];
+                System.arraycopy(s.inBuf, 0, newBuf, 0, s.inUsed);
+                s.inBuf = newBuf;
+            }
+            rxBuf.flip();
+            rxBuf.get(s.inBuf, s.inUsed, n);
+            s.inUsed += n;
+            s.notifyAll();
+        }
+    }
+
+    private void transmitLoop() {
+        try {
+            while (true) {
+                synchronized (slaves) {
+                    if (stopped) {
+                        break;
+                    }
+                    for (Slave s : slaves) {
+                        if (s.closed) {
+                            continue;
+                        }
+                        if (s.key == null) {
+                            s.key = s.channel.register(selector, SelectionKey.OP_READ, s);
+                        }
+                        if (s.key.isValid()) {
+                            s.key.interestOps(s.queued != 0 ? SelectionKey.OP_READ|SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                        }
+                    }
+                }
+                selector.select();
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    Slave s = (Slave)key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            receive(s);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            transmit(s);
+                        }
+                    } catch (IOException x) {
+                        disconnect(s);
+                    } catch (CancelledKeyException x) {}
+                }
+            }
+        } catch (IOException x) {
+            x.printStackTrace();
+        }
+    }
+
+    public ReplicationSlaveStatus[] getSlaveStatus() {
+        ReplicationSlaveStatus[] status = super.getSlaveStatus();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < status.length; i++) {
+            Slave s = findSlave(i);
+            if (s != null) {
+                synchronized (s) {
+                    status[i].queuedBytes = s.queued;
+                    status[i].spilledBytes = s.spilled;
+                    status[i].sentBytes = s.sent;
+                    status[i].nDrops = s.nDrops;
+                    if (!s.queue.isEmpty()) {
+                        status[i].lagTime = now - s.queue.getFirst().time;
+                    } else if (s.spilled != 0) {
+                        status[i].lagTime = now - s.spillTime;
+                    }
+                }
+            }
+        }
+        return status;
+    }
+
+    public void close() {
+        super.close();
+        if (selector != null) {
+            synchronized (slaves) {
+                stopped = true;
+                for (Slave s : slaves) {
+                    disconnect(s);
+                }
+            }
+            selector.wakeup();
+            try {
+                sender.join();
+            } catch (InterruptedException x) {}
+            try {
+                selector.close();
+            } catch (IOException x) {}
+        }
+    }
+
+    // Fields of this class are initialized by attach() method which can be invoked by constructor of base class,
+    // so them should not have initializers
+    private long                queueLimit;
+    private int                 overflowPolicy;
+    private Selector            selector;
+    private ArrayList<Slave>    slaves;
+    private Thread              sender;
+    private java.nio.ByteBuffer rxBuf;
+    private boolean             stopped;
+}
@@ -122,6 +122,13 @@ public class OSFile implements IFile {
     }
 
 
+    /**
+     * Get channel of the underlying file
+     */
+    public FileChannel getChannel() { 
+        return file.getChannel();
+    }
+
     protected RandomAccessFile file;
     protected boolean          noFlush;
     private   FileLock         lck;
@@ -154,6 +154,41 @@ class PagePool {
         unfix(srcPage);
     }
 
+    /**
+     * Write dirty pages belonging to the specified region to the file,
+     * so that this region can be accessed directly in the file.
+     * Pages which are fixed can be modified right now, so they are not written.
+     * @return true if content of the region in the file is up to date, false if some dirty page of the region is fixed
+     */
+    final synchronized boolean writeBack(long pos, long size) 
+    {
+        long end = pos + size;
+        boolean done = true;
+        for (long addr = pos & ~(Page.pageSize-1); addr < end; addr += Page.pageSize) { 
+            int hashCode = (int)(addr >>> Page.pageSizeLog) % poolSize;
+            for (Page pg = hashTable[hashCode]; pg != null; pg = pg.collisionChain) { 
+                if (pg.offs == addr) {
+                    synchronized (pg) { 
+                        if ((pg.state & Page.psDirty) != 0) { 
+                            if (pg.accessCount != 0) { 
+                                done = false;
+                            } else { 
+                                file.write(pg.offs, pg.data);
+                                pg.state &= ~Page.psDirty;
+                                if (!flushing) { 
+                                    dirtyPages[pg.writeQueueIndex] = dirtyPages[--nDirtyPages];
+                                    dirtyPages[pg.writeQueueIndex].writeQueueIndex = pg.writeQueueIndex;
+                                }
+                            }
+                        }
+                    }
+                    break;
+                }
+            }
+        }
+        return done;
+    }
+
     final void write(long dstPos, byte[] src) 
     {
         Assert.that((dstPos & (Page.pageSize-1)) == 0);
@@ -264,9 +299,12 @@ class PagePool {
     }
 
     final void put(long pos, byte[] obj, int size) { 
+        put(pos, obj, 0, size);
+    }
+
+    final void put(long pos, byte[] obj, int src, int size) { 
         int offs = (int)pos & (Page.pageSize-1);
         Page pg = find(pos - offs, Page.psDirty);
-        int src = 0;
         while (size > Page.pageSize - offs) { 
             System.arraycopy(obj, src, pg.data, offs, Page.pageSize - offs);
             unfix(pg);
@@ -285,6 +323,10 @@ class PagePool {
             flushing = true;
             java.util.Arrays.sort(dirtyPages, 0, nDirtyPages); 
         }
+        if (file instanceof CompressedReadWriteFile && nDirtyPages > 1) { 
+            flushCompressed((CompressedReadWriteFile)file);
+            return;
+        }
         for (int i = 0; i < nDirtyPages; i++) { 
             Page pg = dirtyPages[i];
             synchronized (pg) { 
@@ -298,6 +340,35 @@ class PagePool {
         nDirtyPages = 0;
         flushing = false;
     }
+
+    /**
+     * Pass all dirty pages to compressed file at once, so that they can be compressed in parallel
+     */
+    private void flushCompressed(CompressedReadWriteFile file) { 
+        long[] addrs = new long[nDirtyPages];
+        byte[][] pages = new byte[nDirtyPages][];
+        int n = 0;
+        for (int i = 0; i < nDirtyPages; i++) { 
+            Page pg = dirtyPages[i];
+            synchronized (pg) { 
+                if ((pg.state & Page.psDirty) != 0) { 
+                    // page can be thrown away from the pool while compression is in progress
+                    addrs[n] = pg.offs;
+                    pages[n++] = pg.data.clone();
+                }
+            }
+        }
+        file.write(addrs, pages, n);
+        for (int i = 0; i < nDirtyPages; i++) { 
+            Page pg = dirtyPages[i];
+            synchronized (pg) { 
+                pg.state &= ~Page.psDirty;
+            }
+        }
+        file.sync();
+        nDirtyPages = 0;
+        flushing = false;
+    }
 }
 
 
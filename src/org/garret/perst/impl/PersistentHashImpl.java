@@ -70,6 +70,7 @@ class PersistentHashImpl<K, V> extends PersistentResource implements IPersistent
     int      nElems;
     int      loadFactor;
     int      pageSize;
+    BloomFilter keyFilter;
  
     transient volatile Set<Entry<K,V>> entrySet;
     transient volatile Set<K>          keySet;
@@ -128,6 +129,9 @@ class PersistentHashImpl<K, V> extends PersistentResource implements IPersistent
         if (pg != null) {
             int divisor = 1;
             int hashCode = key.hashCode();
+            if (keyFilter != null && !keyFilter.mightContain(hashCode)) { 
+                return null;
+            }
             while (true) {
                 int h = (int)((hashCode & UINT_MASK) / divisor % pageSize);
                 Object child = pg.items.get(h);
@@ -157,6 +161,7 @@ class PersistentHashImpl<K, V> extends PersistentResource implements IPersistent
             pg.items.set(h, new CollisionItem<K,V>(key, value, hashCode));
             root = pg;
             nElems = 1;
+            addToFilter(hashCode);
             modify();
             return null;
         } else { 
@@ -220,6 +225,7 @@ class PersistentHashImpl<K, V> extends PersistentResource implements IPersistent
                             pg.modify();
                         }
                         nElems += 1;
+                        addToFilter(hashCode);
                         modify();
                         return null;
                     }                            
@@ -228,6 +234,21 @@ class PersistentHashImpl<K, V> extends PersistentResource implements IPersistent
         }
     }
 
+    private void addToFilter(int hashCode) 
+    {
+        if (keyFilter != null) { 
+            if (nElems > keyFilter.getCapacity()) { 
+                keyFilter.reset(nElems*2);
+                Iterator<Entry<K,V>> i = entryIterator();
+                while (i.hasNext()) { 
+                    keyFilter.add(((CollisionItem<K,V>)i.next()).hashCode);
+                }
+            } else { 
+                keyFilter.add(hashCode);
+            }
+        }
+    }
+
     public V remove(Object key) 
     {
         HashPage pg = root; 
@@ -279,10 +300,21 @@ class PersistentHashImpl<K, V> extends PersistentResource implements IPersistent
             root.deallocate();
             root = null;
             nElems = 0;
+            if (keyFilter != null) { 
+                keyFilter.clear();
+            }
             modify();
         }
     }
 
+    public void deallocate() 
+    {
+        if (keyFilter != null) { 
+            keyFilter.deallocate();
+        }
+        super.deallocate();
+    }
+
     public Set<K> keySet() {
 	if (keySet == null) {
 	    keySet = new AbstractSet<K>() {
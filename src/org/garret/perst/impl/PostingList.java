@@ -0,0 +1,775 @@
+package org.garret.perst.impl;
+import  org.garret.perst.*;
+import  java.util.*;
+
+/**
+ * Compressed inverse list of full text index keyword.
+ * Postings (document OID, number of words in the document and positions of keyword occurrences)
+ * are packed in blocks of up to BLOCK_SIZE documents using delta and variable length encoding.
+ * OID of the first document of each block is stored in the list itself and is used as skip pointer:
+ * cursor can leapfrog to the block containing requested document without loading preceding blocks.
+ * Postings are never materialized as persistent objects: only blocks are loaded.
+ * For each block maximal frequency of the keyword, minimal number of words in the document and maximal
+ * ratio of squared frequency to the number of words are also kept in the list: they are used to calculate
+ * upper bound of rank of documents in the block without loading it.
+ */
+class PostingList extends Persistent implements FullTextIndexImpl.PostingSource
+{
+    private static final long serialVersionUID = 1L;
+
+    int     nDocs;
+    int[]   firstDocs;
+    int[]   blockSizes;
+    int[]   maxFrequencies;
+    int[]   minWords;
+    double[] maxDensities;
+    Block[] blocks;
+
+    static final int BLOCK_SIZE = 128;
+
+    static class Block extends Persistent
+    {
+        private static final long serialVersionUID = 1L;
+
+        byte[] data;
+
+        Block(Storage storage, byte[] data) {
+            super(storage);
+            this.data = data;
+        }
+
+        Block() {}
+    }
+
+    /**
+     * Unpacked header of the block: documents, numbers of words and offsets of occurrences
+     */
+    static class BlockContent
+    {
+        int    size;
+        int[]  docs;
+        int[]  nWords;
+        int[]  occOffs;
+        byte[] data;
+
+        BlockContent(byte[] data) {
+            this.data = data;
+            int[] pos = new int[1];
+            int n = size = readVarInt(data, pos);
+            docs = new int[n];
+            nWords = new int[n];
+            occOffs = new int[n+1];
+            int doc = 0;
+            for (int i = 0; i < n; i++) {
+                docs[i] = doc += readVarInt(data, pos);
+            }
+            for (int i = 0; i < n; i++) {
+                nWords[i] = readVarInt(data, pos);
+            }
+            int offs = 0;
+            for (int i = 0; i < n; i++) {
+                occOffs[i] = offs;
+                offs += readVarInt(data, pos);
+            }
+            occOffs[n] = offs;
+            for (int i = 0; i <= n; i++) {
+                occOffs[i] += pos[0];
+            }
+        }
+
+        BlockContent(int capacity) {
+            docs = new int[capacity];
+            nWords = new int[capacity];
+            occOffs = new int[capacity+1];
+        }
+
+        final int[] getOccurrences(int i) {
+            return decodeOccurrences(data, occOffs[i]);
+        }
+
+        final int getFrequency(int i) {
+            int[] pos = new int[]{occOffs[i]};
+            return readVarInt(data, pos);
+        }
+
+        final int getMaxFrequency() {
+            int max = 0;
+            for (int i = 0; i < size; i++) {
+                int freq = getFrequency(i);
+                if (freq > max) {
+                    max = freq;
+                }
+            }
+            return max;
+        }
+
+        final int getMinWords() {
+            int min = Integer.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                if (nWords[i] < min) {
+                    min = nWords[i];
+                }
+            }
+            return min;
+        }
+
+        final double getMaxDensity() {
+            double max = 0;
+            for (int i = 0; i < size; i++) {
+                double freq = getFrequency(i);
+                double density = freq*freq/nWords[i];
+                if (density > max) {
+                    max = density;
+                }
+            }
+            return max;
+        }
+
+        final int find(int doc) {
+            int l = 0, r = size;
+            while (l < r) {
+                int m = (l + r) >>> 1;
+                if (docs[m] < doc) {
+                    l = m + 1;
+                } else {
+                    r = m;
+                }
+            }
+            return r;
+        }
+    }
+
+    /**
+     * Growable buffer for variable length encoding
+     */
+    static class Encoder
+    {
+        byte[] buf;
+        int    pos;
+
+        Encoder(int size) {
+            buf = new byte[size];
+        }
+
+        final void writeVarInt(int v) {
+            if (pos + 5 > buf.length) {
+                extend(5);
+            }
+            while ((v & ~0x7F) != 0) {
+                buf[pos++] = (byte)(v | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte)v;
+        }
+
+        final void write(byte[] src, int offs, int len) {
+            if (pos + len > buf.length) {
+                extend(len);
+            }
+            System.arraycopy(src, offs, buf, pos, len);
+            pos += len;
+        }
+
+        private void extend(int len) {
+            byte[] newBuf = new byte[Math.max(buf.length*2, pos + len)];
+            System.arraycopy(buf, 0, newBuf, 0, pos);
+            buf = newBuf;
+        }
+
+        final byte[] toArray() {
+            byte[] arr = new byte[pos];
+            System.arraycopy(buf, 0, arr, 0, pos);
+            return arr;
+        }
+    }
+
+    static final int readVarInt(byte[] buf, int[] pos) {
+        int offs = pos[0];
+        int v = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf[offs++];
+            v |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        pos[0] = offs;
+        return v;
+    }
+
+    /**
+     * Pack sorted occurrences of keyword in the document: runs of occurrences of the same kind
+     * are stored as run length, kind and deltas of positions
+     */
+    static byte[] encodeOccurrences(int[] occ) {
+        Encoder enc = new Encoder(occ.length*2 + 8);
+        int len = occ.length;
+        enc.writeVarInt(len);
+        int prevOcc = -1;
+        int i = 0;
+        while (i < len) {
+            int kind = occ[i] >>> FullTextIndexImpl.OCC_KIND_OFFSET;
+            int j = i;
+            while (++j < len && (occ[j] >>> FullTextIndexImpl.OCC_KIND_OFFSET) == kind);
+            enc.writeVarInt(j - i);
+            enc.writeVarInt(kind);
+            do {
+                int currOcc = occ[i++] & FullTextIndexImpl.OCC_POSITION_MASK;
+                enc.writeVarInt(currOcc - prevOcc);
+                prevOcc = currOcc;
+            } while (i != j);
+        }
+        return enc.toArray();
+    }
+
+    static int[] decodeOccurrences(byte[] data, int offs) {
+        int[] pos = new int[]{offs};
+        int len = readVarInt(data, pos);
+        int[] occ = new int[len];
+        int prevOcc = -1;
+        int i = 0;
+        while (i < len) {
+            int n = readVarInt(data, pos);
+            int kind = readVarInt(data, pos) << FullTextIndexImpl.OCC_KIND_OFFSET;
+            do {
+                prevOcc += readVarInt(data, pos);
+                occ[i++] = kind | prevOcc;
+            } while (--n != 0);
+        }
+        return occ;
+    }
+
+    static byte[] packBlock(BlockContent content) {
+        int n = content.size;
+        Encoder enc = new Encoder(n*4 + content.occOffs[n] - content.occOffs[0] + 8);
+        enc.writeVarInt(n);
+        int prevDoc = 0;
+        for (int i = 0; i < n; i++) {
+            enc.writeVarInt(content.docs[i] - prevDoc);
+            prevDoc = content.docs[i];
+        }
+        for (int i = 0; i < n; i++) {
+            enc.writeVarInt(content.nWords[i]);
+        }
+        for (int i = 0; i < n; i++) {
+            enc.writeVarInt(content.occOffs[i+1] - content.occOffs[i]);
+        }
+        enc.write(content.data, content.occOffs[0], content.occOffs[n] - content.occOffs[0]);
+        return enc.toArray();
+    }
+
+    /**
+     * Build content of the block from the range of postings of source block with optional inserted posting
+     */
+    static BlockContent slice(BlockContent src, int from, int till, int insertPos, int doc, int nWords, byte[] occ) {
+        int n = till - from + (occ != null ? 1 : 0);
+        BlockContent dst = new BlockContent(n);
+        Encoder enc = new Encoder(src.occOffs[till] - src.occOffs[from] + (occ != null ? occ.length : 0));
+        int j = 0;
+        for (int i = from; i <= till; i++) {
+            if (occ != null && i == insertPos) {
+                dst.docs[j] = doc;
+                dst.nWords[j] = nWords;
+                dst.occOffs[j++] = enc.pos;
+                enc.write(occ, 0, occ.length);
+            }
+            if (i < till) {
+                dst.docs[j] = src.docs[i];
+                dst.nWords[j] = src.nWords[i];
+                dst.occOffs[j++] = enc.pos;
+                enc.write(src.data, src.occOffs[i], src.occOffs[i+1] - src.occOffs[i]);
+            }
+        }
+        dst.occOffs[n] = enc.pos;
+        dst.size = n;
+        dst.data = enc.buf;
+        return dst;
+    }
+
+    /**
+     * Postings of the keyword accumulated in memory by batch indexing
+     */
+    static class Batch
+    {
+        int          size;
+        int[]        docs = new int[4];
+        int[]        nWords = new int[4];
+        byte[][]     occ = new byte[4][];
+        Persistent[] owners = new Persistent[4];
+        boolean      sorted = true;
+
+        /**
+         * Add posting to the batch
+         * @return false if batch already contains posting for this document
+         */
+        boolean add(Persistent owner, int doc, int nWordsInDocument, int[] occurrences) {
+            if (size != 0) {
+                int last = docs[size-1];
+                if (last == doc) {
+                    return false;
+                }
+                if (last > doc) {
+                    sorted = false;
+                }
+            }
+            if (size == docs.length) {
+                int newSize = size*2;
+                int[] newDocs = new int[newSize];
+                int[] newWords = new int[newSize];
+                byte[][] newOcc = new byte[newSize][];
+                Persistent[] newOwners = new Persistent[newSize];
+                System.arraycopy(docs, 0, newDocs, 0, size);
+                System.arraycopy(nWords, 0, newWords, 0, size);
+                System.arraycopy(occ, 0, newOcc, 0, size);
+                System.arraycopy(owners, 0, newOwners, 0, size);
+                docs = newDocs;
+                nWords = newWords;
+                occ = newOcc;
+                owners = newOwners;
+            }
+            docs[size] = doc;
+            nWords[size] = nWordsInDocument;
+            occ[size] = encodeOccurrences(occurrences);
+            owners[size] = owner;
+            size += 1;
+            return true;
+        }
+
+        /**
+         * Sort postings by document OID
+         */
+        void sort() {
+            if (!sorted) {
+                Integer[] perm = new Integer[size];
+                for (int i = 0; i < size; i++) {
+                    perm[i] = Integer.valueOf(i);
+                }
+                Arrays.sort(perm, new Comparator<Integer>() {
+                    public int compare(Integer o1, Integer o2) {
+                        int d1 = docs[o1.intValue()];
+                        int d2 = docs[o2.intValue()];
+                        return d1 < d2 ? -1 : d1 == d2 ? 0 : 1;
+                    }
+                });
+                int[] newDocs = new int[size];
+                int[] newWords = new int[size];
+                byte[][] newOcc = new byte[size][];
+                Persistent[] newOwners = new Persistent[size];
+                for (int i = 0; i < size; i++) {
+                    int j = perm[i].intValue();
+                    newDocs[i] = docs[j];
+                    newWords[i] = nWords[j];
+                    newOcc[i] = occ[j];
+                    newOwners[i] = owners[j];
+                }
+                docs = newDocs;
+                nWords = newWords;
+                occ = newOcc;
+                owners = newOwners;
+                sorted = true;
+            }
+        }
+    }
+
+    /**
+     * Merge batch of postings into the list. Only blocks which key ranges contain new documents are loaded and repacked.
+     * @param batch postings sorted by document OID
+     * @return number of merged postings. Postings of documents already present in the list are ignored: 
+     * in this case OID of document in the batch is replaced with 0.
+     */
+    int merge(Batch batch) {
+        int n = batch.size;
+        int nBlocks = nDocs == 0 ? 0 : blocks.length;
+        // either index of unchanged block (Integer) or content of new block (BlockContent)
+        ArrayList<Object> newBlocks = new ArrayList<Object>(nBlocks + n/BLOCK_SIZE + 1);
+        int merged = 0;
+        int i = 0;
+        for (int b = 0; b < nBlocks || (b == 0 && i < n); b++) {
+            int j = n;
+            if (b + 1 < nBlocks) {
+                int next = firstDocs[b+1];
+                for (j = i; j < n && batch.docs[j] < next; j++);
+            }
+            if (j == i) {
+                newBlocks.add(Integer.valueOf(b));
+                continue;
+            }
+            BlockContent content = b < nBlocks ? getBlock(b) : new BlockContent(0);
+            BlockContent all = new BlockContent(content.size + j - i);
+            int occSize = content.size == 0 ? 0 : content.occOffs[content.size] - content.occOffs[0];
+            for (int k = i; k < j; k++) {
+                occSize += batch.occ[k].length;
+            }
+            Encoder enc = new Encoder(occSize);
+            int k = 0;
+            while (k < content.size || i < j) {
+                if (i == j || (k < content.size && content.docs[k] <= batch.docs[i])) {
+                    if (i < j && content.docs[k] == batch.docs[i]) {
+                        batch.docs[i++] = 0;
+                    }
+                    all.docs[all.size] = content.docs[k];
+                    all.nWords[all.size] = content.nWords[k];
+                    all.occOffs[all.size++] = enc.pos;
+                    enc.write(content.data, content.occOffs[k], content.occOffs[k+1] - content.occOffs[k]);
+                    k += 1;
+                } else {
+                    all.docs[all.size] = batch.docs[i];
+                    all.nWords[all.size] = batch.nWords[i];
+                    all.occOffs[all.size++] = enc.pos;
+                    enc.write(batch.occ[i], 0, batch.occ[i].length);
+                    merged += 1;
+                    i += 1;
+                }
+            }
+            all.occOffs[all.size] = enc.pos;
+            all.data = enc.buf;
+            if (b < nBlocks) {
+                blocks[b].deallocate();
+            }
+            // split merged postings into blocks of equal size
+            int nParts = (all.size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            for (int part = 0, from = 0; part < nParts; part++) {
+                int till = (int)((long)all.size*(part + 1)/nParts);
+                newBlocks.add(slice(all, from, till, -1, 0, 0, null));
+                from = till;
+            }
+        }
+        int nNewBlocks = newBlocks.size();
+        Block[] blks = new Block[nNewBlocks];
+        int[] first = new int[nNewBlocks];
+        int[] sizes = new int[nNewBlocks];
+        int[] maxFreq = new int[nNewBlocks];
+        int[] minW = new int[nNewBlocks];
+        double[] maxDens = new double[nNewBlocks];
+        Storage storage = getStorage();
+        for (int b = 0; b < nNewBlocks; b++) {
+            Object blk = newBlocks.get(b);
+            if (blk instanceof Integer) {
+                int old = ((Integer)blk).intValue();
+                blks[b] = blocks[old];
+                first[b] = firstDocs[old];
+                sizes[b] = blockSizes[old];
+                maxFreq[b] = maxFrequencies[old];
+                minW[b] = minWords[old];
+                maxDens[b] = maxDensities[old];
+            } else {
+                BlockContent content = (BlockContent)blk;
+                blks[b] = new Block(storage, packBlock(content));
+                first[b] = content.docs[0];
+                sizes[b] = content.size;
+                maxFreq[b] = content.getMaxFrequency();
+                minW[b] = content.getMinWords();
+                maxDens[b] = content.getMaxDensity();
+            }
+        }
+        blocks = blks;
+        firstDocs = first;
+        blockSizes = sizes;
+        maxFrequencies = maxFreq;
+        minWords = minW;
+        maxDensities = maxDens;
+        nDocs += merged;
+        modify();
+        return merged;
+    }
+
+    public boolean recursiveLoading() {
+        return false;
+    }
+
+    public int size() {
+        return nDocs;
+    }
+
+    public int first() {
+        return nDocs == 0 ? 0 : firstDocs[0];
+    }
+
+    public int last() {
+        if (nDocs == 0) {
+            return 0;
+        }
+        BlockContent content = getBlock(blocks.length-1);
+        return content.docs[content.size-1];
+    }
+
+    /**
+     * Upper bound of freq*freq*log(1 + densityFactor/nWords) for postings of the block,
+     * where freq is number of occurrences of keyword in the document and nWords - number of words in the document
+     */
+    final double getWeightBound(int b, double densityFactor) {
+        double maxFreq = maxFrequencies[b];
+        return Math.min(maxFreq*maxFreq*Math.log(1 + densityFactor/minWords[b]), densityFactor*maxDensities[b]);
+    }
+
+    public double getWeightBound(double densityFactor) {
+        double max = 0;
+        for (int i = 0, n = nDocs == 0 ? 0 : blocks.length; i < n; i++) {
+            double bound = getWeightBound(i, densityFactor);
+            if (bound > max) {
+                max = bound;
+            }
+        }
+        return max;
+    }
+
+    final BlockContent getBlock(int i) {
+        Block blk = blocks[i];
+        byte[] data;
+        // blocks can be loaded concurrently by parallel search threads: storage monitor guarantees visibility of loaded data
+        synchronized (getStorage()) {
+            blk.load();
+            data = blk.data;
+        }
+        return new BlockContent(data);
+    }
+
+    /**
+     * Locate block which may contain specified document: last block which first document is not greater than doc
+     */
+    final int findBlock(int doc, int from) {
+        int l = from, r = firstDocs.length;
+        while (l < r) {
+            int m = (l + r) >>> 1;
+            if (firstDocs[m] <= doc) {
+                l = m + 1;
+            } else {
+                r = m;
+            }
+        }
+        return r > from ? r - 1 : from;
+    }
+
+    /**
+     * Add posting to the list
+     * @return false if list already contains posting for this document
+     */
+    boolean add(int doc, int nWords, int[] occ) {
+        byte[] occData = encodeOccurrences(occ);
+        Storage storage = getStorage();
+        if (nDocs == 0) {
+            BlockContent content = new BlockContent(0);
+            content.data = new byte[0];
+            content = slice(content, 0, 0, 0, doc, nWords, occData);
+            blocks = new Block[]{new Block(storage, packBlock(content))};
+            firstDocs = new int[]{doc};
+            blockSizes = new int[]{1};
+            maxFrequencies = new int[]{occ.length};
+            minWords = new int[]{nWords};
+            maxDensities = new double[]{(double)occ.length*occ.length/nWords};
+        } else {
+            int b = findBlock(doc, 0);
+            BlockContent content = getBlock(b);
+            int i = content.find(doc);
+            if (i < content.size && content.docs[i] == doc) {
+                return false;
+            }
+            if (content.size < BLOCK_SIZE) {
+                content = slice(content, 0, content.size, i, doc, nWords, occData);
+                updateBlock(b, content);
+            } else {
+                // split block
+                int half = content.size >>> 1;
+                BlockContent left, right;
+                if (i <= half) {
+                    left = slice(content, 0, half, i, doc, nWords, occData);
+                    right = slice(content, half, content.size, -1, 0, 0, null);
+                } else {
+                    left = slice(content, 0, half, -1, 0, 0, null);
+                    right = slice(content, half, content.size, i, doc, nWords, occData);
+                }
+                updateBlock(b, left);
+                insertBlock(b + 1, right);
+            }
+        }
+        nDocs += 1;
+        modify();
+        return true;
+    }
+
+    /**
+     * Remove posting of the document from the list
+     * @return true if posting was removed
+     */
+    boolean remove(int doc) {
+        if (nDocs == 0) {
+            return false;
+        }
+        int b = findBlock(doc, 0);
+        BlockContent content = getBlock(b);
+        int i = content.find(doc);
+        if (i == content.size || content.docs[i] != doc) {
+            return false;
+        }
+        if (content.size == 1) {
+            removeBlock(b);
+        } else {
+            BlockContent head = slice(content, 0, i, -1, 0, 0, null);
+            BlockContent tail = slice(content, i+1, content.size, -1, 0, 0, null);
+            BlockContent merged = new BlockContent(head.size + tail.size);
+            Encoder enc = new Encoder(head.occOffs[head.size] + tail.occOffs[tail.size]);
+            appendPostings(merged, enc, head);
+            appendPostings(merged, enc, tail);
+            merged.occOffs[merged.size] = enc.pos;
+            merged.data = enc.buf;
+            updateBlock(b, merged);
+        }
+        nDocs -= 1;
+        modify();
+        return true;
+    }
+
+    static void appendPostings(BlockContent dst, Encoder enc, BlockContent src) {
+        for (int i = 0; i < src.size; i++) {
+            dst.docs[dst.size] = src.docs[i];
+            dst.nWords[dst.size] = src.nWords[i];
+            dst.occOffs[dst.size++] = enc.pos;
+            enc.write(src.data, src.occOffs[i], src.occOffs[i+1] - src.occOffs[i]);
+        }
+    }
+
+    void updateBlock(int b, BlockContent content) {
+        Block blk = blocks[b];
+        blk.data = packBlock(content);
+        blk.modify();
+        firstDocs[b] = content.docs[0];
+        blockSizes[b] = content.size;
+        maxFrequencies[b] = content.getMaxFrequency();
+        minWords[b] = content.getMinWords();
+        maxDensities[b] = content.getMaxDensity();
+    }
+
+    void insertBlock(int b, BlockContent content) {
+        int n = blocks.length;
+        Block[] newBlocks = new Block[n+1];
+        int[] newFirstDocs = new int[n+1];
+        int[] newBlockSizes = new int[n+1];
+        int[] newMaxFrequencies = new int[n+1];
+        int[] newMinWords = new int[n+1];
+        double[] newMaxDensities = new double[n+1];
+        System.arraycopy(blocks, 0, newBlocks, 0, b);
+        System.arraycopy(firstDocs, 0, newFirstDocs, 0, b);
+        System.arraycopy(blockSizes, 0, newBlockSizes, 0, b);
+        System.arraycopy(maxFrequencies, 0, newMaxFrequencies, 0, b);
+        System.arraycopy(minWords, 0, newMinWords, 0, b);
+        System.arraycopy(maxDensities, 0, newMaxDensities, 0, b);
+        System.arraycopy(blocks, b, newBlocks, b+1, n-b);
+        System.arraycopy(firstDocs, b, newFirstDocs, b+1, n-b);
+        System.arraycopy(blockSizes, b, newBlockSizes, b+1, n-b);
+        System.arraycopy(maxFrequencies, b, newMaxFrequencies, b+1, n-b);
+        System.arraycopy(minWords, b, newMinWords, b+1, n-b);
+        System.arraycopy(maxDensities, b, newMaxDensities, b+1, n-b);
+        newBlocks[b] = new Block(getStorage(), packBlock(content));
+        newFirstDocs[b] = content.docs[0];
+        newBlockSizes[b] = content.size;
+        newMaxFrequencies[b] = content.getMaxFrequency();
+        newMinWords[b] = content.getMinWords();
+        newMaxDensities[b] = content.getMaxDensity();
+        blocks = newBlocks;
+        firstDocs = newFirstDocs;
+        blockSizes = newBlockSizes;
+        maxFrequencies = newMaxFrequencies;
+        minWords = newMinWords;
+        maxDensities = newMaxDensities;
+    }
+
+    void removeBlock(int b) {
+        int n = blocks.length;
+        blocks[b].deallocate();
+        Block[] newBlocks = new Block[n-1];
+        int[] newFirstDocs = new int[n-1];
+        int[] newBlockSizes = new int[n-1];
+        int[] newMaxFrequencies = new int[n-1];
+        int[] newMinWords = new int[n-1];
+        double[] newMaxDensities = new double[n-1];
+        System.arraycopy(blocks, 0, newBlocks, 0, b);
+        System.arraycopy(firstDocs, 0, newFirstDocs, 0, b);
+        System.arraycopy(blockSizes, 0, newBlockSizes, 0, b);
+        System.arraycopy(maxFrequencies, 0, newMaxFrequencies, 0, b);
+        System.arraycopy(minWords, 0, newMinWords, 0, b);
+        System.arraycopy(maxDensities, 0, newMaxDensities, 0, b);
+        System.arraycopy(blocks, b+1, newBlocks, b, n-b-1);
+        System.arraycopy(firstDocs, b+1, newFirstDocs, b, n-b-1);
+        System.arraycopy(blockSizes, b+1, newBlockSizes, b, n-b-1);
+        System.arraycopy(maxFrequencies, b+1, newMaxFrequencies, b, n-b-1);
+        System.arraycopy(minWords, b+1, newMinWords, b, n-b-1);
+        System.arraycopy(maxDensities, b+1, newMaxDensities, b, n-b-1);
+        blocks = newBlocks;
+        firstDocs = newFirstDocs;
+        blockSizes = newBlockSizes;
+        maxFrequencies = newMaxFrequencies;
+        minWords = newMinWords;
+        maxDensities = newMaxDensities;
+    }
+
+    public void deallocate() {
+        if (blocks != null) {
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i].deallocate();
+            }
+        }
+        super.deallocate();
+    }
+
+    public FullTextIndexImpl.PostingCursor cursor() {
+        return new Cursor();
+    }
+
+    class Cursor implements FullTextIndexImpl.PostingCursor
+    {
+        int          block = -1;
+        int          pos;
+        BlockContent content;
+
+        public int skipTo(int doc) {
+            if (nDocs == 0) {
+                return Integer.MAX_VALUE;
+            }
+            if (block < 0 || (block + 1 < firstDocs.length && firstDocs[block + 1] <= doc)) {
+                // use skip pointers to locate block
+                open(findBlock(doc, block < 0 ? 0 : block + 1));
+            }
+            while (true) {
+                int i = content.find(doc);
+                if (i > pos) {
+                    pos = i;
+                }
+                if (pos < content.size) {
+                    return content.docs[pos];
+                }
+                if (block + 1 == blocks.length) {
+                    return Integer.MAX_VALUE;
+                }
+                open(block + 1);
+            }
+        }
+
+        private void open(int b) {
+            block = b;
+            content = getBlock(b);
+            pos = 0;
+        }
+
+        public int[] getOccurrences() {
+            return content.getOccurrences(pos);
+        }
+
+        public int getNumberOfWords() {
+            return content.nWords[pos];
+        }
+
+        public double getWeightBound(double densityFactor) {
+            return PostingList.this.getWeightBound(block, densityFactor);
+        }
+
+        public int getBlockEnd() {
+            return content.docs[content.size-1];
+        }
+    }
+
+    PostingList(Storage storage) {
+        super(storage);
+    }
+
+    PostingList() {}
+}
@@ -2809,7 +2809,10 @@ public class QueryImpl<T> implements Query<T>
             start = System.currentTimeMillis();
         }
         try { 
-            IndexSearchResult result = tree != null ? applyIndex(tree, tree, null) : null;
+            IndexSearchResult result = tree != null ? applyBitmapIndices(tree) : null;
+            if (result == null && tree != null) { 
+                result = applyIndex(tree, tree, null);
+            }
             IterableIterator<T> resultIterator;
             if (result == null) { 
                 if (tree == null && order != null && order.next == null) {
@@ -4780,6 +4783,73 @@ public class QueryImpl<T> implements Query<T>
 
 
 
+    /**
+     * Use bitmap indices if condition contains several equality comparisons of fields having bitmap indices
+     * with literals combined by AND/OR: such condition is evaluated by intersection and union of bitmaps
+     * before loading objects. Selected objects are then checked using the whole condition.
+     */
+    final IndexSearchResult applyBitmapIndices(Node condition) 
+    {
+        int[] nBitmaps = new int[1];
+        CompressedBitmap<T> bitmap = evaluateBitmap(condition, nBitmaps);
+        if (bitmap != null && nBitmaps[0] > 1) {
+            return new IndexSearchResult(filter(bitmap.iterator(), condition), null);
+        }
+        return null;
+    }
+
+    /**
+     * Evaluate condition using bitmap indices
+     * @param condition query condition
+     * @param nBitmaps number of used bitmaps
+     * @return superset of objects matching condition or null if condition can not be evaluated using bitmap indices
+     */
+    @SuppressWarnings("unchecked") // indices are registered for the class of selected objects
+    final CompressedBitmap<T> evaluateBitmap(Node condition, int[] nBitmaps) 
+    {
+        switch (condition.tag) { 
+          case Node.opBoolAnd:
+          {
+              BinOpNode and = (BinOpNode)condition;
+              CompressedBitmap<T> left = evaluateBitmap(and.left, nBitmaps);
+              if (left != null && left.isEmpty()) { 
+                  return left;
+              }
+              CompressedBitmap<T> right = evaluateBitmap(and.right, nBitmaps);
+              return left == null ? right : right == null ? left : left.and(right);
+          }
+          case Node.opBoolOr:
+          {
+              BinOpNode or = (BinOpNode)condition;
+              CompressedBitmap<T> left = evaluateBitmap(or.left, nBitmaps);
+              CompressedBitmap<T> right = left != null ? evaluateBitmap(or.right, nBitmaps) : null;
+              return right != null ? left.or(right) : null;
+          }
+          case Node.opAnyEq:
+          case Node.opIntEq:
+          case Node.opRealEq:
+          case Node.opStrEq:
+          case Node.opDateEq:
+          case Node.opBoolEq:
+          case Node.opObjEq:
+          {
+              BinOpNode cmp = (BinOpNode)condition;
+              String key = cmp.left.getFieldName();
+              if (key != null && cmp.right instanceof LiteralNode) { 
+                  GenericIndex<?> index = getIndex(cls, key);  
+                  if (index instanceof BitmapIndex) { 
+                      Key value = keyLiteral(index.getKeyType(), cmp.right, true);
+                      if (value != null) { 
+                          nBitmaps[0] += 1;
+                          return ((BitmapIndex<T>)index).getBitmap(value);
+                      }
+                  }
+              }
+          }
+        }
+        return null;
+    }
+
     final IndexSearchResult applyIndex(Node condition, Node predicate, Node filterCondition) 
     {
         ArrayList alternatives = null;
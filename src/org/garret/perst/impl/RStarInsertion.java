@@ -0,0 +1,315 @@
+package org.garret.perst.impl;
+
+import java.util.ArrayList;
+
+/**
+ * R*-tree insertion heuristics (Beckmann, Kriegel, Schneider, Seeger) used by R-Tree implementations:
+ * choice of subtree minimizing overlap enlargement, split minimizing margin and overlap of pages
+ * and forced reinsert of entries of overflowed page.
+ * Rectangles are represented by arrays of coordinates: minimal values in all dimensions followed by maximal values.
+ * Instance of this class keeps state of the single insertion: levels at which forced reinsert
+ * was already performed and list of entries to be reinserted.
+ */
+class RStarInsertion {
+    /**
+     * Percent of page entries which are reinserted on page overflow
+     */
+    static final int reinsertPercent = 30;
+
+    /**
+     * Minimal percent of page entries in each of pages produced by split
+     */
+    static final int minSplitPercent = 40;
+
+    /**
+     * Maximal number of branches with minimal area enlargement for which overlap enlargement is calculated
+     */
+    static final int overlapCandidates = 32;
+
+    Object  root;
+    boolean forcedReinsert;
+
+    private long              reinsertedLevels;
+    private ArrayList<Object> rects = new ArrayList<Object>();
+    private ArrayList<Object> objs = new ArrayList<Object>();
+    private int[]             heights = new int[8];
+
+    /**
+     * Constructor of insertion state
+     * @param root root page of the tree: entries of the root page are never reinserted
+     * @param forcedReinsert whether forced reinsert is performed or overflowed pages are always split
+     */
+    RStarInsertion(Object root, boolean forcedReinsert) {
+        this.root = root;
+        this.forcedReinsert = forcedReinsert;
+    }
+
+    /**
+     * Check if entries of overflowed page should be reinserted. Reinsert is performed once for each level of the tree.
+     * @param page overflowed page
+     * @param height height of the page above leaves
+     */
+    boolean reinsert(Object page, int height) {
+        if (!forcedReinsert || page == root || height >= 64 || (reinsertedLevels & (1L << height)) != 0) {
+            return false;
+        }
+        reinsertedLevels |= 1L << height;
+        return true;
+    }
+
+    /**
+     * Add entry which should be reinserted in the page with the specified height
+     */
+    void add(Object rect, Object obj, int height) {
+        int i = rects.size();
+        if (i == heights.length) {
+            int[] newHeights = new int[i*2];
+            System.arraycopy(heights, 0, newHeights, 0, i);
+            heights = newHeights;
+        }
+        heights[i] = height;
+        rects.add(rect);
+        objs.add(obj);
+    }
+
+    int size() {
+        return rects.size();
+    }
+
+    Object getRect(int i) {
+        return rects.get(i);
+    }
+
+    Object getObject(int i) {
+        return objs.get(i);
+    }
+
+    int getHeight(int i) {
+        return heights[i];
+    }
+
+    static double area(double[] r) {
+        int n = r.length >> 1;
+        double a = 1.0;
+        for (int i = 0; i < n; i++) {
+            a *= r[n+i] - r[i];
+        }
+        return a;
+    }
+
+    static double margin(double[] r) {
+        int n = r.length >> 1;
+        double m = 0.0;
+        for (int i = 0; i < n; i++) {
+            m += r[n+i] - r[i];
+        }
+        return m;
+    }
+
+    static double overlap(double[] a, double[] b) {
+        int n = a.length >> 1;
+        double o = 1.0;
+        for (int i = 0; i < n; i++) {
+            double min = Math.max(a[i], b[i]);
+            double max = Math.min(a[n+i], b[n+i]);
+            if (min >= max) {
+                return 0.0;
+            }
+            o *= max - min;
+        }
+        return o;
+    }
+
+    static double[] join(double[] a, double[] b) {
+        int n = a.length >> 1;
+        double[] r = new double[n*2];
+        for (int i = 0; i < n; i++) {
+            r[i] = Math.min(a[i], b[i]);
+            r[n+i] = Math.max(a[n+i], b[n+i]);
+        }
+        return r;
+    }
+
+    /**
+     * Choose branch of the page in which new entry is inserted
+     * @param b rectangles of page branches
+     * @param n number of branches
+     * @param r rectangle of inserted entry
+     * @param minOverlap whether branches refer to leaf pages: in this case branch with minimal enlargement
+     * of overlap with other branches is chosen, otherwise - branch with minimal enlargement of area.
+     * Overlap enlargement is calculated only for <code>overlapCandidates</code> branches with minimal
+     * enlargement of area.
+     * @return index of the chosen branch
+     */
+    static int chooseSubtree(double[][] b, int n, double[] r, boolean minOverlap) {
+        final double[] areaIncr = new double[n];
+        double[] area = new double[n];
+        double[][] joined = new double[n][];
+        int mini = 0;
+        for (int i = 0; i < n; i++) {
+            joined[i] = join(b[i], r);
+            area[i] = area(b[i]);
+            areaIncr[i] = area(joined[i]) - area[i];
+            if (areaIncr[i] < areaIncr[mini] || (areaIncr[i] == areaIncr[mini] && area[i] < area[mini])) {
+                mini = i;
+            }
+        }
+        if (!minOverlap) {
+            return mini;
+        }
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        if (n > overlapCandidates) {
+            java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return Double.compare(areaIncr[i1.intValue()], areaIncr[i2.intValue()]);
+                }
+            });
+        }
+        double minOverlapIncr = Double.MAX_VALUE;
+        for (int k = 0, m = Math.min(n, overlapCandidates); k < m; k++) {
+            int i = order[k].intValue();
+            double overlapIncr = 0;
+            for (int j = 0; j < n; j++) {
+                if (j != i) {
+                    overlapIncr += overlap(joined[i], b[j]) - overlap(b[i], b[j]);
+                }
+            }
+            if (overlapIncr < minOverlapIncr
+                || (overlapIncr == minOverlapIncr
+                    && (areaIncr[i] < areaIncr[mini] || (areaIncr[i] == areaIncr[mini] && area[i] < area[mini]))))
+            {
+                mini = i;
+                minOverlapIncr = overlapIncr;
+            }
+        }
+        return mini;
+    }
+
+    /**
+     * Split overflowed page: choose axis with minimal sum of margins of all distributions and
+     * distribution along this axis with minimal overlap (and then minimal area) of two pages
+     * @param b rectangles of page entries (including new entry)
+     * @return array which elements are true for entries moved to the new page
+     */
+    static boolean[] split(double[][] b) {
+        int m = b.length;
+        int nDims = b[0].length >> 1;
+        int minFill = Math.max(m*minSplitPercent/100, 1);
+        double minMargin = Double.MAX_VALUE;
+        int[][] bestOrders = null;
+        for (int axis = 0; axis < nDims; axis++) {
+            int[][] orders = new int[][] { sortEntries(b, axis), sortEntries(b, nDims + axis) };
+            double margin = 0;
+            for (int s = 0; s < 2; s++) {
+                double[][] prefix = prefixCovers(b, orders[s]);
+                double[][] suffix = suffixCovers(b, orders[s]);
+                for (int k = minFill; k <= m - minFill; k++) {
+                    margin += margin(prefix[k-1]) + margin(suffix[k]);
+                }
+            }
+            if (margin < minMargin) {
+                minMargin = margin;
+                bestOrders = orders;
+            }
+        }
+        double minOverlap = Double.MAX_VALUE;
+        double minArea = Double.MAX_VALUE;
+        int[] bestOrder = null;
+        int bestSplit = 0;
+        for (int s = 0; s < 2; s++) {
+            double[][] prefix = prefixCovers(b, bestOrders[s]);
+            double[][] suffix = suffixCovers(b, bestOrders[s]);
+            for (int k = minFill; k <= m - minFill; k++) {
+                double overlap = overlap(prefix[k-1], suffix[k]);
+                double area = area(prefix[k-1]) + area(suffix[k]);
+                if (overlap < minOverlap || (overlap == minOverlap && area < minArea)) {
+                    minOverlap = overlap;
+                    minArea = area;
+                    bestOrder = bestOrders[s];
+                    bestSplit = k;
+                }
+            }
+        }
+        boolean[] moved = new boolean[m];
+        for (int k = bestSplit; k < m; k++) {
+            moved[bestOrder[k]] = true;
+        }
+        return moved;
+    }
+
+    /**
+     * Select entries of overflowed page for forced reinsert: entries which centers are the most distant
+     * from the center of the page
+     * @param b rectangles of page entries (including new entry)
+     * @return indices of selected entries in order of increasing distance (order of reinsertion)
+     */
+    static int[] selectForReinsert(double[][] b) {
+        int m = b.length;
+        int p = Math.max(m*reinsertPercent/100, 1);
+        double[] cover = b[0];
+        for (int i = 1; i < m; i++) {
+            cover = join(cover, b[i]);
+        }
+        int nDims = cover.length >> 1;
+        final double[] dist = new double[m];
+        Integer[] order = new Integer[m];
+        for (int i = 0; i < m; i++) {
+            double d = 0;
+            for (int j = 0; j < nDims; j++) {
+                double diff = (b[i][j] + b[i][nDims+j]) - (cover[j] + cover[nDims+j]);
+                d += diff*diff;
+            }
+            dist[i] = d;
+            order[i] = Integer.valueOf(i);
+        }
+        java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(dist[i1.intValue()], dist[i2.intValue()]);
+            }
+        });
+        int[] selected = new int[p];
+        for (int i = 0; i < p; i++) {
+            selected[i] = order[m - p + i].intValue();
+        }
+        return selected;
+    }
+
+    private static int[] sortEntries(final double[][] b, final int coord) {
+        Integer[] order = new Integer[b.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = Integer.valueOf(i);
+        }
+        java.util.Arrays.sort(order, new java.util.Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return Double.compare(b[i1.intValue()][coord], b[i2.intValue()][coord]);
+            }
+        });
+        int[] result = new int[order.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = order[i].intValue();
+        }
+        return result;
+    }
+
+    private static double[][] prefixCovers(double[][] b, int[] order) {
+        double[][] covers = new double[order.length][];
+        covers[0] = b[order[0]];
+        for (int i = 1; i < order.length; i++) {
+            covers[i] = join(covers[i-1], b[order[i]]);
+        }
+        return covers;
+    }
+
+    private static double[][] suffixCovers(double[][] b, int[] order) {
+        int m = order.length;
+        double[][] covers = new double[m][];
+        covers[m-1] = b[order[m-1]];
+        for (int i = m-1; --i >= 0;) {
+            covers[i] = join(covers[i+1], b[order[i]]);
+        }
+        return covers;
+    }
+}
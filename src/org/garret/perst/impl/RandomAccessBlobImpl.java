@@ -1,9 +1,10 @@
 package org.garret.perst.impl;
 import  org.garret.perst.*;
 import  java.util.*;
+import  java.nio.channels.WritableByteChannel;
 
 
-public class RandomAccessBlobImpl extends PersistentResource implements Blob { 
+public class RandomAccessBlobImpl extends PersistentResource implements TransferableBlob { 
     long  size;
     Index chunks;
 
@@ -212,6 +213,14 @@ public class RandomAccessBlobImpl extends PersistentResource implements Blob {
         return new BlobOutputStream(flags);
     }
 
+    public long transferTo(WritableByteChannel channel) { 
+        return transferTo(0, Long.MAX_VALUE, channel);
+    }
+
+    public long transferTo(long position, long length, WritableByteChannel channel) { 
+        return BlobImpl.transfer(getInputStream(), position, length, channel);
+    }
+
     public void deallocate() { 
         Iterator iterator = chunks.iterator();
         while (iterator.hasNext()) { 
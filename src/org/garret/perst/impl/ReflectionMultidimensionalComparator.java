@@ -78,6 +78,34 @@ public class ReflectionMultidimensionalComparator<T> extends MultidimensionalCom
         }
     }
 
+    public double getDistance(T m1, T m2, int i)
+    {
+        try { 
+            Object v1 = fields[i].get(m1);
+            Object v2 = fields[i].get(m2);
+            if (v1 == null || v2 == null || (treateZeroAsUndefinedValue && (isZero(v1) || isZero(v2)))) { 
+                return Double.NaN;
+            } 
+            return Math.abs(toDouble(v1) - toDouble(v2));
+        } catch (IllegalAccessException x) { 
+            throw new IllegalAccessError();
+        }
+    }
+
+    private static double toDouble(Object val) 
+    { 
+        if (val instanceof Number) { 
+            return ((Number)val).doubleValue();
+        } else if (val instanceof java.util.Date) { 
+            return ((java.util.Date)val).getTime();
+        } else if (val instanceof Character) { 
+            return ((Character)val).charValue();
+        } else if (val instanceof Boolean) { 
+            return ((Boolean)val).booleanValue() ? 1 : 0;
+        }
+        throw new UnsupportedOperationException("Distance is not defined for " + val.getClass().getName());
+    }
+
     public int getNumberOfDimensions() { 
         return fields.length;
     }
@@ -8,7 +8,7 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
 {
     int nGrams;
     boolean caseInsensitive;
-    Index<Set<T>> inverseIndex;
+    Index<IPersistent> inverseIndex; // n-gram -> CompressedBitmap (Set in indexes created by previous versions)
 
     RegexIndexImpl() {}
     
@@ -20,7 +20,7 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
         this.caseInsensitive = caseInsensitive;
         this.nGrams = nGrams;
         assignOid(db, 0, false);
-        inverseIndex = db.<Set<T>>createIndex(String.class, true);
+        inverseIndex = db.<IPersistent>createIndex(String.class, true);
     }
 
     
@@ -96,14 +96,21 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
         throw new UnsupportedOperationException("RegexIndex.set(T obj)");       
     }
 
+    @SuppressWarnings("unchecked") // postings of n-gram are either bitmap, either set of indexed objects
     private void insertInInverseIndex(String text, T obj) {
+        Storage storage = getStorage();
+        int oid = storage.makePersistent(obj);
         for (String s : splitText(text)) {
-            Set<T> set = inverseIndex.get(s);
-            if (set == null) { 
-                set = getStorage().<T>createSet();
-                inverseIndex.put(s, set);
-            } 
-            set.add(obj);
+            IPersistent postings = inverseIndex.get(s);
+            if (postings == null) { 
+                CompressedBitmap<T> bitmap = new CompressedBitmap<T>(storage);
+                bitmap.add(oid);
+                inverseIndex.put(s, bitmap);
+            } else if (postings instanceof CompressedBitmap) { 
+                ((CompressedBitmap<T>)postings).add(oid);
+            } else { 
+                ((Set<T>)postings).add(obj);
+            }
         }
     }
 
@@ -140,10 +147,28 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
         return false;
     }
     
+    @SuppressWarnings("unchecked")
     private void removeFromInverseIndex(String text, Object obj) {
+        int oid = getStorage().getOid(obj);
         for (String s : splitText(text)) {
-            Set<T> set = inverseIndex.get(s);
-            Assert.that(set != null);
+            IPersistent postings = inverseIndex.get(s);
+            if (postings == null) { // n-gram occurs several times in the text
+                continue;
+            }
+            boolean empty;
+            if (postings instanceof CompressedBitmap) { 
+                CompressedBitmap<T> bitmap = (CompressedBitmap<T>)postings;
+                bitmap.remove(oid);
+                empty = bitmap.isEmpty();
+            } else { 
+                Set<T> set = (Set<T>)postings;
+                set.remove(obj);
+                empty = set.isEmpty();
+            }
+            if (empty) { 
+                inverseIndex.remove(s, postings);
+                postings.deallocate();
+            }
         }
     }
 
@@ -160,6 +185,7 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
         return -1;
     }
 
+    @SuppressWarnings("unchecked")
     public IterableIterator<T> match(String pattern) {
         if (caseInsensitive) { 
             pattern = pattern.toLowerCase();
@@ -170,21 +196,23 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
         } else if (firstWildcard == pattern.length()-1 && pattern.charAt(firstWildcard) == '%') { // pattern like 'XYZ%': use prefix search 
             return prefixIterator(pattern.substring(0, firstWildcard));
         } else if (firstWildcard >= nGrams*2 || firstWildcard > pattern.length()-nGrams) { // better to use prefix  search
-            return new RegexIterator(prefixIterator(pattern.substring(0, firstWildcard)), pattern);
+            return new RegexIterator<T>(prefixIterator(pattern.substring(0, firstWildcard)), pattern);
         } else {
             List<String> ngrams = splitPattern(pattern);
             if (ngrams.size() == 0) { // no n-grams: have to use sequential scan 
-                return new RegexIterator(iterator(), pattern);
+                return new RegexIterator<T>(iterator(), pattern);
             }
-            Set[] sets = new Set[ngrams.size()];
-            for (int i = 0; i < sets.length; i++) { 
-                Set set = inverseIndex.get(ngrams.get(i));
-                if (set == null) { 
+            CompressedBitmap<T>[] bitmaps = (CompressedBitmap<T>[])new CompressedBitmap<?>[ngrams.size()];
+            for (int i = 0; i < bitmaps.length; i++) { 
+                IPersistent postings = inverseIndex.get(ngrams.get(i));
+                if (postings == null) { 
                     return new EmptyIterator<T>();
                 } 
-                sets[i] = set;
+                bitmaps[i] = postings instanceof CompressedBitmap
+                    ? (CompressedBitmap<T>)postings
+                    : new CompressedBitmap<T>(getStorage(), ((Set<T>)postings).iterator());
             }        
-            return new JoinRegexIterator(sets, pattern);
+            return new RegexIterator<T>(CompressedBitmap.intersect(bitmaps).iterator(), pattern);
         }
     }
 
@@ -287,74 +315,5 @@ public class RegexIndexImpl<T> extends AltBtreeFieldIndex<T> implements RegexInd
         public void remove() {
             throw new UnsupportedOperationException();
         }
-    }              
-        
-    class JoinRegexIterator<T> extends IterableIterator<T> implements PersistentIterator 
-    { 
-        private PersistentIterator[] iterators;
-        private Object  currObj;
-        private int     currOid;
-        private String  pattern;
-        private Storage storage;
-        
-        JoinRegexIterator(Set[] sets, String pattern) { 
-            storage = getStorage();
-            this.pattern  = pattern;
-            iterators = new PersistentIterator[sets.length];
-            for (int i = 0; i < sets.length; i++) { 
-                iterators[i] = (PersistentIterator)sets[i].iterator();
-            }
-        }
-        
-        public boolean hasNext() { 
-            if (currObj == null) { 
-                int oid1 = 0, oid2;
-                int n = iterators.length;
-                while (true) { 
-                    for (int i = 0, j = 0; i < n; j++, i++) {
-                        do { 
-                            oid2 = iterators[j % n].nextOid();
-                            if (oid2 == 0) { 
-                                return false;
-                            }
-                        } while (oid2 < oid1);
-
-                        if (oid2 > oid1) { 
-                            oid1 = oid2;
-                            i = 0;
-                        }
-                    }
-                    Object obj = storage.getObjectByOID(oid1);
-                    String text = extractText(obj);
-                    if (match(text, pattern)) { 
-                        currObj = obj;         
-                        currOid = oid1;
-                        return true;
-                    }
-                }
-            }
-            return true;
-        }
-    
-        public T next() { 
-            if (!hasNext()) { 
-                throw new NoSuchElementException();
-            }
-            T obj = (T)currObj;
-            currObj = null;
-            return obj;
-        }
-            
-        public int nextOid() { 
-            if (hasNext()) { 
-                currObj = null;
-                return currOid;
-            }
-            return 0;
-        }
-        
-        public void remove() {
-            throw new UnsupportedOperationException();
-        }
-    }              
+    }
 }
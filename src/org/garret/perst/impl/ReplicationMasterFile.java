@@ -2,6 +2,9 @@ package org.garret.perst.impl;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.*;
 
 import org.garret.perst.*;
 
@@ -20,6 +23,9 @@ public class ReplicationMasterFile implements IFile, Runnable
      */
     public ReplicationMasterFile(ReplicationMasterStorageImpl storage, IFile file, String pageTimestampFile) { 
         this(storage, file, storage.port, storage.hosts, storage.replicationAck, pageTimestampFile);
+        if (storage.replicationBatch || storage.replicationCompression || storage.replicationDelta) { 
+            setFrameMode(storage.replicationCompression, storage.replicationDelta);
+        }
     }
 
     /**
@@ -54,10 +60,11 @@ public class ReplicationMasterFile implements IFile, Runnable
         this.ack = ack;
         this.port = port;
         mutex = new Object();
+        syncStates = new ArrayList<SyncState>();
         sockets = new Socket[hosts.length];
         syncThreads = new Thread[hosts.length];
         out = new OutputStream[hosts.length];
-        if (ack) { 
+        if (ack || pageTimestampFilePath != null) { 
             in = new InputStream[hosts.length];
             rcBuf = new byte[1];
         }
@@ -95,7 +102,8 @@ public class ReplicationMasterFile implements IFile, Runnable
         if (port >= 0) {
             storage.setProperty("perst.alternative.btree", Boolean.TRUE); // prevent direct modification of pages
             try { 
-                listenSocket = new ServerSocket(port);            
+                listenSocket = ServerSocketChannel.open().socket();
+                listenSocket.bind(new InetSocketAddress(port));
             } catch (IOException x) {
                 throw new StorageError(StorageError.BAD_REPLICATION_PORT);
             }
@@ -131,17 +139,6 @@ public class ReplicationMasterFile implements IFile, Runnable
     }
          
     private void addConnection(Socket s) {
-        OutputStream os = null;
-        InputStream is = null;
-        try { 
-            os = s.getOutputStream();
-            if (ack || pageTimestamps != null) { 
-                is = s.getInputStream();
-            }
-        } catch (IOException x) { 
-            x.printStackTrace();
-            return;
-        }
         synchronized (mutex) { 
             int n = hosts.length;
             String[] newHosts = new String[n+1];
@@ -150,37 +147,166 @@ public class ReplicationMasterFile implements IFile, Runnable
             hosts = newHosts;
             OutputStream[] newOut = new OutputStream[n+1];
             System.arraycopy(out, 0, newOut, 0, n);            
-            newOut[n] = os; 
             out = newOut;
             if (ack || pageTimestamps != null) { 
                 InputStream[] newIn = new InputStream[n+1];
                 if (in != null) { 
                     System.arraycopy(in, 0, newIn, 0, n);            
                 }
-                newIn[n] = is; 
                 in = newIn;
             }
             Socket[] newSockets = new Socket[n+1];
             System.arraycopy(sockets, 0, newSockets, 0, n);
-            newSockets[n] = s;
             sockets = newSockets;
-            nHosts += 1;
-
-            Thread t = new SynchronizeThread(n);           
             Thread[] newThreads = new Thread[n+1];        
             System.arraycopy(syncThreads, 0, newThreads, 0, n);
-            newThreads[n] = t;
             syncThreads = newThreads;
-                            
+            try { 
+                attach(n, s, true);
+            } catch (IOException x) { 
+                x.printStackTrace();
+                out[n] = null;
+                return;
+            }
+            sockets[n] = s;
+            nHosts += 1;
+
+            Thread t = new SynchronizeThread(n);           
+            syncThreads[n] = t;
             t.start();
         }
     }
 
+    /**
+     * Open socket connected to the slave node
+     * @param host slave host name
+     * @param port slave port
+     * @return connected socket
+     */
+    protected Socket openSocket(String host, int port) throws IOException { 
+        return new Socket(InetAddress.getByName(host), port);
+    }
+
+    /**
+     * Setup streams used to send data to the slave node and receive acknowledgments from it
+     * @param i index of the slave host
+     * @param s socket connected with the slave
+     * @param synchronize whether content of the slave will be synchronized with master
+     */
+    protected void attach(int i, Socket s, boolean synchronize) throws IOException { 
+        out[i] = s.getOutputStream();
+        if (ack || pageTimestamps != null) {
+            in[i] = s.getInputStream();
+        }
+    }
+
+    /**
+     * This method is called when synchronization of newly attached slave node is completed
+     * @param i index of the slave host
+     */
+    protected void synchronizationCompleted(int i) {
+    }
+
+    /**
+     * Get status of slave nodes
+     * @return array with status of each slave node
+     */
+    public ReplicationSlaveStatus[] getSlaveStatus() { 
+        synchronized (mutex) { 
+            ReplicationSlaveStatus[] status = new ReplicationSlaveStatus[hosts.length];
+            for (int i = 0; i < status.length; i++) { 
+                status[i] = new ReplicationSlaveStatus(hosts[i]);
+                status[i].connected = out[i] != null;
+            }
+            for (int i = 0; i < syncStates.size(); i++) { 
+                SyncState state = syncStates.get(i);
+                status[state.host].synchronizing = true;
+                status[state.host].syncPosition = state.position;
+                status[state.host].syncSize = state.size;
+            }
+            return status;
+        }
+    }
+
+    /**
+     * State of synchronization of newly attached slave node.
+     * Pages modified after start of synchronization are delivered to the slave by replication stream,
+     * so synchronization thread should not send them.
+     * Replication stream is not written to the slave socket by committing thread: it is queued and sent 
+     * by synchronization thread between chunks, so commit is not blocked while chunk is sent and acknowledged.
+     */
+    static class SyncState { 
+        int   host;
+        int[] modified = new int[1024];
+        long  position;
+        long  size;
+        ArrayList<byte[]> pending = new ArrayList<byte[]>();
+        int   nPendingAcks;
+
+        SyncState(int host) { 
+            this.host = host;
+        }
+
+        synchronized void markModified(int pageNo) { 
+            if ((pageNo >> 5) >= modified.length) { 
+                int[] newModified = new int[Math.max(modified.length*2, (pageNo >> 5) + 1)];
+                System.arraycopy(modified, 0, newModified, 0, modified.length);
+                modified = newModified;
+            }
+            modified[pageNo >> 5] |= 1 << (pageNo & 31);
+        }
+
+        synchronized boolean isModified(int pageNo) { 
+            return (pageNo >> 5) < modified.length && (modified[pageNo >> 5] & (1 << (pageNo & 31))) != 0;
+        }
+
+        synchronized void enqueue(byte[] data, int size, boolean ack) { 
+            byte[] copy = new byte[size];
+            System.arraycopy(data, 0, copy, 0, size);
+            pending.add(copy);
+            if (ack) { 
+                nPendingAcks += 1;
+            }
+        }
+    }
+
+    /**
+     * Send data queued for the slave during synchronization and receive acknowledgments for it
+     * @param os slave output stream
+     * @param is slave input stream
+     * @param data queued data
+     * @param nAcks number of acknowledgments to receive
+     * @return <code>false</code> if acknowledgment was not received
+     */
+    private boolean sendPending(OutputStream os, InputStream is, byte[][] data, int nAcks) throws IOException { 
+        for (int j = 0; j < data.length; j++) { 
+            os.write(data[j]);
+        }
+        byte[] ackBuf = new byte[1];
+        while (--nAcks >= 0) { 
+            if (is.read(ackBuf) != 1) { 
+                System.err.println("Failed to receive ACK");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private SyncState getSyncState(int i) { 
+        for (int j = 0; j < syncStates.size(); j++) { 
+            SyncState state = syncStates.get(j);
+            if (state.host == i) { 
+                return state;
+            }
+        }
+        return null;
+    }
+
     private void synchronizeNode(int i) {  
-        long size = storage.getDatabaseSize();
         Socket s;
         OutputStream os = null;
         InputStream is = null;
+        SyncState state = new SyncState(i);
         synchronized (mutex) { 
             s = sockets[i];
             if (s == null) {
@@ -191,14 +317,17 @@ public class ReplicationMasterFile implements IFile, Runnable
             if (ack || pageTimestamps != null) { 
                 is = in[i];
             }
+            // file content is changed only under mutex, so starting from this moment all modifications are
+            // either sent to the slave by replication stream or are visible in the file 
+            syncStates.add(state);
         }
         int[] syncNodeTimestamps = null;
         try { 
           Sync:
             do { 
-                byte[] txBuf;
+                int recSize = 8 + Page.pageSize;
                 if (pageTimestamps != null) { 
-                    txBuf = new byte[12 + Page.pageSize]; 
+                    recSize += 4;
                     byte[] psBuf = new byte[4];
                     if (is.read(psBuf) != 4) { 
                         System.err.println("Failed to receive page timestamps length from slave node");
@@ -220,51 +349,110 @@ public class ReplicationMasterFile implements IFile, Runnable
                     for (int j = 0; j < psSize; j++) { 
                         syncNodeTimestamps[j] = Bytes.unpack4(psBuf, j*4);
                     }
-                } else { 
-                    txBuf = new byte[8 + Page.pageSize];                                
-                }                               
-                for (long pos = 0; pos < size; pos += Page.pageSize) { 
-                    int pageNo = (int)(pos >> Page.pageSizeLog);
-                    if (syncNodeTimestamps != null) { 
-                        if (pageNo < syncNodeTimestamps.length 
-                            && pageNo < pageTimestamps.length 
-                            && syncNodeTimestamps[pageNo] == pageTimestamps[pageNo])
-                        {
+                }
+                long size = file.length();
+                if (storage != null && storage.header != null && storage.getDatabaseSize() > size) { 
+                    size = storage.getDatabaseSize();
+                }
+                state.size = size;
+                int pagesPerChunk = SYNC_CHUNK_SIZE/recSize + 1;
+                byte[] chunk = new byte[pagesPerChunk*recSize];
+                byte[] page = new byte[Page.pageSize];
+                byte[][] pending;
+                int nAcks;
+                Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+                long pos = 0;
+                while (pos < size) { 
+                    // pages are read directly from the file without locking the storage: only file mutex is held
+                    // while page is read, because OSFile positions and accesses shared file handle non-atomically
+                    int used = 0;
+                    for (int j = 0; j < pagesPerChunk && pos < size; j++, pos += Page.pageSize) { 
+                        int pageNo = (int)(pos >> Page.pageSizeLog);
+                        int pageTimestamp = 0;
+                        if (syncNodeTimestamps != null) { 
+                            pageTimestamp = pageNo < pageTimestamps.length ? pageTimestamps[pageNo] : 0;
+                            if (pageNo < syncNodeTimestamps.length && syncNodeTimestamps[pageNo] == pageTimestamp) {
+                                continue;
+                            }
+                        }   
+                        if (state.isModified(pageNo)) { 
                             continue;
                         }
-                    }   
-                    synchronized (storage)
-                    {   
-                        synchronized (storage.objectCache)
-                        {   
-                            Page pg = storage.pool.getPage(pos);
-                            Bytes.pack8(txBuf, 0, pos);
-                            System.arraycopy(pg.data, 0, txBuf, 8, Page.pageSize);
-                            storage.pool.unfix(pg);
-                            if (syncNodeTimestamps != null) { 
-                                Bytes.pack4(txBuf, Page.pageSize + 8, pageNo < pageTimestamps.length ? pageTimestamps[pageNo] : 0);
-                            }                            
-                        }                            
+                        int rc;
+                        synchronized (mutex) { 
+                            rc = file.read(pos, page);
+                        }
+                        if (rc < 0) { // page is beyond the end of the file
+                            rc = 0;
+                        }
+                        while (rc < Page.pageSize) { 
+                            page[rc++] = 0;
+                        }
+                        Bytes.pack8(chunk, used, pos);
+                        System.arraycopy(page, 0, chunk, used + 8, Page.pageSize);
+                        if (syncNodeTimestamps != null) { 
+                            Bytes.pack4(chunk, used + 8 + Page.pageSize, pageTimestamp);
+                        }
+                        used += recSize;
                     }
-                    Page pg = storage.pool.getPage(pos);
+                    // Socket lock is not requested by committing thread, it only serializes this thread 
+                    // with writer of asynchronous replication
                     synchronized (s) {
-                        os.write(txBuf);
-                        if (ack && pos == 0 && is.read(rcBuf) != 1) { 
-                            System.err.println("Failed to receive ACK");
+                        int dst = 0;
+                        synchronized (state) {
+                            // Page modified after it was read is marked before modification is queued:
+                            // it has to be excluded from the chunk, because new content of the page is either 
+                            // already queued or will be queued after the chunk. 
+                            for (int src = 0; src < used; src += recSize) { 
+                                if (!state.isModified((int)(Bytes.unpack8(chunk, src) >> Page.pageSizeLog))) { 
+                                    if (src != dst) { 
+                                        System.arraycopy(chunk, src, chunk, dst, recSize);
+                                    }
+                                    dst += recSize;
+                                }
+                            }
+                            pending = state.pending.toArray(new byte[state.pending.size()][]);
+                            nAcks = state.nPendingAcks;
+                            state.pending.clear();
+                            state.nPendingAcks = 0;
+                        }
+                        if (dst != 0) { 
+                            byte[] frame = packFrame(chunk, dst, ReplicationSlaveStorageImpl.FRAME_SYNC, deflater);
+                            os.write(frame);
+                            if (ack) { 
+                                nAcks += 1;
+                            }
+                        }
+                        if (!sendPending(os, is, pending, ack ? nAcks : 0)) { 
+                            break Sync;
+                        }
+                    }
+                    state.position = pos;
+                }
+                synchronized (mutex) { 
+                    // replication stream is written directly to the slave socket after removal of synchronization state
+                    synchronized (s) { 
+                        synchronized (state) { 
+                            pending = state.pending.toArray(new byte[state.pending.size()][]);
+                            nAcks = state.nPendingAcks;
+                        }
+                        if (!sendPending(os, is, pending, ack ? nAcks : 0)) { 
                             break Sync;
                         }
+                        byte[] txBuf = new byte[recSize];
+                        Bytes.pack8(txBuf, 0, ReplicationSlaveStorageImpl.REPL_SYNC);
+                        os.write(txBuf); // end of synchronization
                     }
+                    syncStates.remove(state);
                 }
-                synchronized (s) {
-                    Bytes.pack8(txBuf, 0, ReplicationSlaveStorageImpl.REPL_SYNC);
-                    os.write(txBuf); // end of synchronization
-                }   
+                synchronizationCompleted(i);
                 return;
             } while (false);
         } catch (IOException x) {
             x.printStackTrace();
         }
         synchronized (mutex) { 
+            syncStates.remove(state);
             if (sockets[i] != null) { 
                 handleError(hosts[i]);
                 sockets[i] = null;
@@ -293,6 +481,25 @@ public class ReplicationMasterFile implements IFile, Runnable
     }
 
     protected void connect(int i)
+    {
+        Socket socket = openConnection(i);
+        if (socket != null) { 
+            try { 
+                sockets[i] = socket;
+                attach(i, socket, pageTimestamps != null);
+                nHosts += 1;
+                if (pageTimestamps != null) {
+                    synchronizeNode(i);
+                }
+            } catch (IOException x) { 
+                handleError(hosts[i]);
+                sockets[i] = null;
+                out[i] = null;
+            }
+        } 
+    }
+
+    private Socket openConnection(int i)
     {
         String host = hosts[i];
         int colon = host.indexOf(':');
@@ -302,9 +509,9 @@ public class ReplicationMasterFile implements IFile, Runnable
         try { 
             int maxAttempts = storage != null 
                 ? storage.slaveConnectionTimeout : MAX_CONNECT_ATTEMPTS;
-            for (int j = 0; j < maxAttempts; j++) { 
+            for (int j = 0; j < maxAttempts && !closing; j++) { 
                 try { 
-                    socket = new Socket(InetAddress.getByName(host), port);
+                    socket = openSocket(host, port);
                     if (socket != null) { 
                         break;
                     }
@@ -314,28 +521,83 @@ public class ReplicationMasterFile implements IFile, Runnable
         } catch (InterruptedException x) {}
             
         if (socket != null) { 
+            try {
+                socket.setSoLinger(true, LINGER_TIME);
+            } catch (NoSuchMethodError er) {
+            } catch (IOException x) {}
             try { 
-                try {
-                    socket.setSoLinger(true, LINGER_TIME);
-                } catch (NoSuchMethodError er) {}
-                try { 
-                    socket.setTcpNoDelay(true);
-                } catch (Exception x) {}
-                sockets[i] = socket;
-                out[i] = socket.getOutputStream();
-                if (ack || pageTimestamps != null) {
-                    in[i] = socket.getInputStream();
+                socket.setTcpNoDelay(true);
+            } catch (Exception x) {}
+        }
+        return socket;
+    }
+
+    /**
+     * Reestablish connection with the slave node. This method is executed by separate thread, 
+     * so that commit is not delayed by attempts to connect to the slave.
+     * Slave may miss some pages while it is disconnected, so its content is synchronized with master.
+     * @param i index of the slave host
+     */
+    private void reconnect(int i) 
+    { 
+        Socket socket = openConnection(i);
+        synchronized (mutex) { 
+            try { 
+                if (socket == null || closing) { 
+                    throw new IOException("Failed to reconnect to slave " + hosts[i]);
                 }
+                attach(i, socket, true);
+                sockets[i] = socket;
                 nHosts += 1;
-                if (pageTimestamps != null) {
-                    synchronizeNode(i);
-                }
             } catch (IOException x) { 
-                handleError(hosts[i]);
-                sockets[i] = null;
+                if (socket != null) { 
+                    try { 
+                        socket.close();
+                    } catch (IOException x2) {}
+                }
+                if (!closing) { 
+                    handleError(hosts[i]);
+                }
                 out[i] = null;
+                syncThreads[i] = null;
+                return;
             }
-        } 
+        }
+        synchronizeNode(i);
+    }
+
+    class ReconnectThread extends Thread { 
+        int i;
+
+        ReconnectThread(int i) { 
+            this.i = i;
+        }
+
+        public void run() { 
+            reconnect(i);
+        }
+    }          
+
+    /**
+     * Close connection with the slave node after failure of sending data to it.
+     * If error handler requests reconnect, connection is reestablished and slave is synchronized 
+     * by separate thread. This method is called with locked mutex.
+     * @param i index of the slave host
+     */
+    protected void disconnect(int i) 
+    { 
+        try { 
+            sockets[i].close();
+        } catch (IOException x) {}
+        out[i] = null;
+        sockets[i] = null;
+        nHosts -= 1;
+        if (handleError(hosts[i]) && !closing) { 
+            delta = false; // reconnected slave may miss some pages
+            Thread t = new ReconnectThread(i);
+            syncThreads[i] = t;
+            t.start();
+        }
     }
 
     /**
@@ -352,56 +614,198 @@ public class ReplicationMasterFile implements IFile, Runnable
     }
 
 
-    public void write(long pos, byte[] buf) {
+    /**
+     * Send pages to slaves in frames instead of sending each page separately.
+     * All pages written by master during transaction commit are collected in one frame, which is sent to slave 
+     * nodes when the database header is written. Frame can be compressed and pages in the frame can be 
+     * delta-encoded: XOR of new and previous image of the page is sent instead of page content, 
+     * so that unchanged parts of the page are compressed to almost nothing.
+     * Delta encoding requires that slave contains the same data as master before receiving the frame, 
+     * so it is used only with static set of slaves without page timestamps and is switched off once
+     * connection with some slave is reestablished.
+     * Slave nodes recognize frames automatically, so no changes in their configuration are needed.
+     * @param compress whether frames should be compressed
+     * @param delta whether pages should be delta-encoded
+     */
+    public void setFrameMode(boolean compress, boolean delta) { 
         synchronized (mutex) { 
-            if (pageTimestamps != null) { 
-                int pageNo = (int)(pos >> Page.pageSizeLog);
-                if (pageNo >= pageTimestamps.length) { 
-                    int newLength = pageNo >= pageTimestamps.length*2 ? pageNo+1 : pageTimestamps.length*2;
-
-                    int[] newPageTimestamps = new int[newLength];
-                    System.arraycopy(pageTimestamps, 0, newPageTimestamps, 0, pageTimestamps.length);
-                    pageTimestamps = newPageTimestamps;
-
-                    int[] newDirtyPageTimestampMap = new int[(((newLength*4 + Page.pageSize - 1) >> Page.pageSizeLog) + 31) >> 5];
-                    System.arraycopy(dirtyPageTimestampMap, 0, newDirtyPageTimestampMap, 0, dirtyPageTimestampMap.length);
-                    dirtyPageTimestampMap = newDirtyPageTimestampMap;                    
-                }
-                pageTimestamps[pageNo] = ++timestamp;
-                dirtyPageTimestampMap[pageNo >> (Page.pageSizeLog - 2 + 5)] |= 1 << ((pageNo >> (Page.pageSizeLog - 2)) & 31);
+            if (frameBuf == null) { 
+                frameBuf = new byte[txBuf.length*16];
+                frameCurrIndex = -1;
             }
-            for (int i = 0; i < out.length; i++) { 
-                while (out[i] != null) {                 
-                    try { 
-                        synchronized (sockets[i]) { 
-                            Bytes.pack8(txBuf, 0, pos);
-                            System.arraycopy(buf, 0, txBuf, 8, buf.length);
-                            if (pageTimestamps != null) { 
-                                Bytes.pack4(txBuf, Page.pageSize + 8, timestamp);
-                            }                            
-                            out[i].write(txBuf);
-                            if (!ack || pos != 0 || in[i].read(rcBuf) == 1) { 
-                                break;
-                            }
+            this.compress = compress;
+            this.delta = delta && pageTimestamps == null && port < 0;
+            if (this.delta) { 
+                pageBuf = new byte[Page.pageSize];
+            }
+        }
+    }
+
+    private void updatePageTimestamp(long pos) { 
+        if (pageTimestamps != null) { 
+            int pageNo = (int)(pos >> Page.pageSizeLog);
+            if (pageNo >= pageTimestamps.length) { 
+                int newLength = pageNo >= pageTimestamps.length*2 ? pageNo+1 : pageTimestamps.length*2;
+
+                int[] newPageTimestamps = new int[newLength];
+                System.arraycopy(pageTimestamps, 0, newPageTimestamps, 0, pageTimestamps.length);
+                pageTimestamps = newPageTimestamps;
+
+                int[] newDirtyPageTimestampMap = new int[(((newLength*4 + Page.pageSize - 1) >> Page.pageSizeLog) + 31) >> 5];
+                System.arraycopy(dirtyPageTimestampMap, 0, newDirtyPageTimestampMap, 0, dirtyPageTimestampMap.length);
+                dirtyPageTimestampMap = newDirtyPageTimestampMap;                    
+            }
+            pageTimestamps[pageNo] = ++timestamp;
+            dirtyPageTimestampMap[pageNo >> (Page.pageSizeLog - 2 + 5)] |= 1 << ((pageNo >> (Page.pageSizeLog - 2)) & 31);
+        }
+    }
+
+    private void addToFrame(long pos, byte[] buf) { 
+        int recSize = txBuf.length;
+        if (frameUsed + recSize > frameBuf.length) { 
+            byte[] newFrameBuf = new byte[frameBuf.length*2];
+            System.arraycopy(frameBuf, 0, newFrameBuf, 0, frameUsed);
+            frameBuf = newFrameBuf;
+        }
+        Bytes.pack8(frameBuf, frameUsed, pos);
+        if (delta && file.read(pos, pageBuf) == Page.pageSize) { 
+            for (int i = 0; i < Page.pageSize; i++) { 
+                frameBuf[frameUsed + 8 + i] = (byte)(buf[i] ^ pageBuf[i]);
+            }
+        } else { 
+            // page is not present in the file: slave will XOR it with zero page
+            System.arraycopy(buf, 0, frameBuf, frameUsed + 8, Page.pageSize);
+        }
+        if (pageTimestamps != null) { 
+            Bytes.pack4(frameBuf, frameUsed + 8 + Page.pageSize, timestamp);
+        }                            
+        frameUsed += recSize;
+    }
+
+    /**
+     * Send collected frame to slave nodes
+     */
+    protected void sendFrame() { 
+        if (frameUsed == 0) { 
+            return;
+        }
+        if (compress && deflater == null) { 
+            deflater = new Deflater(Deflater.BEST_SPEED);
+        }
+        byte[] data = packFrame(frameBuf, frameUsed, delta ? ReplicationSlaveStorageImpl.FRAME_DELTA : 0, 
+                                compress ? deflater : null);
+        frameUsed = 0;
+        send(data, data.length, true);
+    }
+
+    /**
+     * Pack page records in frame
+     * @param body buffer with page records
+     * @param bodySize size of page records
+     * @param flags frame flags
+     * @param deflater deflater used to compress frame or null if frame should not be compressed
+     * @return frame data
+     */
+    static byte[] packFrame(byte[] body, int bodySize, int flags, Deflater deflater) { 
+        int hdrSize = ReplicationSlaveStorageImpl.FRAME_HEADER_SIZE;
+        byte[] data = new byte[hdrSize + bodySize];
+        int size = bodySize;
+        if (deflater != null) { 
+            deflater.reset();
+            deflater.setInput(body, 0, bodySize);
+            deflater.finish();
+            int used = 0;
+            while (!deflater.finished() && used < bodySize) { 
+                used += deflater.deflate(data, hdrSize + used, bodySize - used);
+            }
+            if (deflater.finished()) { 
+                flags |= ReplicationSlaveStorageImpl.FRAME_COMPRESSED;
+                byte[] compressed = new byte[hdrSize + used];
+                System.arraycopy(data, hdrSize, compressed, hdrSize, used);
+                data = compressed;
+                size = used;
+            }
+        }
+        if ((flags & ReplicationSlaveStorageImpl.FRAME_COMPRESSED) == 0) { 
+            System.arraycopy(body, 0, data, hdrSize, bodySize);
+        } 
+        Bytes.pack8(data, 0, ReplicationSlaveStorageImpl.REPL_FRAME);
+        Bytes.pack4(data, 8, flags);
+        Bytes.pack4(data, 12, bodySize);
+        Bytes.pack4(data, 16, size);
+        return data;
+    }
+
+    /**
+     * Send pending frame to slave nodes
+     */
+    protected void flushFrame() { 
+        synchronized (mutex) { 
+            if (frameBuf != null) { 
+                sendFrame();
+            }
+        }
+    }
+
+    /**
+     * Send data to all connected slave nodes. This method is called with locked mutex.
+     * @param data buffer with page record or frame
+     * @param size size of data
+     * @param commit whether master should wait acknowledgment from slave (if acknowledgment mode is set)
+     */
+    protected void send(byte[] data, int size, boolean commit) { 
+        for (int i = 0; i < out.length; i++) { 
+            if (out[i] != null) {                 
+                SyncState state = getSyncState(i);
+                if (state != null) { 
+                    // data is sent by synchronization thread
+                    state.enqueue(data, size, ack && commit);
+                    continue;
+                }
+                try { 
+                    synchronized (sockets[i]) { 
+                        out[i].write(data, 0, size);
+                        if (!ack || !commit || in[i].read(rcBuf) == 1) { 
+                            continue;
                         }
-                    } catch (IOException x) {} 
-                    
-                    out[i] = null;
-                    sockets[i] = null;
-                    nHosts -= 1;
-                    if (handleError(hosts[i])) { 
-                        connect(i);
-                    } else { 
-                        break;
                     }
+                } catch (IOException x) {} 
+                disconnect(i);
+            }
+        }
+    }
+
+    public void write(long pos, byte[] buf) {
+        synchronized (mutex) { 
+            updatePageTimestamp(pos);
+            for (int i = 0; i < syncStates.size(); i++) { 
+                syncStates.get(i).markModified((int)(pos >> Page.pageSizeLog));
+            }
+            if (frameBuf != null) { 
+                addToFrame(pos, buf);
+                if (pos == 0 && buf[ReplicationSlaveStorageImpl.DB_HDR_CURR_INDEX_OFFSET] != frameCurrIndex) { 
+                    // transaction is committed
+                    frameCurrIndex = buf[ReplicationSlaveStorageImpl.DB_HDR_CURR_INDEX_OFFSET];
+                    sendFrame();
+                } else if (frameUsed >= MAX_FRAME_SIZE) { 
+                    sendFrame();
                 }
+            } else { 
+                Bytes.pack8(txBuf, 0, pos);
+                System.arraycopy(buf, 0, txBuf, 8, buf.length);
+                if (pageTimestamps != null) { 
+                    Bytes.pack4(txBuf, Page.pageSize + 8, timestamp);
+                }                            
+                send(txBuf, txBuf.length, pos == 0);
             }
+            file.write(pos, buf);
         }
-        file.write(pos, buf);
     }
 
     public int read(long pos, byte[] buf) {
-        return file.read(pos, buf);
+        synchronized (mutex) { 
+            return file.read(pos, buf);
+        }
     }
 
     public void sync() {
@@ -450,6 +854,8 @@ public class ReplicationMasterFile implements IFile, Runnable
     }
 
     public void close() {
+        flushFrame();
+        closing = true;
         if (listenThread != null) { 
             synchronized (mutex) { 
                 listening = false;
@@ -500,6 +906,8 @@ public class ReplicationMasterFile implements IFile, Runnable
     public static int MAX_CONNECT_ATTEMPTS = 10; // attempts to establish connection with slave node
     public static int CONNECTION_TIMEOUT = 1000; // timeout between attempts to conbbect to the slave
     public static int INIT_PAGE_TIMESTAMPS_LENGTH = 64*1024;
+    public static int SYNC_CHUNK_SIZE = 1024*1024; // size of chunk of pages sent to the slave during synchronization
+    public static int MAX_FRAME_SIZE = 1024*1024; // frame is sent when its size exceeds this limit even if transaction is not committed
 
     Object         mutex;
     OutputStream[] out;
@@ -513,6 +921,7 @@ public class ReplicationMasterFile implements IFile, Runnable
     int            port;
     boolean        ack;
     boolean        listening;
+    volatile boolean closing;
     Thread         listenThread;
     ServerSocket   listenSocket;
 
@@ -521,6 +930,15 @@ public class ReplicationMasterFile implements IFile, Runnable
     OSFile         pageTimestampFile;
     int            timestamp;
     Thread[]       syncThreads;
+    ArrayList<SyncState> syncStates;
+
+    byte[]         frameBuf;
+    int            frameUsed;
+    int            frameCurrIndex;
+    byte[]         pageBuf;
+    boolean        compress;
+    boolean        delta;
+    Deflater       deflater;
 
     ReplicationMasterStorageImpl storage;
 }
@@ -13,7 +13,9 @@ public class ReplicationMasterStorageImpl extends StorageImpl implements Replica
     }
     
     public void open(IFile file, long pagePoolSize) {
-        super.open(asyncBufSize != 0 
+        super.open(replicationNio
+                   ? new NioReplicationMasterFile(this, file, pageTimestampFile)
+                   : asyncBufSize != 0 
                    ? (ReplicationMasterFile)new AsyncReplicationMasterFile(this, file, asyncBufSize, pageTimestampFile)
                    : new ReplicationMasterFile(this, file, pageTimestampFile),
                    pagePoolSize);
@@ -23,6 +25,14 @@ public class ReplicationMasterStorageImpl extends StorageImpl implements Replica
         return ((ReplicationMasterFile)pool.file).getNumberOfAvailableHosts();
     }
 
+    public ReplicationSlaveStatus[] getSlaveStatus() { 
+        return ((ReplicationMasterFile)pool.file).getSlaveStatus();
+    }
+
+    public synchronized long getTransactionId() { 
+        return transactionId;
+    }
+
     int      port;
     String[] hosts;
     int      asyncBufSize;
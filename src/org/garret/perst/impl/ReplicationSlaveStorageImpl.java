@@ -2,6 +2,7 @@ package org.garret.perst.impl;
 
 import java.io.*;
 import java.net.*;
+import java.util.zip.*;
 
 import org.garret.perst.*;
 
@@ -10,6 +11,12 @@ public abstract class ReplicationSlaveStorageImpl extends StorageImpl implements
 { 
     static final int REPL_CLOSE = -1;
     static final int REPL_SYNC  = -2;
+    static final int REPL_FRAME = -3;
+
+    static final int FRAME_COMPRESSED  = 1;
+    static final int FRAME_DELTA       = 2;
+    static final int FRAME_SYNC        = 4; // frame sent by synchronization of newly attached slave
+    static final int FRAME_HEADER_SIZE = 20; // marker, flags, size of frame, size of transferred data
     static final int INIT_PAGE_TIMESTAMPS_LENGTH = 64*1024;
 
     
@@ -68,6 +75,10 @@ public abstract class ReplicationSlaveStorageImpl extends StorageImpl implements
     public boolean isConnected() {
         return socket != null;
     }
+
+    public long getTransactionId() { 
+        return receivedTransactionId;
+    }
     
     public void beginThreadTransaction(int mode)
     {
@@ -181,130 +192,242 @@ public abstract class ReplicationSlaveStorageImpl extends StorageImpl implements
 
     void cancelIO() {}
 
+    /**
+     * Receive data from master
+     * @return <code>false</code> if replication is terminated
+     */
+    private boolean receive(byte[] buf, int offs, int size) { 
+        while (size > 0 && !reconnected) { 
+            int rc = -1;
+            if (in != null) { 
+                try { 
+                    rc = in.read(buf, offs, size);
+                } catch (IOException x) { 
+                    x.printStackTrace();
+                }
+            }
+            synchronized(done) { 
+                if (!listening) { 
+                    return false;
+                }
+            }
+            if (rc < 0) { 
+                if (handleError()) { 
+                    connect();
+                    // rest of the record is lost: master sends data through new connection starting from record boundary
+                    reconnected = true;
+                } else { 
+                    return false;
+                }
+            } else { 
+                offs += rc;
+                size -= rc;
+            }
+        }
+        return true;
+    }
+
     public void run() { 
         byte[] buf = new byte[Page.pageSize+PAGE_DATA_OFFSET + (pageTimestamps != null ? 4 : 0)];
+        byte[] hdr = new byte[FRAME_HEADER_SIZE];
+        byte[] frame = null;
+        byte[] body = null;
+        Inflater inflater = null;
 
         while (listening) { 
-            int offs = 0;
-            do {
-                int rc = -1;
-                if (in != null) { 
-                    try { 
-                        rc = in.read(buf, offs, buf.length - offs);
-                    } catch (IOException x) { 
-                        x.printStackTrace();
-                    }
+            reconnected = false;
+            if (!receive(buf, 0, PAGE_DATA_OFFSET)) { 
+                return;
+            }
+            if (Bytes.unpack8(buf, 0) != REPL_FRAME) { 
+                if (!receive(buf, PAGE_DATA_OFFSET, buf.length - PAGE_DATA_OFFSET)) { 
+                    return;
                 }
-                synchronized(done) { 
-                    if (!listening) { 
-                        return;
-                    }
+                if (!reconnected && !applyPage(buf, replicationAck)) { 
+                    return;
+                }
+                continue;
+            }
+            if (!receive(hdr, PAGE_DATA_OFFSET, FRAME_HEADER_SIZE - PAGE_DATA_OFFSET)) { 
+                return;
+            }
+            if (reconnected) { 
+                continue;
+            }
+            int flags = Bytes.unpack4(hdr, 8);
+            int frameSize = Bytes.unpack4(hdr, 12);
+            int bodySize = Bytes.unpack4(hdr, 16);
+            if (frame == null || frame.length < frameSize) { 
+                frame = new byte[frameSize];
+            }
+            if ((flags & FRAME_COMPRESSED) != 0) { 
+                if (body == null || body.length < bodySize) { 
+                    body = new byte[bodySize];
                 }
-                if (rc < 0) { 
-                    if (handleError()) { 
-                        connect();
-                    } else { 
-                        return;
+                if (!receive(body, 0, bodySize)) { 
+                    return;
+                }
+                if (reconnected) { 
+                    continue;
+                }
+                if (inflater == null) { 
+                    inflater = new Inflater();
+                }
+                inflater.reset();
+                inflater.setInput(body, 0, bodySize);
+                try { 
+                    int offs = 0;
+                    while (offs < frameSize) { 
+                        int rc = inflater.inflate(frame, offs, frameSize - offs);
+                        if (rc == 0 && (inflater.finished() || inflater.needsInput())) { 
+                            throw new StorageError(StorageError.FILE_ACCESS_ERROR, "Corrupted replication frame");
+                        }
+                        offs += rc;
                     }
-                } else { 
-                    offs += rc;
+                } catch (DataFormatException x) { 
+                    throw new StorageError(StorageError.FILE_ACCESS_ERROR, x);
                 }
-            } while (offs < buf.length);
-            
-            long pos = Bytes.unpack8(buf, 0);
-            boolean transactionCommit = false;
-            if (pos == 0) { 
-                if (replicationAck) { 
-                    try { 
-                        out.write(buf, 0, 1);
-                    } catch (IOException x) {
-                        handleError();
+            } else if (!receive(frame, 0, frameSize)) { 
+                return;
+            } else if (reconnected) { 
+                continue;
+            }
+            for (int offs = 0; offs < frameSize; offs += buf.length) { 
+                System.arraycopy(frame, offs, buf, 0, buf.length);
+                if ((flags & FRAME_DELTA) != 0) { 
+                    Page pg = pool.getPage(Bytes.unpack8(buf, 0));
+                    for (int i = 0; i < Page.pageSize; i++) { 
+                        buf[PAGE_DATA_OFFSET + i] ^= pg.data[i];
                     }
+                    pool.unfix(pg);
                 }
-                if (buf[PAGE_DATA_OFFSET + DB_HDR_CURR_INDEX_OFFSET] != prevIndex) { 
-                    prevIndex = buf[PAGE_DATA_OFFSET + DB_HDR_CURR_INDEX_OFFSET];
-                    lock.exclusiveLock();
-                    transactionCommit = true;
+                if (!applyPage(buf, false)) { 
+                    return;
                 }
-            } else if (pos == REPL_SYNC) { 
-                synchronized(sync) { 
-                    outOfSync = false;
-                    sync.notify();
+            }
+            if ((flags & FRAME_SYNC) != 0) { 
+                // save synchronization progress, so that it can be continued after reconnect 
+                pool.flush();
+                flushPageTimestamps();
+            }
+            if (replicationAck) { 
+                try { 
+                    out.write(buf, 0, 1);
+                } catch (IOException x) {
+                    handleError();
                 }
-                continue;
-            } else if (pos == REPL_CLOSE) { 
-                synchronized(commit) { 
-                    hangup();
-                    commit.notifyAll();
-                }     
-                return;
             }
-            if (pageTimestamps != null) { 
-                int pageNo = (int)(pos >> Page.pageSizeLog);
-                if (pageNo >= pageTimestamps.length) { 
-                    int newLength = pageNo >= pageTimestamps.length*2 ? pageNo+1 : pageTimestamps.length*2;
-
-                    int[] newPageTimestamps = new int[newLength];
-                    System.arraycopy(pageTimestamps, 0, newPageTimestamps, 0, pageTimestamps.length);
-                    pageTimestamps = newPageTimestamps;
-
-                    int[] newDirtyPageTimestampMap = new int[(((newLength*4 + Page.pageSize - 1) >> Page.pageSizeLog) + 31) >> 5];
-                    System.arraycopy(dirtyPageTimestampMap, 0, newDirtyPageTimestampMap, 0, dirtyPageTimestampMap.length);
-                    dirtyPageTimestampMap = newDirtyPageTimestampMap;                    
+        }            
+    }
+
+    /**
+     * Apply page record received from master
+     * @param buf page record: position, page content and optional page timestamp
+     * @param ack whether acknowledgment should be sent to master after receiving database header
+     * @return <code>false</code> if replication is terminated
+     */
+    private boolean applyPage(byte[] buf, boolean ack) { 
+        long pos = Bytes.unpack8(buf, 0);
+        boolean transactionCommit = false;
+        if (pos == 0) { 
+            if (ack) { 
+                try { 
+                    out.write(buf, 0, 1);
+                } catch (IOException x) {
+                    handleError();
                 }
-                int timestamp = Bytes.unpack4(buf, Page.pageSize+PAGE_DATA_OFFSET);
-                pageTimestamps[pageNo] = timestamp;
-                dirtyPageTimestampMap[pageNo >> (Page.pageSizeLog - 2 + 5)] |= 1 << ((pageNo >> (Page.pageSizeLog - 2)) & 31);
             }
-            Page pg = pool.putPage(pos);
-            System.arraycopy(buf, PAGE_DATA_OFFSET, pg.data, 0, Page.pageSize);
-            pool.unfix(pg);
-            
-            if (pos == 0) { 
-                if (!initialized && buf[PAGE_DATA_OFFSET + DB_HDR_INITIALIZED_OFFSET] != 0) { 
-                    synchronized(init) { 
-                        initialized = true;
-                        init.notify();
-                    }
+            if (buf[PAGE_DATA_OFFSET + DB_HDR_CURR_INDEX_OFFSET] != prevIndex) { 
+                prevIndex = buf[PAGE_DATA_OFFSET + DB_HDR_CURR_INDEX_OFFSET];
+                lock.exclusiveLock();
+                transactionCommit = true;
+            }
+        } else if (pos == REPL_SYNC) { 
+            synchronized(sync) { 
+                outOfSync = false;
+                sync.notify();
+            }
+            return true;
+        } else if (pos == REPL_CLOSE) { 
+            synchronized(commit) { 
+                hangup();
+                commit.notifyAll();
+            }     
+            return false;
+        }
+        if (pageTimestamps != null) { 
+            int pageNo = (int)(pos >> Page.pageSizeLog);
+            if (pageNo >= pageTimestamps.length) { 
+                int newLength = pageNo >= pageTimestamps.length*2 ? pageNo+1 : pageTimestamps.length*2;
+
+                int[] newPageTimestamps = new int[newLength];
+                System.arraycopy(pageTimestamps, 0, newPageTimestamps, 0, pageTimestamps.length);
+                pageTimestamps = newPageTimestamps;
+
+                int[] newDirtyPageTimestampMap = new int[(((newLength*4 + Page.pageSize - 1) >> Page.pageSizeLog) + 31) >> 5];
+                System.arraycopy(dirtyPageTimestampMap, 0, newDirtyPageTimestampMap, 0, dirtyPageTimestampMap.length);
+                dirtyPageTimestampMap = newDirtyPageTimestampMap;                    
+            }
+            int timestamp = Bytes.unpack4(buf, Page.pageSize+PAGE_DATA_OFFSET);
+            pageTimestamps[pageNo] = timestamp;
+            dirtyPageTimestampMap[pageNo >> (Page.pageSizeLog - 2 + 5)] |= 1 << ((pageNo >> (Page.pageSizeLog - 2)) & 31);
+        }
+        Page pg = pool.putPage(pos);
+        System.arraycopy(buf, PAGE_DATA_OFFSET, pg.data, 0, Page.pageSize);
+        pool.unfix(pg);
+        if (pos == 0) { 
+            receivedTransactionId = Bytes.unpack8(buf, PAGE_DATA_OFFSET + Header.sizeof - 8);
+        }
+        
+        if (pos == 0) { 
+            if (!initialized && buf[PAGE_DATA_OFFSET + DB_HDR_INITIALIZED_OFFSET] != 0) { 
+                synchronized(init) { 
+                    initialized = true;
+                    init.notify();
                 }
-                if (transactionCommit) { 
-                    lock.unlock();
-                    synchronized(commit) { 
-                        commit.notifyAll();
-                    }
-                    if (listener != null) { 
-                        listener.onMasterDatabaseUpdate();
-                    }
-                    pool.flush();
-                    if (pageTimestamps != null) { 
-                        byte[] page = new byte[Page.pageSize];
-                        for (int i = 0; i < dirtyPageTimestampMap.length; i++) { 
-                            if (dirtyPageTimestampMap[i] != 0) { 
-                                for (int j = 0; j < 32; j++) { 
-                                    if ((dirtyPageTimestampMap[i] & (1 << j)) != 0) { 
-                                        int pageNo = (i << 5) + j;
-                                        int beg = pageNo << (Page.pageSizeLog - 2);
-                                        int end = beg + Page.pageSize/4;
-                                        if (end > pageTimestamps.length) { 
-                                            end = pageTimestamps.length;
-                                        }
-                                        offs = 0;
-                                        while (beg < end) {
-                                            Bytes.pack4(page, offs, pageTimestamps[beg]);
-                                            beg += 1;
-                                            offs += 4;
-                                        }
-                                        pageTimestampFile.write(pageNo << Page.pageSizeLog, page);
-                                    }
-                                }
+            }
+            if (transactionCommit) { 
+                lock.unlock();
+                synchronized(commit) { 
+                    commit.notifyAll();
+                }
+                if (listener != null) { 
+                    listener.onMasterDatabaseUpdate();
+                }
+                pool.flush();
+                flushPageTimestamps();
+            }
+        }
+        return true;
+    }
+
+    private void flushPageTimestamps() { 
+        if (pageTimestamps != null) { 
+            byte[] page = new byte[Page.pageSize];
+            for (int i = 0; i < dirtyPageTimestampMap.length; i++) { 
+                if (dirtyPageTimestampMap[i] != 0) { 
+                    for (int j = 0; j < 32; j++) { 
+                        if ((dirtyPageTimestampMap[i] & (1 << j)) != 0) { 
+                            int pageNo = (i << 5) + j;
+                            int beg = pageNo << (Page.pageSizeLog - 2);
+                            int end = beg + Page.pageSize/4;
+                            if (end > pageTimestamps.length) { 
+                                end = pageTimestamps.length;
+                            }
+                            int offs = 0;
+                            while (beg < end) {
+                                Bytes.pack4(page, offs, pageTimestamps[beg]);
+                                beg += 1;
+                                offs += 4;
                             }
-                            dirtyPageTimestampMap[i] = 0;
+                            pageTimestampFile.write(pageNo << Page.pageSizeLog, page);
                         }
-                        pageTimestampFile.sync();
                     }
                 }
+                dirtyPageTimestampMap[i] = 0;
             }
-        }            
+            pageTimestampFile.sync();
+        }
     }
 
     public void close() {
@@ -350,6 +473,7 @@ public abstract class ReplicationSlaveStorageImpl extends StorageImpl implements
     protected boolean      outOfSync;
     protected boolean      initialized;
     protected boolean      listening;
+    protected boolean      reconnected;
     protected Object       sync;
     protected Object       init;
     protected Object       done;
@@ -360,4 +484,5 @@ public abstract class ReplicationSlaveStorageImpl extends StorageImpl implements
     protected int[]        pageTimestamps;
     protected int[]        dirtyPageTimestampMap;
     protected OSFile       pageTimestampFile;
+    protected volatile long receivedTransactionId;
 }
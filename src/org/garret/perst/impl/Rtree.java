@@ -16,6 +16,12 @@ public class Rtree<T> extends PersistentCollection<T> implements SpatialIndex<T>
         if (root == null) { 
             root = new RtreePage(db, obj, r);
             height = 1;
+        } else if (((StorageImpl)db).rstarTree) { 
+            RStarInsertion rstar = new RStarInsertion(root, true);
+            insert(db, r, obj, 0, rstar);
+            for (int i = 0; i < rstar.size(); i++) { 
+                insert(db, (Rectangle)rstar.getRect(i), rstar.getObject(i), rstar.getHeight(i), rstar);
+            }
         } else { 
             RtreePage p = root.insert(db, r, obj, height); 
             if (p != null) {
@@ -27,6 +33,64 @@ public class Rtree<T> extends PersistentCollection<T> implements SpatialIndex<T>
         n += 1;
         modify();
     }
+
+    private void insert(Storage db, Rectangle r, Object obj, int h, RStarInsertion rstar) { 
+        RtreePage p = root.insert(db, r, obj, height - h, h, rstar); 
+        if (p != null) {
+            root = new RtreePage(db, root, p);
+            height += 1;
+            rstar.root = root;
+        }
+    }
+
+    public void bulkLoad(Rectangle[] rects, T[] objs) {
+        if (rects.length != objs.length) { 
+            throw new IllegalArgumentException("Number of rectangles doesn't match number of objects");
+        }
+        if (root != null) { 
+            for (int i = 0; i < rects.length; i++) { 
+                put(rects[i], objs[i]);
+            }
+            return;
+        }
+        if (rects.length == 0) { 
+            return;
+        }
+        Storage db = getStorage();
+        Object[] r = new Object[rects.length];
+        Object[] o = new Object[objs.length];
+        System.arraycopy(rects, 0, r, 0, r.length);
+        System.arraycopy(objs, 0, o, 0, o.length);
+        SortTileRecursive str = new SortTileRecursive() { 
+            double getCenter(Object rect, int dim) { 
+                Rectangle rr = (Rectangle)rect;
+                return dim == 0 ? (rr.getLeft() + rr.getRight())/2.0 : (rr.getTop() + rr.getBottom())/2.0;
+            }
+        };
+        int count = r.length;
+        height = 1;
+        while (true) { 
+            int[] pageSizes = str.tile(r, o, count, 2, RtreePage.card);
+            if (pageSizes.length == 1) { 
+                root = new RtreePage(db, r, o, 0, count);
+                break;
+            }
+            Object[] pageRects = new Object[pageSizes.length];
+            Object[] pages = new Object[pageSizes.length];
+            for (int i = 0, offs = 0; i < pageSizes.length; offs += pageSizes[i++]) { 
+                RtreePage pg = new RtreePage(db, r, o, offs, pageSizes[i]);
+                pageRects[i] = pg.cover();
+                pages[i] = pg;
+            }
+            r = pageRects;
+            o = pages;
+            count = pages.length;
+            height += 1;
+        }
+        n = rects.length;
+        updateCounter += 1;
+        modify();
+    }
     
     public int size() { 
         return n;
@@ -41,10 +105,11 @@ public class Rtree<T> extends PersistentCollection<T> implements SpatialIndex<T>
         if (reinsertLevel < 0) { 
              throw new StorageError(StorageError.KEY_NOT_FOUND);
         }        
+        RStarInsertion rstar = ((StorageImpl)getStorage()).rstarTree ? new RStarInsertion(root, false) : null;
         for (int i = reinsertList.size(); --i >= 0;) {
             RtreePage p = (RtreePage)reinsertList.get(i);
             for (int j = 0, n = p.n; j < n; j++) { 
-                RtreePage q = root.insert(getStorage(), p.b[j], p.branch.get(j), height - reinsertLevel); 
+                RtreePage q = root.insert(getStorage(), p.b[j], p.branch.get(j), height - reinsertLevel, reinsertLevel, rstar); 
                 if (q != null) { 
                     // root splitted
                     root = new RtreePage(getStorage(), root, q);
@@ -34,40 +34,76 @@ public class RtreePage extends Persistent {
         }
     }
 
+    RtreePage(Storage storage, Object[] rects, Object[] objs, int offs, int count) {
+        branch = storage.createLink(card);
+        branch.setSize(card);
+        b = new Rectangle[card];
+        for (int i = 0; i < count; i++) {
+            setBranch(i, new Rectangle((Rectangle)rects[offs + i]), objs[offs + i]);
+        }
+        n = count;
+        for (int i = count; i < card; i++) {
+            b[i] = new Rectangle();
+        }
+    }
+
     RtreePage() {}
 
     RtreePage insert(Storage storage, Rectangle r, Object obj, int level) {
+        return insert(storage, r, obj, level, 0, null);
+    }
+
+    /**
+     * Insert new entry
+     * @param height height above leaves of the page in which entry is inserted
+     * @param rstar state of R*-tree insertion or null for Guttman insertion
+     * @return new page if this page was split, null otherwise
+     */
+    RtreePage insert(Storage storage, Rectangle r, Object obj, int level, int height, RStarInsertion rstar) {
         modify();
         if (--level != 0) {
             // not leaf page
             int i, mini = 0;
-            long minIncr = Long.MAX_VALUE;
-            long minArea = Long.MAX_VALUE;
-            for (i = 0; i < n; i++) {
-                long area = b[i].area();
-                long incr = Rectangle.joinArea(b[i], r) - area;
-                if (incr < minIncr) {
-                    minIncr = incr;
-                    minArea = area;
-                    mini = i;
-                } else if (incr == minIncr && area < minArea) {
-                    minArea = area;
-                    mini = i;
+            if (rstar != null) {
+                double[][] coords = new double[n][];
+                for (i = 0; i < n; i++) {
+                    coords[i] = getCoords(b[i]);
+                }
+                mini = RStarInsertion.chooseSubtree(coords, n, getCoords(r), height + level == 1);
+            } else {
+                long minIncr = Long.MAX_VALUE;
+                long minArea = Long.MAX_VALUE;
+                for (i = 0; i < n; i++) {
+                    long area = b[i].area();
+                    long incr = Rectangle.joinArea(b[i], r) - area;
+                    if (incr < minIncr) {
+                        minIncr = incr;
+                        minArea = area;
+                        mini = i;
+                    } else if (incr == minIncr && area < minArea) {
+                        minArea = area;
+                        mini = i;
+                    }
                 }
             }
             RtreePage p = (RtreePage)branch.get(mini);
-            RtreePage q = p.insert(storage, r, obj, level);
+            RtreePage q = p.insert(storage, r, obj, level, height, rstar);
             if (q == null) {
                 // child was not split
-                b[mini].join(r);
+                if (rstar != null) {
+                    // some entries of the child can be removed for reinsertion
+                    b[mini] = p.cover();
+                } else {
+                    b[mini].join(r);
+                }
                 return null;
             } else {
                 // child was split
                 setBranch(mini, p.cover(),  p);
-                return addBranch(storage, q.cover(), q);
+                return addBranch(storage, q.cover(), q, height + level, rstar);
             }
         } else {
-            return addBranch(storage, new Rectangle(r), obj);
+            return addBranch(storage, new Rectangle(r), obj, height, rstar);
         }
     }
 
@@ -141,13 +177,61 @@ public class RtreePage extends Persistent {
         modify();
     }
 
-    final RtreePage addBranch(Storage storage, Rectangle r, Object obj) {
+    final RtreePage addBranch(Storage storage, Rectangle r, Object obj, int height, RStarInsertion rstar) {
         if (n < card) {
             setBranch(n++, r, obj);
             return null;
-        } else {
+        } else if (rstar == null) {
             return splitPage(storage, r, obj);
         }
+        Rectangle[] rects = new Rectangle[card+1];
+        Object[] objs = new Object[card+1];
+        double[][] coords = new double[card+1][];
+        for (int i = 0; i < card; i++) {
+            rects[i] = b[i];
+            objs[i] = branch.getRaw(i);
+            coords[i] = getCoords(b[i]);
+        }
+        rects[card] = r;
+        objs[card] = obj;
+        coords[card] = getCoords(r);
+        boolean[] moved = new boolean[card+1];
+        RtreePage pg = null;
+        if (rstar.reinsert(this, height)) {
+            int[] selected = RStarInsertion.selectForReinsert(coords);
+            for (int i = 0; i < selected.length; i++) {
+                moved[selected[i]] = true;
+                rstar.add(rects[selected[i]], objs[selected[i]], height);
+            }
+        } else {
+            moved = RStarInsertion.split(coords);
+            for (int i = 0; i <= card; i++) {
+                if (moved[i]) {
+                    if (pg == null) {
+                        pg = new RtreePage(storage, objs[i], rects[i]);
+                    } else {
+                        pg.setBranch(pg.n++, rects[i], objs[i]);
+                    }
+                }
+            }
+        }
+        n = 0;
+        for (int i = 0; i <= card; i++) {
+            if (!moved[i]) {
+                setBranch(n++, rects[i], objs[i]);
+            }
+        }
+        // truncate rest of link
+        branch.setSize(n);
+        branch.setSize(card);
+        for (int i = n; i < card; i++) {
+            b[i] = new Rectangle();
+        }
+        return pg;
+    }
+
+    static double[] getCoords(Rectangle r) {
+        return new double[] { r.getLeft(), r.getTop(), r.getRight(), r.getBottom() };
     }
 
     final RtreePage splitPage(Storage storage, Rectangle r, Object obj) {
@@ -19,6 +19,12 @@ public class RtreeR2<T> extends PersistentCollection<T> implements SpatialIndexR
         if (root == null) { 
             root = new RtreeR2Page(db, obj, r);
             height = 1;
+        } else if (((StorageImpl)db).rstarTree) { 
+            RStarInsertion rstar = new RStarInsertion(root, true);
+            insert(db, r, obj, 0, rstar);
+            for (int i = 0; i < rstar.size(); i++) { 
+                insert(db, (RectangleR2)rstar.getRect(i), rstar.getObject(i), rstar.getHeight(i), rstar);
+            }
         } else { 
             RtreeR2Page p = root.insert(db, r, obj, height); 
             if (p != null) {
@@ -30,6 +36,64 @@ public class RtreeR2<T> extends PersistentCollection<T> implements SpatialIndexR
         updateCounter += 1;
         modify();
     }
+
+    private void insert(Storage db, RectangleR2 r, Object obj, int h, RStarInsertion rstar) { 
+        RtreeR2Page p = root.insert(db, r, obj, height - h, h, rstar); 
+        if (p != null) {
+            root = new RtreeR2Page(db, root, p);
+            height += 1;
+            rstar.root = root;
+        }
+    }
+
+    public void bulkLoad(RectangleR2[] rects, T[] objs) {
+        if (rects.length != objs.length) { 
+            throw new IllegalArgumentException("Number of rectangles doesn't match number of objects");
+        }
+        if (root != null) { 
+            for (int i = 0; i < rects.length; i++) { 
+                put(rects[i], objs[i]);
+            }
+            return;
+        }
+        if (rects.length == 0) { 
+            return;
+        }
+        Storage db = getStorage();
+        Object[] r = new Object[rects.length];
+        Object[] o = new Object[objs.length];
+        System.arraycopy(rects, 0, r, 0, r.length);
+        System.arraycopy(objs, 0, o, 0, o.length);
+        SortTileRecursive str = new SortTileRecursive() { 
+            double getCenter(Object rect, int dim) { 
+                RectangleR2 rr = (RectangleR2)rect;
+                return dim == 0 ? (rr.getLeft() + rr.getRight())/2 : (rr.getTop() + rr.getBottom())/2;
+            }
+        };
+        int count = r.length;
+        height = 1;
+        while (true) { 
+            int[] pageSizes = str.tile(r, o, count, 2, RtreeR2Page.card);
+            if (pageSizes.length == 1) { 
+                root = new RtreeR2Page(db, r, o, 0, count);
+                break;
+            }
+            Object[] pageRects = new Object[pageSizes.length];
+            Object[] pages = new Object[pageSizes.length];
+            for (int i = 0, offs = 0; i < pageSizes.length; offs += pageSizes[i++]) { 
+                RtreeR2Page pg = new RtreeR2Page(db, r, o, offs, pageSizes[i]);
+                pageRects[i] = pg.cover();
+                pages[i] = pg;
+            }
+            r = pageRects;
+            o = pages;
+            count = pages.length;
+            height += 1;
+        }
+        n = rects.length;
+        updateCounter += 1;
+        modify();
+    }
     
     public int size() { 
         return n;
@@ -50,10 +114,11 @@ public class RtreeR2<T> extends PersistentCollection<T> implements SpatialIndexR
         if (reinsertLevel < 0) { 
              throw new StorageError(StorageError.KEY_NOT_FOUND);
         }        
+        RStarInsertion rstar = ((StorageImpl)getStorage()).rstarTree ? new RStarInsertion(root, false) : null;
         for (int i = reinsertList.size(); --i >= 0;) {
             RtreeR2Page p = (RtreeR2Page)reinsertList.get(i);
             for (int j = 0, n = p.n; j < n; j++) { 
-                RtreeR2Page q = root.insert(getStorage(), p.b[j], p.branch.get(j), height - reinsertLevel); 
+                RtreeR2Page q = root.insert(getStorage(), p.b[j], p.branch.get(j), height - reinsertLevel, reinsertLevel, rstar); 
                 if (q != null) { 
                     // root splitted
                     root = new RtreeR2Page(getStorage(), root, q);
@@ -34,40 +34,76 @@ public class RtreeR2Page extends Persistent {
         }
     }
 
+    RtreeR2Page(Storage storage, Object[] rects, Object[] objs, int offs, int count) {
+        branch = storage.createLink(card);
+        branch.setSize(card);
+        b = new RectangleR2[card];
+        for (int i = 0; i < count; i++) {
+            setBranch(i, new RectangleR2((RectangleR2)rects[offs + i]), objs[offs + i]);
+        }
+        n = count;
+        for (int i = count; i < card; i++) {
+            b[i] = new RectangleR2();
+        }
+    }
+
     RtreeR2Page() {}
 
     RtreeR2Page insert(Storage storage, RectangleR2 r, Object obj, int level) {
+        return insert(storage, r, obj, level, 0, null);
+    }
+
+    /**
+     * Insert new entry
+     * @param height height above leaves of the page in which entry is inserted
+     * @param rstar state of R*-tree insertion or null for Guttman insertion
+     * @return new page if this page was split, null otherwise
+     */
+    RtreeR2Page insert(Storage storage, RectangleR2 r, Object obj, int level, int height, RStarInsertion rstar) {
         modify();
         if (--level != 0) {
             // not leaf page
             int i, mini = 0;
-            double minIncr = Double.MAX_VALUE;
-            double minArea = Double.MAX_VALUE;
-            for (i = 0; i < n; i++) {
-                double area = b[i].area();
-                double incr = RectangleR2.joinArea(b[i], r) - area;
-                if (incr < minIncr) {
-                    minIncr = incr;
-                    minArea = area;
-                    mini = i;
-                } else if (incr == minIncr && area < minArea) {
-                    minArea = area;
-                    mini = i;
+            if (rstar != null) {
+                double[][] coords = new double[n][];
+                for (i = 0; i < n; i++) {
+                    coords[i] = getCoords(b[i]);
+                }
+                mini = RStarInsertion.chooseSubtree(coords, n, getCoords(r), height + level == 1);
+            } else {
+                double minIncr = Double.MAX_VALUE;
+                double minArea = Double.MAX_VALUE;
+                for (i = 0; i < n; i++) {
+                    double area = b[i].area();
+                    double incr = RectangleR2.joinArea(b[i], r) - area;
+                    if (incr < minIncr) {
+                        minIncr = incr;
+                        minArea = area;
+                        mini = i;
+                    } else if (incr == minIncr && area < minArea) {
+                        minArea = area;
+                        mini = i;
+                    }
                 }
             }
             RtreeR2Page p = (RtreeR2Page)branch.get(mini);
-            RtreeR2Page q = p.insert(storage, r, obj, level);
+            RtreeR2Page q = p.insert(storage, r, obj, level, height, rstar);
             if (q == null) {
                 // child was not split
-                b[mini].join(r);
+                if (rstar != null) {
+                    // some entries of the child can be removed for reinsertion
+                    b[mini] = p.cover();
+                } else {
+                    b[mini].join(r);
+                }
                 return null;
             } else {
                 // child was split
                 setBranch(mini, p.cover(),  p);
-                return addBranch(storage, q.cover(), q);
+                return addBranch(storage, q.cover(), q, height + level, rstar);
             }
         } else {
-            return addBranch(storage, new RectangleR2(r), obj);
+            return addBranch(storage, new RectangleR2(r), obj, height, rstar);
         }
     }
 
@@ -141,13 +177,61 @@ public class RtreeR2Page extends Persistent {
         modify();
     }
 
-    final RtreeR2Page addBranch(Storage storage, RectangleR2 r, Object obj) {
+    final RtreeR2Page addBranch(Storage storage, RectangleR2 r, Object obj, int height, RStarInsertion rstar) {
         if (n < card) {
             setBranch(n++, r, obj);
             return null;
-        } else {
+        } else if (rstar == null) {
             return splitPage(storage, r, obj);
         }
+        RectangleR2[] rects = new RectangleR2[card+1];
+        Object[] objs = new Object[card+1];
+        double[][] coords = new double[card+1][];
+        for (int i = 0; i < card; i++) {
+            rects[i] = b[i];
+            objs[i] = branch.getRaw(i);
+            coords[i] = getCoords(b[i]);
+        }
+        rects[card] = r;
+        objs[card] = obj;
+        coords[card] = getCoords(r);
+        boolean[] moved = new boolean[card+1];
+        RtreeR2Page pg = null;
+        if (rstar.reinsert(this, height)) {
+            int[] selected = RStarInsertion.selectForReinsert(coords);
+            for (int i = 0; i < selected.length; i++) {
+                moved[selected[i]] = true;
+                rstar.add(rects[selected[i]], objs[selected[i]], height);
+            }
+        } else {
+            moved = RStarInsertion.split(coords);
+            for (int i = 0; i <= card; i++) {
+                if (moved[i]) {
+                    if (pg == null) {
+                        pg = new RtreeR2Page(storage, objs[i], rects[i]);
+                    } else {
+                        pg.setBranch(pg.n++, rects[i], objs[i]);
+                    }
+                }
+            }
+        }
+        n = 0;
+        for (int i = 0; i <= card; i++) {
+            if (!moved[i]) {
+                setBranch(n++, rects[i], objs[i]);
+            }
+        }
+        // truncate rest of link
+        branch.setSize(n);
+        branch.setSize(card);
+        for (int i = n; i < card; i++) {
+            b[i] = new RectangleR2();
+        }
+        return pg;
+    }
+
+    static double[] getCoords(RectangleR2 r) {
+        return new double[] { r.getLeft(), r.getTop(), r.getRight(), r.getBottom() };
     }
 
     final RtreeR2Page splitPage(Storage storage, RectangleR2 r, Object obj) {
@@ -19,6 +19,12 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
         if (root == null) { 
             root = new RtreeRnPage(db, obj, r);
             height = 1;
+        } else if (((StorageImpl)db).rstarTree) { 
+            RStarInsertion rstar = new RStarInsertion(root, true);
+            insert(db, r, obj, 0, rstar);
+            for (int i = 0; i < rstar.size(); i++) { 
+                insert(db, (RectangleRn)rstar.getRect(i), rstar.getObject(i), rstar.getHeight(i), rstar);
+            }
         } else { 
             RtreeRnPage p = root.insert(db, r, obj, height); 
             if (p != null) {
@@ -30,6 +36,65 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
         updateCounter += 1;
         modify();
     }
+
+    private void insert(Storage db, RectangleRn r, Object obj, int h, RStarInsertion rstar) { 
+        RtreeRnPage p = root.insert(db, r, obj, height - h, h, rstar); 
+        if (p != null) {
+            root = new RtreeRnPage(db, root, p);
+            height += 1;
+            rstar.root = root;
+        }
+    }
+
+    public void bulkLoad(RectangleRn[] rects, T[] objs) {
+        if (rects.length != objs.length) { 
+            throw new IllegalArgumentException("Number of rectangles doesn't match number of objects");
+        }
+        if (root != null) { 
+            for (int i = 0; i < rects.length; i++) { 
+                put(rects[i], objs[i]);
+            }
+            return;
+        }
+        if (rects.length == 0) { 
+            return;
+        }
+        Storage db = getStorage();
+        Object[] r = new Object[rects.length];
+        Object[] o = new Object[objs.length];
+        System.arraycopy(rects, 0, r, 0, r.length);
+        System.arraycopy(objs, 0, o, 0, o.length);
+        SortTileRecursive str = new SortTileRecursive() { 
+            double getCenter(Object rect, int dim) { 
+                RectangleRn rr = (RectangleRn)rect;
+                return (rr.getMinCoord(dim) + rr.getMaxCoord(dim))/2;
+            }
+        };
+        int nDims = rects[0].nDimensions();
+        int count = r.length;
+        height = 1;
+        while (true) { 
+            int[] pageSizes = str.tile(r, o, count, nDims, (Page.pageSize-ObjectHeader.sizeof-12)/(16*nDims+4));
+            if (pageSizes.length == 1) { 
+                root = new RtreeRnPage(db, r, o, 0, count);
+                break;
+            }
+            Object[] pageRects = new Object[pageSizes.length];
+            Object[] pages = new Object[pageSizes.length];
+            for (int i = 0, offs = 0; i < pageSizes.length; offs += pageSizes[i++]) { 
+                RtreeRnPage pg = new RtreeRnPage(db, r, o, offs, pageSizes[i]);
+                pageRects[i] = pg.cover();
+                pages[i] = pg;
+            }
+            r = pageRects;
+            o = pages;
+            count = pages.length;
+            height += 1;
+        }
+        n = rects.length;
+        updateCounter += 1;
+        modify();
+    }
     
     public int size() { 
         return n;
@@ -44,10 +109,11 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
         if (reinsertLevel < 0) { 
              throw new StorageError(StorageError.KEY_NOT_FOUND);
         }        
+        RStarInsertion rstar = ((StorageImpl)getStorage()).rstarTree ? new RStarInsertion(root, false) : null;
         for (int i = reinsertList.size(); --i >= 0;) {
             RtreeRnPage p = (RtreeRnPage)reinsertList.get(i);
             for (int j = 0, n = p.n; j < n; j++) { 
-                RtreeRnPage q = root.insert(getStorage(), p.b[j], p.branch.get(j), height - reinsertLevel); 
+                RtreeRnPage q = root.insert(getStorage(), p.b[j], p.branch.get(j), height - reinsertLevel, reinsertLevel, rstar); 
                 if (q != null) { 
                     // root splitted
                     root = new RtreeRnPage(getStorage(), root, q);
@@ -253,9 +319,8 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
         return new RtreeEntryIterator(r);
     }
 
-    static class Neighbor { 
+    static class Neighbor implements Comparable<Neighbor> { 
         Object   child;
-        Neighbor next;
         int      level;
         double   distance;
 
@@ -264,38 +329,38 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
             this.distance = distance;
             this.level = level;
         }
+
+        public int compareTo(Neighbor n) { 
+            return distance < n.distance ? -1 : distance == n.distance ? 0 : 1;
+        }
     }
 
+    /**
+     * Best-first traversal of the tree: pages and objects are kept in priority queue ordered by 
+     * distance from the center point to their wrapping rectangles, so only pages which are closer 
+     * than the returned object are visited.
+     */
     class NeighborIterator<E> extends IterableIterator<E> implements PersistentIterator 
     {
-        Neighbor list;
+        PriorityQueue<Neighbor> queue;
         int counter;
         PointRn center;
+        double maxDistance;
         Storage storage;
 
-        NeighborIterator(PointRn center) { 
+        NeighborIterator(PointRn center, double maxDistance) { 
             this.center = center;
+            this.maxDistance = maxDistance;
             counter = updateCounter;
+            queue = new PriorityQueue<Neighbor>();
             if (height == 0) { 
                 return;
             }
-            list = new Neighbor(root, root.cover().distance(center), height);
-            storage = getStorage();
-        }
-
-        void insert(Neighbor node) { 
-            Neighbor prev = null, next = list;
-            double distance = node.distance;
-            while (next != null && next.distance < distance) { 
-                prev = next;
-                next = prev.next;
-            }
-            node.next = next;
-            if (prev == null) { 
-                list = node;
-            } else { 
-                prev.next = node;
+            double distance = root.cover().distance(center);
+            if (distance <= maxDistance) { 
+                queue.add(new Neighbor(root, distance, height));
             }
+            storage = getStorage();
         }
 
         public boolean hasNext() { 
@@ -303,17 +368,20 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
                 throw new ConcurrentModificationException();
             }
             while (true) { 
-                Neighbor neighbor = list;
+                Neighbor neighbor = queue.peek();
                 if (neighbor == null) { 
                     return false;
                 }
                 if (neighbor.level == 0) { 
                     return true;
                 }
-                list = neighbor.next;
+                queue.poll();
                 RtreeRnPage pg = (RtreeRnPage)(neighbor.child instanceof RtreeRnPage ? neighbor.child : storage.getObjectByOID(storage.getOid(neighbor.child)));
                 for (int i = 0, n = pg.n; i < n; i++) { 
-                    insert(new Neighbor(pg.branch.get(i), pg.b[i].distance(center), neighbor.level-1));
+                    double distance = pg.b[i].distance(center);
+                    if (distance <= maxDistance) { 
+                        queue.add(new Neighbor(pg.branch.getRaw(i), distance, neighbor.level-1));
+                    }
                 }
             }
         }
@@ -322,8 +390,7 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
             if (!hasNext()) { 
                 throw new NoSuchElementException();
             }
-            Neighbor neighbor = list;
-            list = neighbor.next;
+            Neighbor neighbor = queue.poll();
             Assert.that(neighbor.level == 0);
             return (E)(neighbor.child instanceof PersistentStub ? storage.getObjectByOID(storage.getOid(neighbor.child)) : neighbor.child);
         }
@@ -332,8 +399,7 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
             if (!hasNext()) { 
                 return 0;
             }
-            Neighbor neighbor = list;
-            list = neighbor.next;
+            Neighbor neighbor = queue.poll();
             Assert.that(neighbor.level == 0);
             return storage.getOid(neighbor.child);
         }
@@ -344,7 +410,20 @@ public class RtreeRn<T> extends PersistentCollection<T> implements SpatialIndexR
     }
         
     public IterableIterator<T> neighborIterator(PointRn center) { 
-        return new NeighborIterator(center);
+        return new NeighborIterator<T>(center, Double.POSITIVE_INFINITY);
+    }
+
+    public IterableIterator<T> neighborIterator(PointRn center, double maxDistance) { 
+        return new NeighborIterator<T>(center, maxDistance);
+    }
+
+    public ArrayList<T> getNeighbors(PointRn center, int k) { 
+        ArrayList<T> list = new ArrayList<T>(k);
+        Iterator<T> i = neighborIterator(center);
+        while (list.size() < k && i.hasNext()) { 
+            list.add(i.next());
+        }
+        return list;
     }
 }
     
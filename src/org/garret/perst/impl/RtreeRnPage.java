@@ -59,40 +59,74 @@ public class RtreeRnPage extends Persistent implements SelfSerializable
         setBranch(1, p.cover(), p);
     }
 
+    RtreeRnPage(Storage storage, Object[] rects, Object[] objs, int offs, int count) {
+        card = (Page.pageSize-ObjectHeader.sizeof-12)/(16*((RectangleRn)rects[offs]).nDimensions()+4);
+        branch = storage.createLink(card);
+        branch.setSize(card);
+        b = new RectangleRn[card];
+        for (int i = 0; i < count; i++) {
+            setBranch(i, new RectangleRn((RectangleRn)rects[offs + i]), objs[offs + i]);
+        }
+        n = count;
+    }
+
     RtreeRnPage() {}
 
     RtreeRnPage insert(Storage storage, RectangleRn r, Object obj, int level) {
+        return insert(storage, r, obj, level, 0, null);
+    }
+
+    /**
+     * Insert new entry
+     * @param height height above leaves of the page in which entry is inserted
+     * @param rstar state of R*-tree insertion or null for Guttman insertion
+     * @return new page if this page was split, null otherwise
+     */
+    RtreeRnPage insert(Storage storage, RectangleRn r, Object obj, int level, int height, RStarInsertion rstar) {
         modify();
         if (--level != 0) {
             // not leaf page
             int i, mini = 0;
-            double minIncr = Double.MAX_VALUE;
-            double minArea = Double.MAX_VALUE;
-            for (i = 0; i < n; i++) {
-                double area = b[i].area();
-                double incr = RectangleRn.joinArea(b[i], r) - area;
-                if (incr < minIncr) {
-                    minIncr = incr;
-                    minArea = area;
-                    mini = i;
-                } else if (incr == minIncr && area < minArea) {
-                    minArea = area;
-                    mini = i;
+            if (rstar != null) {
+                double[][] coords = new double[n][];
+                for (i = 0; i < n; i++) {
+                    coords[i] = getCoords(b[i]);
+                }
+                mini = RStarInsertion.chooseSubtree(coords, n, getCoords(r), height + level == 1);
+            } else {
+                double minIncr = Double.MAX_VALUE;
+                double minArea = Double.MAX_VALUE;
+                for (i = 0; i < n; i++) {
+                    double area = b[i].area();
+                    double incr = RectangleRn.joinArea(b[i], r) - area;
+                    if (incr < minIncr) {
+                        minIncr = incr;
+                        minArea = area;
+                        mini = i;
+                    } else if (incr == minIncr && area < minArea) {
+                        minArea = area;
+                        mini = i;
+                    }
                 }
             }
             RtreeRnPage p = (RtreeRnPage)branch.get(mini);
-            RtreeRnPage q = p.insert(storage, r, obj, level);
+            RtreeRnPage q = p.insert(storage, r, obj, level, height, rstar);
             if (q == null) {
                 // child was not split
-                b[mini].join(r);
+                if (rstar != null) {
+                    // some entries of the child can be removed for reinsertion
+                    b[mini] = p.cover();
+                } else {
+                    b[mini].join(r);
+                }
                 return null;
             } else {
                 // child was split
                 setBranch(mini, p.cover(),  p);
-                return addBranch(storage, q.cover(), q);
+                return addBranch(storage, q.cover(), q, height + level, rstar);
             }
         } else {
-            return addBranch(storage, new RectangleRn(r), obj);
+            return addBranch(storage, new RectangleRn(r), obj, height, rstar);
         }
     }
 
@@ -166,13 +200,67 @@ public class RtreeRnPage extends Persistent implements SelfSerializable
         modify();
     }
 
-    final RtreeRnPage addBranch(Storage storage, RectangleRn r, Object obj) {
+    final RtreeRnPage addBranch(Storage storage, RectangleRn r, Object obj, int height, RStarInsertion rstar) {
         if (n < card) {
             setBranch(n++, r, obj);
             return null;
-        } else {
+        } else if (rstar == null) {
             return splitPage(storage, r, obj);
         }
+        RectangleRn[] rects = new RectangleRn[card+1];
+        Object[] objs = new Object[card+1];
+        double[][] coords = new double[card+1][];
+        for (int i = 0; i < card; i++) {
+            rects[i] = b[i];
+            objs[i] = branch.getRaw(i);
+            coords[i] = getCoords(b[i]);
+        }
+        rects[card] = r;
+        objs[card] = obj;
+        coords[card] = getCoords(r);
+        boolean[] moved = new boolean[card+1];
+        RtreeRnPage pg = null;
+        if (rstar.reinsert(this, height)) {
+            int[] selected = RStarInsertion.selectForReinsert(coords);
+            for (int i = 0; i < selected.length; i++) {
+                moved[selected[i]] = true;
+                rstar.add(rects[selected[i]], objs[selected[i]], height);
+            }
+        } else {
+            moved = RStarInsertion.split(coords);
+            for (int i = 0; i <= card; i++) {
+                if (moved[i]) {
+                    if (pg == null) {
+                        pg = new RtreeRnPage(storage, objs[i], rects[i]);
+                    } else {
+                        pg.setBranch(pg.n++, rects[i], objs[i]);
+                    }
+                }
+            }
+        }
+        n = 0;
+        for (int i = 0; i <= card; i++) {
+            if (!moved[i]) {
+                setBranch(n++, rects[i], objs[i]);
+            }
+        }
+        // truncate rest of link
+        branch.setSize(n);
+        branch.setSize(card);
+        for (int i = n; i < card; i++) {
+            b[i] = null;
+        }
+        return pg;
+    }
+
+    static double[] getCoords(RectangleRn r) {
+        int nDims = r.nDimensions();
+        double[] coords = new double[nDims*2];
+        for (int i = 0; i < nDims; i++) {
+            coords[i] = r.getMinCoord(i);
+            coords[nDims + i] = r.getMaxCoord(i);
+        }
+        return coords;
     }
 
     final RtreeRnPage splitPage(Storage storage, RectangleRn r, Object obj) {
@@ -0,0 +1,129 @@
+package org.garret.perst.impl;
+
+/**
+ * Sort-Tile-Recursive (STR) packing of R-Tree entries.
+ * Entries are sorted by centers of their rectangles in the first dimension and divided into slices,
+ * each slice is recursively tiled by the rest of dimensions, and entries sorted by the last dimension
+ * are packed into pages. Pages of the slice are filled evenly, so each page except the root
+ * is at least half full. Packing of the upper levels of the tree is done in the same way using
+ * wrapping rectangles of pages.
+ */
+abstract class SortTileRecursive {
+    /**
+     * Get center of the rectangle in the specified dimension
+     */
+    abstract double getCenter(Object rect, int dim);
+
+    /**
+     * Reorder entries so that each page is formed by consecutive entries
+     * @param rects rectangles of entries
+     * @param objs objects associated with the rectangles, reordered together with rectangles
+     * @param count number of entries
+     * @param nDims number of dimensions
+     * @param card maximal number of entries in the page
+     * @return number of entries in each page
+     */
+    int[] tile(Object[] rects, Object[] objs, int count, int nDims, int card) {
+        this.rects = rects;
+        this.objs = objs;
+        keys = new double[count];
+        pageSizes = new int[(count + card - 1)/card + 1];
+        nPages = 0;
+        tile(0, count, 0, nDims, card);
+        int[] result = new int[nPages];
+        System.arraycopy(pageSizes, 0, result, 0, nPages);
+        keys = null;
+        return result;
+    }
+
+    private void tile(int from, int till, int dim, int nDims, int card) {
+        int count = till - from;
+        int pages = (count + card - 1)/card;
+        sort(from, till, dim);
+        if (dim + 1 == nDims || pages <= 1) {
+            for (int i = 0; i < pages; i++) {
+                addPage(count/pages + (i < count % pages ? 1 : 0));
+            }
+        } else {
+            int nSlices = (int)Math.ceil(Math.pow(pages, 1.0/(nDims - dim)) - 1e-9);
+            for (int i = 0; i < nSlices; i++) {
+                tile(from + (int)((long)count*i/nSlices), from + (int)((long)count*(i+1)/nSlices), dim + 1, nDims, card);
+            }
+        }
+    }
+
+    private void addPage(int size) {
+        if (nPages == pageSizes.length) {
+            int[] newPageSizes = new int[nPages*2];
+            System.arraycopy(pageSizes, 0, newPageSizes, 0, nPages);
+            pageSizes = newPageSizes;
+        }
+        pageSizes[nPages++] = size;
+    }
+
+    private void sort(int from, int till, int dim) {
+        for (int i = from; i < till; i++) {
+            keys[i] = getCenter(rects[i], dim);
+        }
+        quickSort(from, till - 1);
+    }
+
+    private void quickSort(int l, int r) {
+        while (r - l > 16) {
+            int m = (l + r) >>> 1;
+            if (keys[m] < keys[l]) {
+                swap(m, l);
+            }
+            if (keys[r] < keys[l]) {
+                swap(r, l);
+            }
+            if (keys[r] < keys[m]) {
+                swap(r, m);
+            }
+            double pivot = keys[m];
+            int i = l, j = r;
+            do {
+                while (keys[i] < pivot) {
+                    i += 1;
+                }
+                while (keys[j] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            } while (i <= j);
+            // recursion for the smaller part to limit depth of stack
+            if (j - l < r - i) {
+                quickSort(l, j);
+                l = i;
+            } else {
+                quickSort(i, r);
+                r = j;
+            }
+        }
+        for (int i = l + 1; i <= r; i++) {
+            for (int j = i; j > l && keys[j] < keys[j-1]; j--) {
+                swap(j, j-1);
+            }
+        }
+    }
+
+    private void swap(int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        Object rect = rects[i];
+        rects[i] = rects[j];
+        rects[j] = rect;
+        Object obj = objs[i];
+        objs[i] = objs[j];
+        objs[j] = obj;
+    }
+
+    private Object[] rects;
+    private Object[] objs;
+    private double[] keys;
+    private int[]    pageSizes;
+    private int      nPages;
+}
@@ -5,6 +5,8 @@ import org.garret.perst.fulltext.*;
 import java.lang.reflect.*;
 import java.util.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 public class StorageImpl implements Storage {
     /**
@@ -131,6 +133,80 @@ public class StorageImpl implements Storage {
     }
 
 
+    /**
+     * Get position in the file of the content of byte array which is the only field of the object
+     */
+    final long getByteArrayPosition(int oid) {
+        long pos = getPos(oid);
+        if ((pos & (dbFreeHandleFlag|dbPageObjectFlag)) != 0) {
+            throw new StorageError(StorageError.DELETED_OBJECT);
+        }
+        return (pos & ~dbFlagsMask) + ObjectHeader.sizeof + 4;
+    }
+
+    /**
+     * Read data from the specified position through page pool without unpacking objects
+     */
+    final synchronized void readRaw(long pos, byte[] buf, int offs, int length) {
+        while (length > 0) {
+            int pageOffs = (int)pos & (Page.pageSize-1);
+            int n = Page.pageSize - pageOffs < length ? Page.pageSize - pageOffs : length;
+            Page pg = pool.getPage(pos - pageOffs);
+            System.arraycopy(pg.data, pageOffs, buf, offs, n);
+            pool.unfix(pg);
+            pos += n;
+            offs += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Send content of byte array which is the only field of the object to the channel. If storage file is OSFile,
+     * then dirty pages of the region are written to the file and data is transfered
+     * using <code>FileChannel.transferTo</code> without copying it through page pool.
+     * Storage is locked only while position of the data is determined, not during the transfer itself,
+     * so slow channel doesn't block other database operations.
+     * @param oid OID of the object
+     * @param offs offset in the array of the first transfered byte
+     * @param length number of transfered bytes
+     * @param channel destination channel
+     * @return number of transfered bytes (can be less than length for non-blocking channels)
+     */
+    final long transferRaw(int oid, long offs, long length, WritableByteChannel channel) throws IOException {
+        long total = 0;
+        long pos;
+        boolean direct = false;
+        synchronized (this) {
+            pos = getByteArrayPosition(oid) + offs;
+            if (pool.file instanceof OSFile) {
+                // pages fixed by other threads can not be written back: such region is copied through page pool
+                direct = pool.writeBack(pos, length);
+            }
+        }
+        if (direct) {
+            FileChannel fc = ((OSFile)pool.file).getChannel();
+            while (total < length) {
+                long n = fc.transferTo(pos + total, length - total, channel);
+                if (n <= 0) {
+                    break;
+                }
+                total += n;
+            }
+        } else {
+            byte[] buf = new byte[Page.pageSize];
+            while (total < length) {
+                int n = length - total < buf.length ? (int)(length - total) : buf.length;
+                readRaw(pos + total, buf, 0, n);
+                java.nio.ByteBuffer bb = java.nio.ByteBuffer.wrap(buf, 0, n);
+                while (bb.hasRemaining()) {
+                    channel.write(bb);
+                }
+                total += n;
+            }
+        }
+        return total;
+    }
+
     int allocatePage() {
         int oid = allocateId();
         setPos(oid, allocate(Page.pageSize, 0) | dbPageObjectFlag | dbModifiedFlag);
@@ -1771,6 +1847,26 @@ public class StorageImpl implements Storage {
         return new PersistentHashImpl<K,V>(this, pageSize, loadFactor);
     }
 
+    public synchronized <K,V> IPersistentHash<K, V> createHash(int pageSize, int loadFactor, double falsePositiveRate) {
+        if (!opened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        PersistentHashImpl<K,V> hash = new PersistentHashImpl<K,V>(this, pageSize, loadFactor);
+        hash.keyFilter = new BloomFilter(this, falsePositiveRate);
+        return hash;
+    }
+
+    public <K,V> IPersistentHash<K, V> createLinearHash(Class<?> keyType) {
+        return createLinearHash(keyType, 75);
+    }
+
+    public <K,V> IPersistentHash<K, V> createLinearHash(Class<?> keyType, int loadFactor) {
+        if (!opened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        return new LinearHashImpl<K,V>(this, keyType, loadFactor);
+    }
+
     public <K extends Comparable, V> IPersistentMap<K, V> createMap(Class keyType) {
         return createMap(keyType, 4);
     }
@@ -1820,6 +1916,15 @@ public class StorageImpl implements Storage {
         return index;
     }
 
+    public synchronized <T> BitmapIndex<T> createBitmapIndex(Class<?> type, String fieldName) {
+        if (!opened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        BitmapIndex<T> index = new BitmapIndexImpl<T>(this, type, fieldName);
+        index.assignOid(this, 0, false);
+        return index;
+    }
+
     public synchronized <T> Index<T> createIndex(Class keyType, boolean unique) {
         if (!opened) {
             throw new StorageError(StorageError.STORAGE_NOT_OPENED);
@@ -1926,6 +2031,19 @@ public class StorageImpl implements Storage {
         return index;
     }
 
+    public synchronized <T> FieldIndex<T> createFieldIndex(Class<?> type, String fieldName, boolean unique, boolean caseInsensitive, double falsePositiveRate)
+    {
+        if (!opened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        BtreeFieldIndex<T> index = caseInsensitive
+            ? new BtreeCaseInsensitiveFieldIndex<T>(type, fieldName, unique)
+            : new BtreeFieldIndex<T>(type, fieldName, unique);
+        index.unmatchedKeyFilter = new BloomFilter(this, falsePositiveRate);
+        index.assignOid(this, 0, false);
+        return index;
+    }
+
     public <T> FieldIndex<T> createFieldIndex(Class type, String[] fieldNames, boolean unique) {
         return this.<T>createFieldIndex(type, fieldNames, unique, false);
     }
@@ -1945,6 +2063,18 @@ public class StorageImpl implements Storage {
         return index;
     }
 
+    public synchronized <T> FieldIndex<T> createFieldIndex(Class<?> type, String[] fieldNames, boolean unique, boolean caseInsensitive, double falsePositiveRate) {
+        if (!opened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        BtreeMultiFieldIndex<T> index = caseInsensitive
+            ? new BtreeCaseInsensitiveMultiFieldIndex<T>(type, fieldNames, unique)
+            : new BtreeMultiFieldIndex<T>(type, fieldNames, unique);
+        index.unmatchedKeyFilter = new BloomFilter(this, falsePositiveRate);
+        index.assignOid(this, 0, false);
+        return index;
+    }
+
     public synchronized <T> Index<T> createRandomAccessIndex(Class keyType, boolean unique) {
         if (!opened) {
             throw new StorageError(StorageError.STORAGE_NOT_OPENED);
@@ -2028,10 +2158,18 @@ public class StorageImpl implements Storage {
         return new RandomAccessBlobImpl(this);
     }
 
+    public TransferableBlob createContiguousBlob(int extentSize) {
+        return new ContiguousBlobImpl(this, extentSize);
+    }
+
     public <T extends TimeSeries.Tick> TimeSeries<T> createTimeSeries(Class blockClass, long maxBlockTimeInterval) {
         return new TimeSeriesImpl<T>(this, blockClass, maxBlockTimeInterval);
     }
 
+    public <T extends TimeSeries.Tick> TimeSeries<T> createTimeSeries(Class<?> tickClass, int blockSize, long maxBlockTimeInterval) {
+        return new TimeSeriesImpl<T>(this, tickClass, blockSize, maxBlockTimeInterval);
+    }
+
     public <T> PatriciaTrie<T> createPatriciaTrie() {
         return new PTrie<T>();
     }
@@ -2068,6 +2206,24 @@ public class StorageImpl implements Storage {
         }
     }
 
+    /**
+     * Mark objects included in the bitmap of bitmap index
+     * @param obj packed bitmap
+     */
+    final void markBitmapMembers(byte[] obj) {
+        CompressedBitmap<Object> bitmap = new BitmapIndexImpl.MemberBitmap<Object>();
+        try {
+            bitmap.unpack(new ByteArrayObjectInputStream(obj, ObjectHeader.sizeof, bitmap, false, false));
+        } catch (IOException x) {
+            throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+        }
+        PersistentIterator iterator = (PersistentIterator)bitmap.iterator();
+        int oid;
+        while ((oid = iterator.nextOid()) != 0) {
+            markOid(oid);
+        }
+    }
+
     final Page getGCPage(int oid) {
         return pool.getPage(getGCPos(oid) & ~dbPageFlagsMask);
     }
@@ -2110,6 +2266,19 @@ public class StorageImpl implements Storage {
                                         Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
                                         btree.assignOid(this, 0, false);
                                         btree.markTree();
+                                        if (desc.hasReferences) { // index with Bloom filter
+                                            pool.unfix(pg);
+                                            markObject(pool.get(pos), ObjectHeader.sizeof, desc);
+                                            continue;
+                                        }
+                                    } else if (LinearHashImpl.class.isAssignableFrom(desc.cls)) {
+                                        LinearHashImpl<?,?> hash = new LinearHashImpl<Object,Object>(pg.data, ObjectHeader.sizeof + offs);
+                                        hash.assignOid(this, 0, false);
+                                        hash.markHash();
+                                    } else if (desc.cls == BitmapIndexImpl.MemberBitmap.class) {
+                                        pool.unfix(pg);
+                                        markBitmapMembers(pool.get(pos));
+                                        continue;
                                     } else if (desc.hasReferences) {
                                         pool.unfix(pg); // avoid recursiving pinning of large number of pages
                                         markObject(pool.get(pos), ObjectHeader.sizeof, desc);
@@ -2147,6 +2316,11 @@ public class StorageImpl implements Storage {
                                 pool.unfix(pg);
                                 btree.assignOid(this, i, false);
                                 btree.deallocate();
+                            } else if (LinearHashImpl.class.isAssignableFrom(desc.cls)) {
+                                LinearHashImpl<?,?> hash = new LinearHashImpl<Object,Object>(pg.data, ObjectHeader.sizeof + offs);
+                                pool.unfix(pg);
+                                hash.assignOid(this, i, false);
+                                hash.deallocate();
                             } else {
                                 int size = ObjectHeader.getSize(pg.data, offs);
                                 pool.unfix(pg);
@@ -2291,6 +2465,9 @@ public class StorageImpl implements Storage {
                                             Btree btree = new Btree(pg.data, ObjectHeader.sizeof + offs);
                                             btree.assignOid(this, 0, false);
                                             int nPages = btree.markTree();
+                                            if (desc.hasReferences) { // index with Bloom filter
+                                                markObject(pool.get(pos), ObjectHeader.sizeof, desc);
+                                            }
                                             if (FieldIndex.class.isAssignableFrom(desc.cls)) {
                                                 fieldIndexUsage.nInstances += 1;
                                                 fieldIndexUsage.totalSize += (long)nPages*Page.pageSize + objSize;
@@ -2300,6 +2477,13 @@ public class StorageImpl implements Storage {
                                                 indexUsage.totalSize += (long)nPages*Page.pageSize + objSize;
                                                 indexUsage.allocatedSize += (long)nPages*Page.pageSize + alignedSize;
                                             }
+                                        } else if (LinearHashImpl.class.isAssignableFrom(desc.cls)) {
+                                            LinearHashImpl<?,?> hash = new LinearHashImpl<Object,Object>(pg.data, ObjectHeader.sizeof + offs);
+                                            hash.assignOid(this, 0, false);
+                                            int nPages = hash.markHash();
+                                            indexUsage.nInstances += 1;
+                                            indexUsage.totalSize += (long)nPages*Page.pageSize + objSize;
+                                            indexUsage.allocatedSize += (long)nPages*Page.pageSize + alignedSize;
                                         } else {
                                             MemoryUsage usage = (MemoryUsage)map.get(desc.cls);
                                             if (usage == null) {
@@ -2310,7 +2494,9 @@ public class StorageImpl implements Storage {
                                             usage.totalSize += objSize;
                                             usage.allocatedSize += alignedSize;
 
-                                            if (desc.hasReferences) {
+                                            if (desc.cls == BitmapIndexImpl.MemberBitmap.class) {
+                                                markBitmapMembers(pool.get(pos));
+                                            } else if (desc.hasReferences) {
                                                 markObject(pool.get(pos), ObjectHeader.sizeof, desc);
                                             }
                                         }
@@ -2929,13 +3115,40 @@ public class StorageImpl implements Storage {
         }
     }
 
-    public synchronized void importXML(java.io.Reader reader) throws XMLImportException
+    public void importXML(java.io.Reader reader) throws XMLImportException
+    {
+        // importer may commit transaction, so lock GC monitor first as commit does
+        synchronized (backgroundGcMonitor) {
+            synchronized (this) {
+                if (!opened) {
+                    throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+                }
+                XMLImporter xmlImporter = new XMLImporter(this, reader);
+                xmlImporter.importDatabase();
+            }
+        }
+    }
+
+    public synchronized void exportBinary(java.io.OutputStream out, boolean compress) throws java.io.IOException
     {
         if (!opened) {
             throw new StorageError(StorageError.STORAGE_NOT_OPENED);
         }
-        XMLImporter xmlImporter = new XMLImporter(this, reader);
-        xmlImporter.importDatabase();
+        objectCache.flush();
+        int rootOid = header.root[1-currIndex].rootObject;
+        if (rootOid != 0) {
+            BinaryExporter binaryExporter = new BinaryExporter(this, out, compress);
+            binaryExporter.exportDatabase(rootOid);
+        }
+    }
+
+    public synchronized void importBinary(java.io.InputStream in) throws java.io.IOException
+    {
+        if (!opened) {
+            throw new StorageError(StorageError.STORAGE_NOT_OPENED);
+        }
+        BinaryImporter binaryImporter = new BinaryImporter(this, in);
+        binaryImporter.importDatabase();
     }
 
     private boolean getBooleanValue(Object value) {
@@ -3019,6 +3232,24 @@ public class StorageImpl implements Storage {
         if ((value = props.getProperty("perst.replication.ack")) != null) {
             replicationAck = getBooleanValue(value);
         }
+        if ((value = props.getProperty("perst.replication.batch")) != null) {
+            replicationBatch = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.replication.compression")) != null) {
+            replicationCompression = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.replication.delta")) != null) {
+            replicationDelta = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.replication.nio")) != null) {
+            replicationNio = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.replication.queue.size")) != null) {
+            replicationQueueSize = getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.replication.overflow")) != null) {
+            replicationOverflowPolicy = NioReplicationMasterFile.getOverflowPolicy(value);
+        }
         if ((value = props.getProperty("perst.concurrent.iterator")) != null) {
             concurrentIterator = getBooleanValue(value);
         }
@@ -3043,6 +3274,18 @@ public class StorageImpl implements Storage {
         if ((value = props.getProperty("perst.xml.reuse.oid")) != null) {
             xmlImportReuseOid = getBooleanValue(value);
         }
+        if ((value = props.getProperty("perst.xml.export.threads")) != null) {
+            xmlExportThreads = (int)getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.xml.import.pipeline")) != null) {
+            xmlImportPipeline = getBooleanValue(value);
+        }
+        if ((value = props.getProperty("perst.xml.import.commit.batch")) != null) {
+            xmlImportCommitBatch = getIntegerValue(value);
+        }
+        if ((value = props.getProperty("perst.rstar.tree")) != null) {
+            rstarTree = getBooleanValue(value);
+        }
         if ((value = props.getProperty("perst.serialize.system.collections")) != null) {
             serializeSystemCollections = getBooleanValue(value);
         }
@@ -3095,6 +3338,18 @@ public class StorageImpl implements Storage {
             lockFile = getBooleanValue(value);
         } else if (name.equals("perst.replication.ack")) {
             replicationAck = getBooleanValue(value);
+        } else if (name.equals("perst.replication.batch")) {
+            replicationBatch = getBooleanValue(value);
+        } else if (name.equals("perst.replication.compression")) {
+            replicationCompression = getBooleanValue(value);
+        } else if (name.equals("perst.replication.delta")) {
+            replicationDelta = getBooleanValue(value);
+        } else if (name.equals("perst.replication.nio")) {
+            replicationNio = getBooleanValue(value);
+        } else if (name.equals("perst.replication.queue.size")) {
+            replicationQueueSize = getIntegerValue(value);
+        } else if (name.equals("perst.replication.overflow")) {
+            replicationOverflowPolicy = NioReplicationMasterFile.getOverflowPolicy(value.toString());
         } else if (name.equals("perst.concurrent.iterator")) {
             concurrentIterator = getBooleanValue(value);
         } else if (name.equals("perst.slave.connection.timeout")) {
@@ -3111,6 +3366,14 @@ public class StorageImpl implements Storage {
             reuseOid = getBooleanValue(value);
         } else if (name.equals("perst.xml.reuse.oid")) {
             xmlImportReuseOid = getBooleanValue(value);
+        } else if (name.equals("perst.xml.export.threads")) {
+            xmlExportThreads = (int)getIntegerValue(value);
+        } else if (name.equals("perst.xml.import.pipeline")) {
+            xmlImportPipeline = getBooleanValue(value);
+        } else if (name.equals("perst.xml.import.commit.batch")) {
+            xmlImportCommitBatch = getIntegerValue(value);
+        } else if (name.equals("perst.rstar.tree")) {
+            rstarTree = getBooleanValue(value);
         } else if (name.equals("perst.compatibility.mode")) {
             compatibilityMode = (int)getIntegerValue(value);
         } else if (name.equals("perst.ignore.missed.classes")) {
@@ -5304,6 +5567,10 @@ public class StorageImpl implements Storage {
     protected boolean reuseOid = true;
     protected boolean ignoreMissedClasses = false;
     protected boolean xmlImportReuseOid = false;
+    protected int     xmlExportThreads = 1;
+    protected boolean xmlImportPipeline = false;
+    protected long    xmlImportCommitBatch = 0;
+    protected boolean rstarTree = false;
     protected long    pagePoolLruLimit = dbDefaultPagePoolLruLimit;
     protected int     compatibilityMode = 0;
     protected boolean serializeSystemCollections = true;
@@ -5316,6 +5583,12 @@ public class StorageImpl implements Storage {
 
     SqlOptimizerParameters sqlOptimizerParameters = new SqlOptimizerParameters();
     boolean replicationAck = false;
+    boolean replicationBatch = false;
+    boolean replicationCompression = false;
+    boolean replicationDelta = false;
+    boolean replicationNio = false;
+    long    replicationQueueSize = 16*1024*1024;
+    int     replicationOverflowPolicy = NioReplicationMasterFile.OVERFLOW_BLOCK;
     boolean concurrentIterator = false;
     int     slaveConnectionTimeout = 60; // seconds
 
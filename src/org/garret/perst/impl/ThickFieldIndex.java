@@ -58,7 +58,7 @@ class ThickFieldIndex<T> extends ThickIndex<T> implements FieldIndex<T>
         return key;
     }  
 
-    private Key extractKey(Object obj) { 
+    final Key extractKey(Object obj) { 
         try { 
             Field f = fld;
             Key key = null;
@@ -122,7 +122,7 @@ class ThickFieldIndex<T> extends ThickIndex<T> implements FieldIndex<T>
 
     public boolean put(T obj) { 
         Key key = extractKey(obj);
-        return key != null && super.put(key, obj);
+        return key != null && put(key, obj);
     }
 
     public T set(T obj) {
@@ -130,7 +130,7 @@ class ThickFieldIndex<T> extends ThickIndex<T> implements FieldIndex<T>
         if (key == null) {
             throw new StorageError(StorageError.KEY_IS_NULL);
         }
-        return super.set(key, obj);
+        return set(key, obj);
     }
 
     public boolean addAll(Collection<? extends T> c) {
@@ -153,7 +153,7 @@ class ThickFieldIndex<T> extends ThickIndex<T> implements FieldIndex<T>
 
     public boolean remove(Object obj) {
         Key key = extractKey(obj);
-        return key != null && super.removeIfExists(key, (T)obj);
+        return key != null && removeIfExists(key, (T)obj);
     }
 
     public boolean containsObject(T obj) {
@@ -193,9 +193,9 @@ class ThickFieldIndex<T> extends ThickIndex<T> implements FieldIndex<T>
     }
 
     protected Object[] extend(Object[] s) { 
-        ArrayList list = new ArrayList();
+        ArrayList<Object> list = new ArrayList<Object>();
         for (int i = 0; i < s.length; i++) { 
-            list.addAll((Collection)s[i]);
+            addMembers(list, s[i]);
         }
         return list.toArray((T[])Array.newInstance(cls, list.size()));        
     }
@@ -56,20 +56,31 @@ class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
     private ArrayList<T> extendList(ArrayList s) { 
         ArrayList<T> list = new ArrayList<T>();
         for (int i = 0, n = s.size(); i < n; i++) { 
-            list.addAll((Collection<T>)s.get(i));
+            addMembers(list, s.get(i));
         }
         return list;
     }
 
 
     protected Object[] extend(Object[] s) { 
-        ArrayList list = new ArrayList();
+        ArrayList<Object> list = new ArrayList<Object>();
         for (int i = 0; i < s.length; i++) { 
-            list.addAll((Collection)s[i]);
+            addMembers(list, s[i]);
         }
         return list.toArray();
     }
 
+    @SuppressWarnings("unchecked") // members of the index have its element type
+    static <E> void addMembers(ArrayList<E> list, Object s) { 
+        if (s instanceof Collection) { 
+            list.addAll((Collection<E>)s);
+        } else { 
+            for (Object obj : (Iterable<?>)s) { 
+                list.add((E)obj);
+            }
+        }
+    }
+
     public T get(String key) {
         return get(new Key(key));
     }
@@ -110,7 +121,7 @@ class ThickIndex<T> extends PersistentCollection<T> implements Index<T> {
     public <E> E[] toArray(E[] arr) { 
         ArrayList<E> list = new ArrayList<E>();
         for (Object c : index) { 
-            list.addAll((Collection<E>)c);
+            addMembers(list, c);
         }
         return list.toArray(arr);
     }
@@ -27,9 +27,325 @@ public class TimeSeriesImpl<T extends TimeSeries.Tick> extends PersistentCollect
         } else { 
             addNewBlock(tick, reverse);
         }
+        if (summaries != null) { 
+            addToSummaries(tick);
+        }
         return true;
     }
 
+    /**
+     * Summary of ticks belonging to the time interval. Level 0 summary covers interval of
+     * maxBlockTimeInterval milliseconds, interval of summary of each next level is SUMMARY_FANOUT times larger.
+     */
+    static class SummaryRecord extends Persistent { 
+        private static final long serialVersionUID = 1L;
+
+        long     count;
+        double[] min;
+        double[] max;
+        double[] sum;
+
+        SummaryRecord(int nFields) { 
+            min = new double[nFields];
+            max = new double[nFields];
+            sum = new double[nFields];
+        }
+
+        SummaryRecord() {}
+    }
+
+    static final int SUMMARY_LEVELS = 6;
+    static final int SUMMARY_FANOUT = 16;
+
+    static long bucketStart(long time, long size) { 
+        long q = time / size;
+        if (time < 0 && q*size != time) { 
+            q -= 1;
+        }
+        return q*size;
+    }
+
+    private long bucketSize(int level) { 
+        long size = maxBlockTimeInterval;
+        while (--level >= 0) { 
+            size *= SUMMARY_FANOUT;
+        }
+        return size;
+    }
+
+    private int[] getSummaryColumns() { 
+        if (summaryColumns == null) { 
+            ColumnarTimeSeriesBlock.Layout layout = getLayout();
+            int[] columns = new int[summaryFields.length];
+            for (int i = 0; i < columns.length; i++) { 
+                columns[i] = layout.getColumn(summaryFields[i]);
+            }
+            summaryColumns = columns;
+        }
+        return summaryColumns;
+    }
+
+    private synchronized void addToSummaries(Tick tick) { 
+        ColumnarTimeSeriesBlock.Layout layout = getLayout();
+        int[] columns = getSummaryColumns();
+        long time = tick.getTime();
+        double[] values = new double[columns.length];
+        try { 
+            for (int i = 0; i < columns.length; i++) { 
+                values[i] = ColumnarTimeSeriesBlock.Layout.toDouble(layout.types[columns[i]], layout.getLong(tick, columns[i]));
+            }
+        } catch (IllegalAccessException x) { 
+            throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+        }
+        for (int level = 0; level < summaries.length; level++) { 
+            long start = bucketStart(time, bucketSize(level));
+            SummaryRecord rec = summaries[level].get(new Key(start));
+            if (rec == null) { 
+                rec = new SummaryRecord(columns.length);
+                rec.count = 1;
+                for (int i = 0; i < columns.length; i++) { 
+                    rec.min[i] = rec.max[i] = rec.sum[i] = values[i];
+                }
+                summaries[level].put(new Key(start), rec);
+            } else { 
+                rec.count += 1;
+                for (int i = 0; i < columns.length; i++) { 
+                    if (values[i] < rec.min[i]) { 
+                        rec.min[i] = values[i];
+                    }
+                    if (values[i] > rec.max[i]) { 
+                        rec.max[i] = values[i];
+                    }
+                    rec.sum[i] += values[i];
+                }
+                rec.modify();
+            }
+        }
+    }
+
+    private static void merge(Summary dst, long count, double[] min, double[] max, double[] sum) { 
+        if (count == 0) { 
+            return;
+        }
+        for (int i = 0; i < dst.sum.length; i++) { 
+            if (dst.count == 0 || min[i] < dst.min[i]) { 
+                dst.min[i] = min[i];
+            }
+            if (dst.count == 0 || max[i] > dst.max[i]) { 
+                dst.max[i] = max[i];
+            }
+            dst.sum[i] += sum[i];
+        }
+        dst.count += count;
+    }
+
+    /**
+     * Recalculate summaries for the interval [from, till] after removal of ticks
+     */
+    private synchronized void updateSummaries(long from, long till) { 
+        int nFields = summaryFields.length;
+        for (int level = 0; level < summaries.length; level++) { 
+            long size = bucketSize(level);
+            long first = bucketStart(from, size);
+            long last = bucketStart(till, size);
+            Index<SummaryRecord> index = summaries[level];
+            if (last - first > size) { 
+                ArrayList<Map.Entry<Object,SummaryRecord>> inner = new ArrayList<Map.Entry<Object,SummaryRecord>>();
+                Iterator<Map.Entry<Object,SummaryRecord>> iterator = index.entryIterator(new Key(first + size), new Key(last - size), Index.ASCENT_ORDER);
+                while (iterator.hasNext()) { 
+                    inner.add(iterator.next());
+                }
+                for (int i = 0; i < inner.size(); i++) { 
+                    Map.Entry<Object,SummaryRecord> e = inner.get(i);
+                    index.remove(new Key(((Long)e.getKey()).longValue()));
+                    e.getValue().deallocate();
+                }
+            }
+            long[] edges = first == last ? new long[]{first} : new long[]{first, last};
+            for (int j = 0; j < edges.length; j++) { 
+                long start = edges[j];
+                Summary s = new Summary(nFields);
+                if (level == 0) { 
+                    aggregateTicks(start, start + size - 1, s);
+                } else { 
+                    aggregateSummaries(level - 1, start, start + size - 1, s);
+                }
+                SummaryRecord rec = index.get(new Key(start));
+                if (s.count == 0) { 
+                    if (rec != null) { 
+                        index.remove(new Key(start), rec);
+                        rec.deallocate();
+                    }
+                } else { 
+                    boolean isNew = rec == null;
+                    if (isNew) { 
+                        rec = new SummaryRecord();
+                    }
+                    rec.count = s.count;
+                    rec.min = s.min;
+                    rec.max = s.max;
+                    rec.sum = s.sum;
+                    if (isNew) { 
+                        index.put(new Key(start), rec);
+                    } else { 
+                        rec.modify();
+                    }
+                }
+            }
+        }
+    }
+
+    private void aggregateTicks(long from, long till, Summary result) { 
+        if (index.size() == 0) { 
+            return;
+        }
+        String[] fields = summaryFields;
+        Iterator<Columns> iterator = new TimeSeriesColumnIterator(from, till, fields);
+        Summary s = new Summary(fields.length);
+        while (iterator.hasNext()) { 
+            Columns c = iterator.next();
+            for (int j = 0; j < c.size; j++) { 
+                for (int i = 0; i < fields.length; i++) { 
+                    double v = c.values[i][j];
+                    if (s.count == 0 || v < s.min[i]) { 
+                        s.min[i] = v;
+                    } 
+                    if (s.count == 0 || v > s.max[i]) { 
+                        s.max[i] = v;
+                    } 
+                    s.sum[i] += v;
+                }
+                s.count += 1;
+            }
+        }
+        merge(result, s.count, s.min, s.max, s.sum);
+    }
+
+    private void aggregateSummaries(int level, long from, long till, Summary result) { 
+        Iterator<SummaryRecord> iterator = summaries[level].iterator(new Key(from), new Key(till), Index.ASCENT_ORDER);
+        while (iterator.hasNext()) { 
+            SummaryRecord rec = iterator.next();
+            merge(result, rec.count, rec.min, rec.max, rec.sum);
+        }
+    }
+
+    /**
+     * Aggregate ticks in [from, till] interval using summaries of the largest intervals 
+     * which are completely inside [from, till], ticks are accessed only at the edges of the interval
+     */
+    private void aggregate(long from, long till, int level, Summary result) { 
+        if (from > till) { 
+            return;
+        }
+        if (level < 0) { 
+            aggregateTicks(from, till, result);
+            return;
+        }
+        long size = bucketSize(level);
+        long first = bucketStart(from, size);
+        if (first < from) { 
+            first += size;
+        }
+        long end = bucketStart(till, size);
+        if (end + size - 1 == till) { 
+            end += size;
+        }
+        if (first < end) { 
+            aggregateSummaries(level, first, end - 1, result);
+            aggregate(from, first - 1, level - 1, result);
+            aggregate(end, till, level - 1, result);
+        } else { 
+            aggregate(from, till, level - 1, result);
+        }
+    }
+
+    public synchronized void setSummaryFields(String... fields) { 
+        if (summaries != null) { 
+            for (int i = 0; i < summaries.length; i++) { 
+                Iterator<SummaryRecord> iterator = summaries[i].iterator();
+                while (iterator.hasNext()) { 
+                    iterator.next().deallocate();
+                }
+                summaries[i].deallocate();
+            }
+            summaries = null;
+        }
+        summaryFields = null;
+        summaryColumns = null;
+        if (fields != null && fields.length != 0) { 
+            Storage storage = getStorage();
+            int nLevels = 1;
+            // avoid overflow of interval size
+            for (long size = maxBlockTimeInterval; nLevels < SUMMARY_LEVELS && size <= Long.MAX_VALUE/SUMMARY_FANOUT/2; size *= SUMMARY_FANOUT) { 
+                nLevels += 1;
+            }
+            summaryFields = fields;
+            @SuppressWarnings("unchecked")
+            Index<SummaryRecord>[] levels = (Index<SummaryRecord>[])new Index<?>[nLevels];
+            for (int i = 0; i < nLevels; i++) { 
+                levels[i] = storage.<SummaryRecord>createIndex(long.class, true);
+            }
+            summaries = levels;
+            if (index.size() != 0) { 
+                Iterator<T> iterator = iterator();
+                while (iterator.hasNext()) { 
+                    addToSummaries(iterator.next());
+                }
+            }
+        }
+        modify();
+    }
+
+    public String[] getSummaryFields() { 
+        return summaryFields;
+    }
+
+    public synchronized Summary getSummary(Date from, Date till) { 
+        if (summaries == null) { 
+            throw new StorageError(StorageError.INVALID_OPERATION, "Time series summaries are not maintained");
+        }
+        long low = from == null ? 0 : from.getTime();
+        long high = till == null ? Long.MAX_VALUE : till.getTime();
+        Summary result = new Summary(summaryFields.length);
+        if (from == null || till == null) { 
+            Date first = getFirstTime();
+            if (first == null) { 
+                return result;
+            }
+            if (from == null) { 
+                low = first.getTime();
+            }
+            if (till == null) { 
+                high = getLastTime().getTime();
+            }
+        }
+        aggregate(low, high, summaries.length-1, result);
+        return result;
+    }
+
+    public synchronized Summary[] getSummaries(Date from, Date till, long interval) { 
+        if (interval <= 0) { 
+            throw new IllegalArgumentException("Interval should be positive");
+        }
+        long low = from.getTime();
+        long high = till.getTime();
+        if (high < low) { 
+            throw new IllegalArgumentException("End of interval precedes its beginning");
+        }
+        // difference is negative in case of overflow
+        long n = high - low < 0 ? Long.MAX_VALUE : (high - low) / interval + 1;
+        if (n > Integer.MAX_VALUE) { 
+            throw new IllegalArgumentException("Too many intervals");
+        }
+        Summary[] result = new Summary[(int)n];
+        for (int i = 0; i < result.length; i++) { 
+            long start = low + i*interval;
+            long end = high - start < interval ? high : start + interval - 1;
+            result[i] = getSummary(new Date(start), new Date(end));
+        }
+        return result;
+    }
+
     class TimeSeriesIterator extends IterableIterator<T> { 
         TimeSeriesIterator(long from, long till) { 
             pos = -1;
@@ -157,6 +473,138 @@ public class TimeSeriesImpl<T extends TimeSeries.Tick> extends PersistentCollect
         private long     from;
     }
                             
+    class TimeSeriesColumnIterator extends IterableIterator<Columns> { 
+        TimeSeriesColumnIterator(long from, long till, String[] fields) { 
+            this.from = from;
+            this.till = till;
+            blockIterator = index.iterator(new Key(from - maxBlockTimeInterval), new Key(till), Index.ASCENT_ORDER);
+            columns = new int[fields.length];
+            ColumnarTimeSeriesBlock.Layout layout = getLayout();
+            if (layout == null) { 
+                return; // empty time series
+            }
+            for (int i = 0; i < fields.length; i++) {
+                columns[i] = layout.getColumn(fields[i]);
+            }
+            moveNext();
+        }
+
+        private void moveNext() { 
+            next = null;
+            while (blockIterator.hasNext()) { 
+                Block block = (Block)blockIterator.next();
+                int n = block.used;
+                long[] times = new long[n];
+                if (block instanceof ColumnarTimeSeriesBlock) { 
+                    ((ColumnarTimeSeriesBlock)block).getTimes(times);
+                } else { 
+                    Tick[] e = block.getTicks();
+                    for (int i = 0; i < n; i++) { 
+                        times[i] = e[i].getTime();
+                    }
+                }
+                int l = 0;
+                while (l < n && times[l] < from) { 
+                    l += 1;
+                }
+                int r = l;
+                while (r < n && times[r] <= till) { 
+                    r += 1;
+                }
+                if (l < n && r == l) { 
+                    return; // end of interval is reached
+                }
+                if (l == r) { 
+                    continue;
+                }
+                Columns c = new Columns();
+                c.size = r - l;
+                if (l != 0 || r != n) { 
+                    long[] slice = new long[r - l];
+                    System.arraycopy(times, l, slice, 0, r - l);
+                    times = slice;
+                }
+                c.times = times;
+                c.values = new double[columns.length][];
+                double[] values = new double[n];
+                for (int j = 0; j < columns.length; j++) { 
+                    if (block instanceof ColumnarTimeSeriesBlock) { 
+                        ((ColumnarTimeSeriesBlock)block).getValues(columns[j], values);
+                    } else { 
+                        getValues(block, columns[j], values);
+                    }
+                    double[] slice = new double[r - l];
+                    System.arraycopy(values, l, slice, 0, r - l);
+                    c.values[j] = slice;
+                }
+                next = c;
+                return;
+            } 
+        }
+
+        public boolean hasNext() { 
+            return next != null;
+        }
+
+        public Columns next() { 
+            if (next == null) { 
+                 throw new NoSuchElementException();
+            }
+            Columns curr = next;
+            moveNext();
+            return curr;
+        }
+
+        public void remove() { 
+            throw new UnsupportedOperationException();
+        }
+
+        private Iterator<?> blockIterator;
+        private Columns  next;
+        private int[]    columns;
+        private long     from;
+        private long     till;
+    }
+
+    private void getValues(Block block, int column, double[] values) { 
+        ColumnarTimeSeriesBlock.Layout layout = getLayout();
+        int type = layout.types[column];
+        Tick[] e = block.getTicks();
+        try { 
+            for (int i = 0, n = block.used; i < n; i++) { 
+                values[i] = ColumnarTimeSeriesBlock.Layout.toDouble(type, layout.getLong(e[i], column));
+            }
+        } catch (IllegalAccessException x) { 
+            throw new StorageError(StorageError.ACCESS_VIOLATION, x);
+        }
+    }
+
+    public IterableIterator<Columns> columnIterator(Date from, Date till, String... fields) { 
+        long low = from == null ? 0 : from.getTime();
+        long high = till == null ? Long.MAX_VALUE : till.getTime();
+        return new TimeSeriesColumnIterator(low, high, fields);
+    }
+
+    /**
+     * Get description of tick fields. For time series with user defined blocks 
+     * tick class is determined by the class of ticks stored in the first block.
+     * @return layout of ticks or null if time series with user defined blocks is empty
+     */
+    synchronized ColumnarTimeSeriesBlock.Layout getLayout() { 
+        if (layout == null) { 
+            Class<?> cls = tickClass;
+            if (cls == null) { 
+                Iterator<?> blockIterator = index.iterator();
+                if (!blockIterator.hasNext()) { 
+                    return null;
+                }
+                cls = ((Block)blockIterator.next()).getTicks()[0].getClass();
+            }
+            layout = new ColumnarTimeSeriesBlock.Layout(cls, tickClass != null);
+        }
+        return layout;
+    }
+
     public Iterator<T> iterator() { 
         return iterator(null, null, true);
     }
@@ -280,16 +728,23 @@ public class TimeSeriesImpl<T extends TimeSeries.Tick> extends PersistentCollect
                 block.modify();
             }
         }
+        if (summaries != null && nRemoved != 0) { 
+            updateSummaries(low, high);
+        }
         return nRemoved;
     }
 
     private void addNewBlock(Tick t, boolean reverse)
     {
         Block block;
-        try { 
-            block = (Block)blockClass.newInstance();             
-        } catch (Exception x) { 
-            throw new StorageError(StorageError.CONSTRUCTOR_FAILURE, blockClass, x);
+        if (tickClass != null) { 
+            block = new ColumnarTimeSeriesBlock(this);
+        } else { 
+            try { 
+                block = (Block)blockClass.newInstance();             
+            } catch (Exception x) { 
+                throw new StorageError(StorageError.CONSTRUCTOR_FAILURE, blockClass, x);
+            }
         }
         block.timestamp = t.getTime() - (reverse ? maxBlockTimeInterval : 0);
         block.used = 1;
@@ -346,16 +801,28 @@ public class TimeSeriesImpl<T extends TimeSeries.Tick> extends PersistentCollect
     }
 
     TimeSeriesImpl(Storage storage, Class blockClass, long maxBlockTimeInterval) {
+        super(storage);
         this.blockClass = blockClass;
         this.maxBlockTimeInterval = maxBlockTimeInterval;
         blockClassName = ClassDescriptor.getClassName(blockClass);
         index = storage.createIndex(long.class, false);
     }
 
+    TimeSeriesImpl(Storage storage, Class<?> tickClass, int blockSize, long maxBlockTimeInterval) {
+        this(storage, ColumnarTimeSeriesBlock.class, maxBlockTimeInterval);
+        this.tickClass = tickClass;
+        this.blockSize = blockSize;
+        tickClassName = ClassDescriptor.getClassName(tickClass);
+        layout = new ColumnarTimeSeriesBlock.Layout(tickClass);
+    }
+
     TimeSeriesImpl() {}
    
     public void onLoad() {
         blockClass = ClassDescriptor.loadClass(getStorage(), blockClassName);
+        if (tickClassName != null) { 
+            tickClass = ClassDescriptor.loadClass(getStorage(), tickClassName);
+        }
     }
 
     public void deallocateMembers() {
@@ -369,18 +836,39 @@ public class TimeSeriesImpl<T extends TimeSeries.Tick> extends PersistentCollect
             block.deallocate();
         }
         index.clear();
+        if (summaries != null) { 
+            for (int i = 0; i < summaries.length; i++) { 
+                Iterator<SummaryRecord> iterator = summaries[i].iterator();
+                while (iterator.hasNext()) { 
+                    iterator.next().deallocate();
+                }
+                summaries[i].clear();
+            }
+        }
     }        
 
 
     public void deallocate() {
         clear();
         index.deallocate();
+        if (summaries != null) { 
+            for (int i = 0; i < summaries.length; i++) { 
+                summaries[i].deallocate();
+            }
+        }
         super.deallocate();
     }
 
     private Index index;
     private long  maxBlockTimeInterval;
     private String blockClassName;
+    private String tickClassName;
+    int blockSize;
+    private String[] summaryFields;
+    private Index<SummaryRecord>[] summaries;
+    private transient int[] summaryColumns;
     private transient Class blockClass;
+    private transient Class<?> tickClass;
+    private transient ColumnarTimeSeriesBlock.Layout layout;
 }
 
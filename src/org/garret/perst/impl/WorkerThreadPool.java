@@ -0,0 +1,57 @@
+package org.garret.perst.impl;
+
+import java.util.concurrent.*;
+
+/**
+ * Pool of daemon threads shared by all storages for parallel execution of internal tasks
+ * (compression of pages, search in partitions of full text index,...).
+ * Threads are created on demand and terminated after one minute of inactivity.
+ */
+public class WorkerThreadPool
+{
+    /**
+     * Get shared executor
+     */
+    public static synchronized ExecutorService getExecutor()
+    {
+        if (executor == null) { 
+            executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                                              new ThreadFactory() { 
+                                                  public Thread newThread(Runnable r) { 
+                                                      Thread t = new Thread(r, "PerstWorker");
+                                                      t.setDaemon(true);
+                                                      return t;
+                                                  }
+                                              });
+        }
+        return executor;
+    }
+
+    /**
+     * Wait completion of the task ignoring interrupts. Interrupted status of the current thread is preserved.
+     * @param future result of the task submitted to the executor
+     * @return exception thrown by the task or null if task is completed normally
+     */
+    public static Throwable waitUninterruptibly(Future<?> future)
+    {
+        boolean interrupted = false;
+        try { 
+            while (true) { 
+                try { 
+                    future.get();
+                    return null;
+                } catch (InterruptedException x) { 
+                    interrupted = true;
+                } catch (ExecutionException x) { 
+                    return x.getCause();
+                }
+            }
+        } finally {
+            if (interrupted) { 
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static ExecutorService executor;
+}
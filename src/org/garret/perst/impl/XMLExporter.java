@@ -7,7 +7,7 @@ import org.garret.perst.*;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
-public class XMLExporter { 
+public class XMLExporter implements AssocExporter { 
     public XMLExporter(StorageImpl storage, Writer writer) { 
         this.storage = storage;
         this.writer = writer;
@@ -25,62 +25,305 @@ public class XMLExporter {
         exportedBitmap = new int[(storage.currIndexSize + 31) / 32];
         markedBitmap = new int[(storage.currIndexSize + 31) / 32];
         markedBitmap[rootOid >> 5] |= 1 << (rootOid & 31);
-        int nExportedObjects;
-        do { 
-            nExportedObjects = 0;
-            for (int i = 0; i < markedBitmap.length; i++) { 
-                int mask = markedBitmap[i];
-                if (mask != 0) { 
-                    for (int j = 0, bit = 1; j < 32; j++, bit <<= 1) { 
-                        if ((mask & bit) != 0) { 
-                            int oid = (i << 5) + j;
-                            exportedBitmap[i] |= bit;
-                            markedBitmap[i] &= ~bit;
-                            try { 
-                                byte[] obj = storage.get(oid);
-                                int typeOid = ObjectHeader.getType(obj, 0);                
-                                ClassDescriptor desc = storage.findClassDescriptor(typeOid);
-                                if (desc.cls == Btree.class) { 
-                                    exportIndex(oid, obj, "org.garret.perst.impl.Btree");
-                                } else if (desc.cls == BitIndexImpl.class) { 
-                                    exportIndex(oid, obj, "org.garret.perst.impl.BitIndexImpl");
-                                } else if (desc.cls == PersistentSet.class) { 
-                                    exportSet(oid, obj);
-                                } else if (desc.cls == BtreeFieldIndex.class) { 
-                                    exportFieldIndex(oid, obj, "org.garret.perst.impl.BtreeFieldIndex");
-                                } else if (desc.cls == BtreeCaseInsensitiveFieldIndex.class) { 
-                                    exportFieldIndex(oid, obj, "org.garret.perst.impl.BtreeCaseInsensitiveFieldIndex");
-                                } else if (desc.cls == BtreeMultiFieldIndex.class) { 
-                                    exportMultiFieldIndex(oid, obj, "org.garret.perst.impl.BtreeMultiFieldIndex");
-                                } else if (desc.cls == BtreeCaseInsensitiveMultiFieldIndex.class) { 
-                                    exportMultiFieldIndex(oid, obj, "org.garret.perst.impl.BtreeCaseInsensitiveMultiFieldIndex");
-                                } else if (desc.cls == BtreeCompoundIndex.class) { 
-                                    exportCompoundIndex(oid, obj);
-                                } else { 
-                                    String className = exportIdentifier(desc.name);
-                                    writer.write(" <" + className + " id=\"" + oid + "\">\n");
-                                    exportObject(desc, obj, ObjectHeader.sizeof, 2);
-                                    writer.write(" </" + className + ">\n");
-                                }
-                                nExportedObjects += 1;
-                            } catch (StorageError x) { 
-                                if (storage.listener != null) {
-                                    if (!storage.listener.objectNotExported(oid, x)) { 
-                                        throw x;
+        int[] nextBitmap = new int[markedBitmap.length];
+        int nThreads = storage.xmlExportThreads;
+        ExportThread[] threads = null;
+        if (nThreads > 1) { 
+            // export threads can not lookup class descriptors because storage is locked by exportXML
+            classDescriptors = new HashMap<Integer,ClassDescriptor>();
+            for (ClassDescriptor desc = storage.descList; desc != null; desc = desc.next) { 
+                classDescriptors.put(Integer.valueOf(desc.getOid()), desc);
+            }
+            threads = new ExportThread[nThreads];
+            for (int i = 0; i < nThreads; i++) { 
+                threads[i] = new ExportThread(new XMLExporter(this));
+                threads[i].start();
+            }
+        }
+        try { 
+            int nExportedObjects;
+            do { 
+                // Objects referenced from the objects exported at this iteration are marked in next bitmap,
+                // so the order of objects doesn't depend on the number of threads 
+                nExportedObjects = 0;
+                int[] currBitmap = markedBitmap;
+                markedBitmap = nextBitmap;
+                ExportBatch batch = null;
+                for (int i = 0; i < currBitmap.length; i++) { 
+                    int mask = currBitmap[i];
+                    if (mask != 0) { 
+                        currBitmap[i] = 0;
+                        exportedBitmap[i] |= mask;
+                        for (int j = 0, bit = 1; j < 32; j++, bit <<= 1) { 
+                            if ((mask & bit) != 0) { 
+                                int oid = (i << 5) + j;
+                                if (threads == null) { 
+                                    if (exportRecord(oid)) { 
+                                        nExportedObjects += 1;
                                     }
                                 } else { 
-                                    System.err.println("XML export failed for object " + oid + ": " + x);
+                                    if (batch == null) { 
+                                        batch = new ExportBatch();
+                                    }
+                                    batch.oids[batch.size++] = oid;
+                                    if (batch.size == EXPORT_BATCH_SIZE) { 
+                                        nExportedObjects += submitBatch(batch, nThreads*2);
+                                        batch = null;
+                                    }
                                 }
                             }
                         }
                     }
                 }
-            }                            
-        } while (nExportedObjects != 0);
+                if (batch != null) { 
+                    nExportedObjects += submitBatch(batch, nThreads*2);
+                }
+                nExportedObjects += submitBatch(null, 0);
+                for (int i = 0; i < markedBitmap.length; i++) { 
+                    markedBitmap[i] &= ~exportedBitmap[i];
+                }
+                nextBitmap = currBitmap;
+            } while (nExportedObjects != 0);
+        } finally { 
+            if (threads != null) { 
+                synchronized (queue) { 
+                    queue.clear();
+                    queue.add(null);
+                    queue.notifyAll();
+                }
+                try { 
+                    for (int i = 0; i < nThreads; i++) { 
+                        threads[i].join();
+                    }
+                } catch (InterruptedException x) {}
+            }
+        }
         writer.write("</database>\n");   
         writer.flush(); // writer should be closed by calling code
     }
 
+    private XMLExporter(XMLExporter exporter) { 
+        storage = exporter.storage;
+        exportedBitmap = exporter.exportedBitmap;
+        classDescriptors = exporter.classDescriptors;
+        parent = exporter;
+        httpFormatter = new SimpleDateFormat(storage.xmlDateFormat, Locale.ENGLISH);
+    }
+
+    static final int EXPORT_BATCH_SIZE = 256;
+
+    /**
+     * Batch of objects encoded by export thread. 
+     * Indices can be very large, so they are not buffered but exported by main thread when 
+     * batch is written: output of the batch is split into parts at each index.
+     */
+    static class ExportBatch { 
+        int[]                oids = new int[EXPORT_BATCH_SIZE];
+        int                  size;
+        ArrayList<Object>    parts = new ArrayList<Object>(); // CharArrayWriter or Integer OID of index
+        int[]                refs = new int[EXPORT_BATCH_SIZE];
+        int                  nRefs;
+        int                  nExportedObjects;
+        Throwable            error;
+        boolean              done;
+
+        void addRef(int oid) { 
+            if (nRefs == refs.length) { 
+                int[] newRefs = new int[nRefs*2];
+                System.arraycopy(refs, 0, newRefs, 0, nRefs);
+                refs = newRefs;
+            }
+            refs[nRefs++] = oid;
+        }
+    }
+
+    static class ExportThread extends Thread { 
+        ExportThread(XMLExporter exporter) { 
+            this.exporter = exporter;
+        }
+
+        public void run() { 
+            XMLExporter parent = exporter.parent;
+            while (true) { 
+                ExportBatch batch;
+                synchronized (parent.queue) { 
+                    while (parent.queue.isEmpty()) { 
+                        try { 
+                            parent.queue.wait();
+                        } catch (InterruptedException x) {}
+                    }
+                    batch = parent.queue.getFirst();
+                    if (batch == null) { 
+                        return; // leave terminator in the queue for other threads
+                    }
+                    parent.queue.removeFirst();
+                }
+                exporter.encodeBatch(batch);
+                synchronized (batch) { 
+                    batch.done = true;
+                    batch.notify();
+                }
+            }
+        }
+
+        XMLExporter exporter;
+    }
+
+    final void encodeBatch(ExportBatch batch) 
+    {
+        this.batch = batch;
+        writer = new CharArrayWriter();
+        batch.parts.add(writer);
+        try { 
+            for (int i = 0; i < batch.size; i++) { 
+                if (exportRecord(batch.oids[i])) { 
+                    batch.nExportedObjects += 1;
+                }
+            }
+        } catch (Throwable x) { 
+            batch.error = x;
+        }
+        this.batch = null;
+        writer = null;
+    }
+
+    /**
+     * Pass batch to export threads and write batches which are already encoded, preserving their order.
+     * @param batch batch to be encoded or null
+     * @param maxPending maximal number of batches which are encoded but not yet written
+     * @return number of exported objects in the written batches
+     */
+    final int submitBatch(ExportBatch batch, int maxPending) throws IOException 
+    {
+        int nExportedObjects = 0;
+        if (batch != null) { 
+            synchronized (queue) { 
+                queue.add(batch);
+                queue.notify();
+            }
+            pending.add(batch);
+        }
+        while (pending.size() > maxPending) { 
+            ExportBatch first = pending.removeFirst();
+            synchronized (first) { 
+                while (!first.done) { 
+                    try { 
+                        first.wait();
+                    } catch (InterruptedException x) {}
+                }
+            }
+            if (first.error != null) { 
+                if (first.error instanceof IOException) { 
+                    throw (IOException)first.error;
+                } else if (first.error instanceof RuntimeException) { 
+                    throw (RuntimeException)first.error;
+                } else { 
+                    throw (Error)first.error;
+                }
+            }
+            for (int i = 0, n = first.parts.size(); i < n; i++) { 
+                Object part = first.parts.get(i);
+                if (part instanceof Integer) { 
+                    if (exportRecord(((Integer)part).intValue())) { 
+                        nExportedObjects += 1;
+                    }
+                } else { 
+                    ((CharArrayWriter)part).writeTo(writer);
+                }
+            }
+            for (int i = 0; i < first.nRefs; i++) { 
+                int oid = first.refs[i];
+                if ((exportedBitmap[oid >> 5] & (1 << (oid & 31))) == 0) { 
+                    markedBitmap[oid >> 5] |= 1 << (oid & 31);
+                }
+            }
+            nExportedObjects += first.nExportedObjects;
+        }
+        return nExportedObjects;
+    }
+
+    static boolean isIndex(Class<?> cls) { 
+        return cls == Btree.class
+            || cls == BitIndexImpl.class
+            || cls == PersistentSet.class
+            || cls == BtreeFieldIndex.class
+            || cls == BtreeCaseInsensitiveFieldIndex.class
+            || cls == BtreeMultiFieldIndex.class
+            || cls == BtreeCaseInsensitiveMultiFieldIndex.class
+            || cls == BtreeCompoundIndex.class
+            || cls == LinearHashImpl.class;
+    }
+
+    final boolean exportRecord(int oid) throws IOException 
+    {
+        try { 
+            byte[] obj = storage.get(oid);
+            int typeOid = ObjectHeader.getType(obj, 0);                
+            ClassDescriptor desc = findClassDescriptor(typeOid);
+            if (batch != null && isIndex(desc.cls)) { 
+                batch.parts.add(Integer.valueOf(oid));
+                writer = new CharArrayWriter();
+                batch.parts.add(writer);
+                return false;
+            }
+            if (desc.cls == Btree.class) { 
+                exportIndex(oid, obj, "org.garret.perst.impl.Btree");
+            } else if (desc.cls == BitIndexImpl.class) { 
+                exportIndex(oid, obj, "org.garret.perst.impl.BitIndexImpl");
+            } else if (desc.cls == PersistentSet.class) { 
+                exportSet(oid, obj);
+            } else if (desc.cls == BtreeFieldIndex.class) { 
+                exportFieldIndex(oid, obj, "org.garret.perst.impl.BtreeFieldIndex");
+            } else if (desc.cls == BtreeCaseInsensitiveFieldIndex.class) { 
+                exportFieldIndex(oid, obj, "org.garret.perst.impl.BtreeCaseInsensitiveFieldIndex");
+            } else if (desc.cls == BtreeMultiFieldIndex.class) { 
+                exportMultiFieldIndex(oid, obj, "org.garret.perst.impl.BtreeMultiFieldIndex");
+            } else if (desc.cls == BtreeCaseInsensitiveMultiFieldIndex.class) { 
+                exportMultiFieldIndex(oid, obj, "org.garret.perst.impl.BtreeCaseInsensitiveMultiFieldIndex");
+            } else if (desc.cls == BtreeCompoundIndex.class) { 
+                exportCompoundIndex(oid, obj);
+            } else if (desc.cls == LinearHashImpl.class) { 
+                exportHash(oid, obj);
+            } else { 
+                String className = exportIdentifier(desc.name);
+                writer.write(" <" + className + " id=\"" + oid + "\">\n");
+                exportObject(desc, obj, ObjectHeader.sizeof, 2);
+                writer.write(" </" + className + ">\n");
+            }
+            return true;
+        } catch (StorageError x) { 
+            if (storage.listener != null) {
+                if (!storage.listener.objectNotExported(oid, x)) { 
+                    throw x;
+                }
+            } else { 
+                System.err.println("XML export failed for object " + oid + ": " + x);
+            }
+            return false;
+        }
+    }
+
+    final ClassDescriptor findClassDescriptor(int oid) { 
+        if (classDescriptors != null) { 
+            ClassDescriptor desc = classDescriptors.get(Integer.valueOf(oid));
+            if (desc == null) { 
+                throw new StorageError(StorageError.INVALID_OID);
+            }
+            return desc;
+        }
+        return storage.findClassDescriptor(oid);
+    }
+
+    final void markObject(int oid) { 
+        if ((exportedBitmap[oid >> 5] & (1 << (oid & 31))) == 0) { 
+            if (batch != null) { 
+                batch.addRef(oid);
+            } else { 
+                markedBitmap[oid >> 5] |= 1 << (oid & 31);
+            }
+        }
+    }
+
     final String exportIdentifier(String name) { 
         return name.replace('$', '-');
     }
@@ -116,11 +359,24 @@ public class XMLExporter {
         offs = exportString(data, offs);
         writer.write(" field=");
         offs = exportString(data, offs);
+        exportKeyFilter(Bytes.unpack4(data, offs));
         writer.write(">\n");
         btree.export(this);
         writer.write(" </" + name + ">\n");
     }
 
+    /**
+     * Bloom filter is not exported: only its parameters are saved and the filter is rebuilt by importer.
+     * Indices are always exported by the main thread holding storage lock, so filter object can be loaded here.
+     */
+    final void exportKeyFilter(int filterOid) throws IOException
+    {
+        if (filterOid != 0) { 
+            BloomFilter filter = (BloomFilter)storage.getObjectByOID(filterOid);
+            writer.write(" falsePositiveRate=\"" + filter.falsePositiveRate + "\"");
+        }
+    }
+
     final void exportMultiFieldIndex(int oid,  byte[] data, String name) throws IOException
     { 
         Btree btree = new Btree(data, ObjectHeader.sizeof);
@@ -133,7 +389,6 @@ public class XMLExporter {
             writer.write(" field" + i + "=");
             offs = exportString(data, offs);
         }
-        writer.write(">\n");
         int nTypes = Bytes.unpack4(data, offs);
         offs += 4;
         compoundKeyTypes = new int[nTypes];
@@ -141,6 +396,8 @@ public class XMLExporter {
             compoundKeyTypes[i] = Bytes.unpack4(data, offs);
             offs += 4;
         }
+        exportKeyFilter(Bytes.unpack4(data, offs));
+        writer.write(">\n");
         btree.export(this); 
         compoundKeyTypes = null;
         writer.write(" </" + name + ">\n");
@@ -168,6 +425,18 @@ public class XMLExporter {
         writer.write(" </org.garret.perst.impl.BtreeCompoundIndex>\n");
     }
 
+    final void exportHash(int oid,  byte[] data) throws IOException
+    { 
+        LinearHashImpl<?,?> hash = new LinearHashImpl<Object,Object>(data, ObjectHeader.sizeof);
+        storage.assignOid(hash, oid, false);
+        writer.write(" <org.garret.perst.impl.LinearHashImpl id=\"" + oid + "\" type=\"" + ClassDescriptor.signature[hash.type] 
+                     + "\" loadFactor=\"" + hash.loadFactor + "\">\n");
+        hashKeyType = hash.type;
+        hash.export(this);
+        hashKeyType = -1;
+        writer.write(" </org.garret.perst.impl.LinearHashImpl>\n");
+    }
+
     final int exportKey(byte[] body, int offs, int size, int type) throws IOException
     {
         switch (type) { 
@@ -251,15 +520,23 @@ public class XMLExporter {
         Assert.that(offs == end);
     }
 
-    final void exportAssoc(int oid, byte[] body, int offs, int size, int type) throws IOException
+    public void exportAssoc(int oid, byte[] body, int offs, int size, int type) throws IOException
     {
         writer.write("  <ref id=\"" + oid + "\"");
-        if ((exportedBitmap[oid >> 5] & (1 << (oid & 31))) == 0) { 
-            markedBitmap[oid >> 5] |= 1 << (oid & 31);
-        }
+        markObject(oid);
         if (compoundKeyTypes != null) { 
             exportCompoundKey(body, offs, size, type);
         } else { 
+            if (hashKeyType >= 0) { 
+                // hash table passes packed keys: export them as values of the key type, so that 
+                // references are remapped by importer
+                type = hashKeyType;
+                if (type == ClassDescriptor.tpString) { 
+                    size >>= 1;
+                } else if (type == ClassDescriptor.tpObject) { 
+                    markObject(Bytes.unpack4(body, offs));
+                }
+            }
             writer.write(" key=\"");
             exportKey(body, offs, size, type);
             writer.write("\"");
@@ -396,7 +673,7 @@ public class XMLExporter {
             default:
                 if (tid >= ClassDescriptor.tpValueTypeBias) { 
                     int typeOid = - ClassDescriptor.tpValueTypeBias - oid;
-                    ClassDescriptor desc = storage.findClassDescriptor(typeOid);
+                    ClassDescriptor desc = findClassDescriptor(typeOid);
                     if (desc.isCollection) { 
                         int len = Bytes.unpack4(body, offs);   
                         offs += 4;
@@ -429,8 +706,8 @@ public class XMLExporter {
             }       
         } else {
             writer.write("<ref id=\"" + oid + "\"/>");
-            if (oid != 0 && (exportedBitmap[oid >> 5] & (1 << (oid & 31))) == 0) { 
-                markedBitmap[oid >> 5] |= 1 << (oid & 31);
+            if (oid != 0) { 
+                markObject(oid);
             }
         }
         return offs;
@@ -762,6 +1039,12 @@ public class XMLExporter {
     private int[]       markedBitmap;
     private int[]       exportedBitmap;
     private int[]       compoundKeyTypes;
+    private int         hashKeyType = -1;
     private DateFormat  httpFormatter;
+    private XMLExporter parent;
+    private HashMap<Integer,ClassDescriptor> classDescriptors;
+    private ExportBatch batch;
+    private LinkedList<ExportBatch> queue = new LinkedList<ExportBatch>();   // batches waiting for export thread
+    private LinkedList<ExportBatch> pending = new LinkedList<ExportBatch>(); // batches not yet written
 
 }
@@ -53,30 +53,34 @@ public class XMLImporter {
         }
         idMap = new int[rootId*2];
         idMap[rootId] = reuseOids ? rootId : storage.allocateId();
-        storage.header.root[1-storage.currIndex].rootObject = idMap[rootId];
 
-        while ((tkn = scanner.scan()) == XMLScanner.XML_LT) { 
-            if (scanner.scan() != XMLScanner.XML_IDENT) { 
-                throwException("Element name expected");
-            }
-            String elemName = scanner.getIdentifier();
-            if (elemName.equals("org.garret.perst.impl.Btree") 
-                || elemName.equals("org.garret.perst.impl.BitIndexImpl")
-                || elemName.equals("org.garret.perst.impl.PersistentSet") 
-                || elemName.equals("org.garret.perst.impl.BtreeFieldIndex") 
-                || elemName.equals("org.garret.perst.impl.BtreeCaseInsensitiveFieldIndex") 
-                || elemName.equals("org.garret.perst.impl.BtreeCompoundIndex") 
-                || elemName.equals("org.garret.perst.impl.BtreeMultiFieldIndex")
-                || elemName.equals("org.garret.perst.impl.BtreeCaseInsensitiveMultiFieldIndex")) 
-            { 
-                createIndex(elemName);
-            } else { 
-                createObject(readElement(elemName));
+        if (storage.xmlImportPipeline) { 
+            importPipelined();
+        } else { 
+            while ((tkn = scanner.scan()) == XMLScanner.XML_LT) { 
+                if (scanner.scan() != XMLScanner.XML_IDENT) { 
+                    throwException("Element name expected");
+                }
+                String elemName = scanner.getIdentifier();
+                if (isIndex(elemName)) { 
+                    createIndex(elemName);
+                } else { 
+                    createObject(readElement(elemName));
+                }
+                checkpoint(1);
             }
+            checkDatabaseEnd(tkn);
         }
         if (reuseOids) { 
             storage.collectFreeIds(idMap, maxoids);
         }
+        // root is set when all objects are imported, so that intermediate commits
+        // never save header referencing root object which is not yet stored
+        storage.header.root[1-storage.currIndex].rootObject = idMap[rootId];
+    }
+
+    final void checkDatabaseEnd(int tkn) throws XMLImportException 
+    {
         if (tkn != XMLScanner.XML_LTS
             || scanner.scan() != XMLScanner.XML_IDENT
             || !scanner.getIdentifier().equals("database")
@@ -86,6 +90,145 @@ public class XMLImporter {
         }                
     }
 
+    /**
+     * Commit imported data if number of objects and index entries stored since last commit 
+     * exceeds <code>perst.xml.import.commit.batch</code>. Should not be called in the middle of index construction.
+     * @param nStored number of stored objects and index entries
+     */
+    final void checkpoint(long nStored) 
+    {
+        nUncommitted += nStored;
+        if (storage.xmlImportCommitBatch > 0 && nUncommitted >= storage.xmlImportCommitBatch) { 
+            storage.commit();
+            nUncommitted = 0;
+        }
+    }
+
+    static final XMLElement END_OF_INDEX = new XMLElement("/index");
+    static final XMLElement END_OF_DATABASE = new XMLElement("/database");
+    static final int PIPELINE_QUEUE_SIZE = 1024;
+
+    /**
+     * Thread parsing XML file and passing elements to the importer.
+     * Index is passed as header element, followed by <code>ref</code> elements and END_OF_INDEX marker.
+     */
+    class ParserThread extends Thread { 
+        public void run() { 
+            try { 
+                int tkn;
+                while ((tkn = scanner.scan()) == XMLScanner.XML_LT) { 
+                    if (scanner.scan() != XMLScanner.XML_IDENT) { 
+                        throwException("Element name expected");
+                    }
+                    String elemName = scanner.getIdentifier();
+                    if (isIndex(elemName)) { 
+                        if (!put(readIndexHeader(elemName))) { 
+                            return;
+                        }
+                        while ((tkn = scanner.scan()) == XMLScanner.XML_LT) {
+                            if (scanner.scan() != XMLScanner.XML_IDENT
+                                || !scanner.getIdentifier().equals("ref"))
+                            {
+                                throwException("<ref> element expected");
+                            }   
+                            if (!put(readElement("ref"))) { 
+                                return;
+                            }
+                        }
+                        if (tkn != XMLScanner.XML_LTS 
+                            || scanner.scan() != XMLScanner.XML_IDENT
+                            || !scanner.getIdentifier().equals(elemName)
+                            || scanner.scan() != XMLScanner.XML_GT)
+                        {
+                            throwException("Element is not closed");
+                        }           
+                        if (!put(END_OF_INDEX)) { 
+                            return;
+                        }
+                    } else if (!put(readElement(elemName))) { 
+                        return;
+                    }
+                }
+                checkDatabaseEnd(tkn);
+            } catch (XMLImportException x) { 
+                parserError = x;
+            } catch (RuntimeException x) {
+                parserError = x;
+            }
+            put(END_OF_DATABASE);
+        }
+
+        synchronized boolean put(XMLElement elem) { 
+            while (queue.size() >= PIPELINE_QUEUE_SIZE && !aborted) { 
+                try { 
+                    wait();
+                } catch (InterruptedException x) {}
+            }
+            if (aborted) { 
+                return false;
+            }
+            queue.add(elem);
+            notify();
+            return true;
+        }
+
+        synchronized XMLElement take() { 
+            while (queue.isEmpty()) { 
+                try { 
+                    wait();
+                } catch (InterruptedException x) {}
+            }
+            notify();
+            return queue.removeFirst();
+        }
+
+        synchronized void abort() { 
+            aborted = true;
+            notify();
+        }
+
+        LinkedList<XMLElement> queue = new LinkedList<XMLElement>();
+        boolean                aborted;
+        Exception              parserError;
+    }
+
+    final void importPipelined() throws XMLImportException 
+    {
+        ParserThread parser = new ParserThread();
+        parser.start();
+        try { 
+            XMLElement elem;
+            IndexBuilder index = null;
+            while ((elem = parser.take()) != END_OF_DATABASE) { 
+                if (index != null) { 
+                    if (elem == END_OF_INDEX) { 
+                        index.store();
+                        index = null;
+                        checkpoint(1);
+                    } else { 
+                        index.insert(elem);
+                        nUncommitted += 1;
+                    }
+                } else if (isIndex(elem.getName())) { 
+                    index = new IndexBuilder(elem);
+                } else { 
+                    createObject(elem);
+                    checkpoint(1);
+                }
+            }
+        } finally { 
+            parser.abort();
+            try { 
+                parser.join();
+            } catch (InterruptedException x) {}
+        }
+        if (parser.parserError instanceof XMLImportException) { 
+            throw (XMLImportException)parser.parserError;
+        } else if (parser.parserError != null) { 
+            throw (RuntimeException)parser.parserError;
+        }
+    }
+
     static class XMLElement { 
         private XMLElement next;
         private XMLElement prev;
@@ -170,6 +313,12 @@ public class XMLImporter {
             return attributes != null ? attributes.get(name) : null;
         }
 
+        final Collection<Map.Entry<String,String>> getAttributes() { 
+            return attributes != null ? attributes.entrySet() : EMPTY_ATTRIBUTES;
+        }
+
+        final static Collection<Map.Entry<String,String>> EMPTY_ATTRIBUTES = new ArrayList<Map.Entry<String,String>>();
+
         final void setIntValue(long val) { 
             ivalue = val;
             valueType = INT_VALUE;
@@ -415,107 +564,178 @@ public class XMLImporter {
         return -1;
     }
 
+    final double parseDouble(String str) throws XMLImportException
+    {
+        try { 
+            return Double.parseDouble(str);
+        } catch (NumberFormatException x) { 
+            throwException("Bad real constant");
+        }
+        return -1;
+    }
+
     final void createIndex(String indexType) throws XMLImportException
     {
-        Btree btree = null;
+        IndexBuilder index = new IndexBuilder(readIndexHeader(indexType));
+        int tkn;
+        while ((tkn = scanner.scan()) == XMLScanner.XML_LT) {
+            if (scanner.scan() != XMLScanner.XML_IDENT
+                || !scanner.getIdentifier().equals("ref"))
+            {
+                throwException("<ref> element expected");
+            }   
+            index.insert(readElement("ref"));
+            nUncommitted += 1;
+        }
+        if (tkn != XMLScanner.XML_LTS 
+            || scanner.scan() != XMLScanner.XML_IDENT
+            || !scanner.getIdentifier().equals(indexType)
+            || scanner.scan() != XMLScanner.XML_GT)
+        {
+            throwException("Element is not closed");
+        }           
+        index.store();
+    }
+
+    final XMLElement readIndexHeader(String indexType) throws XMLImportException
+    {
+        XMLElement header = new XMLElement(indexType);
         int tkn;
-        int oid = 0;
-        boolean unique = false;
-        String className = null;
-        String fieldName = null;
-        String[] fieldNames = null;
-        int[] types = null;
-        long autoinc = 0;
-        String type = null;
         while ((tkn = scanner.scan()) == XMLScanner.XML_IDENT) { 
             String attrName = scanner.getIdentifier();
             if (scanner.scan() != XMLScanner.XML_EQ || scanner.scan() != XMLScanner.XML_SCONST) {
                 throwException("Attribute value expected");
             }
-            String attrValue = scanner.getString();
-            if (attrName.equals("id")) { 
-                oid = mapId(parseInt(attrValue));
-            } else if (attrName.equals("unique")) { 
-                unique = parseInt(attrValue) != 0;
-            } else if (attrName.equals("class")) { 
-                className = attrValue;
-            } else if (attrName.equals("type")) { 
-                type = attrValue;
-            } else if (attrName.equals("autoinc")) { 
-                autoinc = parseInt(attrValue);
-            } else if (attrName.equals("field")) {
-                fieldName = attrValue;
-            } else if (attrName.startsWith("type")) {
-                int typeNo = Integer.parseInt(attrName.substring(4));
-                if (types == null || types.length <= typeNo) { 
-                    int[] newTypes = new int[typeNo+1];
-                    if (types != null) { 
-                        System.arraycopy(types, 0, newTypes, 0, types.length);
-                    }
-                    types = newTypes;
-                }
-                types[typeNo] = mapType(attrValue);
-             } else if (attrName.startsWith("field")) {
-                int fieldNo = Integer.parseInt(attrName.substring(5));
-                if (fieldNames == null || fieldNames.length <= fieldNo) { 
-                    String[] newFieldNames = new String[fieldNo+1];
-                    if (fieldNames != null) { 
-                        System.arraycopy(fieldNames, 0, newFieldNames, 0, fieldNames.length);
-                    }
-                    fieldNames = newFieldNames;
-                }
-                fieldNames[fieldNo] = attrValue;
-            }
+            header.addAttribute(attrName, scanner.getString());
         }
         if (tkn != XMLScanner.XML_GT) { 
             throwException("Unclosed element tag");
         }
-        if (oid == 0) { 
-            throwException("ID is not specified or index");
-        }
-        if (className != null) { 
-            Class cls = ClassDescriptor.loadClass(storage, className); 
-            if (fieldName != null) { 
-                if (indexType.equals("org.garret.perst.impl.BtreeCaseInsensitiveFieldIndex")) {
-                    btree = new BtreeCaseInsensitiveFieldIndex(cls, fieldName, unique, autoinc);
-                } else { 
-                    btree = new BtreeFieldIndex(cls, fieldName, unique, autoinc);
-                }
-            } else if (fieldNames != null) { 
-                if (indexType.equals("org.garret.perst.impl.BtreeCaseInsensitiveMultiFieldIndex")) {
-                    btree = new BtreeCaseInsensitiveMultiFieldIndex(cls, fieldNames, unique);
-                } else { 
-                    btree = new BtreeMultiFieldIndex(cls, fieldNames, unique);
+        return header;
+    }
+
+    static boolean isIndex(String elemName) { 
+        return elemName.equals("org.garret.perst.impl.Btree") 
+            || elemName.equals("org.garret.perst.impl.BitIndexImpl")
+            || elemName.equals("org.garret.perst.impl.PersistentSet") 
+            || elemName.equals("org.garret.perst.impl.BtreeFieldIndex") 
+            || elemName.equals("org.garret.perst.impl.BtreeCaseInsensitiveFieldIndex") 
+            || elemName.equals("org.garret.perst.impl.BtreeCompoundIndex") 
+            || elemName.equals("org.garret.perst.impl.BtreeMultiFieldIndex")
+            || elemName.equals("org.garret.perst.impl.BtreeCaseInsensitiveMultiFieldIndex")
+            || elemName.equals("org.garret.perst.impl.LinearHashImpl");
+    }
+
+    /**
+     * Index is created from the header element (containing attributes of index element) 
+     * and then filled by <code>ref</code> elements one by one, so that index entries are not kept in memory
+     */
+    class IndexBuilder { 
+        Btree<?>            btree;
+        LinearHashImpl<?,?> hash;
+        int                 oid;
+        String[]            fieldNames;
+        int[]               types;
+        double              falsePositiveRate;
+
+        IndexBuilder(XMLElement header) throws XMLImportException
+        {
+            String indexType = header.getName();
+            boolean unique = false;
+            String className = null;
+            String fieldName = null;
+            long autoinc = 0;
+            int loadFactor = 0;
+            String type = null;
+            for (Map.Entry<String,String> attr : header.getAttributes()) { 
+                String attrName = attr.getKey();
+                String attrValue = attr.getValue();
+                if (attrName.equals("id")) { 
+                    oid = mapId(parseInt(attrValue));
+                } else if (attrName.equals("unique")) { 
+                    unique = parseInt(attrValue) != 0;
+                } else if (attrName.equals("class")) { 
+                    className = attrValue;
+                } else if (attrName.equals("type")) { 
+                    type = attrValue;
+                } else if (attrName.equals("autoinc")) { 
+                    autoinc = parseInt(attrValue);
+                } else if (attrName.equals("loadFactor")) { 
+                    loadFactor = parseInt(attrValue);
+                } else if (attrName.equals("falsePositiveRate")) { 
+                    falsePositiveRate = parseDouble(attrValue);
+                } else if (attrName.equals("field")) {
+                    fieldName = attrValue;
+                } else if (attrName.startsWith("type")) {
+                    int typeNo = Integer.parseInt(attrName.substring(4));
+                    if (types == null || types.length <= typeNo) { 
+                        int[] newTypes = new int[typeNo+1];
+                        if (types != null) { 
+                            System.arraycopy(types, 0, newTypes, 0, types.length);
+                        }
+                        types = newTypes;
+                    }
+                    types[typeNo] = mapType(attrValue);
+                } else if (attrName.startsWith("field")) {
+                    int fieldNo = Integer.parseInt(attrName.substring(5));
+                    if (fieldNames == null || fieldNames.length <= fieldNo) { 
+                        String[] newFieldNames = new String[fieldNo+1];
+                        if (fieldNames != null) { 
+                            System.arraycopy(fieldNames, 0, newFieldNames, 0, fieldNames.length);
+                        }
+                        fieldNames = newFieldNames;
+                    }
+                    fieldNames[fieldNo] = attrValue;
                 }
-            } else { 
-                throwException("Field name is not specified for field index");
             }
-        } else { 
-            if (types != null) { 
-                btree = new BtreeCompoundIndex(types, unique);
-            } else if (type == null) { 
-                if (indexType.equals("org.garret.perst.impl.PersistentSet")) { 
-                    btree = new PersistentSet(unique);
+            if (oid == 0) { 
+                throwException("ID is not specified or index");
+            }
+            if (className != null) { 
+                Class cls = ClassDescriptor.loadClass(storage, className); 
+                if (fieldName != null) { 
+                    if (indexType.equals("org.garret.perst.impl.BtreeCaseInsensitiveFieldIndex")) {
+                        btree = new BtreeCaseInsensitiveFieldIndex(cls, fieldName, unique, autoinc);
+                    } else { 
+                        btree = new BtreeFieldIndex(cls, fieldName, unique, autoinc);
+                    }
+                } else if (fieldNames != null) { 
+                    if (indexType.equals("org.garret.perst.impl.BtreeCaseInsensitiveMultiFieldIndex")) {
+                        btree = new BtreeCaseInsensitiveMultiFieldIndex(cls, fieldNames, unique);
+                    } else { 
+                        btree = new BtreeMultiFieldIndex(cls, fieldNames, unique);
+                    }
                 } else { 
-                    throwException("Key type is not specified for index");
+                    throwException("Field name is not specified for field index");
                 }
             } else { 
-                if (indexType.equals("org.garret.perst.impl.BitIndexImpl")) { 
-                    btree = new BitIndexImpl();
+                if (types != null) { 
+                    btree = new BtreeCompoundIndex(types, unique);
+                } else if (type == null) { 
+                    if (indexType.equals("org.garret.perst.impl.PersistentSet")) { 
+                        btree = new PersistentSet(unique);
+                    } else { 
+                        throwException("Key type is not specified for index");
+                    }
                 } else { 
-                    btree = new Btree(mapType(type), unique);
+                    if (indexType.equals("org.garret.perst.impl.BitIndexImpl")) { 
+                        btree = new BitIndexImpl();
+                    } else if (indexType.equals("org.garret.perst.impl.LinearHashImpl")) { 
+                        hash = new LinearHashImpl<Object,Object>();
+                        hash.type = mapType(type);
+                        hash.loadFactor = loadFactor;
+                        storage.assignOid(hash, oid, false);
+                        return;
+                    } else { 
+                        btree = new Btree(mapType(type), unique);
+                    }
                 }
             }
+            storage.assignOid(btree, oid, false);
         }
-        storage.assignOid(btree, oid, false);
 
-        while ((tkn = scanner.scan()) == XMLScanner.XML_LT) {
-            if (scanner.scan() != XMLScanner.XML_IDENT
-                || !scanner.getIdentifier().equals("ref"))
-            {
-                throwException("<ref> element expected");
-            }   
-            XMLElement ref = readElement("ref");
+        void insert(XMLElement ref) throws XMLImportException
+        {
             Key key = null;
             int mask = 0;
             if (fieldNames != null) { 
@@ -530,6 +750,8 @@ public class XMLImporter {
                     values[i] = getAttribute(ref, "key"+i);
                 }
                 key = createCompoundKey(types, values);
+            } else if (hash != null) { 
+                key = createKey(hash.type, getAttribute(ref, "key"));
             } else { 
                 if (btree instanceof BitIndex) { 
                     mask = getIntAttribute(ref, "key");
@@ -537,32 +759,51 @@ public class XMLImporter {
                     key = createKey(btree.type, getAttribute(ref, "key"));
                 }
             }
-            Object obj = new PersistentStub(storage, mapId(getIntAttribute(ref, "id")));
-            if (btree instanceof BitIndex) { 
-                ((BitIndex)btree).put(obj, mask);
+            if (hash != null) { 
+                hash.insert(hash.packKey(key), mapId(getIntAttribute(ref, "id")));
+                return;
+            }
+            int id = mapId(getIntAttribute(ref, "id"));
+            if (btree instanceof BitIndexImpl) { 
+                ((BitIndexImpl<?>)btree).insert(id, mask);
             } else { 
-                btree.insert(key, obj, false);
+                btree.insert(key, id, false);
             } 
         }
-        if (tkn != XMLScanner.XML_LTS 
-            || scanner.scan() != XMLScanner.XML_IDENT
-            || !scanner.getIdentifier().equals(indexType)
-            || scanner.scan() != XMLScanner.XML_GT)
-        {
-            throwException("Element is not closed");
-        }           
-        byte[] data = storage.packObject(btree, false);
-        int size = ObjectHeader.getSize(data, 0);
-        long pos = storage.allocate(size, 0);
-        storage.setPos(oid, pos | StorageImpl.dbModifiedFlag);
 
-        storage.pool.put(pos & ~StorageImpl.dbFlagsMask, data, size);
+        void store() 
+        {
+            if (falsePositiveRate != 0) { 
+                // filter is built after insertion of all keys, so it is not resized during import
+                BloomFilter filter = new BloomFilter(storage, falsePositiveRate);
+                if (btree instanceof BtreeFieldIndex) { 
+                    ((BtreeFieldIndex)btree).unmatchedKeyFilter = filter;
+                } else { 
+                    ((BtreeMultiFieldIndex)btree).unmatchedKeyFilter = filter;
+                }
+                btree.rebuildKeyFilter(filter);
+            }
+            Object index = hash != null ? (Object)hash : btree;
+            byte[] data = storage.packObject(index, false);
+            int size = ObjectHeader.getSize(data, 0);
+            long pos = storage.allocate(size, 0);
+            storage.setPos(oid, pos | StorageImpl.dbModifiedFlag);
+            
+            storage.pool.put(pos & ~StorageImpl.dbFlagsMask, data, size);
+            // index was marked as modified by insertions, but it is not in the object cache: 
+            // detach it, otherwise finalizer will store it once again concurrently with import
+            storage.unassignOid(index);
+        }
     }
 
     final void createObject(XMLElement elem) throws XMLImportException
     {
-        Class cls = ClassDescriptor.loadClass(storage, elem.name); 
-        ClassDescriptor desc = storage.getClassDescriptor(cls);
+        ClassDescriptor desc = classDescriptors.get(elem.name);
+        if (desc == null) { 
+            Class cls = ClassDescriptor.loadClass(storage, elem.name); 
+            desc = storage.getClassDescriptor(cls);
+            classDescriptors.put(elem.name, desc);
+        }
         int oid = mapId(getIntAttribute(elem, "id"));
         ByteBuffer buf = new ByteBuffer();
         int offs = ObjectHeader.sizeof;
@@ -1196,6 +1437,8 @@ public class XMLImporter {
     int[]       idMap;
     boolean     reuseOids;
     DateFormat  httpFormatter;
+    long        nUncommitted;
+    HashMap<String,ClassDescriptor> classDescriptors = new HashMap<String,ClassDescriptor>(); 
 
 
     static class XMLScanner { 
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestBitmapIndex %1 %2 %3
@@ -0,0 +1,135 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestBitmapIndex {
+    static class Order extends Persistent {
+        @Indexable(unique=true)
+        int id;
+
+        @Indexable(bitmap=true)
+        String status;
+
+        @Indexable(bitmap=true)
+        int region;
+
+        @Indexable(bitmap=true)
+        boolean urgent;
+
+        double amount;
+    }
+
+    final static int nRecords = 100000;
+    final static String[] statuses = { "new", "open", "hold", "shipped", "closed" };
+    final static int nRegions = 20;
+
+    static int check(Database db, String query, ArrayList<Order> all, boolean urgent, String[] status, int[] region, double minAmount) {
+        int n = 0;
+        for (Order order : db.<Order>select(Order.class, query)) {
+            n += 1;
+        }
+        int m = 0;
+        for (Order order : all) {
+            if ((!urgent || order.urgent)
+                && Arrays.asList(status).contains(order.status)
+                && (region == null || Arrays.binarySearch(region, order.region) >= 0)
+                && order.amount >= minAmount)
+            {
+                m += 1;
+            }
+        }
+        Assert.that(n == m);
+        return n;
+    }
+
+    static public void main(String[] args) {
+        Storage storage = StorageFactory.getInstance().createStorage();
+        storage.open("testbitmapidx.dbs");
+        Database db = new Database(storage);
+        Random rnd = new Random(2009);
+        ArrayList<Order> all = new ArrayList<Order>();
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nRecords; i++) {
+            Order order = new Order();
+            order.id = i;
+            order.status = statuses[rnd.nextInt(statuses.length)];
+            order.region = rnd.nextInt(nRegions);
+            order.urgent = rnd.nextInt(10) == 0;
+            order.amount = rnd.nextInt(1000);
+            db.addRecord(order);
+            all.add(order);
+        }
+        db.commitTransaction();
+        System.out.println("Elapsed time for inserting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        String[] open = { "open" };
+        String[] pending = { "new", "open", "hold" };
+        for (int i = 0; i < nRegions; i++) {
+            check(db, "status='open' and region=" + i, all, false, open, new int[]{i}, 0);
+            check(db, "status in ('new','open','hold') and (region=" + i + " or region=" + (i+1) + ") and urgent",
+                  all, true, pending, new int[]{i, i+1}, 0);
+            check(db, "region=" + i + " and status='open' and amount >= 500", all, false, open, new int[]{i}, 500);
+        }
+        System.out.println("Elapsed time for " + nRegions*3 + " queries using bitmap indices: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        BitmapIndex<Order> statusIndex = (BitmapIndex<Order>)db.getIndex(Order.class, "status");
+        BitmapIndex<Order> regionIndex = (BitmapIndex<Order>)db.getIndex(Order.class, "region");
+        int n = 0;
+        for (String status : statuses) {
+            n += statusIndex.getBitmap(status).size();
+        }
+        Assert.that(n == nRecords && statusIndex.size() == nRecords);
+        Assert.that(statusIndex.getBitmap(new Object[]{"open", "hold", "unknown"}).size()
+                    == statusIndex.getBitmap("open").size() + statusIndex.getBitmap("hold").size());
+        Assert.that(statusIndex.getBitmap("unknown").isEmpty());
+        for (Order order : statusIndex.getBitmap("open").and(regionIndex.getBitmap(new Key(1)))) {
+            Assert.that(order.status.equals("open") && order.region == 1);
+        }
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < nRecords; i += 2) {
+            db.deleteRecord(all.get(i));
+        }
+        db.commitTransaction();
+        System.out.println("Elapsed time for deleting " + nRecords/2 + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        ArrayList<Order> rest = new ArrayList<Order>();
+        for (int i = 1; i < nRecords; i += 2) {
+            rest.add(all.get(i));
+        }
+        for (int i = 0; i < nRegions; i++) {
+            check(db, "status='hold' and region=" + i, rest, false, new String[]{"hold"}, new int[]{i}, 0);
+        }
+        Assert.that(statusIndex.size() == nRecords/2);
+        storage.close();
+
+        // objects referenced only by bitmap index are preserved by garbage collector
+        storage.open("testbitmapidx2.dbs");
+        BitmapIndex<Order> index = storage.<BitmapIndex<Order>>getRoot();
+        if (index == null) {
+            index = storage.<Order>createBitmapIndex(Order.class, "region");
+            storage.setRoot(index);
+        }
+        for (int i = 0; i < nRegions*100; i++) {
+            Order order = new Order();
+            order.id = i;
+            order.region = i % nRegions;
+            index.put(order);
+        }
+        storage.commit();
+        Assert.that(storage.gc() == 0);
+        n = 0;
+        for (int i = 0; i < nRegions; i++) {
+            for (Order order : index.getBitmap(new Key(i))) {
+                Assert.that(order.region == i && order.id % nRegions == i);
+                n += 1;
+            }
+        }
+        Assert.that(n == nRegions*100);
+        storage.close();
+    }
+}
@@ -1,10 +1,14 @@
 import org.garret.perst.*;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 
 public class TestBlob { 
     public static void main(String[] args) throws Exception { 
         Storage db = StorageFactory.getInstance().createStorage();
+        boolean contiguous = args.length > 0 && "contiguous".equals(args[0]);
         if (args.length > 0 && "zip".equals(args[0])) { 
             db.open(new CompressedFile("testblob.dbz"));
         } else { 
@@ -21,7 +25,7 @@ public class TestBlob {
             for (int i = 0; i < files.length; i++) { 
                 if (files[i].endsWith(".java")) {
                     FileInputStream in = new FileInputStream(files[i]);
-                    Blob blob = db.createBlob();                    
+                    Blob blob = contiguous ? db.createContiguousBlob(4096) : db.createBlob();
                     OutputStream out = blob.getOutputStream(false);
                     while ((rc = in.read(buf)) > 0) { 
                         out.write(buf, 0, rc);
@@ -57,10 +61,79 @@ public class TestBlob {
                 }
                 bin.close();
                 fin.close();
+                if (contiguous) { 
+                    ByteArrayOutputStream bout = new ByteArrayOutputStream();
+                    long size = ((TransferableBlob)blob).transferTo(Channels.newChannel(bout));
+                    if (size != new File(files[i]).length() || !java.util.Arrays.equals(bout.toByteArray(), readFile(files[i]))) { 
+                        System.err.println("Content of the file " + files[i] + " is different");
+                    }
+                }
             }            
         }
         System.out.println("Verification completed");
+        if (contiguous) { 
+            SlowChannel channel = new SlowChannel(db);
+            for (int i = 0; i < files.length; i++) { 
+                if (files[i].endsWith(".java")) {
+                    ((TransferableBlob)root.get(files[i])).transferTo(channel);
+                    break;
+                }
+            }
+            if (!channel.accessed) { 
+                System.err.println("Database is locked while BLOB is transfered");
+            }
+        }
         db.close();
     }
+
+    /**
+     * Channel which accesses the database from another thread while receiving BLOB content
+     */
+    static class SlowChannel implements WritableByteChannel { 
+        Storage db;
+        boolean accessed;
+        boolean started;
+
+        SlowChannel(Storage db) { 
+            this.db = db;
+        }
+
+        public int write(ByteBuffer src) throws IOException { 
+            if (!started) { 
+                started = true;
+                Thread t = new Thread() { 
+                    public void run() { 
+                        db.getRoot();
+                    }
+                };
+                t.start();
+                try { 
+                    t.join(10000);
+                } catch (InterruptedException x) {}
+                accessed = !t.isAlive();
+            }
+            int n = src.remaining();
+            src.position(src.limit());
+            return n;
+        }
+
+        public boolean isOpen() { 
+            return true;
+        }
+
+        public void close() {}
+    }
+
+    static byte[] readFile(String path) throws IOException { 
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(path);
+        byte[] buf = new byte[1024];
+        int rc;
+        while ((rc = in.read(buf)) > 0) { 
+            bout.write(buf, 0, rc);
+        }
+        in.close();
+        return bout.toByteArray();
+    }
 }
 
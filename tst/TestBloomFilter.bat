@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestBloomFilter
\ No newline at end of file
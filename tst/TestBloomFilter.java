@@ -0,0 +1,152 @@
+import org.garret.perst.*;
+
+import java.util.*;
+import java.io.*;
+
+public class TestBloomFilter {
+    static class Record extends Persistent {
+        String strKey;
+        long   intKey;
+    };
+
+    static class Indices extends Persistent {
+        FieldIndex<Record> strIndex;
+        FieldIndex<Record> intIndex;
+        IPersistentHash<String,Record> hash;
+    }
+
+    final static int nRecords = 100000;
+    final static int pagePoolSize = 32*1024*1024;
+    final static double falsePositiveRate = 0.01;
+
+    static int countFilters(Storage db) {
+        for (MemoryUsage usage : db.getMemoryDump().values()) {
+            if (usage.cls.getName().equals("org.garret.perst.impl.BloomFilter")) {
+                return usage.nInstances;
+            }
+        }
+        return 0;
+    }
+
+    static void exportImport(Storage db) throws Exception {
+        long start = System.currentTimeMillis();
+        Writer writer = new BufferedWriter(new FileWriter("testbloom.xml"));
+        db.exportXML(writer);
+        writer.close();
+        Storage db2 = StorageFactory.getInstance().createStorage();
+        db2.open("testbloom2.dbs", pagePoolSize);
+        Reader reader = new BufferedReader(new FileReader("testbloom.xml"));
+        db2.importXML(reader);
+        reader.close();
+        db2.commit();
+        // filters of both field indices and of the hash are restored
+        Assert.that(countFilters(db2) == 3);
+        Indices root = (Indices)db2.getRoot();
+        long key = 1999;
+        for (int i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec = root.intIndex.get(new Key(key));
+            Assert.that(rec != null && rec.intKey == key);
+            Assert.that(root.strIndex.get(new Key(rec.strKey)) == rec);
+            Assert.that(root.hash.get(rec.strKey) == rec);
+        }
+        for (int i = 0; i < nRecords; i++) {
+            key = 1000000007L + i;
+            Assert.that(root.intIndex.get(new Key(key)) == null);
+            Assert.that(root.strIndex.get(new Key(Long.toString(key))) == null);
+        }
+        db2.close();
+        System.out.println("Elapsed time for XML export and import: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    static public void main(String[] args) throws Exception {
+        Storage db = StorageFactory.getInstance().createStorage();
+
+        db.open("testbloom.dbs", pagePoolSize);
+        Indices root = (Indices)db.getRoot();
+        if (root == null) {
+            root = new Indices();
+            root.strIndex = db.<Record>createFieldIndex(Record.class, "strKey", true, false, falsePositiveRate);
+            root.intIndex = db.<Record>createFieldIndex(Record.class, "intKey", false, false, falsePositiveRate);
+            root.hash = db.<String,Record>createHash(101, 2, falsePositiveRate);
+            db.setRoot(root);
+        }
+        FieldIndex<Record> intIndex = root.intIndex;
+        FieldIndex<Record> strIndex = root.strIndex;
+        IPersistentHash<String,Record> hash = root.hash;
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        int i;
+        for (i = 0; i < nRecords; i++) {
+            Record rec = new Record();
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            rec.intKey = key;
+            rec.strKey = Long.toString(key);
+            intIndex.put(rec);
+            strIndex.put(rec);
+            hash.put(rec.strKey, rec);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        db.close();
+        db.open("testbloom.dbs", pagePoolSize);
+        root = (Indices)db.getRoot();
+        intIndex = root.intIndex;
+        strIndex = root.strIndex;
+        hash = root.hash;
+
+        start = System.currentTimeMillis();
+        key = 1999;
+        for (i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec1 = intIndex.get(new Key(key));
+            Record rec2 = strIndex.get(new Key(Long.toString(key)));
+            Record rec3 = hash.get(Long.toString(key));
+            Assert.that(rec1 != null && rec1 == rec2 && rec1 == rec3);
+        }
+        System.out.println("Elapsed time for performing " + nRecords*3 + " successful searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        for (i = 0; i < nRecords; i++) {
+            // keys of records are in [0, 1000000007) interval
+            key = 1000000007L + i;
+            Assert.that(intIndex.get(new Key(key)) == null);
+            Assert.that(intIndex.get(new Key(key), new Key(key)).length == 0);
+            Assert.that(strIndex.get(new Key(Long.toString(key))) == null);
+            Assert.that(hash.get(Long.toString(key)) == null);
+        }
+        System.out.println("Elapsed time for performing " + nRecords*4 + " unsuccessful searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        exportImport(db);
+
+        db.gc();
+        Assert.that(intIndex.size() == nRecords && strIndex.size() == nRecords && hash.size() == nRecords);
+        key = 1999;
+        for (i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Assert.that(intIndex.get(new Key(key)) != null);
+        }
+
+        start = System.currentTimeMillis();
+        key = 1999;
+        for (i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec = intIndex.get(new Key(key));
+            intIndex.remove(rec);
+            strIndex.remove(rec);
+            hash.remove(rec.strKey);
+            rec.deallocate();
+        }
+        Assert.that(!intIndex.iterator().hasNext());
+        Assert.that(!strIndex.iterator().hasNext());
+        Assert.that(hash.size() == 0);
+        System.out.println("Elapsed time for deleting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        db.close();
+    }
+}
@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -classpath .:../lib/perst.jar TestBloomFilter
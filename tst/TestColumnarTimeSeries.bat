@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestColumnarTimeSeries %1 %2 %3
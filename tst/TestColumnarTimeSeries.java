@@ -0,0 +1,259 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestColumnarTimeSeries { 
+    static final int MSECS_PER_DAY = 24*60*60*1000;
+    
+    public static class Quote implements TimeSeries.Tick { 
+        int   date;
+        float low;
+        float high;
+        float open;
+        float close;
+        int   volume;
+
+        public long getTime() { 
+            return (long)date*MSECS_PER_DAY;
+        }
+    }
+    
+    public static class QuoteBlock extends TimeSeries.Block {
+        private Quote[] quotes;
+        
+        static final int N_ELEMS_PER_BLOCK = 100;
+
+        public TimeSeries.Tick[] getTicks() { 
+            if (quotes == null) { 
+                quotes = new Quote[N_ELEMS_PER_BLOCK];
+                for (int i = 0; i < N_ELEMS_PER_BLOCK; i++) { 
+                    quotes[i] = new Quote();
+                }
+            }
+            return quotes;
+        }
+    }
+
+    public static class Trade implements TimeSeries.Tick { 
+        long   time;
+        double price;
+        String exchange;
+
+        public long getTime() { 
+            return time;
+        }
+    }
+    
+    public static class TradeBlock extends TimeSeries.Block {
+        private Trade[] trades;
+        
+        public TimeSeries.Tick[] getTicks() { 
+            if (trades == null) { 
+                trades = new Trade[QuoteBlock.N_ELEMS_PER_BLOCK];
+            }
+            return trades;
+        }
+    }
+
+    static class Stock extends Persistent { 
+        String            name;
+        TimeSeries<Quote> quotes;
+    }
+
+    final static int nElements = 10*365;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static final String[] months = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+
+    static public void main(String[] args) throws Exception {   
+        Stock stock;
+        int i;
+        boolean columnar = args.length > 0 && args[0].equals("columnar");
+
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open("testcolts.dbs", pagePoolSize);
+        FieldIndex<Stock> stocks = db.<FieldIndex<Stock>>getRoot();
+        if (stocks == null) { 
+            stocks = db.<Stock>createFieldIndex(Stock.class, "name", true);
+            stock = new Stock();
+            stock.name = "BORL";
+            stock.quotes = columnar
+                ? db.<Quote>createTimeSeries(Quote.class, QuoteBlock.N_ELEMS_PER_BLOCK, (long)QuoteBlock.N_ELEMS_PER_BLOCK*MSECS_PER_DAY*2)
+                : db.<Quote>createTimeSeries(QuoteBlock.class, (long)QuoteBlock.N_ELEMS_PER_BLOCK*MSECS_PER_DAY*2);
+            stock.quotes.setSummaryFields("volume", "high");
+            stocks.put(stock);
+            db.setRoot(stocks);
+        } else { 
+            stock = stocks.get("BORL");
+        }
+        Random rand = new Random(2004);
+        long start = System.currentTimeMillis();
+        int date = (int)(start/MSECS_PER_DAY) - nElements;
+        for (i = 0; i < nElements; i++) { 
+            Quote quote = new Quote();        
+            quote.date = date + i;
+            quote.open = (float)rand.nextInt(10000)/100;
+            quote.close = (float)rand.nextInt(10000)/100;
+            quote.high = Math.max(quote.open, quote.close);
+            quote.low = Math.min(quote.open, quote.close);
+            quote.volume = rand.nextInt(1000);
+            stock.quotes.add(quote);
+        }
+        db.commit();
+        System.out.println("Elapsed time for storing " + nElements + " quotes: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        db.close();
+
+        db.open("testcolts.dbs", pagePoolSize);
+        stocks = db.<FieldIndex<Stock>>getRoot();
+        stock = stocks.get("BORL");
+        
+        rand.setSeed(2004);
+        start = System.currentTimeMillis();
+        Iterator<Quote> iterator = stock.quotes.iterator();
+        for (i = 0; iterator.hasNext(); i++) { 
+            Quote quote = iterator.next();
+            Assert.that(quote.date == date + i);
+            float open = (float)rand.nextInt(10000)/100;
+            Assert.that(quote.open == open);
+            float close = (float)rand.nextInt(10000)/100;
+            Assert.that(quote.close == close);
+            Assert.that(quote.high == Math.max(quote.open, quote.close));
+            Assert.that(quote.low == Math.min(quote.open, quote.close));
+            Assert.that(quote.volume == rand.nextInt(1000));
+        }
+        Assert.that(i == nElements);
+        System.out.println("Elapsed time for extracting " + nElements + " quotes: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+                 
+        Assert.that(stock.quotes.size() == nElements);
+
+        rand.setSeed(2004);
+        start = System.currentTimeMillis();
+        i = 0;
+        for (TimeSeries.Columns columns : stock.quotes.columnIterator(null, null, "open", "close", "volume")) { 
+            for (int j = 0; j < columns.size; j++, i++) { 
+                Assert.that(columns.times[j] == (long)(date + i)*MSECS_PER_DAY);
+                Assert.that((float)columns.values[0][j] == (float)rand.nextInt(10000)/100);
+                Assert.that((float)columns.values[1][j] == (float)rand.nextInt(10000)/100);
+                Assert.that(columns.values[2][j] == rand.nextInt(1000));
+            }
+        }
+        Assert.that(i == nElements);
+        System.out.println("Elapsed time for extracting columns of " + nElements + " quotes: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        
+        int shift = 1000;
+        int count = 1000;
+        long from = (long)(date+shift)*MSECS_PER_DAY;
+        start = System.currentTimeMillis();
+        iterator = stock.quotes.iterator(new Date(from), new Date(from + (long)count*MSECS_PER_DAY), false);
+        for (i = 0; iterator.hasNext(); i++) { 
+            Quote quote = iterator.next();
+            Assert.that(quote.date == date + shift + count - i);
+        }
+        Assert.that(i == count+1);
+        System.out.println("Elapsed time for extracting " + i + " quotes: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        Map<Object,Aggregator.Aggregate> result = 
+            Aggregator.<Quote>aggregate(stock.quotes.iterator(new Date(from), new Date(from + (long)count*MSECS_PER_DAY), false), 
+                                        new Aggregator.GroupBy<Quote>() {
+                                            public Aggregator.Aggregate getAggregate() { return new Aggregator.DevAggregate(); } 
+                                            public Object getKey(Quote quote) { return (new Date(quote.getTime())).getMonth(); }
+                                            public Object getValue(Quote quote) { return quote.high - quote.low; }
+                                        }, true);
+        for (Map.Entry<Object,Aggregator.Aggregate> pair : result.entrySet()) { 
+            System.out.println(months[((Integer)pair.getKey()).intValue()] + ": " + pair.getValue().result());
+        }
+
+        start = System.currentTimeMillis();
+        TimeSeries.Summary summary = stock.quotes.getSummary(new Date(from), new Date(from + (long)count*MSECS_PER_DAY));
+        System.out.println("Elapsed time for calculating summary of " + (count+1) + " quotes: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        checkSummary(stock.quotes, summary, from, from + (long)count*MSECS_PER_DAY);
+        checkSummary(stock.quotes, stock.quotes.getSummary(null, null), (long)date*MSECS_PER_DAY, (long)(date+nElements)*MSECS_PER_DAY);
+        TimeSeries.Summary[] months = stock.quotes.getSummaries(new Date(from), new Date(from + (long)count*MSECS_PER_DAY), 30L*MSECS_PER_DAY);
+        for (i = 0; i < months.length; i++) { 
+            long monthStart = from + (long)i*30*MSECS_PER_DAY;
+            checkSummary(stock.quotes, months[i], monthStart, Math.min(monthStart + 30L*MSECS_PER_DAY - 1, from + (long)count*MSECS_PER_DAY));
+        }
+        long[][] badIntervals = {{from, from, 0}, {from, from, -MSECS_PER_DAY}, {from, from - 1, MSECS_PER_DAY}, 
+                                 {from, from + (long)Integer.MAX_VALUE*2, 1}, {Long.MIN_VALUE, Long.MAX_VALUE, 1}};
+        for (i = 0; i < badIntervals.length; i++) { 
+            try { 
+                stock.quotes.getSummaries(new Date(badIntervals[i][0]), new Date(badIntervals[i][1]), badIntervals[i][2]);
+                Assert.failed("Bad interval is accepted");
+            } catch (IllegalArgumentException x) {}
+        }
+        months = stock.quotes.getSummaries(new Date(from), new Date(from + (long)count*MSECS_PER_DAY), Long.MAX_VALUE);
+        Assert.that(months.length == 1 && months[0].count == summary.count);
+        long removed = stock.quotes.remove(new Date(from + (long)shift*MSECS_PER_DAY/2), new Date(from + (long)shift*MSECS_PER_DAY));
+        Assert.that(removed == shift/2 + 1);
+        checkSummary(stock.quotes, stock.quotes.getSummary(new Date(from), null), from, (long)(date+nElements)*MSECS_PER_DAY);
+
+        // remove all ticks after reopening the database, when tick layout is not yet known
+        db.close();
+        db.open("testcolts.dbs", pagePoolSize);
+        stocks = db.<FieldIndex<Stock>>getRoot();
+        stock = stocks.get("BORL");
+
+        start = System.currentTimeMillis();
+        long n = removed + stock.quotes.remove(stock.quotes.getFirstTime(), stock.quotes.getLastTime());
+        Assert.that(n == nElements);
+        Assert.that(stock.quotes.getSummary(null, null).count == 0);
+        System.out.println("Elapsed time for removing " + nElements + " quotes: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        Assert.that(stock.quotes.size() == 0);
+
+        // columns and summaries of empty series with user defined blocks, tick class with non-primitive field
+        TimeSeries<Trade> trades = db.<Trade>createTimeSeries(TradeBlock.class, (long)QuoteBlock.N_ELEMS_PER_BLOCK*MSECS_PER_DAY);
+        trades.setSummaryFields("price");
+        Assert.that(!trades.columnIterator(null, null, "price").hasNext());
+        Assert.that(trades.getSummary(new Date(from), new Date(from + (long)count*MSECS_PER_DAY)).count == 0);
+        for (i = 0; i < count; i++) { 
+            Trade trade = new Trade();
+            trade.time = from + (long)i*MSECS_PER_DAY;
+            trade.price = i;
+            trade.exchange = "NYSE";
+            trades.add(trade);
+        }
+        i = 0;
+        for (TimeSeries.Columns columns : trades.columnIterator(null, null, "price")) { 
+            for (int j = 0; j < columns.size; j++, i++) { 
+                Assert.that(columns.values[0][j] == i);
+            }
+        }
+        Assert.that(i == count);
+        Assert.that(trades.getSummary(null, null).sum[0] == (double)count*(count-1)/2);
+        try { 
+            trades.columnIterator(null, null, "exchange");
+            Assert.failed("Column of non-primitive type");
+        } catch (StorageError x) { 
+            Assert.that(x.getErrorCode() == StorageError.UNSUPPORTED_TYPE);
+        }
+        trades.deallocate();
+        
+        db.close();
+    }
+
+    static void checkSummary(TimeSeries<Quote> quotes, TimeSeries.Summary summary, long from, long till) { 
+        long count = 0;
+        double sumVolume = 0;
+        double maxHigh = 0;
+        for (Quote quote : quotes.iterator(new Date(from), new Date(till))) { 
+            count += 1;
+            sumVolume += quote.volume;
+            maxHigh = Math.max(maxHigh, quote.high);
+        }
+        Assert.that(summary.count == count);
+        Assert.that(summary.sum[0] == sumVolume);
+        Assert.that(count == 0 || summary.max[1] == maxHigh);
+    }
+}
+
+
+
+
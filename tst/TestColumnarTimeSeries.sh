@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -classpath .:../lib/perst.jar TestColumnarTimeSeries $1 $2 $3
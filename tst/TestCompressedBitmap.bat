@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestCompressedBitmap %1 %2 %3
@@ -0,0 +1,148 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestCompressedBitmap extends Persistent
+{
+    static class Record extends Persistent
+    {
+        int color;
+        int shape;
+
+        Record(int color, int shape) {
+            this.color = color;
+            this.shape = shape;
+        }
+        Record() {}
+    }
+
+    Index<CompressedBitmap<Record>> colors;
+    Index<CompressedBitmap<Record>> shapes;
+
+    final static int nRecords = 200000;
+    final static int nColors = 10;
+    final static int nShapes = 1000;
+    final static int nIterations = 100;
+
+    static void check(CompressedBitmap<Record> bitmap, TreeSet<Integer> set) {
+        Assert.that(bitmap.size() == set.size());
+        int[] oids = bitmap.toOidArray();
+        int i = 0;
+        for (int oid : set) {
+            Assert.that(oids[i++] == oid);
+        }
+        Assert.that(i == oids.length);
+    }
+
+    static CompressedBitmap<Record> get(Index<CompressedBitmap<Record>> index, int key) {
+        CompressedBitmap<Record> bitmap = index.get(new Key(key));
+        if (bitmap == null) {
+            bitmap = new CompressedBitmap<Record>(index.getStorage());
+            index.put(new Key(key), bitmap);
+        }
+        return bitmap;
+    }
+
+    public static void main(String[] args) {
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open("testcbm.dbs");
+        TestCompressedBitmap root = (TestCompressedBitmap)db.getRoot();
+        if (root == null) {
+            root = new TestCompressedBitmap();
+            root.colors = db.<CompressedBitmap<Record>>createIndex(int.class, true);
+            root.shapes = db.<CompressedBitmap<Record>>createIndex(int.class, true);
+            db.setRoot(root);
+        }
+
+        // compare results of set operations with TreeSet for sparse and dense sets
+        Random rnd = new Random(2009);
+        for (int i = 0; i < nIterations; i++) {
+            CompressedBitmap<Record> b1 = new CompressedBitmap<Record>(db);
+            CompressedBitmap<Record> b2 = new CompressedBitmap<Record>(db);
+            TreeSet<Integer> s1 = new TreeSet<Integer>();
+            TreeSet<Integer> s2 = new TreeSet<Integer>();
+            int range = 1 + rnd.nextInt(300000);
+            int n1 = rnd.nextInt(20000);
+            int n2 = rnd.nextInt(20000);
+            for (int j = 0; j < n1; j++) {
+                int oid = 1 + rnd.nextInt(range);
+                Assert.that(b1.add(oid) == s1.add(oid));
+            }
+            for (int j = 0; j < n2; j++) {
+                int oid = 1 + rnd.nextInt(range);
+                Assert.that(b2.add(oid) == s2.add(oid));
+            }
+            for (int j = 0; j < n1/2; j++) {
+                int oid = 1 + rnd.nextInt(range);
+                Assert.that(b1.remove(oid) == s1.remove(oid));
+            }
+            check(b1, s1);
+            check(b2, s2);
+            TreeSet<Integer> s = new TreeSet<Integer>(s1);
+            s.retainAll(s2);
+            check(b1.and(b2), s);
+            check(CompressedBitmap.intersect(b2, b1), s);
+            s = new TreeSet<Integer>(s1);
+            s.addAll(s2);
+            check(b1.or(b2), s);
+            s = new TreeSet<Integer>(s1);
+            s.removeAll(s2);
+            check(b1.andNot(b2), s);
+        }
+
+        // bitmaps as values of indexes
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nRecords; i++) {
+            Record rec = new Record(rnd.nextInt(nColors), rnd.nextInt(nShapes));
+            int oid = db.makePersistent(rec);
+            get(root.colors, rec.color).add(oid);
+            get(root.shapes, rec.shape).add(oid);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        db.close();
+        db.open("testcbm.dbs");
+        root = (TestCompressedBitmap)db.getRoot();
+
+        start = System.currentTimeMillis();
+        int total = 0;
+        for (int color = 0; color < nColors; color++) {
+            CompressedBitmap<Record> byColor = root.colors.get(new Key(color));
+            for (int shape = 0; shape < nShapes; shape++) {
+                CompressedBitmap<Record> byShape = root.shapes.get(new Key(shape));
+                int n = 0;
+                for (Record rec : byColor.and(byShape)) {
+                    Assert.that(rec.color == color && rec.shape == shape);
+                    n += 1;
+                }
+                total += n;
+            }
+        }
+        Assert.that(total == nRecords);
+        System.out.println("Elapsed time for " + nColors*nShapes + " intersections: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        CompressedBitmap<Record> all = new CompressedBitmap<Record>(db);
+        for (CompressedBitmap<Record> bitmap : root.colors) {
+            all = all.or(bitmap);
+        }
+        Assert.that(all.size() == nRecords);
+        for (Record rec : all) {
+            if (rec.color == 0) {
+                root.colors.get(new Key(0)).removeObject(rec);
+            }
+        }
+        db.commit();
+        Assert.that(root.colors.get(new Key(0)).isEmpty());
+        Assert.that(all.andNot(root.colors.get(new Key(1))).size() == nRecords - root.colors.get(new Key(1)).size());
+
+        root.colors.deallocateMembers();
+        root.shapes.deallocateMembers();
+        for (Record rec : all) {
+            rec.deallocate();
+        }
+        db.commit();
+        db.close();
+    }
+}
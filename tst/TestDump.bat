@@ -0,0 +1 @@
+java -Xmx256M -classpath .;..\lib\perst.jar TestDump %1 %2 %3
@@ -0,0 +1,121 @@
+import org.garret.perst.*;
+
+import java.io.*;
+
+public class TestDump { 
+    static class Record extends Persistent { 
+        String strKey;
+        long   intKey;
+        double realKey;
+    };
+    
+    static class Indices extends Persistent {
+        Index      strIndex;
+        FieldIndex intIndex;
+        FieldIndex compoundIndex;
+        BitIndex   bitIndex;
+        IPersistentHash<String,Record> hash;
+    }
+
+    final static int nRecords = 100000;
+    final static int nBitIndexSkip = 50;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static public void main(String[] args) throws Exception {   
+        Storage db = StorageFactory.getInstance().createStorage();
+        boolean compress = false;
+
+        for (int i = 0; i < args.length; i++) { 
+            if ("altbtree".equals(args[i])) { 
+                db.setProperty("perst.alternative.btree", Boolean.TRUE);
+            } else if ("compress".equals(args[i])) { 
+                compress = true;
+            }
+        }
+        db.open("test1.dbs", pagePoolSize);
+        Indices root = (Indices)db.getRoot();
+        if (root == null) { 
+            root = new Indices();
+            root.strIndex = db.createIndex(String.class, true);
+            root.intIndex = db.createFieldIndex(Record.class, "intKey", true);
+            root.compoundIndex = db.createFieldIndex(Record.class, new String[]{"strKey", "intKey"}, true);
+            root.bitIndex = db.createBitIndex();
+            root.hash = db.createLinearHash(String.class);
+            db.setRoot(root);
+        }
+        FieldIndex intIndex = root.intIndex;
+        FieldIndex compoundIndex = root.compoundIndex;
+        Index strIndex = root.strIndex;
+        BitIndex bitIndex = root.bitIndex;
+        IPersistentHash<String,Record> hash = root.hash;
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        int i;
+        for (i = 0; i < nRecords; i++) { 
+            Record rec = new Record();
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            rec.intKey = key;
+            rec.strKey = Long.toString(key);
+            rec.realKey = (double)key;
+            intIndex.put(rec);                
+            strIndex.put(new Key(rec.strKey), rec);                
+            compoundIndex.put(rec);                
+            if (i % nBitIndexSkip == 0) { 
+                bitIndex.put(rec, (int)key);
+                hash.put(rec.strKey, rec);
+            }
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nRecords + " records: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream("test.dmp"));
+        db.exportBinary(out, compress);
+        out.close();
+        System.out.println("Elapsed time for binary export " + (System.currentTimeMillis() - start) + " milliseconds");
+        db.close();
+        db.open("test2.dbs", pagePoolSize);
+
+        start = System.currentTimeMillis();
+        InputStream in = new BufferedInputStream(new FileInputStream("test.dmp"));
+        db.importBinary(in);
+        in.close();
+        System.out.println("Elapsed time for binary import " + (System.currentTimeMillis() - start) + " milliseconds");
+        root = (Indices)db.getRoot();
+        intIndex = root.intIndex;
+        strIndex = root.strIndex;
+        compoundIndex = root.compoundIndex;
+        bitIndex = root.bitIndex;
+        hash = root.hash;
+        Assert.that(bitIndex.size() == (nRecords + nBitIndexSkip - 1) / nBitIndexSkip);
+        Assert.that(hash.size() == bitIndex.size());
+        
+        start = System.currentTimeMillis();
+        key = 1999;
+        for (i = 0; i < nRecords; i++) { 
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            String strKey = Long.toString(key);
+            Record rec1 = (Record)intIndex.get(new Key(key));
+            Record rec2 = (Record)strIndex.get(new Key(strKey));
+            Record rec3 = (Record)compoundIndex.get(new Key(strKey, Long.valueOf(key)));
+            Assert.that(rec1 != null);
+            Assert.that(rec1 == rec2);
+            Assert.that(rec1 == rec3);
+            Assert.that(rec1.intKey == key);
+            Assert.that(rec1.realKey == (double)key);
+            Assert.that(strKey.equals(rec1.strKey));
+            if (i % nBitIndexSkip == 0) { 
+                Assert.that(bitIndex.getMask(rec1) == (int)key);
+                Assert.that(hash.get(strKey) == rec1);
+            }
+        }
+        System.out.println("Elapsed time for performing " + nRecords*2 + " index searches: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        db.close();
+    }
+}
+
+
+
+
@@ -0,0 +1,3 @@
+#!/bin/sh
+
+java -Xmx256M -classpath .:../lib/perst.jar TestDump $1 $2 $3
@@ -8,6 +8,7 @@ public class TestFullTextIndex
 { 
     static final String LANGUAGE = "en";
     static final int SEARCH_TIME_LIMIT = 2*1000; // 2 seconds
+    static final int BUFFER_SIZE = 10000; // postings accumulated in memory in batch mode
 
     static class SourceFile extends Persistent implements FullTextSearchable 
     { 
@@ -64,6 +65,7 @@ public class TestFullTextIndex
     public static void main(String[] args) throws IOException 
     { 
         boolean reload = args.length > 0 && "reload".equals(args[0]);
+        boolean batch = args.length > 0 && "batch".equals(args[0]);
 
         Storage db = StorageFactory.getInstance().createStorage();
         db.open("testfulltext.dbs");
@@ -77,6 +79,9 @@ public class TestFullTextIndex
             File dir = new File(".");
             File[] files = dir.listFiles();
             long start = System.currentTimeMillis();
+            if (batch) { 
+                project.index.setBufferSize(BUFFER_SIZE);
+            }
             for (int i = 0; i < files.length; i++) { 
                 String fileName = files[i].getName();
                 if (fileName.endsWith(".java")) {
@@ -88,6 +93,13 @@ public class TestFullTextIndex
                     project.index.add(file);
                 }
             }
+            if (batch) { 
+                // buffered postings should be saved by commit without explicit flush
+                db.commit();
+                db.close();
+                db.open("testfulltext.dbs");
+                project = (Project)db.getRoot();
+            }
             System.out.println(project.sources.size() + " files are imported to the project in " + (System.currentTimeMillis() - start) + " milliseconds");
         } 
         FullTextSearchResult result;
@@ -105,12 +117,18 @@ public class TestFullTextIndex
         result = project.index.search("class", LANGUAGE, 10, SEARCH_TIME_LIMIT);
         Assert.that(result.estimation == project.sources.size()
                     && result.hits.length == 10);
+        FullTextSearchResult all = project.index.search("class", LANGUAGE, 1000, SEARCH_TIME_LIMIT);
+        for (int i = 0; i < 10; i++) { 
+            Assert.that(result.hits[i].rank == all.hits[i].rank);
+        }
 
+        // this file, TestKDTree, TestKDTree2, TestNeighbors, TestRtree and TestRtreeBulk
         result = project.index.search("MultidimensionalIndex OR SpatialIndex", LANGUAGE, 10, SEARCH_TIME_LIMIT);
-        Assert.that(result.estimation == 4 && result.hits.length == 4);
+        Assert.that(result.estimation == 6 && result.hits.length == 6);
 
+        // this file, TestAlloc, TestKDTree2 and TestNeighbors
         result = project.index.search("(MultidimensionalIndex AND MultidimensionalComparator) OR (Blob AND registerCustomAllocator)", LANGUAGE, 10, SEARCH_TIME_LIMIT);
-        Assert.that(result.estimation == 3 && result.hits.length == 3);
+        Assert.that(result.estimation == 4 && result.hits.length == 4);
         
         result = project.index.search("(MultidimensionalIndex AND Single" + "dimensionalIndex) OR (Blob AND registerCustomAllocator)", LANGUAGE, 10, SEARCH_TIME_LIMIT);
         Assert.that(result.estimation == 2 && result.hits.length == 2);
@@ -157,9 +175,10 @@ public class TestFullTextIndex
         result = project.index.search("class", LANGUAGE, 0, 0);
         Assert.that(result.estimation == project.sources.size() && result.hits.length == 0);
                     
+        // TestDecimal and TestParallelAgg do not open storage
         result = project.index.search("class public static void main string perst open", LANGUAGE, 1000, SEARCH_TIME_LIMIT);
         Assert.that(result.estimation == result.hits.length 
-                    && project.sources.size() == result.hits.length+1);
+                    && project.sources.size() == result.hits.length+2);
         System.out.println("Elapsed time for full text searches: " + (System.currentTimeMillis() - start) + " milliseconds");
 
         db.close();
@@ -28,12 +28,16 @@ public class TestIndex {
 
         int pagePoolSize = 32*1024*1024;
         FileType fileType = FileType.Normal;
+        PageCodec codec = null;
         for (int i = 0; i < args.length; i++) { 
             String opt = args[i];
             if (opt.equals("map")) { 
                 fileType = FileType.MemoryMapped;
             } else if (opt.equals("zip")) {
                 fileType = FileType.Compressed;
+            } else if (opt.equals("lz")) {
+                fileType = FileType.Compressed;
+                codec = new CompressedReadWriteFile.LZCodec();
             } else if (opt.equals("multifile")) {
                 fileType = FileType.Multifile;
             } else if ("inmemory".equals(opt)) { 
@@ -46,7 +50,7 @@ public class TestIndex {
                 db.setProperty("perst.gc.threshold", new Integer(1024*1024));
                 db.setProperty("perst.background.gc", Boolean.TRUE);
             } else { 
-                System.out.println("Options:\n\t-map use memory mapped file\n\t-zip use compressed file");
+                System.out.println("Options:\n\t-map use memory mapped file\n\t-zip use compressed file\n\t-lz use compressed file with LZ codec");
                 return;
             }
         } 
@@ -55,7 +59,11 @@ public class TestIndex {
             db.open("testidx.dbs", pagePoolSize);
             break;
         case Compressed:
-            db.open(new CompressedReadWriteFile("testidx.dbz", CIPHER_KEY), pagePoolSize);                
+            CompressedReadWriteFile file = new CompressedReadWriteFile("testidx.dbz", CIPHER_KEY);
+            if (codec != null) { 
+                file.setCodec(codec);
+            }
+            db.open(file, pagePoolSize);                
             break;
         case MemoryMapped:
             db.open(new MappedFile("testidx.dbs", pagePoolSize, false), pagePoolSize);
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestLegacyFullTextIndex %1 %2 %3
@@ -0,0 +1,132 @@
+import org.garret.perst.*;
+import org.garret.perst.fulltext.*;
+import org.garret.perst.impl.FullTextIndexImpl;
+
+import java.io.*;
+
+public class TestLegacyFullTextIndex
+{
+    static final String LANGUAGE = "en";
+    static final int SEARCH_TIME_LIMIT = 10*1000; // 10 seconds
+    static final int nDocuments = 10000;
+    static final int nWordsInDocument = 10;
+    static final int maxResults = 10;
+
+    /**
+     * Index keeping inverse lists in the format used by previous versions
+     */
+    static class LegacyFullTextIndex extends FullTextIndexImpl
+    {
+        LegacyFullTextIndex(Storage storage, FullTextSearchHelper helper) {
+            super(storage, helper);
+            compressedPostings = false;
+        }
+
+        LegacyFullTextIndex() {}
+    }
+
+    static class NoNearnessHelper extends FullTextSearchHelper
+    {
+        public float getNearnessWeight() {
+            return -1;
+        }
+
+        NoNearnessHelper(Storage storage) {
+            super(storage);
+        }
+
+        NoNearnessHelper() {}
+    }
+
+    static class Document extends Persistent implements FullTextSearchable
+    {
+        int    no;
+        String text;
+
+        public Reader getText() {
+            return new StringReader(text);
+        }
+
+        public String getLanguage() {
+            return LANGUAGE;
+        }
+
+        Document(int no) {
+            this.no = no;
+            // number of occurrences of the keyword (and so rank of the document) depends on document number,
+            // documents which number is multiple of nWordsInDocument don't contain keyword at all
+            StringBuilder buf = new StringBuilder();
+            for (int i = 0; i < nWordsInDocument; i++) {
+                buf.append(i < no % nWordsInDocument ? "common " : "filler ");
+            }
+            text = buf.toString();
+        }
+
+        Document() {}
+    }
+
+    static void populate(FullTextIndex index) {
+        for (int i = 0; i < nDocuments; i++) {
+            index.add(new Document(i));
+        }
+    }
+
+    /**
+     * Check that search is stopped when maxResults documents are found: these are the first inserted matching documents
+     * @param lastNo number of last of first maxResults documents matching the query
+     */
+    static void checkFirstDocuments(FullTextIndex index, String query, int lastNo) {
+        long start = System.currentTimeMillis();
+        FullTextSearchResult result = index.search(query, LANGUAGE, maxResults, SEARCH_TIME_LIMIT);
+        System.out.println("Elapsed time for search of \"" + query + "\": " + (System.currentTimeMillis() - start) + " milliseconds");
+        Assert.that(result.hits.length == maxResults);
+        for (int i = 0; i < result.hits.length; i++) {
+            Assert.that(((Document)result.hits[i].getDocument()).no <= lastNo);
+        }
+    }
+
+    /**
+     * Check that documents with the highest rank are found
+     */
+    static void checkBestDocuments(FullTextIndex index, String query) {
+        long start = System.currentTimeMillis();
+        FullTextSearchResult result = index.search(query, LANGUAGE, maxResults, SEARCH_TIME_LIMIT);
+        System.out.println("Elapsed time for search of \"" + query + "\": " + (System.currentTimeMillis() - start) + " milliseconds");
+        Assert.that(result.hits.length == maxResults);
+        for (int i = 0; i < result.hits.length; i++) {
+            Assert.that(((Document)result.hits[i].getDocument()).no % nWordsInDocument == nWordsInDocument - 1);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open("testlegacyft.dbs");
+        FullTextIndex legacy = new LegacyFullTextIndex(db, new FullTextSearchHelper(db));
+        FullTextIndex noNearness = db.createFullTextIndex(new NoNearnessHelper(db));
+        FullTextIndex current = db.createFullTextIndex();
+        IPersistentList<FullTextIndex> root = db.<FullTextIndex>createList();
+        root.add(legacy);
+        root.add(noNearness);
+        root.add(current);
+        db.setRoot(root);
+
+        long start = System.currentTimeMillis();
+        populate(legacy);
+        populate(noNearness);
+        populate(current);
+        db.commit();
+        System.out.println("Elapsed time for indexing " + nDocuments + " documents: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        // rank of documents in inverse lists of previous versions is unbounded
+        checkFirstDocuments(legacy, "common", maxResults + 1);
+        checkFirstDocuments(legacy, "common OR filler", maxResults - 1);
+        legacy.setSearchThreads(4);
+        checkFirstDocuments(legacy, "common", maxResults + 1);
+        checkFirstDocuments(noNearness, "common", maxResults + 1);
+        checkBestDocuments(current, "common");
+
+        db.close();
+    }
+}
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestLinearHash
\ No newline at end of file
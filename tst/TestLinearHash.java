@@ -0,0 +1,163 @@
+import org.garret.perst.*;
+
+import java.util.*;
+import java.io.*;
+
+public class TestLinearHash {
+    static class Record extends Persistent {
+        String strKey;
+        long   intKey;
+    };
+
+    static class Root extends Persistent {
+        IPersistentHash<String,Record> strHash;
+        IPersistentHash<Long,Record>   intHash;
+        IPersistentHash<String,Record> treeHash;
+        IPersistentHash<Record,Record> objHash;
+    }
+
+    final static int nRecords = 100000;
+    final static int pagePoolSize = 32*1024*1024;
+
+    static void exportImport(Storage db) throws Exception {
+        long start = System.currentTimeMillis();
+        Writer writer = new BufferedWriter(new FileWriter("testlinhash.xml"));
+        db.exportXML(writer);
+        writer.close();
+        Storage db2 = StorageFactory.getInstance().createStorage();
+        db2.open("testlinhash2.dbs", pagePoolSize);
+        Reader reader = new BufferedReader(new FileReader("testlinhash.xml"));
+        db2.importXML(reader);
+        reader.close();
+        Root root = (Root)db2.getRoot();
+        long key = 1999;
+        for (int i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec = root.intHash.get(key);
+            Assert.that(rec != null && rec.intKey == key);
+            Assert.that(root.strHash.get(rec.strKey) == rec);
+            Assert.that(root.objHash.get(rec) == rec);
+        }
+        Assert.that(root.intHash.size() == nRecords && root.strHash.size() == nRecords && root.objHash.size() == nRecords);
+        db2.close();
+        System.out.println("Elapsed time for XML export and import: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+    }
+
+    static public void main(String[] args) throws Exception {
+        Storage db = StorageFactory.getInstance().createStorage();
+
+        db.open("testlinhash.dbs", pagePoolSize);
+        Root root = (Root)db.getRoot();
+        if (root == null) {
+            root = new Root();
+            root.strHash = db.<String,Record>createLinearHash(String.class);
+            root.intHash = db.<Long,Record>createLinearHash(long.class);
+            root.treeHash = db.<String,Record>createHash();
+            root.objHash = db.<Record,Record>createLinearHash(Record.class);
+            db.setRoot(root);
+        }
+        IPersistentHash<String,Record> strHash = root.strHash;
+        IPersistentHash<Long,Record> intHash = root.intHash;
+        IPersistentHash<String,Record> treeHash = root.treeHash;
+        long start = System.currentTimeMillis();
+        long key = 1999;
+        int i;
+        for (i = 0; i < nRecords; i++) {
+            Record rec = new Record();
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            rec.intKey = key;
+            rec.strKey = Long.toString(key);
+            strHash.put(rec.strKey, rec);
+            intHash.put(rec.intKey, rec);
+            root.objHash.put(rec, rec);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nRecords + " records in linear hash: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        for (Record rec : intHash.values()) {
+            treeHash.put(rec.strKey, rec);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nRecords + " records in hierarchical hash: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        db.close();
+        db.open("testlinhash.dbs", pagePoolSize);
+        root = (Root)db.getRoot();
+        strHash = root.strHash;
+        intHash = root.intHash;
+        treeHash = root.treeHash;
+
+        start = System.currentTimeMillis();
+        key = 1999;
+        for (i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec1 = strHash.get(Long.toString(key));
+            Record rec2 = intHash.get(key);
+            Assert.that(rec1 != null && rec1 == rec2 && rec1.intKey == key);
+        }
+        System.out.println("Elapsed time for performing " + nRecords*2 + " linear hash searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        key = 1999;
+        for (i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec = treeHash.get(Long.toString(key));
+            Assert.that(rec != null && rec.intKey == key);
+        }
+        System.out.println("Elapsed time for performing " + nRecords + " hierarchical hash searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        for (i = 0; i < nRecords; i++) {
+            // keys of records are in [0, 1000000007) interval
+            key = 1000000007L + i;
+            Assert.that(strHash.get(Long.toString(key)) == null);
+            Assert.that(intHash.get(key) == null);
+        }
+
+        db.gc();
+        Assert.that(strHash.size() == nRecords && intHash.size() == nRecords);
+        i = 0;
+        for (Map.Entry<Long,Record> e : intHash.entrySet()) {
+            Assert.that(e.getKey().longValue() == e.getValue().intKey);
+            i += 1;
+        }
+        Assert.that(i == nRecords);
+
+        exportImport(db);
+
+        start = System.currentTimeMillis();
+        key = 1999;
+        for (i = 0; i < nRecords; i++) {
+            key = (3141592621L*key + 2718281829L) % 1000000007L;
+            Record rec = intHash.remove(key);
+            Assert.that(rec != null && rec.intKey == key);
+            Assert.that(strHash.remove(Long.toString(key)) == rec);
+            Assert.that(treeHash.remove(Long.toString(key)) == rec);
+            Assert.that(root.objHash.remove(rec) == rec);
+            if ((i & 1) == 0) {
+                rec.deallocate();
+            } else {
+                strHash.put(rec.strKey, rec);
+            }
+        }
+        Assert.that(intHash.isEmpty() && strHash.size() == nRecords/2);
+        System.out.println("Elapsed time for removing " + nRecords + " records: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        db.commit();
+        db.gc();
+        i = 0;
+        for (Record rec : strHash.values()) {
+            Assert.that(strHash.get(rec.strKey) == rec);
+            i += 1;
+        }
+        Assert.that(i == nRecords/2);
+        strHash.clear();
+        Assert.that(!strHash.entrySet().iterator().hasNext());
+        db.close();
+    }
+}
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestNeighbors %1 %2 %3
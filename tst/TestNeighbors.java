@@ -0,0 +1,187 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestNeighbors extends Persistent
+{
+    static class Vector extends Persistent
+    {
+        double[] coords;
+
+        Vector(double[] coords) {
+            this.coords = coords;
+        }
+        Vector() {}
+    }
+
+    static class Point extends Persistent
+    {
+        int x;
+        int y;
+        int z;
+    }
+
+    static class VectorComparator extends MultidimensionalComparator<Vector>
+    {
+        public int compare(Vector m1, Vector m2, int i) {
+            return m1.coords[i] < m2.coords[i] ? LT : m1.coords[i] == m2.coords[i] ? EQ : GT;
+        }
+
+        public int getNumberOfDimensions() {
+            return nDims;
+        }
+
+        public Vector cloneField(Vector obj, int i) {
+            Vector clone = new Vector(new double[nDims]);
+            clone.coords[i] = obj.coords[i];
+            return clone;
+        }
+
+        public double getDistance(Vector m1, Vector m2, int i) {
+            return Math.abs(m1.coords[i] - m2.coords[i]);
+        }
+
+        VectorComparator(Storage storage) {
+            super(storage);
+        }
+        VectorComparator() {}
+    }
+
+    SpatialIndexRn<Vector>       rtree;
+    MultidimensionalIndex<Vector> kdtree;
+    MultidimensionalIndex<Point>  pointTree;
+
+    final static int nDims = 16;
+    final static int nVectors = 20000;
+    final static int nPoints = 100000;
+    final static int nQueries = 100;
+    final static int k = 10;
+    final static double radius = 700;
+
+    static double distance(double[] a, double[] b) {
+        double d = 0;
+        for (int i = 0; i < a.length; i++) {
+            d += (a[i] - b[i])*(a[i] - b[i]);
+        }
+        return Math.sqrt(d);
+    }
+
+    static double distance(Point a, Point b) {
+        return Math.sqrt((double)(a.x - b.x)*(a.x - b.x) + (double)(a.y - b.y)*(a.y - b.y) + (double)(a.z - b.z)*(a.z - b.z));
+    }
+
+    static void checkNeighbors(Iterator<Vector> iterator, double[] center, double[] distances, int count) {
+        double prev = 0;
+        for (int i = 0; i < count; i++) {
+            Assert.that(iterator.hasNext());
+            double d = distance(center, iterator.next().coords);
+            Assert.that(d >= prev && Math.abs(d - distances[i]) < 1e-6);
+            prev = d;
+        }
+        Assert.that(!iterator.hasNext());
+    }
+
+    public static void main(String[] args) {
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open("testneighbors.dbs");
+        TestNeighbors root = (TestNeighbors)db.getRoot();
+        if (root == null) {
+            root = new TestNeighbors();
+            root.rtree = db.<Vector>createSpatialIndexRn();
+            root.kdtree = db.<Vector>createMultidimensionalIndex(new VectorComparator(db));
+            root.pointTree = db.<Point>createMultidimensionalIndex(Point.class, new String[] {"x", "y", "z"}, true);
+            db.setRoot(root);
+        }
+        Random rnd = new Random(2009);
+        Vector[] vectors = new Vector[nVectors];
+        for (int i = 0; i < nVectors; i++) {
+            // vectors are grouped in clusters like feature vectors of similar objects
+            double[] coords = new double[nDims];
+            double base = rnd.nextInt(10)*100;
+            for (int j = 0; j < nDims; j++) {
+                coords[j] = base + rnd.nextInt(100);
+            }
+            Vector v = new Vector(coords);
+            vectors[i] = v;
+            root.rtree.put(new RectangleRn(new PointRn(coords), new PointRn(coords)), v);
+            root.kdtree.add(v);
+        }
+        Point[] points = new Point[nPoints];
+        for (int i = 0; i < nPoints; i++) {
+            Point p = new Point();
+            // zero is treated as undefined value
+            p.x = 1 + rnd.nextInt(100000);
+            p.y = 1 + rnd.nextInt(100000);
+            p.z = 1 + rnd.nextInt(100000);
+            points[i] = p;
+            root.pointTree.add(p);
+        }
+        db.commit();
+
+        long rtreeTime = 0, kdtreeTime = 0, scanTime = 0;
+        double[] distances = new double[nVectors];
+        for (int q = 0; q < nQueries; q++) {
+            double[] center = new double[nDims];
+            double base = rnd.nextInt(10)*100;
+            for (int j = 0; j < nDims; j++) {
+                center[j] = base + rnd.nextInt(100);
+            }
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < nVectors; i++) {
+                distances[i] = distance(center, vectors[i].coords);
+            }
+            Arrays.sort(distances);
+            int inRadius = 0;
+            while (inRadius < nVectors && distances[inRadius] <= radius) {
+                inRadius += 1;
+            }
+            scanTime += System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            PointRn point = new PointRn(center);
+            checkNeighbors(root.rtree.getNeighbors(point, k).iterator(), center, distances, k);
+            checkNeighbors(root.rtree.neighborIterator(point, radius), center, distances, inRadius);
+            rtreeTime += System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            Vector pattern = new Vector(center);
+            checkNeighbors(root.kdtree.getNeighbors(pattern, k).iterator(), center, distances, k);
+            checkNeighbors(root.kdtree.neighborIterator(pattern, radius), center, distances, inRadius);
+            kdtreeTime += System.currentTimeMillis() - start;
+        }
+        System.out.println("Elapsed time for " + nQueries + " kNN and radius searches in R-tree: "
+                           + rtreeTime + " milliseconds");
+        System.out.println("Elapsed time for " + nQueries + " kNN and radius searches in KD-tree: "
+                           + kdtreeTime + " milliseconds");
+        System.out.println("Elapsed time for " + nQueries + " sequential scans: " + scanTime + " milliseconds");
+
+        for (int q = 0; q < nQueries; q++) {
+            Point center = points[rnd.nextInt(nPoints)];
+            ArrayList<Point> neighbors = root.pointTree.getNeighbors(center, k);
+            Assert.that(neighbors.size() == k && neighbors.get(0) == center);
+            double kth = distance(center, neighbors.get(k-1));
+            int n = 0;
+            for (int i = 0; i < nPoints; i++) {
+                if (distance(center, points[i]) < kth) {
+                    n += 1;
+                }
+            }
+            Assert.that(n < k);
+        }
+        // undefined components of pattern are ignored
+        Point pattern = new Point();
+        pattern.x = 50000;
+        Iterator<Point> iterator = root.pointTree.neighborIterator(pattern);
+        int n = 0;
+        int prev = 0;
+        while (iterator.hasNext()) {
+            Point p = iterator.next();
+            int d = Math.abs(p.x - pattern.x);
+            Assert.that(d >= prev);
+            prev = d;
+            n += 1;
+        }
+        Assert.that(n == nPoints);
+        db.close();
+    }
+}
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestParallelAgg %1 %2 %3
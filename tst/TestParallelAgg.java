@@ -0,0 +1,119 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestParallelAgg
+{
+    static class Tick
+    {
+        int    symbol;
+        long   volume;
+        double price;
+    }
+
+    final static int nTicks = 2000000;
+    final static int nSymbols = 1000;
+    final static int nThreads = 4;
+
+    static long[] volumes = new long[nSymbols];
+    static double[] prices = new double[nSymbols];
+    static int[] counts = new int[nSymbols];
+
+    static void check(Map<Object,Aggregator.Aggregate> result) {
+        int n = 0;
+        for (int i = 0; i < nSymbols; i++) {
+            if (counts[i] != 0) {
+                Object r = result.get(Integer.valueOf(i)).result();
+                if (r instanceof Long) {
+                    Assert.that(((Long)r).longValue() == volumes[i]);
+                } else {
+                    Assert.that(Math.abs(((Double)r).doubleValue() - prices[i]/counts[i]) < 1e-6);
+                }
+                n += 1;
+            }
+        }
+        Assert.that(result.size() == n);
+    }
+
+    public static void main(String[] args) {
+        Random rnd = new Random(2013);
+        ArrayList<Tick> ticks = new ArrayList<Tick>(nTicks);
+        for (int i = 0; i < nTicks; i++) {
+            Tick t = new Tick();
+            t.symbol = rnd.nextInt(nSymbols);
+            t.volume = rnd.nextInt(1000000);
+            t.price = rnd.nextInt(100000)/100.0;
+            ticks.add(t);
+            volumes[t.symbol] += t.volume;
+            prices[t.symbol] += t.price;
+            counts[t.symbol] += 1;
+        }
+        // iterable which is not random access list: chunks are distributed between threads
+        final List<Tick> list = ticks;
+        Iterable<Tick> stream = new Iterable<Tick>() {
+            public Iterator<Tick> iterator() {
+                return list.iterator();
+            }
+        };
+
+        long start = System.currentTimeMillis();
+        check(Aggregator.<Tick>aggregate(ticks, new Aggregator.GroupBy<Tick>() {
+            public Aggregator.Aggregate getAggregate() { return new Aggregator.IntegerSumAggregate(); }
+            public Object getKey(Tick t) { return Integer.valueOf(t.symbol); }
+            public Object getValue(Tick t) { return Long.valueOf(t.volume); }
+        }, false));
+        check(Aggregator.<Tick>aggregate(ticks, new Aggregator.GroupBy<Tick>() {
+            public Aggregator.Aggregate getAggregate() { return new Aggregator.AvgAggregate(); }
+            public Object getKey(Tick t) { return Integer.valueOf(t.symbol); }
+            public Object getValue(Tick t) { return Double.valueOf(t.price); }
+        }, true));
+        System.out.println("Elapsed time for sequential aggregation: " + (System.currentTimeMillis() - start) + " milliseconds");
+
+        Aggregator.LongGroupBy<Tick> volumeGroupBy = new Aggregator.LongGroupBy<Tick>() {
+            public Aggregator.LongAggregate getAggregate() { return new Aggregator.LongSumAggregate(); }
+            public Object getKey(Tick t) { return Integer.valueOf(t.symbol); }
+            public long getValue(Tick t) { return t.volume; }
+        };
+        Aggregator.DoubleGroupBy<Tick> priceGroupBy = new Aggregator.DoubleGroupBy<Tick>() {
+            public Aggregator.DoubleAggregate getAggregate() { return new Aggregator.DoubleAvgAggregate(); }
+            public Object getKey(Tick t) { return Integer.valueOf(t.symbol); }
+            public double getValue(Tick t) { return t.price; }
+        };
+
+        start = System.currentTimeMillis();
+        check(Aggregator.<Tick>aggregate(ticks, volumeGroupBy, false));
+        check(Aggregator.<Tick>aggregate(ticks, priceGroupBy, true));
+        System.out.println("Elapsed time for sequential aggregation without boxing: " + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        check(Aggregator.<Tick>aggregate(ticks, volumeGroupBy, false, nThreads));
+        check(Aggregator.<Tick>aggregate(ticks, priceGroupBy, true, nThreads));
+        System.out.println("Elapsed time for parallel aggregation of list: " + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        check(Aggregator.<Tick>aggregate(stream, volumeGroupBy, true, nThreads));
+        check(Aggregator.<Tick>aggregate(stream, priceGroupBy, false, nThreads));
+        System.out.println("Elapsed time for parallel aggregation of stream: " + (System.currentTimeMillis() - start) + " milliseconds");
+
+        Map<Object,Aggregator.Aggregate> result = Aggregator.<Tick>aggregate(stream, new Aggregator.GroupBy<Tick>() {
+            public Aggregator.Aggregate getAggregate() { return new Aggregator.CountAggregate(); }
+            public Object getKey(Tick t) { return Integer.valueOf(t.symbol); }
+            public Object getValue(Tick t) { return null; }
+        }, false, nThreads);
+        long total = 0;
+        for (Aggregator.Aggregate agg : result.values()) {
+            total += ((Long)agg.result()).longValue();
+        }
+        Assert.that(total == nTicks);
+
+        // errors in aggregation threads are propagated to the caller
+        try {
+            Aggregator.<Tick>aggregate(stream, new Aggregator.GroupBy<Tick>() {
+                public Aggregator.Aggregate getAggregate() { return new Aggregator.CountAggregate(); }
+                public Object getKey(Tick t) { throw new IllegalStateException(); }
+                public Object getValue(Tick t) { return null; }
+            }, false, nThreads);
+            Assert.failed("exception expected");
+        } catch (IllegalStateException x) {}
+    }
+}
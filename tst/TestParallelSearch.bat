@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestParallelSearch %1 %2 %3
@@ -0,0 +1,89 @@
+import org.garret.perst.*;
+import org.garret.perst.fulltext.*;
+
+import java.io.*;
+import java.util.*;
+
+public class TestParallelSearch
+{
+    static final String LANGUAGE = "en";
+    static final int SEARCH_TIME_LIMIT = 10*1000; // 10 seconds
+    static final int nDocuments = 10000;
+    static final int nWordsInDocument = 20;
+    static final int nDifferentWords = 20;
+    static final int nThreads = 4;
+
+    static class Document extends Persistent implements FullTextSearchable
+    {
+        String text;
+
+        public Reader getText() {
+            return new StringReader(text);
+        }
+
+        public String getLanguage() {
+            return LANGUAGE;
+        }
+
+        Document(String text) {
+            this.text = text;
+        }
+
+        Document() {}
+    }
+
+    static void compare(FullTextIndex index, String query) {
+        index.setSearchThreads(1);
+        FullTextSearchResult sequential = index.search(query, LANGUAGE, 100, SEARCH_TIME_LIMIT);
+        index.setSearchThreads(nThreads);
+        FullTextSearchResult parallel = index.search(query, LANGUAGE, 100, SEARCH_TIME_LIMIT);
+        Assert.that(sequential.hits.length == parallel.hits.length && sequential.hits.length > 0);
+        for (int i = 0; i < sequential.hits.length; i++) {
+            Assert.that(sequential.hits[i].rank == parallel.hits[i].rank);
+        }
+    }
+
+    public static void main(String[] args)
+    {
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.open("testparsearch.dbs");
+        FullTextIndex index = db.createFullTextIndex();
+        db.setRoot(index);
+
+        Random rnd = new Random(2010);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nDocuments; i++) {
+            StringBuilder buf = new StringBuilder();
+            for (int j = 0; j < nWordsInDocument; j++) {
+                buf.append("word");
+                buf.append((char)('a' + rnd.nextInt(nDifferentWords)));
+                buf.append(' ');
+            }
+            index.add(new Document(buf.toString()));
+        }
+        db.commit();
+        System.out.println("Elapsed time for indexing " + nDocuments + " documents: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        compare(index, "worda wordb wordc wordd");
+        compare(index, "worda OR wordb");
+        compare(index, "\"worda wordb\"");
+        compare(index, "(worda AND wordb) OR (wordc AND wordd)");
+        System.out.println("Elapsed time for sequential and parallel searches: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        // search in interrupted thread is cancelled
+        Thread.currentThread().interrupt();
+        try {
+            index.search("worda wordb wordc wordd", LANGUAGE, 100, SEARCH_TIME_LIMIT);
+            Assert.failed("Search in interrupted thread is completed");
+        } catch (StorageError x) {
+            Assert.that(x.getErrorCode() == StorageError.FULL_TEXT_INDEX_ERROR);
+        }
+        Assert.that(Thread.interrupted());
+        compare(index, "worda wordb wordc wordd");
+
+        db.close();
+    }
+}
@@ -15,7 +15,7 @@ public class TestReplic {
     static int pagePoolSize = 32*1024*1024;
 
     private static void usage() { 
-        System.err.println("Usage: java TestReplic (master|slave) [host:][port] [-async] [-ack]");
+        System.err.println("Usage: java TestReplic (master|slave) [host:][port] [-async] [-ack] [-compress] [-delta] [-nio]");
     }
 
     static public void main(String[] args) {    
@@ -27,6 +27,9 @@ public class TestReplic {
         int port = defaultPort;
         boolean ack = false;
         boolean async = false;
+        boolean compress = false;
+        boolean delta = false;
+        boolean nio = false;
         String host = "localhost";
         for (i = 1; i < args.length; i++) { 
             if (args[i].startsWith("-")) { 
@@ -34,6 +37,12 @@ public class TestReplic {
                     async = true;
                 } else if (args[i].equals("-ack")) { 
                     ack = true;
+                } else if (args[i].equals("-compress")) { 
+                    compress = true;
+                } else if (args[i].equals("-delta")) { 
+                    delta = true;
+                } else if (args[i].equals("-nio")) { 
+                    nio = true;
                 } else { 
                     usage();
                 }
@@ -52,6 +61,9 @@ public class TestReplic {
                                                                             async ? asyncBufSize : 0);
             db.setProperty("perst.file.noflush", Boolean.TRUE);            
             db.setProperty("perst.replication.ack", Boolean.valueOf(ack));
+            db.setProperty("perst.replication.compression", Boolean.valueOf(compress));
+            db.setProperty("perst.replication.delta", Boolean.valueOf(delta));
+            db.setProperty("perst.replication.nio", Boolean.valueOf(nio));
             db.open("master.dbs", pagePoolSize);
 
             FieldIndex<Record> root = (FieldIndex<Record>)db.getRoot();
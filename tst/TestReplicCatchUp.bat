@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestReplicCatchUp %1 %2 %3
@@ -0,0 +1,126 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestReplicCatchUp {
+    static class Record extends Persistent {
+        int key;
+        int value;
+        byte[] data;
+    }
+
+    final static int nRecords = 50000;
+    final static int dataSize = 100;
+    final static int transSize = 100;
+    final static int port = 6030;
+    final static int pagePoolSize = 1024*1024;
+
+    static volatile boolean stop;
+    static int nUpdates;
+
+    static class Writer extends Thread {
+        Storage db;
+
+        Writer(Storage db) {
+            this.db = db;
+        }
+
+        public void run() {
+            Index<Record> root = (Index<Record>)db.getRoot();
+            Random rnd = new Random(2012);
+            while (!stop) {
+                for (int i = 0; i < transSize; i++) {
+                    int key = rnd.nextInt(nRecords*2);
+                    Record rec = root.get(new Key(key));
+                    if (rec == null) {
+                        rec = new Record();
+                        rec.key = key;
+                        rec.data = new byte[dataSize];
+                        root.put(new Key(key), rec);
+                    } else {
+                        rec.value += 1;
+                        rec.data[rec.value % dataSize] = (byte)rec.value;
+                        rec.modify();
+                    }
+                    nUpdates += 1;
+                }
+                db.commit();
+            }
+        }
+    }
+
+    static void compare(Storage master, Storage slave) {
+        Iterator<Record> mi = ((Index<Record>)master.getRoot()).iterator();
+        Iterator<Record> si = ((Index<Record>)slave.getRoot()).iterator();
+        int n = 0;
+        while (mi.hasNext()) {
+            Assert.that(si.hasNext());
+            Record mr = mi.next();
+            Record sr = si.next();
+            Assert.that(mr.key == sr.key && mr.value == sr.value && Arrays.equals(mr.data, sr.data));
+            n += 1;
+        }
+        Assert.that(!si.hasNext());
+        System.out.println("Compared " + n + " records");
+    }
+
+    static public void main(String[] args) throws Exception {
+        ReplicationMasterStorage master =
+            StorageFactory.getInstance().createReplicationMasterStorage(port, new String[0], 0);
+        master.setProperty("perst.file.noflush", Boolean.TRUE);
+        // small page pool: pages are also loaded from the file while slave is catching up
+        master.open("catchupmaster.dbs", pagePoolSize);
+        Index<Record> root = (Index<Record>)master.getRoot();
+        if (root == null) {
+            root = master.<Record>createIndex(int.class, true);
+            master.setRoot(root);
+        } else {
+            root.deallocateMembers();
+        }
+        for (int i = 0; i < nRecords; i++) {
+            Record rec = new Record();
+            rec.key = i*2;
+            rec.data = new byte[dataSize];
+            root.put(new Key(rec.key), rec);
+        }
+        master.commit();
+
+        Writer writer = new Writer(master);
+        writer.start();
+        Thread.sleep(100);
+
+        long start = System.currentTimeMillis();
+        ReplicationSlaveStorage slave =
+            StorageFactory.getInstance().addReplicationSlaveStorage("localhost", port);
+        slave.setProperty("perst.file.noflush", Boolean.TRUE);
+        slave.open("catchupslave.dbs", pagePoolSize);
+
+        // master keeps committing while slave receives pages of the database file
+        while (true) {
+            ReplicationSlaveStatus[] status = master.getSlaveStatus();
+            if (status.length == 1 && status[0].connected && !status[0].synchronizing) {
+                break;
+            }
+            Thread.sleep(10);
+        }
+        System.out.println("Elapsed time for synchronization: " + (System.currentTimeMillis() - start) + " milliseconds");
+        Thread.sleep(100);
+        stop = true;
+        writer.join();
+        System.out.println("Number of updates: " + nUpdates);
+        master.close();
+        while (slave.isConnected()) {
+            Thread.sleep(10);
+        }
+        slave.close();
+
+        master = null;
+        Storage db1 = StorageFactory.getInstance().createStorage();
+        db1.open("catchupmaster.dbs");
+        Storage db2 = StorageFactory.getInstance().createStorage();
+        db2.open("catchupslave.dbs");
+        compare(db1, db2);
+        db1.close();
+        db2.close();
+    }
+}
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestReplicOverflow %1 %2 %3
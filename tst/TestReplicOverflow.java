@@ -0,0 +1,240 @@
+import org.garret.perst.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+public class TestReplicOverflow {
+    static class Record extends Persistent {
+        int key;
+        int value;
+        byte[] data;
+    }
+
+    final static int nRecords = 10000;
+    final static int dataSize = 100;
+    final static int transSize = 100;
+    final static int port = 6040;
+    final static int queueSize = 1024*1024;
+    final static int pagePoolSize = 4*1024*1024;
+    final static int maxTransactions = 100000;
+
+    /**
+     * Proxy between master and slave which can stop delivery of data to the slave,
+     * emulating slow or stalled slave node
+     */
+    static class Proxy extends Thread {
+        ServerSocket acceptor;
+        volatile boolean paused;
+
+        int slavePort;
+
+        Proxy(int proxyPort, int slavePort) throws IOException {
+            this.slavePort = slavePort;
+            acceptor = new ServerSocket(proxyPort);
+        }
+
+        public void run() {
+            try {
+                while (true) {
+                    Socket master = acceptor.accept();
+                    Socket slave = null;
+                    while (slave == null) {
+                        try {
+                            slave = new Socket("localhost", slavePort);
+                        } catch (ConnectException x) {
+                            // slave is still opening its storage
+                            try {
+                                Thread.sleep(10);
+                            } catch (InterruptedException ie) {}
+                        }
+                    }
+                    new Pump(master, slave, true).start();
+                    new Pump(slave, master, false).start();
+                }
+            } catch (IOException x) {}
+        }
+
+        class Pump extends Thread {
+            Socket from;
+            Socket to;
+            boolean fromMaster;
+
+            Pump(Socket from, Socket to, boolean fromMaster) {
+                this.from = from;
+                this.to = to;
+                this.fromMaster = fromMaster;
+            }
+
+            public void run() {
+                byte[] buf = new byte[64*1024];
+                try {
+                    InputStream in = from.getInputStream();
+                    OutputStream out = to.getOutputStream();
+                    while (true) {
+                        while (fromMaster && paused) {
+                            Thread.sleep(10);
+                        }
+                        int rc = in.read(buf);
+                        if (rc < 0) {
+                            break;
+                        }
+                        out.write(buf, 0, rc);
+                    }
+                } catch (Exception x) {}
+                try {
+                    from.close();
+                } catch (IOException x) {}
+                try {
+                    to.close();
+                } catch (IOException x) {}
+            }
+        }
+    }
+
+    static class ReconnectListener extends StorageListener {
+        public boolean replicationError(String host) {
+            return true;
+        }
+    }
+
+    static class SlaveOpener extends Thread {
+        ReplicationSlaveStorage slave;
+
+        SlaveOpener(ReplicationSlaveStorage slave) {
+            this.slave = slave;
+        }
+
+        public void run() {
+            slave.open("overflowslave.dbs", pagePoolSize);
+        }
+    }
+
+    static void update(Storage db, Random rnd) {
+        Index<Record> root = (Index<Record>)db.getRoot();
+        for (int i = 0; i < transSize; i++) {
+            int key = rnd.nextInt(nRecords);
+            Record rec = root.get(new Key(key));
+            if (rec == null) {
+                rec = new Record();
+                rec.key = key;
+                rec.data = new byte[dataSize];
+                root.put(new Key(key), rec);
+            } else {
+                rec.value += 1;
+                rec.data[rec.value % dataSize] = (byte)rec.value;
+                rec.modify();
+            }
+        }
+        db.commit();
+    }
+
+    static void compare(Storage master, Storage slave) {
+        Iterator<Record> mi = ((Index<Record>)master.getRoot()).iterator();
+        Iterator<Record> si = ((Index<Record>)slave.getRoot()).iterator();
+        int n = 0;
+        while (mi.hasNext()) {
+            Assert.that(si.hasNext());
+            Record mr = mi.next();
+            Record sr = si.next();
+            Assert.that(mr.key == sr.key && mr.value == sr.value && Arrays.equals(mr.data, sr.data));
+            n += 1;
+        }
+        Assert.that(!si.hasNext());
+        System.out.println("Compared " + n + " records");
+    }
+
+    static void removeFiles() {
+        new File("overflowmaster.dbs").delete();
+        new File("overflowslave.dbs").delete();
+        new File("overflowmaster.pts").delete();
+        new File("overflowslave.pts").delete();
+    }
+
+    static void test(String policy, boolean timestamps, int slavePort, int proxyPort) throws Exception {
+        removeFiles();
+        Proxy proxy = new Proxy(proxyPort, slavePort);
+        proxy.start();
+
+        ReplicationSlaveStorage slave = StorageFactory.getInstance().createReplicationSlaveStorage(slavePort, timestamps ? "overflowslave.pts" : null);
+        slave.setProperty("perst.file.noflush", Boolean.TRUE);
+        slave.setListener(new ReconnectListener());
+        SlaveOpener opener = new SlaveOpener(slave);
+        opener.start();
+
+        ReplicationMasterStorage master = StorageFactory.getInstance().createReplicationMasterStorage(-1, new String[]{"localhost:" + proxyPort}, 0, timestamps ? "overflowmaster.pts" : null);
+        master.setProperty("perst.file.noflush", Boolean.TRUE);
+        master.setProperty("perst.replication.nio", Boolean.TRUE);
+        master.setProperty("perst.replication.queue.size", Integer.valueOf(queueSize));
+        master.setProperty("perst.replication.overflow", policy);
+        master.setListener(new ReconnectListener());
+        master.open("overflowmaster.dbs", pagePoolSize);
+        Index<Record> root = master.<Record>createIndex(int.class, true);
+        master.setRoot(root);
+        master.commit();
+        opener.join();
+
+        Random rnd = new Random(2012);
+        for (int i = 0; i < 10; i++) {
+            update(master, rnd);
+        }
+
+        // slave stops receiving data: commits should neither block nor fail
+        proxy.paused = true;
+        int nTransactions = 0;
+        long maxCommitTime = 0;
+        ReplicationSlaveStatus status;
+        while (true) {
+            long start = System.currentTimeMillis();
+            update(master, rnd);
+            long commitTime = System.currentTimeMillis() - start;
+            if (commitTime > maxCommitTime) {
+                maxCommitTime = commitTime;
+            }
+            nTransactions += 1;
+            status = master.getSlaveStatus()[0];
+            if ("drop".equals(policy) ? status.nDrops != 0 : status.spilledBytes != 0) {
+                break;
+            }
+            Assert.that(nTransactions < maxTransactions);
+        }
+        System.out.println("Policy " + policy + (timestamps ? " with page timestamps" : "") + " is applied after " + nTransactions + " transactions, maximal commit time " + maxCommitTime + " milliseconds");
+        if ("spill".equals(policy)) {
+            Assert.that(status.connected && status.queuedBytes >= status.spilledBytes);
+        }
+        // master keeps on committing while connection is reestablished and slave is synchronized
+        proxy.paused = false;
+        while (true) {
+            status = master.getSlaveStatus()[0];
+            if (status.connected && !status.synchronizing && status.queuedBytes == 0) {
+                break;
+            }
+            update(master, rnd);
+            Thread.sleep(10);
+        }
+        Assert.that(status.spilledBytes == 0);
+        update(master, rnd);
+        master.close();
+        while (slave.isConnected()) {
+            Thread.sleep(10);
+        }
+        slave.close();
+        proxy.acceptor.close();
+        proxy.join();
+
+        Storage db1 = StorageFactory.getInstance().createStorage();
+        db1.open("overflowmaster.dbs");
+        Storage db2 = StorageFactory.getInstance().createStorage();
+        db2.open("overflowslave.dbs");
+        compare(db1, db2);
+        db1.close();
+        db2.close();
+    }
+
+    static public void main(String[] args) throws Exception {
+        test("spill", false, port, port+1);
+        test("drop", false, port+2, port+3);
+        test("drop", true, port+4, port+5);
+        removeFiles();
+    }
+}
@@ -0,0 +1,99 @@
+import org.garret.perst.*;
+
+public class TestReplicRouter { 
+    static class Record extends Persistent { 
+        int key;
+    }
+    
+    final static int nIterations = 1000;
+    final static int nThreads = 4;
+    final static int nSlaves = 2;
+    final static int basePort = 6020;
+    final static int maxWaitTime = 100;
+    static int pagePoolSize = 32*1024*1024;
+
+    static class TestThread extends Thread { 
+        ReplicationRouter router;
+        int id;
+
+        TestThread(ReplicationRouter router, int id) { 
+            this.router = router;
+            this.id = id;
+        }
+
+        public void run() { 
+            for (int i = 0; i < nIterations; i++) { 
+                int key = i*nThreads + id;
+                Storage db = router.beginWrite();
+                FieldIndex<Record> root = (FieldIndex<Record>)db.getRoot();
+                Record rec = new Record();
+                rec.key = key;
+                root.put(rec);
+                router.endWrite();
+
+                db = router.beginRead();
+                root = (FieldIndex<Record>)db.getRoot();
+                Assert.that(root.get(new Key(key)) != null);
+                router.endRead(db);
+            }
+        }
+    }
+
+    static public void main(String[] args) throws Exception {    
+        final ReplicationSlaveStorage[] slaves = new ReplicationSlaveStorage[nSlaves];
+        Thread[] threads = new Thread[nSlaves];
+        String[] hosts = new String[nSlaves];
+        for (int i = 0; i < nSlaves; i++) { 
+            final int port = basePort + i;
+            hosts[i] = "localhost:" + port;
+            slaves[i] = StorageFactory.getInstance().createReplicationSlaveStorage(port); 
+            slaves[i].setProperty("perst.file.noflush", Boolean.TRUE);
+            final ReplicationSlaveStorage slave = slaves[i];
+            threads[i] = new Thread() { 
+                public void run() { 
+                    slave.open("slave" + port + ".dbs", pagePoolSize);
+                }
+            };
+            threads[i].start();
+        }
+        ReplicationMasterStorage master = 
+            StorageFactory.getInstance().createReplicationMasterStorage(-1, hosts, 0);
+        master.setProperty("perst.file.noflush", Boolean.TRUE);            
+        master.open("master.dbs", pagePoolSize);
+        for (int i = 0; i < nSlaves; i++) { 
+            threads[i].join();
+        }
+        ReplicationRouter router = new ReplicationRouter(master, slaves, ReplicationRouter.ROUTE_BY_LOAD);
+        router.setMaxWaitTime(maxWaitTime);
+        master.beginThreadTransaction(Storage.READ_WRITE_TRANSACTION);
+        FieldIndex<Record> root = (FieldIndex<Record>)master.getRoot();
+        if (root == null) { 
+            root = master.<Record>createFieldIndex(Record.class, "key", true);
+            master.setRoot(root);
+        } else { 
+            root.deallocateMembers();
+        }
+        router.endWrite();
+
+        long start = System.currentTimeMillis();
+        threads = new Thread[nThreads];
+        for (int i = 0; i < nThreads; i++) { 
+            threads[i] = new TestThread(router, i);
+            threads[i].start();
+        }
+        for (int i = 0; i < nThreads; i++) { 
+            threads[i].join();
+        }
+        long[] nTransactions = router.getNumberOfTransactions();
+        for (int i = 0; i < nSlaves; i++) { 
+            System.out.println("Slave " + hosts[i] + " executed " + nTransactions[i] + " read transactions");
+        }
+        System.out.println("Master executed " + nTransactions[nSlaves] + " read transactions");
+        System.out.println("Elapsed time for " + nIterations*nThreads + " iterations: " 
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        master.close();
+        for (int i = 0; i < nSlaves; i++) { 
+            slaves[i].close();
+        }
+    }
+}
@@ -0,0 +1 @@
+java -classpath .;..\lib\perst.jar TestRtreeBulk %1 %2 %3
@@ -0,0 +1,176 @@
+import org.garret.perst.*;
+
+import java.util.*;
+
+public class TestRtreeBulk extends Persistent {
+    static class SpatialObject extends Persistent {
+        int id;
+
+        SpatialObject(int id) {
+            this.id = id;
+        }
+        SpatialObject() {}
+    }
+
+    SpatialIndexR2<SpatialObject> bulkIndex;
+    SpatialIndexR2<SpatialObject> rstarIndex;
+    SpatialIndex<SpatialObject>   intIndex;
+    SpatialIndexRn<SpatialObject> rnIndex;
+
+    final static int nObjects = 100000;
+    final static int nRnObjects = 20000;
+    final static int nRnDimensions = 3;
+    final static int nQueries = 1000;
+
+    static long key = 1999;
+
+    static double random(int range) {
+        key = (3141592621L*key + 2718281829L) % 1000000007L;
+        return key % range;
+    }
+
+    static int search(SpatialIndexR2<SpatialObject> index, RectangleR2[] rects, boolean[] removed) {
+        int total = 0;
+        key = 2011;
+        for (int i = 0; i < nQueries; i++) {
+            double top = random(10000);
+            double left = random(10000);
+            RectangleR2 q = new RectangleR2(top, left, top + random(200), left + random(200));
+            int n = 0;
+            for (SpatialObject so : index.iterator(q)) {
+                Assert.that(!removed[so.id] && q.intersects(rects[so.id]));
+                n += 1;
+            }
+            for (int j = 0; j < rects.length; j++) {
+                if (!removed[j] && q.intersects(rects[j])) {
+                    n -= 1;
+                }
+            }
+            Assert.that(n == 0);
+            total += n;
+        }
+        return total;
+    }
+
+    public static void main(String[] args) {
+        Storage db = StorageFactory.getInstance().createStorage();
+        db.setProperty("perst.rstar.tree", Boolean.TRUE);
+        db.open("testrtreebulk.dbs");
+        TestRtreeBulk root = (TestRtreeBulk)db.getRoot();
+        if (root == null) {
+            root = new TestRtreeBulk();
+            root.bulkIndex = db.<SpatialObject>createSpatialIndexR2();
+            root.rstarIndex = db.<SpatialObject>createSpatialIndexR2();
+            root.intIndex = db.<SpatialObject>createSpatialIndex();
+            root.rnIndex = db.<SpatialObject>createSpatialIndexRn();
+            db.setRoot(root);
+        }
+        RectangleR2[] rects = new RectangleR2[nObjects];
+        SpatialObject[] objs = new SpatialObject[nObjects];
+        boolean[] removed = new boolean[nObjects];
+        for (int i = 0; i < nObjects; i++) {
+            double top = random(10000);
+            double left = random(10000);
+            rects[i] = new RectangleR2(top, left, top + random(50), left + random(50));
+            objs[i] = new SpatialObject(i);
+        }
+
+        long start = System.currentTimeMillis();
+        root.bulkIndex.bulkLoad(rects, objs);
+        db.commit();
+        System.out.println("Elapsed time for bulk loading " + nObjects + " objects: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        start = System.currentTimeMillis();
+        for (int i = 0; i < nObjects; i++) {
+            root.rstarIndex.put(rects[i], objs[i]);
+        }
+        db.commit();
+        System.out.println("Elapsed time for inserting " + nObjects + " objects in R*-tree: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        Assert.that(root.bulkIndex.size() == nObjects && root.rstarIndex.size() == nObjects);
+
+        start = System.currentTimeMillis();
+        search(root.bulkIndex, rects, removed);
+        System.out.println("Elapsed time for " + nQueries + " searches in bulk loaded index: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+        start = System.currentTimeMillis();
+        search(root.rstarIndex, rects, removed);
+        System.out.println("Elapsed time for " + nQueries + " searches in R*-tree: "
+                           + (System.currentTimeMillis() - start) + " milliseconds");
+
+        for (int i = 0; i < nObjects; i += 2) {
+            root.bulkIndex.remove(rects[i], objs[i]);
+            root.rstarIndex.remove(rects[i], objs[i]);
+            removed[i] = true;
+        }
+        db.commit();
+        search(root.bulkIndex, rects, removed);
+        search(root.rstarIndex, rects, removed);
+        int n = 0;
+        for (SpatialObject so : root.bulkIndex) {
+            Assert.that(!removed[so.id]);
+            n += 1;
+        }
+        Assert.that(n == nObjects/2);
+
+        Rectangle[] intRects = new Rectangle[nObjects];
+        for (int i = 0; i < nObjects; i++) {
+            intRects[i] = new Rectangle((int)rects[i].getTop(), (int)rects[i].getLeft(),
+                                        (int)rects[i].getBottom(), (int)rects[i].getRight());
+        }
+        root.intIndex.bulkLoad(intRects, objs);
+        Assert.that(root.intIndex.size() == nObjects);
+        for (int i = 0; i < nQueries; i++) {
+            Rectangle q = intRects[i*(nObjects/nQueries)];
+            n = 0;
+            for (SpatialObject so : root.intIndex.iterator(q)) {
+                Assert.that(q.intersects(intRects[so.id]));
+                n += 1;
+            }
+            for (int j = 0; j < nObjects; j++) {
+                if (q.intersects(intRects[j])) {
+                    n -= 1;
+                }
+            }
+            Assert.that(n == 0);
+        }
+
+        RectangleRn[] rnRects = new RectangleRn[nRnObjects];
+        SpatialObject[] rnObjs = new SpatialObject[nRnObjects];
+        double[] coords = new double[nRnDimensions*2];
+        for (int i = 0; i < nRnObjects; i++) {
+            for (int j = 0; j < nRnDimensions; j++) {
+                coords[j] = random(1000);
+                coords[nRnDimensions + j] = coords[j] + random(20);
+            }
+            rnRects[i] = new RectangleRn(coords);
+            rnObjs[i] = objs[i];
+        }
+        for (int i = 0; i < nRnObjects; i += 2) {
+            root.rnIndex.put(rnRects[i], rnObjs[i]);
+        }
+        // bulk loading of non-empty index inserts objects one by one
+        root.rnIndex.bulkLoad(rnRects, rnObjs);
+        Assert.that(root.rnIndex.size() == nRnObjects + nRnObjects/2);
+        for (int i = 0; i < nRnObjects; i += 2) {
+            root.rnIndex.remove(rnRects[i], rnObjs[i]);
+        }
+        db.commit();
+        for (int i = 0; i < nQueries; i++) {
+            RectangleRn q = rnRects[i*(nRnObjects/nQueries)];
+            n = 0;
+            for (SpatialObject so : root.rnIndex.iterator(q)) {
+                Assert.that(q.intersects(rnRects[so.id]));
+                n += 1;
+            }
+            for (int j = 0; j < nRnObjects; j++) {
+                if (q.intersects(rnRects[j])) {
+                    n -= 1;
+                }
+            }
+            Assert.that(n == 0);
+        }
+        db.close();
+    }
+}
@@ -1 +1 @@
-java -classpath .;..\lib\perst.jar TestTimeSeries
+java -classpath .;..\lib\perst.jar TestTimeSeries %1
@@ -1,3 +1,3 @@
 #!/bin/sh
 
-java -classpath .:../lib/perst.jar TestTimeSeries
+java -classpath .:../lib/perst.jar TestTimeSeries $1
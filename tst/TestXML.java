@@ -20,12 +20,20 @@ public class TestXML {
 
     static public void main(String[] args) throws Exception {   
         Storage db = StorageFactory.getInstance().createStorage();
+        boolean parallel = false;
 
         for (int i = 0; i < args.length; i++) { 
             if ("altbtree".equals(args[i])) { 
                 db.setProperty("perst.alternative.btree", Boolean.TRUE);
+            } else if ("parallel".equals(args[i])) { 
+                parallel = true;
             }
         }
+        if (parallel) { 
+            db.setProperty("perst.xml.export.threads", Integer.valueOf(4));
+            db.setProperty("perst.xml.import.pipeline", Boolean.TRUE);
+            db.setProperty("perst.xml.import.commit.batch", Long.valueOf(10000));
+        }
         db.open("test1.dbs", pagePoolSize);
         Indices root = (Indices)db.getRoot();
         if (root == null) { 
@@ -64,8 +72,21 @@ public class TestXML {
         db.open("test2.dbs", pagePoolSize);
         db.setProperty("perst.xml.reuse.oid", Boolean.TRUE);
 
+        Reader reader;
+        if (parallel) { 
+            // import is committed in batches, but root should be saved only by the final commit
+            reader = new BufferedReader(new FileReader("test.xml"));
+            db.importXML(reader);
+            reader.close();
+            db.rollback();
+            Assert.that(db.getRoot() == null);
+            db.close();
+            new File("test2.dbs").delete();
+            db.open("test2.dbs", pagePoolSize);
+        }
+
         start = System.currentTimeMillis();
-        Reader reader = new BufferedReader(new FileReader("test.xml"));
+        reader = new BufferedReader(new FileReader("test.xml"));
         db.importXML(reader);
         reader.close();
         System.out.println("Elapsed time for XML import " + (System.currentTimeMillis() - start) + " milliseconds");
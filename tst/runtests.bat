@@ -10,6 +10,8 @@ del *.dbs
 call TestPatricia
 del *.dbs
 call TestRegex
+call TestCompressedBitmap
+call TestBitmapIndex
 del *.dbs
 call TestApp
 del *.res
@@ -24,12 +26,16 @@ del *.dbs
 call TestIndex map
 del *.dbz*
 call TestIndex zip
+del *.dbz*
+call TestIndex lz
 del *.dbs
 call TestIndex multifile
 del *.dbs
 call TestIndex gc
 del *.dbs
 call TestIndex2
+call TestBloomFilter
+call TestLinearHash
 call TestRndIndex
 call TestMap
 del *.dbs
@@ -51,9 +57,11 @@ del *.dbs
 call TestIndexIterator altbtree
 call TestRtree
 call TestR2
+call TestRtreeBulk
 call TestTtree
 call TestKDTree
 call TestKDTree2
+call TestNeighbors
 del *.dbs
 call TestKDTree populate
 call TestKDTree populate
@@ -76,6 +84,12 @@ call TestDbServer
 call TestXML
 del *.dbs
 call TestXML altbtree
+del *.dbs
+call TestXML parallel
+del *.dbs
+call TestDump
+del *.dbs
+call TestDump compress
 call TestBackup
 call TestBlob
 call TestBlob
@@ -83,6 +97,9 @@ call CompressDatabase testblob.dbs
 del testblob.dbs
 call TestBlob zip
 del testblob.dbz*
+call TestBlob contiguous
+call TestBlob contiguous
+del testblob.dbs
 call TestRandomBlob
 call TestRandomBlob
 del testrndblob.dbs
@@ -91,6 +108,10 @@ call TestAlloc
 call TestAlloc
 call TestLeak
 call TestTimeSeries
+call TestColumnarTimeSeries
+del testcolts.dbs
+call TestColumnarTimeSeries columnar
+call TestParallelAgg
 call TestBit
 call TestThickIndex
 call TestSet
@@ -104,8 +125,20 @@ call TestVersion
 call TestFullTextIndex
 call TestFullTextIndex
 call TestFullTextIndex reload
+del testfulltext.dbs
+call TestFullTextIndex batch
+call TestParallelSearch
+call TestLegacyFullTextIndex
 start TestReplic master
 call TestReplic slave
+del master.dbs slave.dbs
+start TestReplic master -compress -delta
+call TestReplic slave
+start TestReplic master -nio
+call TestReplic slave
+call TestReplicRouter
+call TestReplicCatchUp
+call TestReplicOverflow
 call TestDynamicObjects
 call TestDynamicObjects populate
 call TestDynamicObjects
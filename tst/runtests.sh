@@ -12,6 +12,8 @@ rm -f *.dbs
 ./TestPatricia.sh 
 rm -f *.dbs
 ./TestRegex.sh
+./TestCompressedBitmap.sh
+./TestBitmapIndex.sh
 rm -f *.dbs *.app *.res
 ./TestIndex.sh
 rm -f *.dbs
@@ -22,12 +24,16 @@ rm -f *.dbs
 ./TestIndex.sh map
 rm -f *.dbz*
 ./TestIndex.sh zip
+rm -f *.dbz*
+./TestIndex.sh lz
 rm -f *.dbs
 ./TestIndex.sh multifile
 rm -f *.dbs
 ./TestIndex.sh gc
 rm -f *.dbs
 ./TestIndex2.sh
+./TestBloomFilter.sh
+./TestLinearHash.sh
 ./TestRndIndex.sh
 ./TestMap.sh
 rm -f *.dbs
@@ -49,9 +55,11 @@ rm -f *.dbs
 ./TestIndexIterator.sh altbtree
 ./TestRtree.sh
 ./TestR2.sh
+./TestRtreeBulk.sh
 ./TestTtree.sh
 ./TestKDTree.sh
 ./TestKDTree2.sh
+./TestNeighbors.sh
 rm -f *.dbs
 ./TestKDTree.sh populate
 ./TestKDTree.sh populate
@@ -74,6 +82,12 @@ rm -f *.dbs
 ./TestXML.sh
 rm -f *.dbs
 ./TestXML.sh altbtree
+rm -f *.dbs
+./TestXML.sh parallel
+rm -f *.dbs
+./TestDump.sh
+rm -f *.dbs
+./TestDump.sh compress
 ./TestBackup.sh
 ./TestBlob.sh
 ./TestBlob.sh
@@ -81,6 +95,9 @@ rm -f *.dbs
 rm testblob.dbs
 ./TestBlob.sh zip
 rm testblob.dbz*
+./TestBlob.sh contiguous
+./TestBlob.sh contiguous
+rm testblob.dbs
 ./TestRandomBlob.sh
 ./TestRandomBlob.sh
 rm -f *.dbs
@@ -89,6 +106,10 @@ rm -f *.dbs
 ./TestAlloc.sh
 ./TestLeak.sh
 ./TestTimeSeries.sh
+./TestColumnarTimeSeries.sh
+rm -f testcolts.dbs
+./TestColumnarTimeSeries.sh columnar
+./TestParallelAgg.sh
 ./TestBit.sh
 ./TestBitmap.sh
 ./TestThickIndex.sh
@@ -103,7 +124,17 @@ rm -f *.dbs
 ./TestFullTextIndex.sh
 ./TestFullTextIndex.sh
 ./TestFullTextIndex.sh reload
+rm -f testfulltext.dbs
+./TestFullTextIndex.sh batch
+./TestParallelSearch.sh
+./TestLegacyFullTextIndex.sh
 ./TestReplic.sh master & ./TestReplic.sh slave
+rm -f master.dbs slave.dbs
+./TestReplic.sh master -compress -delta & ./TestReplic.sh slave
+./TestReplic.sh master -nio & ./TestReplic.sh slave
+./TestReplicRouter.sh
+./TestReplicCatchUp.sh
+./TestReplicOverflow.sh
 ./TestDynamicObjects.sh
 ./TestDynamicObjects.sh populate
 ./TestDynamicObjects.sh 